@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline;
+
+/**
+ * Normalized coefficients of a second order IIR filter section, designed with the formulas from Robert
+ * Bristow-Johnson's Audio EQ Cookbook. Immutable, so one instance can be shared by any number of {@link FilterBank}s.
+ *
+ * @author Paul Danyliuk
+ */
+public final class Biquad {
+
+    /**
+     * Q factor of a second order Butterworth section, i.e. maximally flat pass band
+     */
+    public static final float BUTTERWORTH_Q = 0.70710677f;
+
+    final float b0;
+    final float b1;
+    final float b2;
+    final float a1;
+    final float a2;
+
+    private Biquad(double b0, double b1, double b2, double a0, double a1, double a2) {
+        this.b0 = (float) (b0 / a0);
+        this.b1 = (float) (b1 / a0);
+        this.b2 = (float) (b2 / a0);
+        this.a1 = (float) (a1 / a0);
+        this.a2 = (float) (a2 / a0);
+    }
+
+    /**
+     * Create a low-pass section, e.g. to reduce sensor jitter
+     *
+     * @param sampleRate Sampling rate in Hz
+     * @param cutoff     Cutoff frequency in Hz, below half the sampling rate
+     * @param q          Q factor, e.g. {@link #BUTTERWORTH_Q}
+     * @return Filter section
+     */
+    public static Biquad lowPass(float sampleRate, float cutoff, float q) {
+        final double w0 = omega(sampleRate, cutoff);
+        final double cos = Math.cos(w0);
+        final double alpha = Math.sin(w0) / (2 * q);
+        return new Biquad((1 - cos) / 2, 1 - cos, (1 - cos) / 2, 1 + alpha, -2 * cos, 1 - alpha);
+    }
+
+    /**
+     * Create a high-pass section, e.g. to remove gravity and slow drift
+     *
+     * @param sampleRate Sampling rate in Hz
+     * @param cutoff     Cutoff frequency in Hz, below half the sampling rate
+     * @param q          Q factor, e.g. {@link #BUTTERWORTH_Q}
+     * @return Filter section
+     */
+    public static Biquad highPass(float sampleRate, float cutoff, float q) {
+        final double w0 = omega(sampleRate, cutoff);
+        final double cos = Math.cos(w0);
+        final double alpha = Math.sin(w0) / (2 * q);
+        return new Biquad((1 + cos) / 2, -(1 + cos), (1 + cos) / 2, 1 + alpha, -2 * cos, 1 - alpha);
+    }
+
+    /**
+     * Create a band-pass section with 0 dB peak gain
+     *
+     * @param sampleRate Sampling rate in Hz
+     * @param center     Center frequency in Hz, below half the sampling rate
+     * @param q          Q factor, the higher the narrower the band
+     * @return Filter section
+     */
+    public static Biquad bandPass(float sampleRate, float center, float q) {
+        final double w0 = omega(sampleRate, center);
+        final double alpha = Math.sin(w0) / (2 * q);
+        return new Biquad(alpha, 0, -alpha, 1 + alpha, -2 * Math.cos(w0), 1 - alpha);
+    }
+
+    private static double omega(float sampleRate, float frequency) {
+        if (frequency <= 0 || frequency >= sampleRate / 2) {
+            throw new IllegalArgumentException("Frequency " + frequency + " Hz is out of (0, " + sampleRate / 2
+                    + ") Hz range");
+        }
+        return 2 * Math.PI * frequency / sampleRate;
+    }
+}
@@ -16,8 +16,13 @@
 
 package com.actinarium.kinetic.pipeline;
 
+import android.support.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
+import java.util.Arrays;
 import java.util.Locale;
 
 /**
@@ -29,10 +34,34 @@ public final class CodeGenerator {
 
     public static final String DEFAULT_PACKAGE_NAME = "com.example.kinetic";
 
+    /**
+     * Export lookup table as <code>float[]</code> and use float arithmetic
+     */
+    public static final int EXPORT_FLOAT = 0;
+    /**
+     * Export lookup table as 16-bit fixed point <code>short[]</code> and use integer arithmetic
+     */
+    public static final int EXPORT_FIXED_POINT = 1;
+    /**
+     * Export lookup table only, with a factory for a shared interpolator from Kinetic runtime library
+     */
+    public static final int EXPORT_DATA_ONLY = 2;
+    /**
+     * Export all lookup tables interleaved in a single class, see {@link #generatePackedInterpolatorCode(String,
+     * String, String[], float[][])}. Not applicable to a single table
+     */
+    public static final int EXPORT_PACKED = 3;
+
+    /**
+     * Fully qualified name of the interpolator class from Kinetic runtime library used by data-only exports
+     */
+    public static final String RUNTIME_INTERPOLATOR_CLASS = "com.actinarium.kinetic.runtime.TableInterpolator";
+
     /**
      * Template for a resulting table lookup interpolator. The parameters are: <ol> <li>Package name</li> <li>Class
-     * name</li> <li>Which record was used to generate this interpolator (e.g. Offset - X)</li>  <li>Float values,
-     * delimited with a comma, optionally split into rows of 6</li> </ol>
+     * name</li> <li>Which record was used to generate this interpolator (e.g. Offset - X)</li>  <li>Lookup table
+     * initializer expression, see {@link #formatTableInitializer(String, String[])}</li> <li>Chunk methods, if
+     * any</li> </ol>
      */
     private static final String TABLE_LOOKUP_TEMPLATE = "package %1$s;"
             + "\n"
@@ -52,9 +81,7 @@ public final class CodeGenerator {
             + "\n    /**"
             + "\n     * Lookup table values sampled with x at regular intervals between 0 and 1"
             + "\n     */"
-            + "\n    private static final float[] VALUES = new float[]{"
-            + "\n            %4$s"
-            + "\n    };"
+            + "\n    private static final float[] VALUES = %4$s;"
             + "\n    private static final int STEPS = VALUES.length - 1;"
             + "\n    private static final float STEP_SIZE = 1f / STEPS;"
             + "\n"
@@ -74,9 +101,263 @@ public final class CodeGenerator {
             + "\n"
             + "\n        return VALUES[position] + weight * (VALUES[position + 1] - VALUES[position]);"
             + "\n    }"
+            + "%5$s"
             + "\n"
             + "\n}";
 
+    /**
+     * Template for a fixed point table lookup interpolator. The parameters are: <ol> <li>Package name</li> <li>Class
+     * name</li> <li>Which record was used to generate this interpolator (e.g. Offset - X)</li> <li>Lookup table
+     * initializer expression, see {@link #formatTableInitializer(String, String[])}</li> <li>Number of fractional
+     * bits in table values</li> <li>Maximum quantization error</li> <li>Chunk methods, if any</li> </ol>
+     */
+    private static final String FIXED_POINT_TEMPLATE = "package %1$s;"
+            + "\n"
+            + "\nimport android.view.animation.Interpolator;"
+            + "\n"
+            + "\n/**"
+            + "\n * <p>Natural motion interpolator that uses lookup table sampled at regular intervals"
+            + "\n * and interpolates linearly between lookup table values. Table values are stored in 16-bit"
+            + "\n * fixed point with %5$d fractional bits, maximum quantization error is %6$s.</p>"
+            + "\n *"
+            + "\n * <p>Generated with <a href=\"https://github.com/Actinarium/Kinetic\">Kinetic</a> from"
+            + "\n * <b>%3$s</b> recorded motion."
+            + "\n * Derives from Apache 2.0 licensed code from Android Support v4 Library, specifically"
+            + "\n * {@link android.support.v4.view.animation.LookupTableInterpolator LookupTableInterpolator}</p>"
+            + "\n */"
+            + "\npublic class %2$s implements Interpolator {"
+            + "\n"
+            + "\n    /**"
+            + "\n     * Lookup table values sampled with x at regular intervals between 0 and 1, in fixed point"
+            + "\n     */"
+            + "\n    private static final short[] VALUES = %4$s;"
+            + "\n    private static final int STEPS = VALUES.length - 1;"
+            + "\n    private static final float POSITION_SCALE = STEPS * (float) (1 << 15);"
+            + "\n    private static final float VALUE_SCALE = 1f / (1 << %5$d);"
+            + "\n"
+            + "\n    @Override"
+            + "\n    public float getInterpolation(float input) {"
+            + "\n        if (input >= 1.0f) {"
+            + "\n            return 1.0f;"
+            + "\n        }"
+            + "\n        if (input <= 0f) {"
+            + "\n            return 0f;"
+            + "\n        }"
+            + "\n"
+            + "\n        // Table position with 15 fractional bits: upper bits are the index, lower bits are the weight"
+            + "\n        int position = (int) (input * POSITION_SCALE);"
+            + "\n        int index = Math.min(position >> 15, STEPS - 1);"
+            + "\n        int weight = position - (index << 15);"
+            + "\n"
+            + "\n        int value = VALUES[index];"
+            + "\n        return (value + (((VALUES[index + 1] - value) * weight) >> 15)) * VALUE_SCALE;"
+            + "\n    }"
+            + "%7$s"
+            + "\n"
+            + "\n}";
+
+    /**
+     * Template for a data-only class holding the lookup table. The parameters are: <ol> <li>Package name</li> <li>Class
+     * name</li> <li>Which record was used to generate this interpolator (e.g. Offset - X)</li> <li>Lookup table
+     * initializer expression, see {@link #formatTableInitializer(String, String[])}</li> <li>Fully qualified name of
+     * the runtime interpolator class</li> <li>Chunk methods, if any</li> </ol>
+     */
+    private static final String DATA_ONLY_TEMPLATE = "package %1$s;"
+            + "\n"
+            + "\nimport android.view.animation.Interpolator;"
+            + "\nimport %5$s;"
+            + "\n"
+            + "\n/**"
+            + "\n * <p>Lookup table for natural motion interpolator, sampled at regular intervals. Use {@link #create()}"
+            + "\n * to obtain an interpolator. Requires Kinetic runtime library.</p>"
+            + "\n *"
+            + "\n * <p>Generated with <a href=\"https://github.com/Actinarium/Kinetic\">Kinetic</a> from"
+            + "\n * <b>%3$s</b> recorded motion.</p>"
+            + "\n */"
+            + "\npublic final class %2$s {"
+            + "\n"
+            + "\n    /**"
+            + "\n     * Lookup table values sampled with x at regular intervals between 0 and 1"
+            + "\n     */"
+            + "\n    private static final float[] VALUES = %4$s;"
+            + "\n"
+            + "\n    private %2$s() {}"
+            + "\n"
+            + "\n    public static Interpolator create() {"
+            + "\n        return new TableInterpolator(VALUES);"
+            + "\n    }"
+            + "%6$s"
+            + "\n"
+            + "\n}";
+
+    /**
+     * Template for a class with several interleaved lookup tables. The parameters are: <ol> <li>Package name</li>
+     * <li>Class name</li> <li>Which records were used to generate this interpolator, comma-delimited</li> <li>Lookup
+     * table initializer expression</li> <li>Number of channels</li> <li>Declarations of per-channel constants</li>
+     * <li>Chunk methods, if any</li> </ol>
+     */
+    private static final String PACKED_TEMPLATE = "package %1$s;"
+            + "\n"
+            + "\nimport android.view.animation.Interpolator;"
+            + "\n"
+            + "\n/**"
+            + "\n * <p>Natural motion interpolators for several channels of one recording, packed into a single lookup"
+            + "\n * table sampled at regular intervals, with linear interpolation between lookup table values."
+            + "\n * Channel values are interleaved, so {@link #getInterpolations(float, float[])} evaluates all"
+            + "\n * channels at once with a single index computation. Use per-channel constants where a single"
+            + "\n * {@link Interpolator} is needed.</p>"
+            + "\n *"
+            + "\n * <p>Generated with <a href=\"https://github.com/Actinarium/Kinetic\">Kinetic</a> from"
+            + "\n * <b>%3$s</b> recorded motion."
+            + "\n * Derives from Apache 2.0 licensed code from Android Support v4 Library, specifically"
+            + "\n * {@link android.support.v4.view.animation.LookupTableInterpolator LookupTableInterpolator}</p>"
+            + "\n */"
+            + "\npublic final class %2$s {"
+            + "\n"
+            + "\n    public static final int CHANNELS = %5$d;"
+            + "\n"
+            + "%6$s"
+            + "\n"
+            + "\n    /**"
+            + "\n     * Lookup table values sampled with x at regular intervals between 0 and 1, one row per sample"
+            + "\n     */"
+            + "\n    private static final float[] VALUES = %4$s;"
+            + "\n    private static final int STEPS = VALUES.length / CHANNELS - 1;"
+            + "\n"
+            + "\n    private %2$s() {}"
+            + "\n"
+            + "\n    /**"
+            + "\n     * Evaluates all channels at once"
+            + "\n     *"
+            + "\n     * @param input animation fraction, from 0f to 1f"
+            + "\n     * @param out   array to fill with interpolated values, in the order of channel indices"
+            + "\n     */"
+            + "\n    public static void getInterpolations(float input, float[] out) {"
+            + "\n        if (input >= 1.0f) {"
+            + "\n            for (int channel = 0; channel < CHANNELS; channel++) {"
+            + "\n                out[channel] = 1.0f;"
+            + "\n            }"
+            + "\n            return;"
+            + "\n        }"
+            + "\n        if (input <= 0f) {"
+            + "\n            for (int channel = 0; channel < CHANNELS; channel++) {"
+            + "\n                out[channel] = 0f;"
+            + "\n            }"
+            + "\n            return;"
+            + "\n        }"
+            + "\n"
+            + "\n        float position = input * STEPS;"
+            + "\n        int index = Math.min((int) position, STEPS - 1);"
+            + "\n        float weight = position - index;"
+            + "\n        int offset = index * CHANNELS;"
+            + "\n"
+            + "\n        for (int channel = 0; channel < CHANNELS; channel++) {"
+            + "\n            float value = VALUES[offset + channel];"
+            + "\n            out[channel] = value + weight * (VALUES[offset + CHANNELS + channel] - value);"
+            + "\n        }"
+            + "\n    }"
+            + "\n"
+            + "\n    private static final class Channel implements Interpolator {"
+            + "\n"
+            + "\n        private final int mChannel;"
+            + "\n"
+            + "\n        Channel(int channel) {"
+            + "\n            mChannel = channel;"
+            + "\n        }"
+            + "\n"
+            + "\n        @Override"
+            + "\n        public float getInterpolation(float input) {"
+            + "\n            if (input >= 1.0f) {"
+            + "\n                return 1.0f;"
+            + "\n            }"
+            + "\n            if (input <= 0f) {"
+            + "\n                return 0f;"
+            + "\n            }"
+            + "\n"
+            + "\n            float position = input * STEPS;"
+            + "\n            int index = Math.min((int) position, STEPS - 1);"
+            + "\n            float weight = position - index;"
+            + "\n            int offset = index * CHANNELS + mChannel;"
+            + "\n"
+            + "\n            float value = VALUES[offset];"
+            + "\n            return value + weight * (VALUES[offset + CHANNELS] - value);"
+            + "\n        }"
+            + "\n    }"
+            + "\n"
+            + "%7$s"
+            + "\n"
+            + "\n}";
+
+    /**
+     * Initializer of a lookup table that fits into a single chunk. The parameters are: <ol> <li>Array type</li>
+     * <li>Values, delimited with a comma and split into rows</li> </ol>
+     */
+    private static final String TABLE_TEMPLATE = "new %1$s[]{"
+            + "\n            %2$s"
+            + "\n    }";
+
+    /**
+     * A method returning a chunk of lookup table. The parameters are: <ol> <li>Array type</li> <li>Chunk index</li>
+     * <li>Values, delimited with a comma and split into rows</li> </ol>
+     */
+    private static final String CHUNK_TEMPLATE = ""
+            + "\n"
+            + "\n    private static %1$s[] values%2$d() {"
+            + "\n        return new %1$s[]{"
+            + "\n                %3$s"
+            + "\n        };"
+            + "\n    }";
+
+    /**
+     * A method concatenating lookup table chunks. The parameter is array type
+     */
+    private static final String JOIN_TEMPLATE = ""
+            + "\n"
+            + "\n    /**"
+            + "\n     * Lookup table is split into chunks, since method code size is limited"
+            + "\n     */"
+            + "\n    private static %1$s[] join(%1$s[]... chunks) {"
+            + "\n        int length = 0;"
+            + "\n        for (%1$s[] chunk : chunks) {"
+            + "\n            length += chunk.length;"
+            + "\n        }"
+            + "\n        %1$s[] result = new %1$s[length];"
+            + "\n        int offset = 0;"
+            + "\n        for (%1$s[] chunk : chunks) {"
+            + "\n            System.arraycopy(chunk, 0, result, offset, chunk.length);"
+            + "\n            offset += chunk.length;"
+            + "\n        }"
+            + "\n        return result;"
+            + "\n    }";
+
+    /**
+     * Max number of values in one chunk of lookup table. Each value takes 8 bytes of bytecode to initialize, while
+     * method code size is limited to 64K, so larger tables are split into several methods
+     */
+    private static final int CHUNK_SIZE = 4096;
+
+    /**
+     * Line break and indent between rows of a single chunk table and of a chunk method respectively
+     */
+    private static final String TABLE_LINE_BREAK = "\n            ";
+    private static final String CHUNK_LINE_BREAK = "\n                ";
+
+    /**
+     * Declaration of a channel index constant and a channel interpolator view in packed template. The parameters are:
+     * <ol> <li>Which record was used for this channel</li> <li>Constant name</li> <li>Channel index</li> </ol>
+     */
+    private static final String PACKED_CHANNEL_TEMPLATE = ""
+            + "\n    /**"
+            + "\n     * <b>%1$s</b> channel"
+            + "\n     */"
+            + "\n    public static final int CHANNEL_%2$s = %3$d;"
+            + "\n    public static final Interpolator %2$s = new Channel(CHANNEL_%2$s);";
+
+    /**
+     * Fixed point position uses 15 fractional bits, so the number of steps must fit into the remaining 16 bits of int
+     */
+    private static final int MAX_FIXED_POINT_TABLE_LENGTH = 1 << 16;
+
     /**
      * How many chars a lookup table line takes, given that the format of an individual value is <code>-0.1234f</code>,
      * 6 per row, delimited with comma, and spaces or newline in the end, plus 16 leading spaces for line indents
@@ -88,11 +369,44 @@ public final class CodeGenerator {
      */
     private static final int VALUES_PER_ROW = 6;
 
+    /**
+     * How many short values per row to print. Format of an individual value is <code>-12345</code> padded to 6 chars
+     */
+    private static final int SHORT_VALUES_PER_ROW = 10;
+    private static final int SHORT_CHARS_PER_LINE = 92;
+
     /**
      * Private constructor, to prevent instantiation
      */
     private CodeGenerator() {}
 
+    /**
+     * Generates Java code for a table lookup interpolator based on provided values, in selected export mode
+     *
+     * @param packageName package name to write into the template
+     * @param className   class name to write into the template
+     * @param sourceName  title of the measurement the values were taken from
+     * @param values      an array of float values that must be recorded at equal intervals
+     * @param mode        how to encode the lookup table, e.g. {@link #EXPORT_FLOAT}. Must not be {@link
+     *                    #EXPORT_PACKED}
+     * @return generated drop-in Java code
+     */
+    public static String generateInterpolatorCode(String packageName, String className, String sourceName, float[] values,
+                                                  @ExportMode int mode) {
+        switch (mode) {
+            case EXPORT_FIXED_POINT:
+                return generateFixedPointInterpolatorCode(packageName, className, sourceName, values);
+            case EXPORT_DATA_ONLY:
+                return generateDataOnlyInterpolatorCode(packageName, className, sourceName, values);
+            case EXPORT_PACKED:
+                throw new IllegalArgumentException("Packed export takes several tables, use "
+                        + "generatePackedInterpolatorCode()");
+            case EXPORT_FLOAT:
+            default:
+                return generateInterpolatorCode(packageName, className, sourceName, values);
+        }
+    }
+
     /**
      * Generates Java code for a table lookup interpolator based on provided values
      *
@@ -103,10 +417,185 @@ public final class CodeGenerator {
      * @return generated drop-in Java code
      */
     public static String generateInterpolatorCode(String packageName, String className, String sourceName, float[] values) {
+        final String[] chunks = formatFloatChunks(values, CHUNK_SIZE, VALUES_PER_ROW);
+        return String.format(TABLE_LOOKUP_TEMPLATE, packageName, className, sourceName,
+                formatTableInitializer("float", chunks), formatTableChunks("float", chunks));
+    }
+
+    /**
+     * Generates Java code for a data-only class holding the lookup table based on provided values, and a factory
+     * method returning {@link #RUNTIME_INTERPOLATOR_CLASS} backed by that table
+     *
+     * @param packageName package name to write into the template
+     * @param className   class name to write into the template
+     * @param sourceName  title of the measurement the values were taken from
+     * @param values      an array of float values that must be recorded at equal intervals
+     * @return generated Java code, requiring Kinetic runtime library
+     */
+    public static String generateDataOnlyInterpolatorCode(String packageName, String className, String sourceName,
+                                                          float[] values) {
+        final String[] chunks = formatFloatChunks(values, CHUNK_SIZE, VALUES_PER_ROW);
+        return String.format(DATA_ONLY_TEMPLATE, packageName, className, sourceName,
+                formatTableInitializer("float", chunks), RUNTIME_INTERPOLATOR_CLASS,
+                formatTableChunks("float", chunks));
+    }
+
+    /**
+     * Generates Java code for a class holding several lookup tables, interleaved into one, with a method to evaluate
+     * all of them at once, and per-channel interpolators
+     *
+     * @param packageName package name to write into the template
+     * @param className   class name to write into the template
+     * @param sourceNames titles of the measurements the values were taken from, one per channel
+     * @param channels    arrays of float values that must be recorded at equal intervals, one per channel, all of the
+     *                    same length (see {@link com.actinarium.kinetic.util.LookupTableInterpolator#exportData(int)})
+     * @return generated drop-in Java code
+     */
+    public static String generatePackedInterpolatorCode(String packageName, String className, String[] sourceNames,
+                                                        float[][] channels) {
+        final int channelCount = channels.length;
+        final int length = channels[0].length;
+        for (float[] channel : channels) {
+            if (channel.length != length) {
+                throw new IllegalArgumentException("All channels must have the same number of values");
+            }
+        }
+
+        // Interleave channels so that values of all channels for one sample are adjacent
+        float[] packed = new float[length * channelCount];
+        for (int i = 0; i < length; i++) {
+            for (int channel = 0; channel < channelCount; channel++) {
+                packed[i * channelCount + channel] = channels[channel][i];
+            }
+        }
+
+        StringBuilder channelsBuilder = new StringBuilder(160 * channelCount);
+        StringBuilder titlesBuilder = new StringBuilder(20 * channelCount);
+        for (int channel = 0; channel < channelCount; channel++) {
+            channelsBuilder.append(String.format(Locale.ROOT, PACKED_CHANNEL_TEMPLATE, sourceNames[channel],
+                    toConstantName(sourceNames[channel]), channel));
+            if (channel != 0) {
+                titlesBuilder.append(", ");
+            }
+            titlesBuilder.append(sourceNames[channel]);
+        }
+
+        // Split the table into chunks on sample boundaries, one row per sample
+        final int valuesPerChunk = Math.max(CHUNK_SIZE / channelCount, 1) * channelCount;
+        final String[] chunks = formatFloatChunks(packed, valuesPerChunk, channelCount);
+
+        return String.format(Locale.ROOT, PACKED_TEMPLATE, packageName, className, titlesBuilder.toString(),
+                formatTableInitializer("float", chunks), channelCount, channelsBuilder.toString(),
+                formatTableChunks("float", chunks));
+    }
+
+    /**
+     * Builds lookup table initializer expression: an array initializer if the table fits into a single chunk, or
+     * a concatenation of chunk method calls otherwise
+     *
+     * @param type   array component type
+     * @param chunks formatted chunk values, see {@link #formatFloatChunks(float[], int, int)}
+     * @return expression to assign to the lookup table field
+     */
+    private static String formatTableInitializer(String type, String[] chunks) {
+        if (chunks.length == 1) {
+            return String.format(Locale.ROOT, TABLE_TEMPLATE, type, chunks[0]);
+        }
+        StringBuilder builder = new StringBuilder(12 * chunks.length + 6);
+        builder.append("join(");
+        for (int chunk = 0; chunk < chunks.length; chunk++) {
+            if (chunk != 0) {
+                builder.append(", ");
+            }
+            builder.append("values").append(chunk).append("()");
+        }
+        return builder.append(')').toString();
+    }
+
+    /**
+     * Builds chunk methods and a method to join them, to go along with {@link #formatTableInitializer(String,
+     * String[])}
+     *
+     * @param type   array component type
+     * @param chunks formatted chunk values
+     * @return method declarations, or an empty string if the table fits into a single chunk
+     */
+    private static String formatTableChunks(String type, String[] chunks) {
+        if (chunks.length == 1) {
+            return "";
+        }
+        int capacity = JOIN_TEMPLATE.length();
+        for (String chunk : chunks) {
+            capacity += CHUNK_TEMPLATE.length() + chunk.length();
+        }
+        StringBuilder builder = new StringBuilder(capacity);
+        for (int chunk = 0; chunk < chunks.length; chunk++) {
+            builder.append(String.format(Locale.ROOT, CHUNK_TEMPLATE, type, chunk, chunks[chunk]));
+        }
+        return builder.append(String.format(Locale.ROOT, JOIN_TEMPLATE, type)).toString();
+    }
+
+    /**
+     * Splits float values into chunks, each small enough for its array initializer to fit into a single method, and
+     * formats them
+     *
+     * @param values         an array of float values
+     * @param valuesPerChunk max number of values in one chunk
+     * @param valuesPerRow   how many values to put in one row
+     * @return formatted values of each chunk
+     */
+    private static String[] formatFloatChunks(float[] values, int valuesPerChunk, int valuesPerRow) {
+        final int chunkCount = Math.max((values.length + valuesPerChunk - 1) / valuesPerChunk, 1);
+        final String lineBreak = chunkCount == 1 ? TABLE_LINE_BREAK : CHUNK_LINE_BREAK;
+        String[] chunks = new String[chunkCount];
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            final int from = chunk * valuesPerChunk;
+            chunks[chunk] = formatFloatValues(Arrays.copyOfRange(values, from,
+                    Math.min(from + valuesPerChunk, values.length)), valuesPerRow, lineBreak);
+        }
+        return chunks;
+    }
+
+    /**
+     * Converts measurement title into a Java constant name, e.g. <i>Offset - X</i> to <code>OFFSET_X</code>
+     *
+     * @param title measurement title
+     * @return upper case name with all non-alphanumeric character groups replaced with a single underscore
+     */
+    private static String toConstantName(String title) {
+        StringBuilder builder = new StringBuilder(title.length());
+        boolean pendingUnderscore = false;
+        for (int i = 0; i < title.length(); i++) {
+            final char c = title.charAt(i);
+            if (c < 128 && Character.isLetterOrDigit(c)) {
+                if (pendingUnderscore && builder.length() != 0) {
+                    builder.append('_');
+                }
+                pendingUnderscore = false;
+                builder.append(Character.toUpperCase(c));
+            } else {
+                pendingUnderscore = true;
+            }
+        }
+        if (builder.length() == 0 || Character.isDigit(builder.charAt(0))) {
+            builder.insert(0, "CHANNEL_");
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Formats float values to be put into the lookup table array initializer
+     *
+     * @param values       an array of float values
+     * @param valuesPerRow how many values to put in one row
+     * @param lineBreak    newline followed by indent for the next row
+     * @return values delimited with a comma and split into rows
+     */
+    private static String formatFloatValues(float[] values, int valuesPerRow, String lineBreak) {
         NumberFormat format = DecimalFormat.getNumberInstance(Locale.ROOT);
         format.setMinimumFractionDigits(4);
         format.setMaximumFractionDigits(4);
-        StringBuilder valuesBuilder = new StringBuilder(CHARS_PER_LINE * (values.length / VALUES_PER_ROW + 1));
+        StringBuilder valuesBuilder = new StringBuilder(CHARS_PER_LINE * (values.length / valuesPerRow + 1));
 
         // Append all values but the last one
         final int lengthMinusOne = values.length - 1;
@@ -116,17 +605,121 @@ public final class CodeGenerator {
                 valuesBuilder.append(' ');
             }
             valuesBuilder.append(format.format(values[i])).append('f').append(',');
-            if (++i % VALUES_PER_ROW == 0) {
-                valuesBuilder.append("\n            ");
+            if (++i % valuesPerRow == 0) {
+                valuesBuilder.append(lineBreak);
             } else {
                 valuesBuilder.append(' ');
             }
         }
         // Append last value
         valuesBuilder.append(format.format(values[lengthMinusOne])).append('f');
+        return valuesBuilder.toString();
+    }
+
+    /**
+     * Generates Java code for a table lookup interpolator based on provided values, quantized to 16-bit fixed point.
+     * The number of fractional bits is picked as the largest that still fits the greatest absolute value (including
+     * overshoot beyond 1f) into <code>short</code>, and the resulting maximum quantization error is written into the
+     * class documentation.
+     *
+     * @param packageName package name to write into the template
+     * @param className   class name to write into the template
+     * @param sourceName  title of the measurement the values were taken from
+     * @param values      an array of float values that must be recorded at equal intervals, at most 65536 values
+     * @return generated drop-in Java code
+     */
+    public static String generateFixedPointInterpolatorCode(String packageName, String className, String sourceName,
+                                                            float[] values) {
+        if (values.length > MAX_FIXED_POINT_TABLE_LENGTH) {
+            throw new IllegalArgumentException("Fixed point lookup table cannot have more than "
+                    + MAX_FIXED_POINT_TABLE_LENGTH + " values, got " + values.length);
+        }
+
+        final int fractionBits = getFixedPointFractionBits(values);
+        final float scale = 1 << fractionBits;
+        final float inverseScale = 1f / scale;
+        float maxError = 0f;
+        short[] quantized = new short[values.length];
+        for (int i = 0; i < values.length; i++) {
+            quantized[i] = (short) Math.round(values[i] * scale);
+            final float error = Math.abs(values[i] - quantized[i] * inverseScale);
+            if (error > maxError) {
+                maxError = error;
+            }
+        }
+
+        final int chunkCount = Math.max((quantized.length + CHUNK_SIZE - 1) / CHUNK_SIZE, 1);
+        final String lineBreak = chunkCount == 1 ? TABLE_LINE_BREAK : CHUNK_LINE_BREAK;
+        String[] chunks = new String[chunkCount];
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            final int from = chunk * CHUNK_SIZE;
+            chunks[chunk] = formatShortValues(quantized, from, Math.min(from + CHUNK_SIZE, quantized.length),
+                    lineBreak);
+        }
+
+        NumberFormat errorFormat = DecimalFormat.getNumberInstance(Locale.ROOT);
+        errorFormat.setMaximumFractionDigits(7);
+        return String.format(FIXED_POINT_TEMPLATE, packageName, className, sourceName,
+                formatTableInitializer("short", chunks), fractionBits, errorFormat.format(maxError),
+                formatTableChunks("short", chunks));
+    }
+
+    /**
+     * Formats short values to be put into the lookup table array initializer
+     *
+     * @param values    an array of short values
+     * @param from      index of the first value to format, inclusive
+     * @param to        index of the last value to format, exclusive
+     * @param lineBreak newline followed by indent for the next row
+     * @return values padded to the same width, delimited with a comma and split into rows of 10
+     */
+    private static String formatShortValues(short[] values, int from, int to, String lineBreak) {
+        StringBuilder valuesBuilder = new StringBuilder(
+                SHORT_CHARS_PER_LINE * ((to - from) / SHORT_VALUES_PER_ROW + 1));
+        for (int i = from; i < to; /* incremented in loop body */) {
+            // Pad values to the same width for pretty output
+            final String formatted = Short.toString(values[i]);
+            for (int j = formatted.length(); j < 6; j++) {
+                valuesBuilder.append(' ');
+            }
+            valuesBuilder.append(formatted);
+            if (++i == to) {
+                break;
+            }
+            valuesBuilder.append(',');
+            if ((i - from) % SHORT_VALUES_PER_ROW == 0) {
+                valuesBuilder.append(lineBreak);
+            } else {
+                valuesBuilder.append(' ');
+            }
+        }
+        return valuesBuilder.toString();
+    }
+
+    /**
+     * Determines how many fractional bits a 16-bit fixed point representation of given values can afford
+     *
+     * @param values an array of float values to be quantized
+     * @return the number of fractional bits, from 0 to 15
+     */
+    private static int getFixedPointFractionBits(float[] values) {
+        float maxAbs = 1f;
+        for (float value : values) {
+            final float abs = Math.abs(value);
+            if (abs > maxAbs) {
+                maxAbs = abs;
+            }
+        }
+        int fractionBits = 15;
+        while (fractionBits > 0 && Math.round(maxAbs * (1 << fractionBits)) > Short.MAX_VALUE) {
+            fractionBits--;
+        }
+        return fractionBits;
+    }
 
-        // and generate Java code out of the given template
-        return String.format(TABLE_LOOKUP_TEMPLATE, packageName, className, sourceName, valuesBuilder.toString());
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({EXPORT_FLOAT, EXPORT_FIXED_POINT, EXPORT_DATA_ONLY, EXPORT_PACKED})
+    public @interface ExportMode {
     }
 
 }
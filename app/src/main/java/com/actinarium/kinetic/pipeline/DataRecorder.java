@@ -18,148 +18,328 @@ package com.actinarium.kinetic.pipeline;
 
 import android.content.Context;
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
-import android.hardware.SensorManager;
 import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.IntDef;
-import android.util.Log;
+import com.actinarium.kinetic.pipeline.source.SensorSource;
+import com.actinarium.kinetic.pipeline.source.SystemSensorSource;
 import com.actinarium.kinetic.util.DataSet3;
-import com.actinarium.kinetic.util.DataSet4;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 
 /**
- * Records and holds raw sensor data
+ * Records and holds raw sensor data. Data comes from a {@link SensorSource}: device sensors by default, or a replayed
+ * or synthetic source to exercise the capture path without a device.
+ * <p>
+ * Besides fixed-length recording started with {@link #startRecording()}, the recorder can capture continuously into a
+ * {@link SensorRing} holding the last {@code recordingTimeMillis} of readings: see {@link #startCapture()} and {@link
+ * #snapshot()}. This way the best motion isn't lost if it happens before the user hits record.
  *
  * @author Paul Danyliuk
  */
 public class DataRecorder {
 
-    private static final String TAG = "DataRecorder";
-
     public static final int DEFAULT_RECORDING_TIME_MILLIS = 10000;
     public static final int DEFAULT_SAMPLING_MICROS = 5000;
+    public static final int INGEST_REPORT_INTERVAL_MILLIS = 1000;
 
     public static final int STATUS_FAILURE_NO_SENSOR = -2;
     public static final int STATUS_FAILURE_GENERIC = -1;
     public static final int STATUS_DONE = 0;
     public static final int STATUS_TERMINATED = 1;
     public static final int STATUS_OUT_OF_BOUNDS = 2;
+    public static final int STATUS_SNAPSHOT = 3;
+    public static final int STATUS_SNAPSHOT_TRUNCATED = 4;
 
-    private SensorManager mSensorManager;
-    private Sensor mAccelSensor;
-    private Sensor mGyroSensor;
-    private Sensor mRotVectorSensor;
-
-    private DataSet3 mAccelDataSet;
-    private DataSet3 mGyroDataSet;
-    private DataSet4 mRotVectorDataSet;
-
-    private SensorEventListener mAccelSensorListener;
-    private SensorEventListener mGyroSensorListener;
-    private SensorEventListener mRotVectorSensorListener;
-
-    private Handler mHandler;
+    /**
+     * How often to remember the running gravity estimate during capture, so that a snapshot can start with gravity as
+     * of the start of its window
+     */
+    private static final long GRAVITY_HISTORY_INTERVAL_NANOS = 50000000L;
+
+    private static final int[] REQUIRED_SENSOR_TYPES = {
+            Sensor.TYPE_ACCELEROMETER,
+            Sensor.TYPE_GYROSCOPE,
+            Sensor.TYPE_ROTATION_VECTOR
+    };
+
+    private SensorSource mSource;
+    private int[] mSensorTypes;
+    private FilterBank[] mFilters;
+    private RecordingPool mPool = RecordingPool.getInstance();
+    private SensorChannels mChannels;
+    private SensorSource.Listener mSourceListener;
+    private IngestMonitor mIngestMonitor;
+    private IngestListener mIngestListener;
+    private Runnable mIngestReportRunnable;
+    private SensorRing mRing;
+    private SensorRing mGravityRing;
+    private long mNextGravityTime;
+    private int mDataSize;
+
+    private final Scheduler mScheduler;
+    private final Object mLock = new Object();
     private Runnable mRunnable;
-    private boolean mIsRecording;
+    private volatile boolean mIsRecording;
+    private volatile boolean mIsStopRequested;
+    private volatile boolean mIsCapturing;
+    private boolean mIsGravityPending;
 
     private Callback mCallback;
     private int mRecordingTimeMillis;
     private int mSamplingRateMicros;
 
     private float[] mGravity = new float[3];
+    private float[] mSnapshotGravity = new float[3];
     private static final float ALPHA = 0.8f;
 
     /**
-     * Create and initialize a data recorder component.
+     * Create and initialize a data recorder component recording device sensors. Accelerometer, gyroscope and rotation
+     * vector are always recorded, other sensors are recorded if the device has them.
      *
      * @param context             Context, used to look up sensor manager service
      * @param callback            Callback to report data recording status to
      * @param recordingTimeMillis Time to record sensor values in millis, e.g. {@link #DEFAULT_RECORDING_TIME_MILLIS}
      * @param samplingRateMicros  Sensor sampling rate in micros, e.g. {@link #DEFAULT_SAMPLING_MICROS}
+     * @param optionalSensorTypes Types of additional sensors to record if available, e.g. {@link
+     *                            Sensor#TYPE_LINEAR_ACCELERATION}
      */
-    public DataRecorder(Context context, Callback callback, int recordingTimeMillis, int samplingRateMicros) {
-        mCallback = callback;
+    public DataRecorder(Context context, Callback callback, int recordingTimeMillis, int samplingRateMicros,
+                        int... optionalSensorTypes) {
+        this(new SystemSensorSource(context), callback, recordingTimeMillis, samplingRateMicros, optionalSensorTypes);
+    }
+
+    /**
+     * Create and initialize a data recorder component. Accelerometer, gyroscope and rotation vector are always
+     * recorded, other sensors are recorded if the source has them. Must be created on a thread with a looper, which
+     * will receive callbacks.
+     *
+     * @param source              Source of sensor readings
+     * @param callback            Callback to report data recording status to
+     * @param recordingTimeMillis Time to record sensor values in millis, e.g. {@link #DEFAULT_RECORDING_TIME_MILLIS}
+     * @param samplingRateMicros  Sensor sampling rate in micros, e.g. {@link #DEFAULT_SAMPLING_MICROS}
+     * @param optionalSensorTypes Types of additional sensors to record if available, e.g. {@link
+     *                            Sensor#TYPE_LINEAR_ACCELERATION}
+     */
+    public DataRecorder(SensorSource source, Callback callback, int recordingTimeMillis, int samplingRateMicros,
+                        int... optionalSensorTypes) {
+        this(source, new HandlerScheduler(new Handler()), callback, recordingTimeMillis, samplingRateMicros,
+                optionalSensorTypes);
+    }
 
-        mSensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
-        mAccelSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-        mGyroSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
-        mRotVectorSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR);
+    /**
+     * Create and initialize a data recorder component. Accelerometer, gyroscope and rotation vector are always
+     * recorded, other sensors are recorded if the source has them. Timeouts, periodic reports and stopping requested
+     * by playback sources run on the scheduler's thread, so the recorder must be used on that thread too.
+     *
+     * @param source              Source of sensor readings
+     * @param scheduler           Scheduler running recorder's tasks, e.g. a manually driven one to record playback
+     *                            sources on a plain JVM
+     * @param callback            Callback to report data recording status to
+     * @param recordingTimeMillis Time to record sensor values in millis, e.g. {@link #DEFAULT_RECORDING_TIME_MILLIS}
+     * @param samplingRateMicros  Sensor sampling rate in micros, e.g. {@link #DEFAULT_SAMPLING_MICROS}
+     * @param optionalSensorTypes Types of additional sensors to record if available, e.g. {@link
+     *                            Sensor#TYPE_LINEAR_ACCELERATION}
+     */
+    public DataRecorder(SensorSource source, Scheduler scheduler, Callback callback, int recordingTimeMillis,
+                        int samplingRateMicros, int... optionalSensorTypes) {
+        mCallback = callback;
+        mScheduler = scheduler;
 
-        if (mAccelSensor == null || mGyroSensor == null || mRotVectorSensor == null) {
-            callback.onDataRecordedResult(STATUS_FAILURE_NO_SENSOR, null, null, null, null);
-            return;
+        for (int type : REQUIRED_SENSOR_TYPES) {
+            if (!source.hasSensor(type)) {
+                callback.onDataRecordedResult(STATUS_FAILURE_NO_SENSOR, null, null);
+                return;
+            }
         }
 
+        mSource = source;
         mRecordingTimeMillis = recordingTimeMillis;
         mSamplingRateMicros = samplingRateMicros;
 
         // Based on latency and recording times, how many values we ought to capture, with 20% safety overhead
-        final int dataSize = recordingTimeMillis * 1200 / samplingRateMicros + 1;
-
-        mAccelDataSet = new DataSet3(dataSize);
-        mGyroDataSet = new DataSet3(dataSize);
-        mRotVectorDataSet = new DataSet4(dataSize);
+        mDataSize = recordingTimeMillis * 1200 / samplingRateMicros + 1;
 
-        // Create listeners
-        mAccelSensorListener = new SensorEventListener() {
-            @Override
-            public void onSensorChanged(SensorEvent event) {
-                if (!mIsRecording) {
-                    // While the listener is idle, let's adjust gravity
-                    adjustGravity(event);
-                }
-                if (!mAccelDataSet.put(event)) {
-                    doStop(STATUS_OUT_OF_BOUNDS);
-                }
+        // Data sets are only taken from the pool when recording starts, so just pick the sensors for now
+        int[] sensorTypes = new int[REQUIRED_SENSOR_TYPES.length + optionalSensorTypes.length];
+        int count = 0;
+        for (int type : REQUIRED_SENSOR_TYPES) {
+            sensorTypes[count++] = type;
+        }
+        for (int type : optionalSensorTypes) {
+            if (source.hasSensor(type) && indexOf(sensorTypes, count, type) == -1) {
+                sensorTypes[count++] = type;
             }
+        }
+        mSensorTypes = new int[count];
+        System.arraycopy(sensorTypes, 0, mSensorTypes, 0, count);
+        mFilters = new FilterBank[count];
+
+        // Sensors can't deliver faster than their min delay, so don't count that as drops
+        long[] expectedPeriods = new long[mSensorTypes.length];
+        for (int i = 0; i < expectedPeriods.length; i++) {
+            expectedPeriods[i] = Math.max(samplingRateMicros, source.getMinDelayMicros(mSensorTypes[i])) * 1000L;
+        }
+        mIngestMonitor = new IngestMonitor(expectedPeriods);
 
+        // One listener for all sensors, routing readings to their data sets. Playback sources call it on their own
+        // thread, so recording state is guarded by a lock (uncontended for device sensors)
+        mSourceListener = new SensorSource.Listener() {
             @Override
-            public void onAccuracyChanged(Sensor sensor, int accuracy) { Log.d(TAG, "Accel accuracy: " + accuracy); }
-        };
-
-        mGyroSensorListener = new SensorEventListener() {
-            @Override
-            public void onSensorChanged(SensorEvent event) {
-                if (!mIsRecording) {
-                    return;
-                }
-                if (!mGyroDataSet.put(event)) {
-                    doStop(STATUS_OUT_OF_BOUNDS);
+            public void onSensorData(int sensorType, long timestamp, float[] values) {
+                final long receivedAt = mSource.getTimeNanos();
+                synchronized (mLock) {
+                    if (mIsCapturing) {
+                        final int channel = indexOf(mSensorTypes, mSensorTypes.length, sensorType);
+                        if (channel != -1) {
+                            mIngestMonitor.onEvent(channel, timestamp, receivedAt);
+                            mRing.put(channel, timestamp, values);
+                        }
+                    }
+                    if (!mIsRecording) {
+                        if (sensorType == Sensor.TYPE_ACCELEROMETER) {
+                            // While the listener is idle, let's adjust gravity
+                            adjustGravity(values);
+                            if (mIsCapturing && timestamp >= mNextGravityTime) {
+                                mGravityRing.put(0, timestamp, mGravity);
+                                mNextGravityTime = timestamp + GRAVITY_HISTORY_INTERVAL_NANOS;
+                            }
+                        }
+                        return;
+                    }
+                    final int channel = mChannels.indexOf(sensorType);
+                    if (channel == -1) {
+                        return;
+                    }
+                    if (mIsGravityPending && sensorType == Sensor.TYPE_ACCELEROMETER) {
+                        // No warm-up with playback sources, so assume the recording starts at rest
+                        System.arraycopy(values, 0, mGravity, 0, 3);
+                        mIsGravityPending = false;
+                    }
+                    mIngestMonitor.onEvent(indexOf(mSensorTypes, mSensorTypes.length, sensorType), timestamp,
+                            receivedAt);
+                    if (!mChannels.put(channel, timestamp, values)) {
+                        requestStop(STATUS_OUT_OF_BOUNDS);
+                    }
                 }
             }
 
             @Override
-            public void onAccuracyChanged(Sensor sensor, int accuracy) { Log.d(TAG, "Gyro accuracy: " + accuracy); }
+            public void onSourceFinished() {
+                requestStop(STATUS_DONE);
+            }
         };
+    }
 
-        mRotVectorSensorListener = new SensorEventListener() {
-            @Override
-            public void onSensorChanged(SensorEvent event) {
-                if (!mIsRecording) {
-                    return;
-                }
-                if (!mRotVectorDataSet.put(event)) {
-                    doStop(STATUS_OUT_OF_BOUNDS);
-                }
+    /**
+     * Takes a buffer from the pool and registers recorded sensors in it. Pooled buffers usually have them registered
+     * already, in which case nothing is allocated. Sensors registered by another recorder are unregistered, so that
+     * their empty data sets aren't mistaken for recorded ones
+     */
+    private SensorChannels acquireChannels() {
+        SensorChannels channels = mPool.acquire(mDataSize);
+        channels.retainAll(mSensorTypes);
+        for (int i = 0; i < mSensorTypes.length; i++) {
+            final int type = mSensorTypes[i];
+            if (mSource instanceof SystemSensorSource) {
+                channels.add(((SystemSensorSource) mSource).getSensor(type));
+            } else {
+                channels.add(type);
             }
+            // Also clears filters the buffer may have from another recorder
+            channels.setFilter(type, mFilters[i]);
+        }
+        return channels;
+    }
 
-            @Override
-            public void onAccuracyChanged(Sensor sensor, int accuracy) { Log.d(TAG, "Rotation vector accuracy: " + accuracy); }
-        };
+    private static int indexOf(int[] types, int count, int type) {
+        for (int i = 0; i < count; i++) {
+            if (types[i] == type) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     /**
      * Starts listening on sensors. Call this for warm-up. Will not start recording data - call {@link
-     * #startRecording()} for that
+     * #startRecording()} for that. No-op for playback sources, which start along with recording
      */
     public void startListening() {
-        // todo: enable reporting latency and flush
-        mSensorManager.registerListener(mAccelSensorListener, mAccelSensor, mSamplingRateMicros);
-        mSensorManager.registerListener(mGyroSensorListener, mGyroSensor, mSamplingRateMicros);
-        mSensorManager.registerListener(mRotVectorSensorListener, mRotVectorSensor, mSamplingRateMicros);
+        if (mSensorTypes == null || !mSource.isLive()) {
+            return;
+        }
+        mSource.start(mSensorTypes, mSamplingRateMicros, mSourceListener);
+    }
+
+    /**
+     * Sets a filter to apply to readings of a sensor as they are recorded, including readings copied out of the ring
+     * buffer by {@link #snapshot()}. Takes effect with the next recording. Filter state is reset for each recording,
+     * and the filter is shared by all of them, so it must not be used elsewhere.
+     * <p>
+     * No filters are set by default. Filtered values replace raw readings in the recording, including saved traces,
+     * and a causal filter delays them, so prefer {@link FilterBank#filtFilt(DataSet3, DataSet3)} on the finished
+     * recording unless the readings must be smoothed as they arrive
+     *
+     * @param sensorType Type of a sensor reporting three axes, e.g. {@link Sensor#TYPE_ACCELEROMETER}. Ignored if
+     *                   the sensor is optional and the source doesn't have it
+     * @param filter     Filter bank with 3 channels, or null to record values as is
+     * @see SensorChannels#setFilter(int, FilterBank)
+     */
+    public void setFilter(int sensorType, FilterBank filter) {
+        if (filter != null && (SensorChannels.getAxisCount(sensorType) != 3 || filter.getChannels() != 3)) {
+            throw new IllegalArgumentException("Only three axis sensors can be filtered, with a 3 channel filter bank");
+        }
+        final int index = mSensorTypes != null ? indexOf(mSensorTypes, mSensorTypes.length, sensorType) : -1;
+        if (index == -1) {
+            return;
+        }
+        synchronized (mLock) {
+            mFilters[index] = filter;
+        }
+    }
+
+    /**
+     * Sets the pool to take recording buffers from. Buffers are handed over to the {@link Callback} along with
+     * results, and must be released to this pool by their new owner
+     *
+     * @param pool Pool of recording buffers, {@link RecordingPool#getInstance()} by default
+     */
+    public void setRecordingPool(RecordingPool pool) {
+        mPool = pool;
+    }
+
+    /**
+     * Sets a listener to report sensor ingest health to, both periodically during recording and once it's over
+     *
+     * @param listener Listener, or null to stop reporting
+     */
+    public void setIngestListener(IngestListener listener) {
+        mIngestListener = listener;
+    }
+
+    /**
+     * @return Monitor of sensor event delivery of the current or last recording, or null if there are no sensors
+     */
+    public IngestMonitor getIngestMonitor() {
+        return mIngestMonitor;
+    }
+
+    /**
+     * @return Human readable summary of ingest health of the current or last recording, one sensor per line
+     */
+    public String getIngestSummary() {
+        StringBuilder builder = new StringBuilder();
+        synchronized (mLock) {
+            for (int i = 0; i < mSensorTypes.length; i++) {
+                if (i != 0) {
+                    builder.append('\n');
+                }
+                builder.append(mIngestMonitor.getSummary(i, mSource.getSensorName(mSensorTypes[i])));
+            }
+        }
+        return builder.toString();
     }
 
     /**
@@ -167,35 +347,163 @@ public class DataRecorder {
      */
     public void startRecording() {
         // If trying to record when there are no sensors
-        if (mAccelSensor == null || mGyroSensor == null || mRotVectorSensor == null) {
-            mCallback.onDataRecordedResult(STATUS_FAILURE_NO_SENSOR, null, null, null, null);
+        if (mSensorTypes == null) {
+            mCallback.onDataRecordedResult(STATUS_FAILURE_NO_SENSOR, null, null);
             return;
         }
 
         // If started, throw exception
-        if (mHandler != null || mRunnable != null) {
+        if (mRunnable != null || mIsCapturing) {
             throw new IllegalStateException("Cannot start data recorder - it appears to be started already");
         }
 
-        mAccelDataSet.reset();
-        mGyroDataSet.reset();
-        mRotVectorDataSet.reset();
-
-        mIsRecording = true;
+        synchronized (mLock) {
+            mChannels = acquireChannels();
+            mIngestMonitor.reset();
+            mIsStopRequested = false;
+            mIsGravityPending = !mSource.isLive();
+            mIsRecording = true;
+        }
+        if (!mSource.isLive()) {
+            mSource.start(mSensorTypes, mSamplingRateMicros, mSourceListener);
+        }
 
-        // Register a handler and a runnable to stop listening after the timeout
-        mHandler = new Handler();
+        // Register a runnable to stop listening after the timeout
         mRunnable = new StopListeningRunnable();
-        mHandler.postDelayed(mRunnable, mRecordingTimeMillis);
+        mScheduler.postDelayed(mRunnable, mRecordingTimeMillis);
+        mIngestReportRunnable = new IngestReportRunnable();
+        mScheduler.postDelayed(mIngestReportRunnable, INGEST_REPORT_INTERVAL_MILLIS);
     }
 
     /**
-     * Force stop recording data and unregister the listener
+     * Start capturing data continuously into a ring buffer holding the last {@code recordingTimeMillis} of readings.
+     * Memory use stays the same no matter how long capture goes. Call {@link #snapshot()} to take the buffered window,
+     * and {@link #stopCapture()} or {@link #stop()} when done
+     */
+    public void startCapture() {
+        if (mSensorTypes == null) {
+            mCallback.onDataRecordedResult(STATUS_FAILURE_NO_SENSOR, null, null);
+            return;
+        }
+        if (mRunnable != null || mIsCapturing) {
+            throw new IllegalStateException("Cannot start capture - data recorder appears to be started already");
+        }
+
+        // Allocated once and reused by subsequent captures
+        if (mRing == null) {
+            mRing = new SensorRing(mSensorTypes, mDataSize);
+            mGravityRing = new SensorRing(new int[]{Sensor.TYPE_GRAVITY},
+                    (int) (mRecordingTimeMillis * 1000000L / GRAVITY_HISTORY_INTERVAL_NANOS) + 2);
+        }
+        synchronized (mLock) {
+            mRing.reset();
+            mGravityRing.reset();
+            mNextGravityTime = Long.MIN_VALUE;
+            mIngestMonitor.reset();
+            mIsCapturing = true;
+        }
+        // Live sources may be stopped by a previous recording, and registering sensors twice is harmless
+        mSource.start(mSensorTypes, mSamplingRateMicros, mSourceListener);
+
+        mIngestReportRunnable = new IngestReportRunnable();
+        mScheduler.postDelayed(mIngestReportRunnable, INGEST_REPORT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @return true if data is being captured into the ring buffer
+     */
+    public boolean isCapturing() {
+        return mIsCapturing;
+    }
+
+    /**
+     * Copies the last {@code recordingTimeMillis} of captured readings and delivers them to the callback with {@link
+     * #STATUS_SNAPSHOT}, without stopping capture. If sensors delivered more readings than the buffer can hold, the
+     * oldest ones are lost and the snapshot is delivered with {@link #STATUS_SNAPSHOT_TRUNCATED} instead. Initial
+     * gravity is the running estimate as of the start of the window. Takes time proportional to the window and doesn't
+     * allocate
+     *
+     * @return true if the snapshot was delivered, false if not capturing or nothing's been captured from some of the
+     * required sensors yet
+     */
+    public boolean snapshot() {
+        if (!mIsCapturing) {
+            return false;
+        }
+        final SensorChannels channels = acquireChannels();
+        final boolean isComplete;
+        synchronized (mLock) {
+            isComplete = mRing.copyTo(channels, mRecordingTimeMillis * 1000000L);
+            final DataSet3 accel = channels.get(Sensor.TYPE_ACCELEROMETER);
+            if (accel.length != 0) {
+                mGravityRing.getReadingAt(0, accel.times[0], mSnapshotGravity);
+            }
+        }
+        for (int type : REQUIRED_SENSOR_TYPES) {
+            if (channels.get(type).length == 0) {
+                mPool.release(channels);
+                return false;
+            }
+        }
+
+        if (mIngestListener != null) {
+            mIngestListener.onIngestReport(mIngestMonitor, getIngestSummary(), true);
+        }
+
+        mCallback.onDataRecordedResult(isComplete ? STATUS_SNAPSHOT : STATUS_SNAPSHOT_TRUNCATED, channels,
+                mSnapshotGravity);
+        return true;
+    }
+
+    /**
+     * Stop capturing data into the ring buffer. Live sources keep listening, as after {@link #startListening()}
+     */
+    public void stopCapture() {
+        if (!mIsCapturing) {
+            return;
+        }
+        synchronized (mLock) {
+            mIsCapturing = false;
+        }
+        mScheduler.removeCallbacks(mIngestReportRunnable);
+        mIngestReportRunnable = null;
+        if (!mSource.isLive()) {
+            mSource.stop();
+        }
+    }
+
+    /**
+     * Force stop recording or capturing data and unregister the listener
      */
     public void stop() {
+        if (mIsCapturing) {
+            stopCapture();
+            mSource.stop();
+        }
         doStop(STATUS_TERMINATED);
     }
 
+    /**
+     * Called from the source listener when recording should be terminated. Playback sources call it on their own
+     * thread, in which case stopping is posted to the recorder's thread
+     */
+    private void requestStop(@Status final int status) {
+        if (mIsStopRequested) {
+            return;
+        }
+        mIsStopRequested = true;
+        if (mScheduler.isCurrentThread()) {
+            doStop(status);
+        } else {
+            mScheduler.post(new Runnable() {
+                @Override
+                public void run() {
+                    doStop(status);
+                }
+            });
+        }
+    }
+
     /**
      * Called internally when data recording should be terminated for any reason
      */
@@ -204,25 +512,33 @@ public class DataRecorder {
             return;
         }
 
-        mIsRecording = false;
+        synchronized (mLock) {
+            mIsRecording = false;
+        }
 
-        if (mHandler != null && mRunnable != null) {
-            mHandler.removeCallbacks(mRunnable);
-            mHandler = null;
+        if (mRunnable != null) {
+            mScheduler.removeCallbacks(mRunnable);
+            mScheduler.removeCallbacks(mIngestReportRunnable);
             mRunnable = null;
+            mIngestReportRunnable = null;
         }
 
-        mSensorManager.unregisterListener(mAccelSensorListener);
-        mSensorManager.unregisterListener(mGyroSensorListener);
-        mSensorManager.unregisterListener(mRotVectorSensorListener);
+        mSource.stop();
+
+        if (mIngestListener != null) {
+            mIngestListener.onIngestReport(mIngestMonitor, getIngestSummary(), true);
+        }
 
-        mCallback.onDataRecordedResult(status, mAccelDataSet, mGyroDataSet, mRotVectorDataSet, mGravity);
+        // Hand the buffer over, the next recording will take another one
+        final SensorChannels channels = mChannels;
+        mChannels = null;
+        mCallback.onDataRecordedResult(status, channels, mGravity);
     }
 
-    private void adjustGravity(SensorEvent event) {
-        mGravity[0] = ALPHA * mGravity[0] + (1 - ALPHA) * event.values[0];
-        mGravity[1] = ALPHA * mGravity[1] + (1 - ALPHA) * event.values[1];
-        mGravity[2] = ALPHA * mGravity[2] + (1 - ALPHA) * event.values[2];
+    private void adjustGravity(float[] values) {
+        mGravity[0] = ALPHA * mGravity[0] + (1 - ALPHA) * values[0];
+        mGravity[1] = ALPHA * mGravity[1] + (1 - ALPHA) * values[1];
+        mGravity[2] = ALPHA * mGravity[2] + (1 - ALPHA) * values[2];
     }
 
     /**
@@ -231,20 +547,106 @@ public class DataRecorder {
     public interface Callback {
 
         /**
-         * Called when data recorder status is determined. All arguments are mutable and reusable, so you should neither
-         * change nor hold onto them.
+         * Called when data recorder status is determined. Recorded data is handed over to the callback, while gravity
+         * is mutable and reusable, so you should neither change nor hold onto it.
+         *
+         * @param status   Reported status
+         * @param channels Holds recorded data for each sensor, by sensor type. Always has accelerometer, gyroscope
+         *                 and rotation vector data unless status is a failure, in which case it's null. Owned by the
+         *                 callback from now on, and must be released to the recorder's {@link RecordingPool} once
+         *                 no longer needed
+         * @param gravity  Initial gravity as of the start of recording or snapshot window
+         */
+        void onDataRecordedResult(@Status int status, SensorChannels channels, float[] gravity);
+    }
+
+    /**
+     * Listener of sensor ingest health, to tell when the device or the main thread is starving the sensors
+     */
+    public interface IngestListener {
+
+        /**
+         * Called every {@link #INGEST_REPORT_INTERVAL_MILLIS} during recording and once when it's over, before the
+         * recording result is delivered
+         *
+         * @param monitor Monitor with measurements so far. Mutable and reused, so don't hold onto it
+         * @param summary Human readable summary of measurements
+         * @param isFinal true if recording is over
+         */
+        void onIngestReport(IngestMonitor monitor, String summary, boolean isFinal);
+    }
+
+    /**
+     * Runs recorder's tasks on the thread the recorder is used on. Abstracts {@link Handler}, so that the recorder can
+     * be driven without a looper
+     */
+    public interface Scheduler {
+
+        /**
+         * @return true if called on the thread this scheduler runs tasks on
+         */
+        boolean isCurrentThread();
+
+        /**
+         * Runs a task on this scheduler's thread as soon as possible. May be called from any thread
          *
-         * @param status        Reported status
-         * @param accelData     Holds recorded data for accelerometer values
-         * @param gyroData      Holds recorded data for gyroscope values
-         * @param rotVectorData Holds recorded data for rotation vector values
-         * @param gravity       Initial gravity as of the start of recording
+         * @param task Task to run
          */
-        void onDataRecordedResult(@Status int status, DataSet3 accelData, DataSet3 gyroData, DataSet4 rotVectorData, float[] gravity);
+        void post(Runnable task);
+
+        /**
+         * Runs a task on this scheduler's thread after a delay
+         *
+         * @param task        Task to run
+         * @param delayMillis Delay in millis
+         */
+        void postDelayed(Runnable task, long delayMillis);
+
+        /**
+         * Cancels pending runs of a task
+         *
+         * @param task Task posted before, or null to do nothing
+         */
+        void removeCallbacks(Runnable task);
+    }
+
+    /**
+     * Scheduler running tasks on a {@link Handler}'s looper thread
+     */
+    private static final class HandlerScheduler implements Scheduler {
+
+        private final Handler mHandler;
+
+        HandlerScheduler(Handler handler) {
+            mHandler = handler;
+        }
+
+        @Override
+        public boolean isCurrentThread() {
+            return Looper.myLooper() == mHandler.getLooper();
+        }
+
+        @Override
+        public void post(Runnable task) {
+            mHandler.post(task);
+        }
+
+        @Override
+        public void postDelayed(Runnable task, long delayMillis) {
+            mHandler.postDelayed(task, delayMillis);
+        }
+
+        @Override
+        public void removeCallbacks(Runnable task) {
+            if (task != null) {
+                mHandler.removeCallbacks(task);
+            }
+        }
     }
 
     @Retention(RetentionPolicy.SOURCE)
-    @IntDef({STATUS_DONE, STATUS_TERMINATED, STATUS_OUT_OF_BOUNDS, STATUS_FAILURE_GENERIC, STATUS_FAILURE_NO_SENSOR})
+    @IntDef({STATUS_DONE, STATUS_TERMINATED, STATUS_OUT_OF_BOUNDS, STATUS_SNAPSHOT, STATUS_SNAPSHOT_TRUNCATED,
+            STATUS_FAILURE_GENERIC, STATUS_FAILURE_NO_SENSOR})
     public @interface Status {
     }
 
@@ -254,4 +656,14 @@ public class DataRecorder {
             DataRecorder.this.doStop(STATUS_DONE);
         }
     }
+
+    private class IngestReportRunnable implements Runnable {
+        @Override
+        public void run() {
+            if (mIngestListener != null) {
+                mIngestListener.onIngestReport(mIngestMonitor, getIngestSummary(), false);
+            }
+            mScheduler.postDelayed(this, INGEST_REPORT_INTERVAL_MILLIS);
+        }
+    }
 }
@@ -20,6 +20,7 @@ import android.hardware.SensorManager;
 import android.opengl.Matrix;
 import com.actinarium.kinetic.util.DataSet3;
 import com.actinarium.kinetic.util.DataSet4;
+import com.actinarium.kinetic.util.TimelineIndex;
 
 /**
  * Utility class that performs various processing and transformation on provided sensor data, such as integrating
@@ -29,8 +30,6 @@ import com.actinarium.kinetic.util.DataSet4;
  */
 public final class DataTransformer {
 
-    private static final long NANOS_IN_SECONDS = 1000000000;
-
     /**
      * Private constructor, to prevent instantiation
      */
@@ -40,34 +39,60 @@ public final class DataTransformer {
      * Integrates the data set, replacing existing data with integrated values and assuming starting values are 0.
      * Used to calculate velocity from acceleration and then once again to get offsets from velocity
      *
-     * todo: write to another data set instead of all this variable swapping
-     *
      * @param dataSet The data set containing acceleration vectors, will be mutated to contain calculation result.
      */
     public static void integrate(DataSet3 dataSet) {
-        // Remember previous acceleration, because we're going to overwrite values in the data set itself
-        float ax = dataSet.valuesX[0];
-        float ay = dataSet.valuesY[0];
-        float az = dataSet.valuesZ[0];
-        float vx, vy, vz;
+        integrate(dataSet, dataSet);
+    }
+
+    /**
+     * Integrates the data set into another data set, assuming starting values are 0. Timestamps are copied over.
+     *
+     * @param dataSetIn  The data set containing values to integrate, will not be changed unless also used as output
+     * @param dataSetOut The data set to write integrated values to, must be large enough. Can safely reuse input data
+     *                   set to overwrite data
+     */
+    public static void integrate(DataSet3 dataSetIn, DataSet3 dataSetOut) {
+        final int length = dataSetIn.length;
+        if (dataSetIn != dataSetOut) {
+            System.arraycopy(dataSetIn.times, 0, dataSetOut.times, 0, length);
+            dataSetOut.length = length;
+            dataSetOut.invalidateTimeDeltas();
+        }
+
+        // Time deltas are cached in the data set, so that all three channels (and the second pass when integrating
+        // velocity into offset) share them, and the loops below are plain multiply-adds
+        final float[] dt = dataSetIn.getTimeDeltas();
+        integrate(dataSetIn.valuesX, dataSetOut.valuesX, dt, length);
+        integrate(dataSetIn.valuesY, dataSetOut.valuesY, dt, length);
+        integrate(dataSetIn.valuesZ, dataSetOut.valuesZ, dt, length);
+    }
 
-        // Assume the device is at rest when we start recording. There's no way to determine initial velocity anyways
-        dataSet.valuesX[0] = 0;
-        dataSet.valuesY[0] = 0;
-        dataSet.valuesZ[0] = 0;
+    /**
+     * Integrates a single value set with the trapezoidal rule. Input and output may be the same array
+     *
+     * @param in     Values to integrate
+     * @param out    Array to write integrated values to
+     * @param dt     Time deltas in seconds, see {@link DataSet3#getTimeDeltas()}
+     * @param length Number of values
+     */
+    static void integrate(float[] in, float[] out, float[] dt, int length) {
+        if (length == 0) {
+            return;
+        }
+        // Assume the device is at rest when we start recording. There's no way to determine initial velocity anyways.
+        // Remember previous value, because we may be overwriting values in the input array itself
+        float prev = in[0];
+        float sum = 0;
+        out[0] = 0;
 
         // Calculate the area under the data set function, assuming dt is small enough and a(x) is linear between points
-        for (int i = 1; i < dataSet.length; i++) {
+        for (int i = 1; i < length; i++) {
             // dv = a(t) * dt; v = v0 + (a + a0)(t - t0)/2
-            vx = dataSet.valuesX[i - 1] + (ax + dataSet.valuesX[i]) * (dataSet.times[i] - dataSet.times[i - 1]) / 2 / NANOS_IN_SECONDS;
-            vy = dataSet.valuesY[i - 1] + (ay + dataSet.valuesY[i]) * (dataSet.times[i] - dataSet.times[i - 1]) / 2 / NANOS_IN_SECONDS;
-            vz = dataSet.valuesZ[i - 1] + (az + dataSet.valuesZ[i]) * (dataSet.times[i] - dataSet.times[i - 1]) / 2 / NANOS_IN_SECONDS;
-            ax = dataSet.valuesX[i];
-            ay = dataSet.valuesY[i];
-            az = dataSet.valuesZ[i];
-            dataSet.valuesX[i] = vx;
-            dataSet.valuesY[i] = vy;
-            dataSet.valuesZ[i] = vz;
+            final float value = in[i];
+            sum += (prev + value) * dt[i] * 0.5f;
+            prev = value;
+            out[i] = sum;
         }
     }
 
@@ -77,10 +102,26 @@ public final class DataTransformer {
      *
      * @param accelDataIn   Input accelerometer data to filter
      * @param rotVectorData Rotation vector data, used to determine gravity vector
-     * @param accelDataOut  Output data set. Can safely reuse input data set to overwrite data
+     * @param accelDataOut  Output data set, timestamps are copied over. Can safely reuse input data set to overwrite data
      * @param gravity       Averaged gravity readings, accurate as of recording start
      */
     public static void removeGravityFromRaw(DataSet3 accelDataIn, DataSet4 rotVectorData, DataSet3 accelDataOut, float[] gravity) {
+        removeGravityFromRaw(accelDataIn, rotVectorData, TimelineIndex.build(accelDataIn, rotVectorData), accelDataOut,
+                gravity);
+    }
+
+    /**
+     * Same as {@link #removeGravityFromRaw(DataSet3, DataSet4, DataSet3, float[])}, but takes rotation vectors aligned
+     * to accelerometer events from a prebuilt index instead of looking them up
+     *
+     * @param accelDataIn   Input accelerometer data to filter
+     * @param rotVectorData Rotation vector data, used to determine gravity vector
+     * @param timeline      Index mapping accelerometer events onto rotation vector data
+     * @param accelDataOut  Output data set, timestamps are copied over. Can safely reuse input data set to overwrite data
+     * @param gravity       Averaged gravity readings, accurate as of recording start
+     */
+    public static void removeGravityFromRaw(DataSet3 accelDataIn, DataSet4 rotVectorData, TimelineIndex timeline,
+                                            DataSet3 accelDataOut, float[] gravity) {
         // An array to hold the temporary rotation matrix for each measurement
         float[] matrix = new float[16];
         float[] transposed = new float[16];
@@ -92,16 +133,22 @@ public final class DataTransformer {
         rv[8] = gravity[0];
         rv[9] = gravity[1];
         rv[10] = gravity[2];
-        rotVectorData.getForTime(0, rv);
+        // Use own cursor so that concurrent readers of the same rotation vector data don't interfere
+        rotVectorData.getForTime(0, rv, new DataSet3.Cursor());
         SensorManager.getRotationMatrixFromVector(matrix, rv);
         // Transposing a rotation matrix is the same as inverting one, but faster
         Matrix.transposeM(transposed, 0, matrix, 0);
         Matrix.multiplyMV(rv, 4, transposed, 0, rv, 8);
 
+        if (accelDataIn != accelDataOut) {
+            System.arraycopy(accelDataIn.times, 0, accelDataOut.times, 0, accelDataIn.length);
+            accelDataOut.length = accelDataIn.length;
+            accelDataOut.invalidateTimeDeltas();
+        }
+
         // Now for each acceleration vector rotate it to match world coordinates
-        rotVectorData.resetForInterpolatedRead();
         for (int i = 0; i < accelDataIn.length; i++) {
-            rotVectorData.getForTime(accelDataIn.times[i], rv);
+            timeline.getValues(rotVectorData, i, rv);
             SensorManager.getRotationMatrixFromVector(matrix, rv);
             Matrix.multiplyMV(rv, 8, matrix, 0, rv, 4);
             accelDataOut.valuesX[i] = accelDataIn.valuesX[i] - rv[8];
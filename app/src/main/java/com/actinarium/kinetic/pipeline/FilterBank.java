@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline;
+
+import com.actinarium.kinetic.util.DataSet3;
+
+/**
+ * A cascade of {@link Biquad} sections applied to several channels independently. Filter state is kept in a flat
+ * primitive array, and filtering a sample is a handful of multiply-adds per section with no allocations, so it's cheap
+ * enough to run on the sensor ingest path at the highest rates. Sections use transposed direct form II, which has the
+ * best numeric behavior in single precision.
+ *
+ * @author Paul Danyliuk
+ */
+public final class FilterBank {
+
+    private final int mChannels;
+    private final int mSectionCount;
+    // Coefficients of all sections, b0, b1, b2, a1, a2 for each, in the order of application
+    private final float[] mCoefficients;
+    // Two state variables per section per channel: [channel][section][z1, z2]
+    private final float[] mState;
+    private final boolean[] mIsPrimed;
+
+    /**
+     * Create a filter bank
+     *
+     * @param channels Number of independent channels, e.g. 3 for X, Y and Z
+     * @param sections Filter sections to apply one after another, e.g. two low-pass sections for a 4th order filter
+     */
+    public FilterBank(int channels, Biquad... sections) {
+        if (sections.length == 0) {
+            throw new IllegalArgumentException("At least one filter section is required");
+        }
+        mChannels = channels;
+        mSectionCount = sections.length;
+        mCoefficients = new float[sections.length * 5];
+        for (int i = 0; i < sections.length; i++) {
+            final Biquad section = sections[i];
+            mCoefficients[i * 5] = section.b0;
+            mCoefficients[i * 5 + 1] = section.b1;
+            mCoefficients[i * 5 + 2] = section.b2;
+            mCoefficients[i * 5 + 3] = section.a1;
+            mCoefficients[i * 5 + 4] = section.a2;
+        }
+        mState = new float[channels * sections.length * 2];
+        mIsPrimed = new boolean[channels];
+    }
+
+    /**
+     * Create a filter bank with the same sections as this one and fresh state
+     *
+     * @param channels Number of channels in the new bank
+     * @return A new filter bank
+     */
+    public FilterBank copy(int channels) {
+        return new FilterBank(channels, mCoefficients);
+    }
+
+    /**
+     * Create a filter bank applying sections of this one and then sections of the other one, with fresh state
+     *
+     * @param next Filter bank to apply after this one
+     * @return A new filter bank with the same number of channels as this one
+     */
+    public FilterBank then(FilterBank next) {
+        float[] coefficients = new float[mCoefficients.length + next.mCoefficients.length];
+        System.arraycopy(mCoefficients, 0, coefficients, 0, mCoefficients.length);
+        System.arraycopy(next.mCoefficients, 0, coefficients, mCoefficients.length, next.mCoefficients.length);
+        return new FilterBank(mChannels, coefficients);
+    }
+
+    private FilterBank(int channels, float[] coefficients) {
+        mChannels = channels;
+        mSectionCount = coefficients.length / 5;
+        mCoefficients = coefficients;
+        mState = new float[channels * mSectionCount * 2];
+        mIsPrimed = new boolean[channels];
+    }
+
+    public int getChannels() {
+        return mChannels;
+    }
+
+    /**
+     * Clears filter state, so that the next sample of each channel starts it anew
+     */
+    public void reset() {
+        for (int i = 0; i < mChannels; i++) {
+            mIsPrimed[i] = false;
+        }
+    }
+
+    /**
+     * Filters the next sample of a channel
+     *
+     * @param channel Channel index
+     * @param value   Input sample
+     * @return Filtered sample
+     */
+    public float process(int channel, float value) {
+        if (!mIsPrimed[channel]) {
+            prime(channel, value);
+        }
+        final float[] c = mCoefficients;
+        final float[] z = mState;
+        int zi = channel * mSectionCount * 2;
+        float x = value;
+        for (int ci = 0; ci < c.length; ci += 5, zi += 2) {
+            final float y = c[ci] * x + z[zi];
+            z[zi] = c[ci + 1] * x - c[ci + 3] * y + z[zi + 1];
+            z[zi + 1] = c[ci + 2] * x - c[ci + 4] * y;
+            x = y;
+        }
+        return x;
+    }
+
+    /**
+     * Filters a run of samples of a channel in place
+     *
+     * @param channel Channel index
+     * @param values  Array of samples
+     * @param start   Index of the first sample
+     * @param end     Index after the last sample
+     */
+    public void process(int channel, float[] values, int start, int end) {
+        for (int i = start; i < end; i++) {
+            values[i] = process(channel, values[i]);
+        }
+    }
+
+    /**
+     * Filters a run of samples of a channel in place, from the end to the start
+     *
+     * @param channel Channel index
+     * @param values  Array of samples
+     * @param start   Index of the first sample
+     * @param end     Index after the last sample
+     */
+    public void processBackwards(int channel, float[] values, int start, int end) {
+        for (int i = end - 1; i >= start; i--) {
+            values[i] = process(channel, values[i]);
+        }
+    }
+
+    /**
+     * Applies the filter forward and then backward over a data set, which cancels out phase shift (delay) and squares
+     * the magnitude response. Only possible offline, when the whole recording is available. Filter state is reset
+     * before and after.
+     *
+     * @param dataSetIn  The data set containing values to filter, will not be changed unless also used as output
+     * @param dataSetOut The data set to write filtered values to, must be large enough. Can safely reuse input data set
+     *                   to overwrite data
+     */
+    public void filtFilt(DataSet3 dataSetIn, DataSet3 dataSetOut) {
+        if (mChannels < 3) {
+            throw new IllegalStateException("Filter bank must have 3 channels to filter a data set");
+        }
+        final int length = dataSetIn.length;
+        if (dataSetIn != dataSetOut) {
+            System.arraycopy(dataSetIn.times, 0, dataSetOut.times, 0, length);
+            System.arraycopy(dataSetIn.valuesX, 0, dataSetOut.valuesX, 0, length);
+            System.arraycopy(dataSetIn.valuesY, 0, dataSetOut.valuesY, 0, length);
+            System.arraycopy(dataSetIn.valuesZ, 0, dataSetOut.valuesZ, 0, length);
+            dataSetOut.length = length;
+            dataSetOut.invalidateTimeDeltas();
+        }
+
+        reset();
+        process(0, dataSetOut.valuesX, 0, length);
+        process(1, dataSetOut.valuesY, 0, length);
+        process(2, dataSetOut.valuesZ, 0, length);
+        reset();
+        processBackwards(0, dataSetOut.valuesX, 0, length);
+        processBackwards(1, dataSetOut.valuesY, 0, length);
+        processBackwards(2, dataSetOut.valuesZ, 0, length);
+        reset();
+    }
+
+    /**
+     * Sets state of a channel as if it had been receiving the given value forever, to avoid a start-up transient
+     */
+    private void prime(int channel, float value) {
+        final float[] c = mCoefficients;
+        final float[] z = mState;
+        int zi = channel * mSectionCount * 2;
+        float x = value;
+        for (int ci = 0; ci < c.length; ci += 5, zi += 2) {
+            // Steady state output of a section is its DC gain times input
+            final float y = x * (c[ci] + c[ci + 1] + c[ci + 2]) / (1 + c[ci + 3] + c[ci + 4]);
+            z[zi] = y - c[ci] * x;
+            z[zi + 1] = c[ci + 2] * x - c[ci + 4] * y;
+            x = y;
+        }
+        mIsPrimed[channel] = true;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline;
+
+import java.util.Locale;
+
+/**
+ * <p>Health monitor of sensor event delivery. For each channel it measures:</p>
+ * <ul>
+ * <li>delivery latency, i.e. how long after its timestamp an event reached the listener;</li>
+ * <li>jitter, as a fixed-bucket histogram of intervals between consecutive event timestamps, with buckets a quarter of
+ * the expected period wide;</li>
+ * <li>drops, i.e. how many samples are missing judging by gaps longer than the expected period.</li>
+ * </ul>
+ * <p>All state is preallocated, so recording an event doesn't allocate. The monitor is not thread safe: it's meant to
+ * be updated and read on the thread sensor events are delivered to.</p>
+ *
+ * @author Paul Danyliuk
+ */
+public final class IngestMonitor {
+
+    /**
+     * Number of histogram buckets per expected period
+     */
+    public static final int BUCKETS_PER_PERIOD = 4;
+    /**
+     * Total number of histogram buckets. The last one also counts all intervals longer than it
+     */
+    public static final int BUCKET_COUNT = 4 * BUCKETS_PER_PERIOD;
+
+    /**
+     * A gap is considered a drop if it's this many times longer than the expected period
+     */
+    private static final float DROP_FACTOR = 1.5f;
+
+    private final int mChannelCount;
+    private final long[] mExpectedPeriods;
+    private final long[] mLastTimestamps;
+    private final int[] mSampleCounts;
+    private final int[] mDropCounts;
+    private final long[] mLatencySums;
+    private final long[] mMaxLatencies;
+    private final int[] mHistograms;
+
+    /**
+     * Create a monitor
+     *
+     * @param expectedPeriodsNanos Expected interval between events of each channel, in nanos
+     */
+    public IngestMonitor(long... expectedPeriodsNanos) {
+        mChannelCount = expectedPeriodsNanos.length;
+        mExpectedPeriods = expectedPeriodsNanos.clone();
+        mLastTimestamps = new long[mChannelCount];
+        mSampleCounts = new int[mChannelCount];
+        mDropCounts = new int[mChannelCount];
+        mLatencySums = new long[mChannelCount];
+        mMaxLatencies = new long[mChannelCount];
+        mHistograms = new int[mChannelCount * BUCKET_COUNT];
+    }
+
+    /**
+     * Records receipt of an event
+     *
+     * @param channel    Channel index
+     * @param timestamp  Event timestamp, in nanos
+     * @param receivedAt Time the event was received, in nanos and in the same time base as event timestamps (that is,
+     *                   {@link android.os.SystemClock#elapsedRealtimeNanos()})
+     */
+    public void onEvent(int channel, long timestamp, long receivedAt) {
+        final long latency = receivedAt - timestamp;
+        mLatencySums[channel] += latency;
+        if (latency > mMaxLatencies[channel]) {
+            mMaxLatencies[channel] = latency;
+        }
+
+        if (mSampleCounts[channel]++ != 0) {
+            final long interval = timestamp - mLastTimestamps[channel];
+            final long period = mExpectedPeriods[channel];
+            int bucket = (int) (interval * BUCKETS_PER_PERIOD / period);
+            if (bucket < 0) {
+                bucket = 0;
+            } else if (bucket >= BUCKET_COUNT) {
+                bucket = BUCKET_COUNT - 1;
+            }
+            mHistograms[channel * BUCKET_COUNT + bucket]++;
+
+            if (interval > period * DROP_FACTOR) {
+                // The gap may span several missed samples
+                mDropCounts[channel] += (int) ((interval + period / 2) / period) - 1;
+            }
+        }
+        mLastTimestamps[channel] = timestamp;
+    }
+
+    /**
+     * Clears all measurements
+     */
+    public void reset() {
+        for (int i = 0; i < mChannelCount; i++) {
+            mLastTimestamps[i] = 0;
+            mSampleCounts[i] = 0;
+            mDropCounts[i] = 0;
+            mLatencySums[i] = 0;
+            mMaxLatencies[i] = 0;
+        }
+        for (int i = 0; i < mHistograms.length; i++) {
+            mHistograms[i] = 0;
+        }
+    }
+
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    public long getExpectedPeriodNanos(int channel) {
+        return mExpectedPeriods[channel];
+    }
+
+    public int getSampleCount(int channel) {
+        return mSampleCounts[channel];
+    }
+
+    /**
+     * @param channel Channel index
+     * @return Estimated number of samples missing between the received ones
+     */
+    public int getDropCount(int channel) {
+        return mDropCounts[channel];
+    }
+
+    public long getMeanLatencyNanos(int channel) {
+        return mSampleCounts[channel] == 0 ? 0 : mLatencySums[channel] / mSampleCounts[channel];
+    }
+
+    public long getMaxLatencyNanos(int channel) {
+        return mMaxLatencies[channel];
+    }
+
+    /**
+     * @param channel Channel index
+     * @return Width of each histogram bucket, in nanos
+     */
+    public long getBucketWidthNanos(int channel) {
+        return mExpectedPeriods[channel] / BUCKETS_PER_PERIOD;
+    }
+
+    /**
+     * Copies interval histogram of the channel. Bucket <code>i</code> counts intervals from <code>i</code> to
+     * <code>i + 1</code> bucket widths long
+     *
+     * @param channel Channel index
+     * @param out     Array of at least {@link #BUCKET_COUNT} elements to copy counts to
+     */
+    public void getHistogram(int channel, int[] out) {
+        System.arraycopy(mHistograms, channel * BUCKET_COUNT, out, 0, BUCKET_COUNT);
+    }
+
+    /**
+     * Estimates a percentile of intervals between events from the histogram
+     *
+     * @param channel  Channel index
+     * @param fraction Percentile as a fraction, e.g. 0.99f
+     * @return Upper bound of the histogram bucket the percentile falls into, in nanos, or 0 if there are no intervals
+     */
+    public long getIntervalPercentileNanos(int channel, float fraction) {
+        final int intervals = mSampleCounts[channel] - 1;
+        if (intervals <= 0) {
+            return 0;
+        }
+        final int target = (int) Math.ceil(intervals * fraction);
+        final int offset = channel * BUCKET_COUNT;
+        int count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += mHistograms[offset + i];
+            if (count >= target) {
+                return (i + 1) * getBucketWidthNanos(channel);
+            }
+        }
+        return BUCKET_COUNT * getBucketWidthNanos(channel);
+    }
+
+    /**
+     * @param channel Channel index
+     * @param name    Channel name to print
+     * @return Human readable single line summary of the channel
+     */
+    public String getSummary(int channel, String name) {
+        return String.format(Locale.US,
+                "%s: %d samples, %d dropped, latency %.2f/%.2f ms, interval p50 %.2f p99 %.2f ms", name,
+                mSampleCounts[channel], mDropCounts[channel], getMeanLatencyNanos(channel) / 1e6f,
+                mMaxLatencies[channel] / 1e6f, getIntervalPercentileNanos(channel, 0.5f) / 1e6f,
+                getIntervalPercentileNanos(channel, 0.99f) / 1e6f);
+    }
+}
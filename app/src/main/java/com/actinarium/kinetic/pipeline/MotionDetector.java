@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline;
+
+import com.actinarium.kinetic.util.DataSet3;
+
+/**
+ * Finds where the motion begins and ends in a recording, so that the idle head and tail can be trimmed automatically.
+ * Activity is measured as variance of each axis over a short sliding window, summed across axes and updated in O(1)
+ * per event with running sums. Whatever rises noticeably above the quietest window is considered motion.
+ *
+ * @author Paul Danyliuk
+ */
+public final class MotionDetector {
+
+    /**
+     * Default sliding window length, long enough to smooth out jitter but short enough not to blur the motion edges
+     */
+    public static final long DEFAULT_WINDOW_NANOS = 100000000L;
+
+    /**
+     * Portion of the range between the quietest and the most active window that counts as motion
+     */
+    private static final float THRESHOLD = 0.05f;
+
+    /**
+     * Private constructor, to prevent instantiation
+     */
+    private MotionDetector() {}
+
+    /**
+     * Detects the motion window in linear acceleration and angular velocity data. The resulting window is the union of
+     * windows detected in each of the sensors, extended by half of the sliding window on each side.
+     *
+     * @param accelData   Linear acceleration, i.e. with gravity removed
+     * @param gyroData    Raw gyroscope data
+     * @param windowNanos Sliding window length, e.g. {@link #DEFAULT_WINDOW_NANOS}
+     * @param out         Array of 2 to write start and end timestamps of the motion to
+     * @return true if motion was detected, false if the recording is idle throughout or too short, in which case out
+     * is not changed
+     */
+    public static boolean detect(DataSet3 accelData, DataSet3 gyroData, long windowNanos, long[] out) {
+        // Use out as scratch space for each sensor, so that nothing is allocated
+        long start = Long.MAX_VALUE;
+        long end = Long.MIN_VALUE;
+        if (detect(accelData, windowNanos, out)) {
+            start = out[0];
+            end = out[1];
+        }
+        if (detect(gyroData, windowNanos, out)) {
+            start = Math.min(start, out[0]);
+            end = Math.max(end, out[1]);
+        }
+        if (start == Long.MAX_VALUE) {
+            // Neither detect() call has touched out
+            return false;
+        }
+        out[0] = start - windowNanos / 2;
+        out[1] = end + windowNanos / 2;
+        return true;
+    }
+
+    /**
+     * Detects the motion window in a single data set
+     *
+     * @param data        Sensor data
+     * @param windowNanos Sliding window length
+     * @param out         Array of 2 to write start and end timestamps of the motion to
+     * @return true if motion was detected
+     */
+    public static boolean detect(DataSet3 data, long windowNanos, long[] out) {
+        final int length = data.length;
+        if (length < 3) {
+            return false;
+        }
+        final long[] times = data.times;
+
+        // The threshold depends on the quietest and the most active windows of the whole recording, so the windows are
+        // scanned twice. Activity is recomputed rather than stored, so that nothing is allocated per event
+        float min = Float.MAX_VALUE;
+        float max = 0;
+        WindowScanner scanner = new WindowScanner(data, windowNanos);
+        for (int i = 0; i < length; i++) {
+            final float value = scanner.next();
+            // Skip windows that haven't filled up yet when looking for the noise floor
+            if (times[i] - times[0] >= windowNanos && value < min) {
+                min = value;
+            }
+            if (value > max) {
+                max = value;
+            }
+        }
+        if (min == Float.MAX_VALUE || max <= min) {
+            return false;
+        }
+
+        final float threshold = min + (max - min) * THRESHOLD;
+        int first = -1;
+        int last = -1;
+        scanner = new WindowScanner(data, windowNanos);
+        for (int i = 0; i < length; i++) {
+            if (scanner.next() > threshold) {
+                if (first == -1) {
+                    first = i;
+                }
+                last = i;
+            }
+        }
+        if (first == -1) {
+            return false;
+        }
+
+        // Activity is computed for windows ending at each event, so motion starts a window before it first shows up
+        out[0] = Math.max(times[first] - windowNanos, times[0]);
+        out[1] = times[last];
+        return true;
+    }
+
+    /**
+     * Computes activity of a sliding window ending at each event in turn, in O(1) per event
+     */
+    private static final class WindowScanner {
+
+        private final long[] mTimes;
+        private final float[] mX;
+        private final float[] mY;
+        private final float[] mZ;
+        private final long mWindowNanos;
+
+        // Running sums are in doubles to avoid catastrophic cancellation
+        private double mSumX, mSumY, mSumZ;
+        private double mSumSqX, mSumSqY, mSumSqZ;
+        private int mTail;
+        private int mHead;
+
+        WindowScanner(DataSet3 data, long windowNanos) {
+            mTimes = data.times;
+            mX = data.valuesX;
+            mY = data.valuesY;
+            mZ = data.valuesZ;
+            mWindowNanos = windowNanos;
+        }
+
+        /**
+         * @return Variance of the window ending at the next event, summed across axes
+         */
+        float next() {
+            final int i = mHead++;
+            final float[] x = mX;
+            final float[] y = mY;
+            final float[] z = mZ;
+            mSumX += x[i];
+            mSumY += y[i];
+            mSumZ += z[i];
+            mSumSqX += x[i] * x[i];
+            mSumSqY += y[i] * y[i];
+            mSumSqZ += z[i] * z[i];
+            while (mTimes[i] - mTimes[mTail] > mWindowNanos) {
+                final int tail = mTail++;
+                mSumX -= x[tail];
+                mSumY -= y[tail];
+                mSumZ -= z[tail];
+                mSumSqX -= x[tail] * x[tail];
+                mSumSqY -= y[tail] * y[tail];
+                mSumSqZ -= z[tail] * z[tail];
+            }
+            final int count = i - mTail + 1;
+            final double variance = (mSumSqX - mSumX * mSumX / count) + (mSumSqY - mSumY * mSumY / count)
+                    + (mSumSqZ - mSumZ * mSumZ / count);
+            return (float) Math.max(variance / count, 0);
+        }
+    }
+}
@@ -0,0 +1,453 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline;
+
+import android.hardware.Sensor;
+import com.actinarium.kinetic.util.DataSet3;
+import com.actinarium.kinetic.util.DataSet4;
+import com.actinarium.kinetic.util.TimelineIndex;
+
+/**
+ * Non-destructive processing graph of a single recording. Holds raw sensor data and lazily derives linear
+ * acceleration, velocity, offset and phase from it, memoizing intermediate results. Changing a parameter (e.g. gravity)
+ * recomputes only the stages downstream of it, without re-recording.
+ * <p>
+ * A graph created from a pooled recording buffer owns it and uses raw data in place. Call {@link #release()} once the
+ * graph is no longer needed to return the buffer to its pool. Data getters return null afterwards, so that a worker
+ * still holding the graph can tell it's gone rather than read a buffer reused by the next recording.
+ * <p>
+ * The graph is not thread safe. To hand it over to a worker, call {@link #beginUse()} before and {@link #endUse()}
+ * after the work, and don't call data getters on other threads in between. Releasing the graph meanwhile never waits
+ * for the worker: the buffer and memoized results are kept until the use ends.
+ *
+ * @author Paul Danyliuk
+ */
+public class MotionGraph {
+
+    /**
+     * Default memory budget for memoized stage outputs. Enough to keep all stages of a few minutes long recording
+     */
+    public static final long DEFAULT_CACHE_BYTES = 8 * 1024 * 1024;
+
+    private final StageCache mCache;
+
+    private final Stage.Source<DataSet3> mRawAccel;
+    private final Stage.Source<DataSet3> mRawGyro;
+    private final Stage.Source<DataSet4> mRawRotVector;
+
+    private final Stage.Source<DataSet3> mHardwareLinearAccel;
+
+    private final TimelineStage mRotVectorTimeline;
+    private final GravityStage mGravityStage;
+    private final Stage<DataSet3> mLinearAccel;
+    private final IntegrateStage mVelocity;
+    private final IntegrateStage mOffset;
+    private final IntegrateStage mPhase;
+
+    private SensorChannels mOwnedChannels;
+    private final RecordingPool mPool;
+    private volatile boolean mIsReleased;
+    private int mUseCount;
+
+    /**
+     * Create a processing graph for a recording, with {@link #DEFAULT_CACHE_BYTES default} memory budget. Raw data is
+     * copied, so provided data sets can be reused afterwards.
+     *
+     * @param accelData     Raw accelerometer data
+     * @param gyroData      Raw gyroscope data
+     * @param rotVectorData Raw rotation vector data
+     * @param gravity       Initial gravity as of the start of recording
+     */
+    public MotionGraph(DataSet3 accelData, DataSet3 gyroData, DataSet4 rotVectorData, float[] gravity) {
+        this(accelData, gyroData, rotVectorData, gravity, DEFAULT_CACHE_BYTES);
+    }
+
+    /**
+     * Create a processing graph for a recording. Raw data is copied, so provided data sets can be reused afterwards.
+     *
+     * @param accelData     Raw accelerometer data
+     * @param gyroData      Raw gyroscope data
+     * @param rotVectorData Raw rotation vector data
+     * @param gravity       Initial gravity as of the start of recording
+     * @param cacheBytes    Memory budget for memoized intermediate results
+     */
+    public MotionGraph(DataSet3 accelData, DataSet3 gyroData, DataSet4 rotVectorData, float[] gravity,
+                       long cacheBytes) {
+        this(accelData, gyroData, rotVectorData, null, gravity, cacheBytes);
+    }
+
+    /**
+     * Create a processing graph for a recording. Raw data is copied, so provided data sets can be reused afterwards.
+     *
+     * @param accelData       Raw accelerometer data
+     * @param gyroData        Raw gyroscope data
+     * @param rotVectorData   Raw rotation vector data
+     * @param linearAccelData Linear acceleration reported by the hardware sensor fusion, or null or empty if not
+     *                        available. If provided, it's used instead of removing gravity from raw accelerometer data
+     *                        in software
+     * @param gravity         Initial gravity as of the start of recording
+     * @param cacheBytes      Memory budget for memoized intermediate results
+     */
+    public MotionGraph(DataSet3 accelData, DataSet3 gyroData, DataSet4 rotVectorData, DataSet3 linearAccelData,
+                       float[] gravity, long cacheBytes) {
+        this(new DataSet3(accelData), new DataSet3(gyroData), new DataSet4(rotVectorData),
+                linearAccelData != null ? new DataSet3(linearAccelData) : null, gravity, cacheBytes, null, null);
+        PipelineMetrics.recordAllocation(sizeOf(accelData) + sizeOf(gyroData) + sizeOf(rotVectorData)
+                + (linearAccelData != null ? sizeOf(linearAccelData) : 0));
+    }
+
+    /**
+     * Create a processing graph for a recording, taking ownership of its buffer. Raw data is used in place, so the
+     * buffer must not be modified or reused until {@link #release()}, which returns it to the pool.
+     *
+     * @param channels   Recording buffer with accelerometer, gyroscope and rotation vector data, and optionally
+     *                   hardware linear acceleration, as delivered by {@link DataRecorder.Callback}
+     * @param pool       Pool the buffer was acquired from
+     * @param gravity    Initial gravity as of the start of recording
+     * @param cacheBytes Memory budget for memoized intermediate results
+     */
+    public MotionGraph(SensorChannels channels, RecordingPool pool, float[] gravity, long cacheBytes) {
+        this(channels.get(Sensor.TYPE_ACCELEROMETER), channels.get(Sensor.TYPE_GYROSCOPE),
+                (DataSet4) channels.get(Sensor.TYPE_ROTATION_VECTOR), channels.get(Sensor.TYPE_LINEAR_ACCELERATION),
+                gravity, cacheBytes, channels, pool);
+    }
+
+    private MotionGraph(DataSet3 accelData, DataSet3 gyroData, DataSet4 rotVectorData, DataSet3 linearAccelData,
+                        float[] gravity, long cacheBytes, SensorChannels ownedChannels, RecordingPool pool) {
+        mCache = new StageCache(cacheBytes);
+        mOwnedChannels = ownedChannels;
+        mPool = pool;
+
+        mRawAccel = new Stage.Source<>(accelData);
+        mRawGyro = new Stage.Source<>(gyroData);
+        mRawRotVector = new Stage.Source<>(rotVectorData);
+
+        mRotVectorTimeline = new TimelineStage(mCache, mRawAccel, mRawRotVector);
+        mGravityStage = new GravityStage(mCache, mRawAccel, mRawRotVector, mRotVectorTimeline, gravity);
+        // Registered sensors may still deliver nothing, so treat empty data as absent and remove gravity ourselves
+        if (linearAccelData != null && linearAccelData.length != 0) {
+            mHardwareLinearAccel = new Stage.Source<>(linearAccelData);
+            mLinearAccel = mHardwareLinearAccel;
+        } else {
+            mHardwareLinearAccel = null;
+            mLinearAccel = mGravityStage;
+        }
+        mVelocity = new IntegrateStage(mCache, mLinearAccel, PipelineMetrics.STAGE_VELOCITY);
+        mOffset = new IntegrateStage(mCache, mVelocity, PipelineMetrics.STAGE_OFFSET);
+        mPhase = new IntegrateStage(mCache, mRawGyro, PipelineMetrics.STAGE_PHASE);
+    }
+
+    public DataSet3 getRawAccelData() {
+        return mIsReleased ? null : mRawAccel.get();
+    }
+
+    public DataSet3 getRawGyroData() {
+        return mIsReleased ? null : mRawGyro.get();
+    }
+
+    public DataSet4 getRawRotVectorData() {
+        return mIsReleased ? null : mRawRotVector.get();
+    }
+
+    /**
+     * @return Linear acceleration reported by the hardware, or null if gravity is removed in software
+     */
+    public DataSet3 getHardwareLinearAccelData() {
+        return mHardwareLinearAccel != null && !mIsReleased ? mHardwareLinearAccel.get() : null;
+    }
+
+    /**
+     * @return Index aligning accelerometer events to rotation vector data. Must not be modified
+     */
+    public TimelineIndex getRotVectorTimeline() {
+        return mIsReleased ? null : mRotVectorTimeline.get();
+    }
+
+    /**
+     * Reuse a previously built (e.g. persisted with the recording) index instead of building it again. Ignored if the
+     * index doesn't match the raw data
+     *
+     * @param timeline Index aligning accelerometer events to rotation vector data
+     */
+    public void restoreRotVectorTimeline(TimelineIndex timeline) {
+        mRotVectorTimeline.restore(timeline);
+    }
+
+    public float[] getGravity() {
+        return mGravityStage.getGravity();
+    }
+
+    /**
+     * Set gravity to subtract from raw accelerometer data. Invalidates linear acceleration, velocity and offset, unless
+     * linear acceleration comes from the hardware
+     *
+     * @param gravity Gravity vector as of the start of recording
+     */
+    public void setGravity(float[] gravity) {
+        mGravityStage.setGravity(gravity);
+    }
+
+    /**
+     * Use multiple threads to integrate long recordings. Doesn't invalidate already computed results, since they are
+     * equivalent
+     *
+     * @param integrator Parallel integrator, or null to integrate sequentially on the calling thread
+     */
+    public void setParallelIntegrator(ParallelIntegrator integrator) {
+        mVelocity.mIntegrator = integrator;
+        mOffset.mIntegrator = integrator;
+        mPhase.mIntegrator = integrator;
+    }
+
+    /**
+     * @return Accelerometer data with gravity removed. Must not be modified
+     */
+    public DataSet3 getLinearAcceleration() {
+        return mIsReleased ? null : mLinearAccel.get();
+    }
+
+    /**
+     * @return Velocity, integrated from linear acceleration. Must not be modified
+     */
+    public DataSet3 getVelocity() {
+        return mIsReleased ? null : mVelocity.get();
+    }
+
+    /**
+     * @return Offset, integrated from velocity. Must not be modified
+     */
+    public DataSet3 getOffset() {
+        return mIsReleased ? null : mOffset.get();
+    }
+
+    /**
+     * @return Rotation phase, integrated from gyroscope data. Must not be modified
+     */
+    public DataSet3 getPhase() {
+        return mIsReleased ? null : mPhase.get();
+    }
+
+    /**
+     * @return true if {@link #release()} has been called
+     */
+    public boolean isReleased() {
+        return mIsReleased;
+    }
+
+    /**
+     * Marks the start of work with this graph, e.g. on a worker thread. Until the matching {@link #endUse()}, a release
+     * keeps the recording buffer and memoized results, so that the work in progress doesn't read a reused buffer
+     *
+     * @return false if the graph is released already, in which case {@link #endUse()} must not be called
+     */
+    public synchronized boolean beginUse() {
+        if (mIsReleased) {
+            return false;
+        }
+        mUseCount++;
+        return true;
+    }
+
+    /**
+     * Marks the end of work started with {@link #beginUse()}. Completes the release if it was requested meanwhile
+     */
+    public synchronized void endUse() {
+        if (mUseCount == 0) {
+            throw new IllegalStateException("Motion graph is not in use");
+        }
+        mUseCount--;
+        if (mUseCount == 0 && mIsReleased) {
+            recycle();
+        }
+    }
+
+    /**
+     * @return true if work started with {@link #beginUse()} hasn't ended yet
+     */
+    public synchronized boolean isInUse() {
+        return mUseCount > 0;
+    }
+
+    /**
+     * Drops all memoized intermediate results, e.g. on low memory. Raw data is retained
+     */
+    public void trimMemory() {
+        mCache.clear();
+    }
+
+    /**
+     * Drops memoized results and returns the recording buffer to its pool, if the graph owns one. Data getters return
+     * null afterwards. If the graph is {@link #isInUse() in use}, that's done when the last use ends
+     */
+    public synchronized void release() {
+        mIsReleased = true;
+        if (mUseCount == 0) {
+            recycle();
+        }
+    }
+
+    private void recycle() {
+        mCache.clear();
+        if (mOwnedChannels != null) {
+            mPool.release(mOwnedChannels);
+            mOwnedChannels = null;
+        }
+    }
+
+    static long sizeOf(DataSet3 dataSet) {
+        // long timestamp plus three float values per event, plus cached time delta and inverse interval
+        return dataSet.length * 28L;
+    }
+
+    /**
+     * Aligns one raw stream to another, see {@link TimelineIndex}
+     */
+    private static final class TimelineStage extends Stage<TimelineIndex> {
+
+        private final Stage<? extends DataSet3> mTarget;
+        private final Stage<? extends DataSet3> mSource;
+        private TimelineIndex mRestored;
+
+        TimelineStage(StageCache cache, Stage<? extends DataSet3> target, Stage<? extends DataSet3> source) {
+            super(cache, target, source);
+            mTarget = target;
+            mSource = source;
+        }
+
+        void restore(TimelineIndex timeline) {
+            if (timeline != null && timeline.isValidFor(mTarget.get(), mSource.get())) {
+                mRestored = timeline;
+            }
+        }
+
+        @Override
+        protected TimelineIndex compute() {
+            if (mRestored != null) {
+                // Raw data never changes, so the restored index stays valid
+                return mRestored;
+            }
+            final DataSet3 target = mTarget.get();
+            final DataSet3 source = mSource.get();
+            final TimelineIndex result;
+            final long start = PipelineMetrics.begin(PipelineMetrics.STAGE_TIMELINE);
+            try {
+                result = TimelineIndex.build(target, source);
+            } finally {
+                PipelineMetrics.end(PipelineMetrics.STAGE_TIMELINE, start, target.length);
+            }
+            PipelineMetrics.recordAllocation(sizeOf(result));
+            return result;
+        }
+
+        @Override
+        protected long sizeOf(TimelineIndex output) {
+            // int index and float weight per event
+            return output.getLength() * 8L;
+        }
+    }
+
+    /**
+     * Removes gravity from raw accelerometer data, see {@link DataTransformer#removeGravityFromRaw(DataSet3, DataSet4,
+     * DataSet3, float[])}
+     */
+    private static final class GravityStage extends Stage<DataSet3> {
+
+        private final Stage<DataSet3> mAccel;
+        private final Stage<DataSet4> mRotVector;
+        private final Stage<TimelineIndex> mTimeline;
+        private final float[] mGravity = new float[3];
+
+        GravityStage(StageCache cache, Stage<DataSet3> accel, Stage<DataSet4> rotVector, Stage<TimelineIndex> timeline,
+                     float[] gravity) {
+            super(cache, accel, rotVector, timeline);
+            mAccel = accel;
+            mRotVector = rotVector;
+            mTimeline = timeline;
+            System.arraycopy(gravity, 0, mGravity, 0, 3);
+        }
+
+        float[] getGravity() {
+            return mGravity.clone();
+        }
+
+        void setGravity(float[] gravity) {
+            System.arraycopy(gravity, 0, mGravity, 0, 3);
+            invalidate();
+        }
+
+        @Override
+        protected DataSet3 compute() {
+            final DataSet3 accel = mAccel.get();
+            final DataSet4 rotVector = mRotVector.get();
+            final TimelineIndex timeline = mTimeline.get();
+            DataSet3 result = new DataSet3(accel.length);
+            final long start = PipelineMetrics.begin(PipelineMetrics.STAGE_GRAVITY);
+            try {
+                DataTransformer.removeGravityFromRaw(accel, rotVector, timeline, result, mGravity);
+            } finally {
+                PipelineMetrics.end(PipelineMetrics.STAGE_GRAVITY, start, accel.length);
+            }
+            PipelineMetrics.recordAllocation(sizeOf(result));
+            return result;
+        }
+
+        @Override
+        protected long sizeOf(DataSet3 output) {
+            return MotionGraph.sizeOf(output);
+        }
+    }
+
+    /**
+     * Integrates upstream data, see {@link DataTransformer#integrate(DataSet3, DataSet3)} and {@link
+     * ParallelIntegrator}
+     */
+    private static final class IntegrateStage extends Stage<DataSet3> {
+
+        private final Stage<DataSet3> mInput;
+        private final String mName;
+        private ParallelIntegrator mIntegrator;
+
+        IntegrateStage(StageCache cache, Stage<DataSet3> input, String name) {
+            super(cache, input);
+            mInput = input;
+            mName = name;
+        }
+
+        @Override
+        protected DataSet3 compute() {
+            final DataSet3 input = mInput.get();
+            DataSet3 result = new DataSet3(input.length);
+            final long start = PipelineMetrics.begin(mName);
+            try {
+                if (mIntegrator != null) {
+                    mIntegrator.integrate(input, result);
+                } else {
+                    DataTransformer.integrate(input, result);
+                }
+            } finally {
+                PipelineMetrics.end(mName, start, input.length);
+            }
+            PipelineMetrics.recordAllocation(sizeOf(result));
+            return result;
+        }
+
+        @Override
+        protected long sizeOf(DataSet3 output) {
+            return MotionGraph.sizeOf(output);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline;
+
+import com.actinarium.kinetic.util.DataSet3;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Integrates data sets on multiple cores. Trapezoidal integration is a prefix sum of <code>(a[i-1] + a[i]) * dt[i] /
+ * 2</code> terms, so it can be done as a blocked parallel scan: each block is integrated on its own starting from zero,
+ * then block totals are accumulated into offsets, and finally each block is shifted by its offset. Short data sets are
+ * integrated sequentially, because for them the overhead of scheduling outweighs the gain.
+ *
+ * @author Paul Danyliuk
+ */
+public final class ParallelIntegrator {
+
+    /**
+     * Default minimum number of events for parallel integration to kick in
+     */
+    public static final int DEFAULT_THRESHOLD = 65536;
+
+    private static ParallelIntegrator sInstance;
+
+    private final ExecutorService mExecutor;
+    private final int mParallelism;
+    private final int mThreshold;
+
+    /**
+     * @return Process-wide integrator with {@link #DEFAULT_THRESHOLD default} threshold, running blocks on its own
+     * daemon threads, one per processor. Threads are only started once a long enough data set comes in
+     */
+    public static synchronized ParallelIntegrator getInstance() {
+        if (sInstance == null) {
+            final int parallelism = Runtime.getRuntime().availableProcessors();
+            sInstance = new ParallelIntegrator(Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+                private int mCount;
+
+                @Override
+                public synchronized Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ParallelIntegrator-" + (++mCount));
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            }), parallelism);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Create a parallel integrator with {@link #DEFAULT_THRESHOLD default} threshold
+     *
+     * @param executor    Executor to run blocks on. Not shut down by this integrator
+     * @param parallelism Number of blocks to split data sets into, usually the number of threads in the executor
+     */
+    public ParallelIntegrator(ExecutorService executor, int parallelism) {
+        this(executor, parallelism, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Create a parallel integrator
+     *
+     * @param executor    Executor to run blocks on. Not shut down by this integrator
+     * @param parallelism Number of blocks to split data sets into, usually the number of threads in the executor
+     * @param threshold   Data sets shorter than this are integrated sequentially
+     */
+    public ParallelIntegrator(ExecutorService executor, int parallelism, int threshold) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        }
+        mExecutor = executor;
+        mParallelism = parallelism;
+        mThreshold = Math.max(threshold, parallelism * 2);
+    }
+
+    /**
+     * @return Minimum number of events for parallel integration to kick in
+     */
+    public int getThreshold() {
+        return mThreshold;
+    }
+
+    /**
+     * Same as {@link DataTransformer#integrate(DataSet3, DataSet3)}, but on multiple threads for long data sets. The
+     * result may differ from sequential integration in the last bits due to different summation order.
+     *
+     * @param dataSetIn  The data set containing values to integrate, will not be changed unless also used as output
+     * @param dataSetOut The data set to write integrated values to, must be large enough. Can safely reuse input data
+     *                   set to overwrite data
+     */
+    public void integrate(DataSet3 dataSetIn, DataSet3 dataSetOut) {
+        final int length = dataSetIn.length;
+        if (length < mThreshold || mParallelism == 1) {
+            DataTransformer.integrate(dataSetIn, dataSetOut);
+            return;
+        }
+
+        if (dataSetIn != dataSetOut) {
+            System.arraycopy(dataSetIn.times, 0, dataSetOut.times, 0, length);
+            dataSetOut.length = length;
+            dataSetOut.invalidateTimeDeltas();
+        }
+        final float[] dt = dataSetIn.getTimeDeltas();
+        final float[][] in = {dataSetIn.valuesX, dataSetIn.valuesY, dataSetIn.valuesZ};
+        final float[][] out = {dataSetOut.valuesX, dataSetOut.valuesY, dataSetOut.valuesZ};
+
+        // Split [1, length) into blocks. Remember each block's preceding input values up front, because when
+        // integrating in place the previous block may overwrite them before this block gets to read them
+        final int blocks = mParallelism;
+        final int[] starts = new int[blocks + 1];
+        final float[][] boundaries = new float[blocks][3];
+        for (int b = 0; b <= blocks; b++) {
+            starts[b] = 1 + (int) ((long) (length - 1) * b / blocks);
+        }
+        for (int b = 0; b < blocks; b++) {
+            for (int c = 0; c < 3; c++) {
+                boundaries[b][c] = in[c][starts[b] - 1];
+            }
+        }
+
+        // Pass 1: integrate each block locally, starting from zero
+        List<Future<float[]>> totals = new ArrayList<>(blocks);
+        for (int b = 0; b < blocks; b++) {
+            final int start = starts[b];
+            final int end = starts[b + 1];
+            final float[] boundary = boundaries[b];
+            totals.add(mExecutor.submit(new Callable<float[]>() {
+                @Override
+                public float[] call() {
+                    float[] total = new float[3];
+                    for (int c = 0; c < 3; c++) {
+                        total[c] = integrateBlock(in[c], out[c], dt, start, end, boundary[c]);
+                    }
+                    return total;
+                }
+            }));
+        }
+        for (int c = 0; c < 3; c++) {
+            out[c][0] = 0;
+        }
+
+        // Pass 2: scan block totals into offsets. There are only a few blocks, so it's done on this thread
+        final float[][] offsets = new float[blocks][3];
+        for (int b = 1; b < blocks; b++) {
+            final float[] total = await(totals.get(b - 1));
+            for (int c = 0; c < 3; c++) {
+                offsets[b][c] = offsets[b - 1][c] + total[c];
+            }
+        }
+        await(totals.get(blocks - 1));
+
+        // Pass 3: shift each block but the first one by its offset
+        List<Future<float[]>> fixups = new ArrayList<>(blocks - 1);
+        for (int b = 1; b < blocks; b++) {
+            final int start = starts[b];
+            final int end = starts[b + 1];
+            final float[] offset = offsets[b];
+            fixups.add(mExecutor.submit(new Callable<float[]>() {
+                @Override
+                public float[] call() {
+                    for (int c = 0; c < 3; c++) {
+                        shiftBlock(out[c], start, end, offset[c]);
+                    }
+                    return offset;
+                }
+            }));
+        }
+        for (Future<float[]> fixup : fixups) {
+            await(fixup);
+        }
+    }
+
+    /**
+     * Integrates values within <code>[start, end)</code>, starting from zero
+     *
+     * @return The sum at the end of the block
+     */
+    private static float integrateBlock(float[] in, float[] out, float[] dt, int start, int end, float prev) {
+        float sum = 0;
+        for (int i = start; i < end; i++) {
+            final float value = in[i];
+            sum += (prev + value) * dt[i] * 0.5f;
+            prev = value;
+            out[i] = sum;
+        }
+        return sum;
+    }
+
+    private static void shiftBlock(float[] out, int start, int end, float offset) {
+        for (int i = start; i < end; i++) {
+            out[i] += offset;
+        }
+    }
+
+    private static float[] await(Future<float[]> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while integrating", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to integrate block", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * <p>Lightweight timing and memory instrumentation of processing stages, from raw recording to export. Each stage
+ * measurement is also passed to the {@link Tracer} if one is set, e.g. {@link SystraceTracer} to see stages in
+ * systrace. Without a tracer this class has no framework dependencies, so instrumented code runs on a plain JVM.
+ * Measurements are cheap (two clock reads and a short synchronized update), so they're collected in production builds
+ * too.</p>
+ * <p>Usage:</p>
+ * <pre>
+ * final long start = PipelineMetrics.begin(PipelineMetrics.STAGE_GRAVITY);
+ * try {
+ *     // ...do the work...
+ * } finally {
+ *     PipelineMetrics.end(PipelineMetrics.STAGE_GRAVITY, start, sampleCount);
+ * }
+ * </pre>
+ *
+ * @author Paul Danyliuk
+ */
+public final class PipelineMetrics {
+
+    public static final String STAGE_TIMELINE = "Timeline index";
+    public static final String STAGE_GRAVITY = "Gravity removal";
+    public static final String STAGE_VELOCITY = "Integrate velocity";
+    public static final String STAGE_OFFSET = "Integrate offset";
+    public static final String STAGE_PHASE = "Integrate phase";
+    public static final String STAGE_RESULT_DATA = "ResultHolder.prepare";
+    public static final String STAGE_CHART_PATH = "Chart path";
+    public static final String STAGE_CODE_GENERATION = "Code generation";
+
+    private static final Map<String, StageStats> sStats = new LinkedHashMap<>();
+    private static long sAllocatedBytes;
+    private static String sIngestSummary;
+    private static volatile Tracer sTracer;
+
+    /**
+     * Private constructor, to prevent instantiation
+     */
+    private PipelineMetrics() {}
+
+    /**
+     * Sets the tracer to forward stage boundaries to. Should be set once at startup, since a section begun with one
+     * tracer would be ended with another
+     *
+     * @param tracer Tracer, or null to only collect measurements
+     */
+    public static void setTracer(Tracer tracer) {
+        sTracer = tracer;
+    }
+
+    /**
+     * Starts measuring a stage. Must be followed by {@link #end(String, long, int)} on the same thread, in a finally
+     * block so that trace sections stay balanced if the stage throws
+     *
+     * @param stage Stage name, e.g. {@link #STAGE_GRAVITY}
+     * @return Start time to pass to {@link #end(String, long, int)}
+     */
+    public static long begin(String stage) {
+        final Tracer tracer = sTracer;
+        if (tracer != null) {
+            tracer.beginSection(stage);
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Finishes measuring a stage
+     *
+     * @param stage   Stage name, same as passed to {@link #begin(String)}
+     * @param start   Value returned by {@link #begin(String)}
+     * @param samples Number of samples processed, or 0 if not applicable
+     */
+    public static void end(String stage, long start, int samples) {
+        final long duration = System.nanoTime() - start;
+        final Tracer tracer = sTracer;
+        if (tracer != null) {
+            tracer.endSection();
+        }
+        synchronized (sStats) {
+            StageStats stats = sStats.get(stage);
+            if (stats == null) {
+                stats = new StageStats(stage);
+                sStats.put(stage, stats);
+            }
+            stats.add(duration, samples);
+        }
+    }
+
+    /**
+     * Accounts memory allocated for data of the current recording
+     *
+     * @param bytes Number of bytes
+     */
+    public static void recordAllocation(long bytes) {
+        synchronized (sStats) {
+            sAllocatedBytes += bytes;
+        }
+    }
+
+    /**
+     * Clears all measurements, e.g. when a new recording starts
+     */
+    public static void reset() {
+        synchronized (sStats) {
+            sStats.clear();
+            sAllocatedBytes = 0;
+        }
+    }
+
+    /**
+     * Sets sensor ingest health summary of the current recording to show along with stage measurements. Unlike stage
+     * stats, it's not cleared on {@link #reset()}, but replaced with each recording
+     *
+     * @param summary Summary, e.g. from {@link IngestMonitor#getSummary(int, String)}, or null
+     */
+    public static void setIngestSummary(String summary) {
+        synchronized (sStats) {
+            sIngestSummary = summary;
+        }
+    }
+
+    /**
+     * @return Bytes allocated for data of the current recording, as accounted with {@link #recordAllocation(long)}
+     */
+    public static long getAllocatedBytes() {
+        synchronized (sStats) {
+            return sAllocatedBytes;
+        }
+    }
+
+    /**
+     * @return Copies of stats of all stages measured since last reset, in order of first measurement
+     */
+    public static List<StageStats> getStats() {
+        synchronized (sStats) {
+            List<StageStats> result = new ArrayList<>(sStats.size());
+            for (StageStats stats : sStats.values()) {
+                result.add(new StageStats(stats));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * @return Human readable summary of all measurements, one stage per line
+     */
+    public static String dump() {
+        StringBuilder builder = new StringBuilder();
+        synchronized (sStats) {
+            if (sIngestSummary != null) {
+                builder.append(sIngestSummary).append('\n');
+            }
+        }
+        for (StageStats stats : getStats()) {
+            builder.append(stats).append('\n');
+        }
+        builder.append(String.format(Locale.US, "Allocated: %.1f KB", getAllocatedBytes() / 1024f));
+        return builder.toString();
+    }
+
+    /**
+     * Receives stage boundaries, e.g. to mark them in a platform trace. Calls are nested and come in pairs on the same
+     * thread
+     */
+    public interface Tracer {
+
+        void beginSection(String stage);
+
+        void endSection();
+    }
+
+    /**
+     * Accumulated measurements of a single stage
+     */
+    public static final class StageStats {
+
+        private final String mName;
+        private int mCount;
+        private long mTotalNanos;
+        private long mLastNanos;
+        private long mMaxNanos;
+        private long mSamples;
+
+        StageStats(String name) {
+            mName = name;
+        }
+
+        StageStats(StageStats source) {
+            mName = source.mName;
+            mCount = source.mCount;
+            mTotalNanos = source.mTotalNanos;
+            mLastNanos = source.mLastNanos;
+            mMaxNanos = source.mMaxNanos;
+            mSamples = source.mSamples;
+        }
+
+        void add(long nanos, int samples) {
+            mCount++;
+            mTotalNanos += nanos;
+            mLastNanos = nanos;
+            if (nanos > mMaxNanos) {
+                mMaxNanos = nanos;
+            }
+            mSamples += samples;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * @return How many times the stage ran
+         */
+        public int getCount() {
+            return mCount;
+        }
+
+        public long getTotalNanos() {
+            return mTotalNanos;
+        }
+
+        public long getLastNanos() {
+            return mLastNanos;
+        }
+
+        public long getMaxNanos() {
+            return mMaxNanos;
+        }
+
+        /**
+         * @return Throughput over all runs, or 0 if the stage doesn't report samples
+         */
+        public float getSamplesPerSecond() {
+            return mTotalNanos == 0 ? 0 : mSamples * 1e9f / mTotalNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s: %dx, last %.2f ms, max %.2f ms, %.0f samples/s", mName, mCount,
+                    mLastNanos / 1e6f, mMaxNanos / 1e6f, getSamplesPerSecond());
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.actinarium.kinetic.pipeline;
+
+/**
+ * <p>Pool of recording buffers, each a {@link SensorChannels} registry with its data sets. Ownership is explicit: a
+ * buffer is {@link #acquire(int) acquired} by the recorder, handed over with the recording result to whoever
+ * processes and displays it (e.g. {@link MotionGraph}), and {@link #release(SensorChannels) released} by that owner
+ * when the recording is discarded.</p>
+ * <p>With the default two buffers, a new take can be recorded into one while the previous one is still being
+ * displayed, and nothing is allocated per recording or when the recorder is recreated along with its fragment. If all
+ * buffers are in use, a new one is allocated, and once released it takes the place of a smaller free one, if any.</p>
+ *
+ * @author Paul Danyliuk
+ */
+public final class RecordingPool {
+
+    public static final int DEFAULT_CAPACITY = 2;
+
+    private static RecordingPool sInstance;
+
+    private final SensorChannels[] mBuffers;
+    private final boolean[] mIsInUse;
+    private int mCount;
+
+    /**
+     * @return Process-wide pool of {@link #DEFAULT_CAPACITY} buffers, which outlives activities and fragments
+     */
+    public static synchronized RecordingPool getInstance() {
+        if (sInstance == null) {
+            sInstance = new RecordingPool(DEFAULT_CAPACITY);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Create an empty pool. Buffers are allocated on first demand
+     *
+     * @param capacity Maximum number of buffers to keep
+     */
+    public RecordingPool(int capacity) {
+        mBuffers = new SensorChannels[capacity];
+        mIsInUse = new boolean[capacity];
+    }
+
+    /**
+     * Takes a free buffer, reset and with no data. Sensors registered by its previous owner stay registered, so
+     * registering the same ones again doesn't allocate
+     *
+     * @param dataSize The number of sensor events each channel must be able to contain at max
+     * @return Buffer owned by the caller until passed to {@link #release(SensorChannels)}
+     */
+    public synchronized SensorChannels acquire(int dataSize) {
+        for (int i = 0; i < mCount; i++) {
+            if (!mIsInUse[i] && mBuffers[i].getDataSize() >= dataSize) {
+                mIsInUse[i] = true;
+                mBuffers[i].reset();
+                return mBuffers[i];
+            }
+        }
+
+        SensorChannels buffer = new SensorChannels(dataSize);
+        if (mCount < mBuffers.length) {
+            mBuffers[mCount] = buffer;
+            mIsInUse[mCount] = true;
+            mCount++;
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool. The caller must not use it afterwards
+     *
+     * @param buffer Buffer acquired from this pool
+     * @throws IllegalStateException if the buffer is released twice
+     */
+    public synchronized void release(SensorChannels buffer) {
+        for (int i = 0; i < mCount; i++) {
+            if (mBuffers[i] == buffer) {
+                if (!mIsInUse[i]) {
+                    throw new IllegalStateException("Recording buffer is released already");
+                }
+                mIsInUse[i] = false;
+                return;
+            }
+        }
+
+        // Allocated when the pool was full: keep it in place of a smaller free one, so that larger takes don't allocate
+        for (int i = 0; i < mCount; i++) {
+            if (!mIsInUse[i] && mBuffers[i].getDataSize() < buffer.getDataSize()) {
+                mBuffers[i] = buffer;
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return Number of buffers currently owned by someone
+     */
+    public synchronized int getInUseCount() {
+        int count = 0;
+        for (int i = 0; i < mCount; i++) {
+            if (mIsInUse[i]) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
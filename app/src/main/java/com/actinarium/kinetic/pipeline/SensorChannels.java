@@ -0,0 +1,366 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import com.actinarium.kinetic.util.DataSet3;
+import com.actinarium.kinetic.util.DataSet4;
+import com.actinarium.kinetic.util.DataSetN;
+
+import java.util.Arrays;
+
+/**
+ * Registry of sensors captured in one recording, each with its own data set. Events of all registered sensors are
+ * routed to their data sets by a single listener, so adding a sensor (e.g. hardware linear acceleration, game rotation
+ * vector, magnetometer) takes a line of code instead of another listener and another field. The ingest path doesn't
+ * allocate: sensors are looked up by identity in a few-element array. All values a sensor reports are recorded: the
+ * axes go into its main data set, and the rest (bias estimates of uncalibrated sensors, heading accuracy of rotation
+ * vector) into a separate {@link DataSetN}, see {@link #getExtras(int)}.
+ *
+ * @author Paul Danyliuk
+ */
+public final class SensorChannels {
+
+    /**
+     * Max number of values beyond the axes among supported sensors
+     */
+    private static final int MAX_EXTRA_VALUES = 3;
+
+    private final int mDataSize;
+    private int[] mTypes = new int[4];
+    private Sensor[] mSensors = new Sensor[4];
+    private DataSet3[] mDataSets = new DataSet3[4];
+    private FilterBank[] mFilters = new FilterBank[4];
+    private DataSetN[] mExtras = new DataSetN[4];
+    private int mCount;
+    private final float[] mMissingExtras = new float[MAX_EXTRA_VALUES];
+
+    /**
+     * Create an empty registry
+     *
+     * @param dataSize The number of sensor events each channel will be able to contain at max
+     */
+    public SensorChannels(int dataSize) {
+        mDataSize = dataSize;
+    }
+
+    /**
+     * Registers a sensor to record
+     *
+     * @param sensor Sensor to record, may be null if the device doesn't have one
+     * @return true if the sensor was registered, false if it's null or registered already
+     */
+    public boolean add(Sensor sensor) {
+        return sensor != null && add(sensor.getType(), sensor);
+    }
+
+    /**
+     * Registers a sensor type to record, for events that don't come from a {@link Sensor} (e.g. replayed or
+     * synthesized ones)
+     *
+     * @param sensorType Sensor type, e.g. {@link Sensor#TYPE_ACCELEROMETER}
+     * @return true if the type was registered, false if it's registered already
+     */
+    public boolean add(int sensorType) {
+        return add(sensorType, null);
+    }
+
+    private boolean add(int sensorType, Sensor sensor) {
+        if (indexOf(sensorType) != -1) {
+            return false;
+        }
+        if (mCount == mTypes.length) {
+            int[] types = new int[mCount * 2];
+            Sensor[] sensors = new Sensor[mCount * 2];
+            DataSet3[] dataSets = new DataSet3[mCount * 2];
+            FilterBank[] filters = new FilterBank[mCount * 2];
+            DataSetN[] extras = new DataSetN[mCount * 2];
+            System.arraycopy(mTypes, 0, types, 0, mCount);
+            System.arraycopy(mSensors, 0, sensors, 0, mCount);
+            System.arraycopy(mDataSets, 0, dataSets, 0, mCount);
+            System.arraycopy(mFilters, 0, filters, 0, mCount);
+            System.arraycopy(mExtras, 0, extras, 0, mCount);
+            mTypes = types;
+            mSensors = sensors;
+            mDataSets = dataSets;
+            mFilters = filters;
+            mExtras = extras;
+        }
+        final int axisCount = getAxisCount(sensorType);
+        final int extraCount = getValueCount(sensorType) - axisCount;
+        mTypes[mCount] = sensorType;
+        mSensors[mCount] = sensor;
+        mDataSets[mCount] = axisCount == 4 ? new DataSet4(mDataSize) : new DataSet3(mDataSize);
+        mExtras[mCount] = extraCount != 0 ? new DataSetN(extraCount, mDataSize, DataSetN.LAYOUT_PLANAR) : null;
+        mCount++;
+        return true;
+    }
+
+    /**
+     * @return The number of sensor events each channel is able to contain at max
+     */
+    public int getDataSize() {
+        return mDataSize;
+    }
+
+    /**
+     * @return Number of registered sensors
+     */
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * @param index Index of the channel, 0 to {@link #size()}
+     * @return Registered sensor, or null if the channel was registered by type
+     */
+    public Sensor getSensor(int index) {
+        return mSensors[index];
+    }
+
+    /**
+     * @param index Index of the channel, 0 to {@link #size()}
+     * @return Type of the sensor recorded in this channel
+     */
+    public int getType(int index) {
+        return mTypes[index];
+    }
+
+    /**
+     * @param sensorType Sensor type, e.g. {@link Sensor#TYPE_ACCELEROMETER}
+     * @return true if a sensor of this type is recorded
+     */
+    public boolean has(int sensorType) {
+        return indexOf(sensorType) != -1;
+    }
+
+    /**
+     * @param sensorType Sensor type, e.g. {@link Sensor#TYPE_ACCELEROMETER}
+     * @return Data set recorded for the sensor of this type, or null if there's no such sensor. For rotation vector
+     * sensors it's a {@link DataSet4}
+     */
+    public DataSet3 get(int sensorType) {
+        final int index = indexOf(sensorType);
+        return index != -1 ? mDataSets[index] : null;
+    }
+
+    /**
+     * @param sensorType Sensor type, e.g. {@link Sensor#TYPE_GYROSCOPE_UNCALIBRATED}
+     * @return Values beyond the axes recorded for the sensor of this type, aligned with events of its {@link
+     * #get(int) main data set}, or null if there's no such sensor or it doesn't report extra values. Values the
+     * device didn't report (e.g. heading accuracy of rotation vector on some devices) are NaN. Not saved to traces
+     */
+    public DataSetN getExtras(int sensorType) {
+        final int index = indexOf(sensorType);
+        return index != -1 ? mExtras[index] : null;
+    }
+
+    /**
+     * Sets a filter to apply to X, Y and Z values of a sensor as they arrive. Filter state is reset along with data.
+     * Rotation vectors can't be filtered, since filtering their components independently doesn't keep them unit
+     * quaternions
+     *
+     * @param sensorType Type of a registered sensor reporting three axes
+     * @param filter     Filter bank with 3 channels, or null to record values as is
+     */
+    public void setFilter(int sensorType, FilterBank filter) {
+        final int index = indexOf(sensorType);
+        if (index == -1) {
+            throw new IllegalArgumentException("Sensor of type " + sensorType + " is not registered");
+        }
+        if (filter != null && getAxisCount(sensorType) != 3) {
+            throw new IllegalArgumentException("Sensor of type " + sensorType + " doesn't report three axes");
+        }
+        if (filter != null && filter.getChannels() != 3) {
+            throw new IllegalArgumentException("Filter bank must have 3 channels");
+        }
+        mFilters[index] = filter;
+    }
+
+    /**
+     * Appends event data to the data set of the sensor that produced it, filtering it if needed
+     *
+     * @param event Sensor event to take data from
+     * @return true if data was added or the sensor is not registered, false if array is overflowing
+     */
+    public boolean put(SensorEvent event) {
+        final int index = indexOf(event.sensor);
+        return index == -1 || put(index, event);
+    }
+
+    /**
+     * Appends event data to the data set of the given channel, filtering it if needed. Use this overload if the
+     * channel is already looked up with {@link #indexOf(Sensor)}
+     *
+     * @param index Index of the channel, 0 to {@link #size()}
+     * @param event Sensor event to take data from
+     * @return true if data was added, false if array is overflowing
+     */
+    public boolean put(int index, SensorEvent event) {
+        return put(index, event.timestamp, event.values);
+    }
+
+    /**
+     * Appends a reading to the data set of the given channel, filtering it if needed
+     *
+     * @param index     Index of the channel, 0 to {@link #size()}
+     * @param timestamp Reading timestamp in nanos
+     * @param values    Reading values, not retained
+     * @return true if data was added, false if array is overflowing
+     */
+    public boolean put(int index, long timestamp, float[] values) {
+        final DataSet3 dataSet = mDataSets[index];
+        if (!dataSet.put(timestamp, values)) {
+            return false;
+        }
+        final DataSetN extras = mExtras[index];
+        if (extras != null) {
+            final int axisCount = dataSet.getChannels();
+            if (values.length >= axisCount + extras.getChannels()) {
+                extras.put(timestamp, values, axisCount);
+            } else {
+                Arrays.fill(mMissingExtras, Float.NaN);
+                System.arraycopy(values, axisCount, mMissingExtras, 0, Math.max(values.length - axisCount, 0));
+                extras.put(timestamp, mMissingExtras);
+            }
+        }
+        final FilterBank filter = mFilters[index];
+        if (filter != null) {
+            // Filter values in place, since the event's own array belongs to the framework
+            final int last = dataSet.length - 1;
+            dataSet.valuesX[last] = filter.process(0, dataSet.valuesX[last]);
+            dataSet.valuesY[last] = filter.process(1, dataSet.valuesY[last]);
+            dataSet.valuesZ[last] = filter.process(2, dataSet.valuesZ[last]);
+        }
+        return true;
+    }
+
+    /**
+     * Looks up the channel of a sensor by identity, e.g. to route an event
+     *
+     * @param sensor Sensor
+     * @return Index of the channel, or -1 if the sensor is not registered
+     */
+    public int indexOf(Sensor sensor) {
+        for (int i = 0; i < mCount; i++) {
+            if (mSensors[i] == sensor) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Unregisters all sensors except provided ones, e.g. those left registered in a pooled buffer by a recorder of
+     * different sensors. Kept sensors stay registered along with their data sets
+     *
+     * @param sensorTypes Types of sensors to keep registered
+     */
+    public void retainAll(int[] sensorTypes) {
+        int count = 0;
+        for (int i = 0; i < mCount; i++) {
+            boolean isRetained = false;
+            for (int type : sensorTypes) {
+                if (mTypes[i] == type) {
+                    isRetained = true;
+                    break;
+                }
+            }
+            if (isRetained) {
+                mTypes[count] = mTypes[i];
+                mSensors[count] = mSensors[i];
+                mDataSets[count] = mDataSets[i];
+                mFilters[count] = mFilters[i];
+                mExtras[count] = mExtras[i];
+                count++;
+            }
+        }
+        for (int i = count; i < mCount; i++) {
+            mSensors[i] = null;
+            mDataSets[i] = null;
+            mFilters[i] = null;
+            mExtras[i] = null;
+        }
+        mCount = count;
+    }
+
+    /**
+     * Resets all data sets
+     */
+    public void reset() {
+        for (int i = 0; i < mCount; i++) {
+            mDataSets[i].reset();
+            if (mExtras[i] != null) {
+                mExtras[i].reset();
+            }
+            if (mFilters[i] != null) {
+                mFilters[i].reset();
+            }
+        }
+    }
+
+    /**
+     * @param sensorType Sensor type, e.g. {@link Sensor#TYPE_ACCELEROMETER}
+     * @return Index of the channel recording this sensor type, or -1 if there's none
+     */
+    public int indexOf(int sensorType) {
+        for (int i = 0; i < mCount; i++) {
+            if (mTypes[i] == sensorType) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Determines how many values of the sensor's events go into its main data set. Rotation vectors have a scalar
+     * component, all other supported sensors report three axes
+     *
+     * @param sensorType Sensor type
+     * @return 3 or 4
+     */
+    public static int getAxisCount(int sensorType) {
+        switch (sensorType) {
+            case Sensor.TYPE_ROTATION_VECTOR:
+            case Sensor.TYPE_GAME_ROTATION_VECTOR:
+            case Sensor.TYPE_GEOMAGNETIC_ROTATION_VECTOR:
+                return 4;
+            default:
+                return 3;
+        }
+    }
+
+    /**
+     * Determines how many values of the sensor's events to record in total. Uncalibrated sensors report bias
+     * estimates along each axis, and rotation vector reports estimated heading accuracy
+     *
+     * @param sensorType Sensor type
+     * @return {@link #getAxisCount(int)} plus the number of extra values
+     */
+    public static int getValueCount(int sensorType) {
+        switch (sensorType) {
+            case Sensor.TYPE_GYROSCOPE_UNCALIBRATED:
+            case Sensor.TYPE_MAGNETIC_FIELD_UNCALIBRATED:
+                return 6;
+            case Sensor.TYPE_ROTATION_VECTOR:
+                return 5;
+            default:
+                return getAxisCount(sensorType);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.actinarium.kinetic.pipeline;
+
+import com.actinarium.kinetic.util.DataSetN;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-memory circular buffer of sensor readings, holding the latest readings of each of a few sensors. Used for
+ * retrospective capture: sensors are recorded continuously, overwriting the oldest readings, and the last few seconds
+ * can be copied out into a {@link SensorChannels} registry at any moment as contiguous data sets. Neither recording nor
+ * copying allocate. Readings are kept {@link DataSetN#LAYOUT_INTERLEAVED interleaved}, since they are always written
+ * and read whole.
+ *
+ * @author Paul Danyliuk
+ */
+public final class SensorRing {
+
+    private final int mCapacity;
+    private final int[] mTypes;
+    private final DataSetN[] mDataSets;
+    private final int[] mHeads;
+    private final int[] mCounts;
+    private final boolean[] mIsOverwritten;
+    private final float[] mValues;
+    private final float[] mPaddedValues;
+
+    /**
+     * Create a ring buffer for provided sensors
+     *
+     * @param sensorTypes Types of sensors to buffer, in the order of channel indices
+     * @param capacity    Number of latest readings to keep per sensor
+     */
+    public SensorRing(int[] sensorTypes, int capacity) {
+        final int count = sensorTypes.length;
+        mCapacity = capacity;
+        mTypes = sensorTypes.clone();
+        mDataSets = new DataSetN[count];
+        mHeads = new int[count];
+        mCounts = new int[count];
+        mIsOverwritten = new boolean[count];
+        int maxValueCount = 0;
+        for (int i = 0; i < count; i++) {
+            final int valueCount = SensorChannels.getValueCount(mTypes[i]);
+            mDataSets[i] = new DataSetN(valueCount, capacity, DataSetN.LAYOUT_INTERLEAVED);
+            maxValueCount = Math.max(maxValueCount, valueCount);
+        }
+        mValues = new float[maxValueCount];
+        mPaddedValues = new float[maxValueCount];
+    }
+
+    /**
+     * Records a reading, overwriting the oldest one of this channel if the buffer is full
+     *
+     * @param index     Index of the channel, i.e. of its type in the array passed to the constructor
+     * @param timestamp Reading timestamp in nanos
+     * @param values    Reading values, not retained
+     */
+    public void put(int index, long timestamp, float[] values) {
+        final int head = mHeads[index];
+        final DataSetN dataSet = mDataSets[index];
+        if (values.length >= dataSet.getChannels()) {
+            dataSet.set(head, timestamp, values);
+        } else {
+            // Some devices omit optional values, e.g. heading accuracy of rotation vector
+            Arrays.fill(mPaddedValues, Float.NaN);
+            System.arraycopy(values, 0, mPaddedValues, 0, values.length);
+            dataSet.set(head, timestamp, mPaddedValues);
+        }
+        mHeads[index] = head + 1 == mCapacity ? 0 : head + 1;
+        if (mCounts[index] < mCapacity) {
+            mCounts[index]++;
+        } else {
+            mIsOverwritten[index] = true;
+        }
+    }
+
+    /**
+     * Drops all buffered readings
+     */
+    public void reset() {
+        for (int i = 0; i < mTypes.length; i++) {
+            mHeads[i] = 0;
+            mCounts[i] = 0;
+            mIsOverwritten[i] = false;
+        }
+    }
+
+    /**
+     * @return Timestamp of the latest reading of any channel in nanos, or {@link Long#MIN_VALUE} if there are none
+     */
+    public long getLatestTime() {
+        long latest = Long.MIN_VALUE;
+        for (int i = 0; i < mTypes.length; i++) {
+            if (mCounts[i] != 0) {
+                latest = Math.max(latest, mDataSets[i].getTime(getIndex(i, mCounts[i] - 1)));
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * Looks up the latest reading of a channel taken at or before provided time
+     *
+     * @param index Index of the channel
+     * @param time  Time in nanos
+     * @param out   Array to copy reading values to, must fit all values of the channel
+     * @return true if found, false if the channel has no readings. If all readings are later than provided time, the
+     * oldest one is copied
+     */
+    public boolean getReadingAt(int index, long time, float[] out) {
+        final int count = mCounts[index];
+        if (count == 0) {
+            return false;
+        }
+        final DataSetN dataSet = mDataSets[index];
+        int offset = count - 1;
+        while (offset > 0 && dataSet.getTime(getIndex(index, offset)) > time) {
+            offset--;
+        }
+        dataSet.get(getIndex(index, offset), out);
+        return true;
+    }
+
+    /**
+     * Copies the readings of the last time window into the data sets of provided registry, replacing their contents.
+     * Readings are appended through {@link SensorChannels#put(int, long, float[])}, so registry filters still apply.
+     * If the window of some channel doesn't fit into the target, its oldest readings are dropped, so that all channels
+     * still end with their latest readings. Takes O(window) time and doesn't allocate
+     *
+     * @param target      Registry to copy to, must have all buffered sensors registered
+     * @param windowNanos Length of the window in nanos, ending with the latest reading of any channel
+     * @return true if all readings of the window were copied, false if the oldest of them were truncated, either
+     * because they didn't fit into the target or because newer readings have overwritten them in this buffer
+     */
+    public boolean copyTo(SensorChannels target, long windowNanos) {
+        target.reset();
+        final long latest = getLatestTime();
+        if (latest == Long.MIN_VALUE) {
+            return true;
+        }
+        final long start = latest - windowNanos;
+        boolean isComplete = true;
+        for (int i = 0; i < mTypes.length; i++) {
+            final int targetIndex = target.indexOf(mTypes[i]);
+            if (targetIndex == -1) {
+                throw new IllegalArgumentException("Sensor of type " + mTypes[i] + " is not registered in target");
+            }
+            final DataSetN dataSet = mDataSets[i];
+            final int count = mCounts[i];
+
+            // Skip readings older than the window, oldest first
+            int offset = 0;
+            while (offset < count && dataSet.getTime(getIndex(i, offset)) < start) {
+                offset++;
+            }
+            if (offset == 0 && mIsOverwritten[i] && dataSet.getTime(getIndex(i, 0)) > start) {
+                isComplete = false;
+            }
+            // Keep the latest readings if the window is too long for the target
+            if (count - offset > target.getDataSize()) {
+                offset = count - target.getDataSize();
+                isComplete = false;
+            }
+            for (; offset < count; offset++) {
+                final int index = getIndex(i, offset);
+                dataSet.get(index, mValues);
+                target.put(targetIndex, dataSet.getTime(index), mValues);
+            }
+        }
+        return isComplete;
+    }
+
+    /**
+     * @param channel Index of the channel
+     * @param offset  Offset from the oldest buffered reading of this channel
+     * @return Index of the reading in the channel's arrays
+     */
+    private int getIndex(int channel, int offset) {
+        int index = mHeads[channel] - mCounts[channel] + offset;
+        return index < 0 ? index + mCapacity : index;
+    }
+}
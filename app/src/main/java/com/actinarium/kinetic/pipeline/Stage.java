@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline;
+
+/**
+ * <p>A node of the processing graph that lazily computes its output from outputs of upstream stages and memoizes it in
+ * a shared {@link StageCache}. Stages never mutate their inputs, so any intermediate result stays valid until the
+ * stage or one of its upstream stages is invalidated (e.g. when a parameter changes), and only the stages downstream of
+ * the change get recomputed.</p><p>Every stage has a revision that changes whenever its output would change. Revisions
+ * are propagated without computing any data, so an output evicted from the cache is recomputed without invalidating
+ * the stages downstream of it.</p><p>Not thread safe: a graph must be accessed from one thread only.</p>
+ *
+ * @param <T> Type of the output, e.g. {@link com.actinarium.kinetic.util.DataSet3}
+ * @author Paul Danyliuk
+ */
+public abstract class Stage<T> {
+
+    private static long sRevisionCounter;
+
+    private final StageCache mCache;
+    private final Stage<?>[] mInputs;
+    private final long[] mInputRevisions;
+    private long mRevision;
+    private boolean mIsInvalidated = true;
+
+    /**
+     * Create a stage
+     *
+     * @param cache  Cache to memoize output in, or null for stages that hold their output themselves
+     * @param inputs Stages this stage takes data from
+     */
+    protected Stage(StageCache cache, Stage<?>... inputs) {
+        mCache = cache;
+        mInputs = inputs;
+        mInputRevisions = new long[inputs.length];
+    }
+
+    /**
+     * Returns the output of this stage, computing it and outputs of upstream stages if necessary
+     *
+     * @return Stage output. Must not be modified
+     */
+    public T get() {
+        final long revision = getRevision();
+        T output = mCache.get(this, revision);
+        if (output == null) {
+            output = compute();
+            mCache.put(this, revision, output, sizeOf(output));
+        }
+        return output;
+    }
+
+    /**
+     * Determines the revision of this stage, i.e. a number that changes whenever the output of this stage would
+     * change. Does not compute anything.
+     *
+     * @return Current revision
+     */
+    protected long getRevision() {
+        for (int i = 0; i < mInputs.length; i++) {
+            final long inputRevision = mInputs[i].getRevision();
+            if (inputRevision != mInputRevisions[i]) {
+                mInputRevisions[i] = inputRevision;
+                mIsInvalidated = true;
+            }
+        }
+        if (mIsInvalidated) {
+            mIsInvalidated = false;
+            mRevision = nextRevision();
+        }
+        return mRevision;
+    }
+
+    /**
+     * Marks output of this stage stale, e.g. when a parameter changes. Stages downstream will be recomputed too.
+     */
+    protected void invalidate() {
+        mIsInvalidated = true;
+    }
+
+    /**
+     * Computes the output of this stage. Implementations should obtain input data by calling {@link #get()} on
+     * upstream stages, and must neither modify input data nor keep references to it.
+     *
+     * @return A new output object
+     */
+    protected abstract T compute();
+
+    /**
+     * Estimates how much memory the output takes, used to bound the cache
+     *
+     * @param output Output of this stage
+     * @return Size of the output in bytes
+     */
+    protected abstract long sizeOf(T output);
+
+    protected static synchronized long nextRevision() {
+        return ++sRevisionCounter;
+    }
+
+    /**
+     * A stage that holds a given immutable value, e.g. raw recorded data. Never evicted.
+     *
+     * @param <T> Type of the value
+     */
+    public static class Source<T> extends Stage<T> {
+
+        private final T mValue;
+        private final long mRevision;
+
+        public Source(T value) {
+            super(null);
+            mValue = value;
+            mRevision = nextRevision();
+        }
+
+        @Override
+        public T get() {
+            return mValue;
+        }
+
+        @Override
+        protected long getRevision() {
+            return mRevision;
+        }
+
+        @Override
+        protected T compute() {
+            return mValue;
+        }
+
+        @Override
+        protected long sizeOf(T output) {
+            return 0;
+        }
+    }
+}
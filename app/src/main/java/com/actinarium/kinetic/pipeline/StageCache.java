@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Memoizes outputs of {@link Stage stages}, evicting least recently used outputs once their total size exceeds the
+ * budget. Evicted outputs are simply recomputed next time they are requested.
+ *
+ * @author Paul Danyliuk
+ */
+public class StageCache {
+
+    private final long mMaxBytes;
+    private long mBytes;
+    private final LinkedHashMap<Stage<?>, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Create a cache for stage outputs
+     *
+     * @param maxBytes Memory budget for memoized outputs. The most recently computed output is always kept, even if
+     *                 it alone exceeds the budget
+     */
+    public StageCache(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Looks up memoized output of the stage
+     *
+     * @param stage    Stage to get output of
+     * @param revision Revision of the stage the output must match
+     * @param <T>      Output type
+     * @return Memoized output, or null if there's none for the given revision
+     */
+    @SuppressWarnings("unchecked")
+    <T> T get(Stage<T> stage, long revision) {
+        Entry entry = mEntries.get(stage);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.revision != revision) {
+            // Stale output won't ever be requested again
+            mEntries.remove(stage);
+            mBytes -= entry.bytes;
+            return null;
+        }
+        return (T) entry.output;
+    }
+
+    /**
+     * Memoizes the output of the stage, evicting least recently used outputs if over budget
+     *
+     * @param stage    Stage the output belongs to
+     * @param revision Revision of the stage at the time output was computed
+     * @param output   Stage output
+     * @param bytes    Output size
+     */
+    <T> void put(Stage<T> stage, long revision, T output, long bytes) {
+        Entry previous = mEntries.put(stage, new Entry(revision, output, bytes));
+        if (previous != null) {
+            mBytes -= previous.bytes;
+        }
+        mBytes += bytes;
+
+        Iterator<Map.Entry<Stage<?>, Entry>> iterator = mEntries.entrySet().iterator();
+        while (mBytes > mMaxBytes && mEntries.size() > 1) {
+            Map.Entry<Stage<?>, Entry> eldest = iterator.next();
+            mBytes -= eldest.getValue().bytes;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Drops all memoized outputs
+     */
+    public void clear() {
+        mEntries.clear();
+        mBytes = 0;
+    }
+
+    /**
+     * @return Total size of memoized outputs in bytes
+     */
+    public long getSize() {
+        return mBytes;
+    }
+
+    private static final class Entry {
+        final long revision;
+        final Object output;
+        final long bytes;
+
+        Entry(long revision, Object output, long bytes) {
+            this.revision = revision;
+            this.output = output;
+            this.bytes = bytes;
+        }
+    }
+}
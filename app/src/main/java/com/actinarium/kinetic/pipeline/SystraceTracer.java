@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline;
+
+import android.os.Trace;
+
+/**
+ * Emits {@link PipelineMetrics} stages as {@link Trace} sections, so that they show up in systrace
+ *
+ * @author Paul Danyliuk
+ */
+public final class SystraceTracer implements PipelineMetrics.Tracer {
+
+    @Override
+    public void beginSection(String stage) {
+        Trace.beginSection(stage);
+    }
+
+    @Override
+    public void endSection() {
+        Trace.endSection();
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline;
+
+import com.actinarium.kinetic.util.DataSet3;
+import com.actinarium.kinetic.util.Fft;
+
+/**
+ * Aligns several recorded takes of the same motion in time and averages them into one cleaner data set, since sensor
+ * noise makes any single take unreliable. Takes are resampled to a common period, and the lag between each take and
+ * the reference (first) take is found as the peak of their cross-correlation, computed with an FFT in O(n log n).
+ * Buffers are allocated once per instance, so aligning takes repeatedly doesn't churn memory.
+ *
+ * @author Paul Danyliuk
+ */
+public final class TakeAligner {
+
+    private final long mPeriod;
+    private final int mMaxSamples;
+    private final Fft mFft;
+
+    private final float[][] mReference;
+    private final float[][] mTake;
+    private final float[] mCorrelation;
+    private final float[] mChannelCorrelation;
+    private final long[] mTimes;
+    private final DataSet3.Cursor mCursor = new DataSet3.Cursor();
+    private final float[][] mSums;
+    private final int[] mCounts;
+
+    /**
+     * Create an aligner
+     *
+     * @param periodNanos Sampling period to resample takes to, e.g. 5 ms
+     * @param maxDuration Max take duration in nanos. Longer takes are truncated
+     */
+    public TakeAligner(long periodNanos, long maxDuration) {
+        mPeriod = periodNanos;
+        mMaxSamples = (int) (maxDuration / periodNanos) + 1;
+        // Twice as long to get linear rather than circular correlation
+        mFft = new Fft(Fft.sizeFor(mMaxSamples * 2));
+        mReference = new float[3][mMaxSamples];
+        mTake = new float[3][mMaxSamples];
+        mCorrelation = new float[mFft.getSize()];
+        mChannelCorrelation = new float[mFft.getSize()];
+        mTimes = new long[mMaxSamples];
+        mSums = new float[3][mMaxSamples];
+        mCounts = new int[mMaxSamples];
+    }
+
+    /**
+     * Finds the time shift of a take relative to the reference take
+     *
+     * @param reference Reference take
+     * @param take      Take to align
+     * @param maxLag    Max shift to look for in nanos, in either direction
+     * @return Shift in nanos to subtract from timestamps of the take (relative to its start) to match the reference
+     * (relative to its start), or 0 if either take is empty
+     */
+    public long findLag(DataSet3 reference, DataSet3 take, long maxLag) {
+        final int referenceLength = resample(reference, mReference);
+        final int takeLength = resample(take, mTake);
+        if (referenceLength == 0 || takeLength == 0) {
+            return 0;
+        }
+        return findLag(referenceLength, takeLength, (int) (maxLag / mPeriod)) * mPeriod;
+    }
+
+    /**
+     * Aligns takes to the first one and averages them. The result has the timeline of the first take, resampled to
+     * the period of this aligner; each of its events averages all takes that overlap it after alignment. Empty takes
+     * are skipped.
+     *
+     * @param takes  Takes of the same motion, the first one is the reference
+     * @param maxLag Max shift to look for in nanos, in either direction
+     * @return A new data set with averaged values
+     */
+    public DataSet3 average(DataSet3[] takes, long maxLag) {
+        final int length = resample(takes[0], mReference);
+        final int maxLagSamples = (int) (maxLag / mPeriod);
+        final float[][] sums = mSums;
+        final int[] counts = mCounts;
+        for (int channel = 0; channel < 3; channel++) {
+            System.arraycopy(mReference[channel], 0, sums[channel], 0, length);
+        }
+        for (int i = 0; i < length; i++) {
+            counts[i] = 1;
+        }
+
+        for (int t = 1; t < takes.length; t++) {
+            final int takeLength = resample(takes[t], mTake);
+            if (length == 0 || takeLength == 0) {
+                continue;
+            }
+            final int lag = findLag(length, takeLength, maxLagSamples);
+            // Reference event i corresponds to take event i + lag
+            final int start = Math.max(0, -lag);
+            final int end = Math.min(length, takeLength - lag);
+            for (int channel = 0; channel < 3; channel++) {
+                final float[] sum = sums[channel];
+                final float[] values = mTake[channel];
+                for (int i = start; i < end; i++) {
+                    sum[i] += values[i + lag];
+                }
+            }
+            for (int i = start; i < end; i++) {
+                counts[i]++;
+            }
+        }
+
+        DataSet3 result = new DataSet3(length);
+        final long startTime = length != 0 ? takes[0].times[0] : 0;
+        for (int i = 0; i < length; i++) {
+            final float scale = 1f / counts[i];
+            result.times[i] = startTime + i * mPeriod;
+            result.valuesX[i] = sums[0][i] * scale;
+            result.valuesY[i] = sums[1][i] * scale;
+            result.valuesZ[i] = sums[2][i] * scale;
+        }
+        result.length = length;
+        return result;
+    }
+
+    /**
+     * Finds the lag maximizing cross-correlation of resampled buffers, summed over all channels. Means are removed
+     * before correlation, so that constant offsets (e.g. residual gravity) don't dominate
+     */
+    private int findLag(int referenceLength, int takeLength, int maxLag) {
+        final int n = mFft.getSize();
+        final float[] correlation = mCorrelation;
+        for (int i = 0; i < n; i++) {
+            correlation[i] = 0;
+        }
+        for (int channel = 0; channel < 3; channel++) {
+            final float referenceMean = removeMean(mReference[channel], referenceLength);
+            final float takeMean = removeMean(mTake[channel], takeLength);
+            mFft.correlate(mReference[channel], referenceLength, mTake[channel], takeLength, mChannelCorrelation);
+            for (int i = 0; i < n; i++) {
+                correlation[i] += mChannelCorrelation[i];
+            }
+            // Restore values, they are averaged later
+            addConstant(mReference[channel], referenceLength, referenceMean);
+            addConstant(mTake[channel], takeLength, takeMean);
+        }
+
+        final int maxPositive = Math.min(maxLag, takeLength - 1);
+        final int maxNegative = Math.min(maxLag, referenceLength - 1);
+        int bestLag = 0;
+        float best = correlation[0];
+        for (int lag = 1; lag <= maxPositive; lag++) {
+            if (correlation[lag] > best) {
+                best = correlation[lag];
+                bestLag = lag;
+            }
+        }
+        for (int lag = 1; lag <= maxNegative; lag++) {
+            if (correlation[n - lag] > best) {
+                best = correlation[n - lag];
+                bestLag = -lag;
+            }
+        }
+        return bestLag;
+    }
+
+    /**
+     * Resamples a take to the period of this aligner, starting from its first event
+     *
+     * @return Number of resampled events, 0 if the take is empty
+     */
+    private int resample(DataSet3 dataSet, float[][] out) {
+        if (dataSet.length == 0) {
+            return 0;
+        }
+        final long start = dataSet.times[0];
+        final long duration = dataSet.times[dataSet.length - 1] - start;
+        final int length = (int) Math.min(duration / mPeriod + 1, mMaxSamples);
+        for (int i = 0; i < length; i++) {
+            mTimes[i] = start + i * mPeriod;
+        }
+        mCursor.reset();
+        dataSet.getForTimes(mTimes, length, mCursor, out);
+        return length;
+    }
+
+    private static float removeMean(float[] values, int length) {
+        float sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += values[i];
+        }
+        final float mean = sum / length;
+        addConstant(values, length, -mean);
+        return mean;
+    }
+
+    private static void addConstant(float[] values, int length, float constant) {
+        for (int i = 0; i < length; i++) {
+            values[i] += constant;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline.source;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>Base class for sources that play back readings from memory rather than from hardware. Readings are delivered on
+ * a dedicated thread, either paced at real time or as fast as possible.</p><p>In real time mode, timestamps are shifted
+ * so that the first reading is stamped with the time playback started, as per {@link #getTimeNanos()}. In fast mode,
+ * timestamps are delivered as is and the source's clock follows them, so delivery latency is always zero.</p>
+ *
+ * @author Paul Danyliuk
+ */
+public abstract class PlaybackSensorSource implements SensorSource {
+
+    private final boolean mIsRealTime;
+    private volatile boolean mIsRunning;
+    private volatile long mFastClock;
+    private Thread mThread;
+
+    /**
+     * Reading to be filled by {@link #nextReading(int[], Reading)}
+     */
+    protected static final class Reading {
+        public int sensorType;
+        public long timestamp;
+        public final float[] values = new float[4];
+    }
+
+    /**
+     * @param isRealTime true to pace playback at real time, false to deliver readings as fast as possible
+     */
+    protected PlaybackSensorSource(boolean isRealTime) {
+        mIsRealTime = isRealTime;
+    }
+
+    public boolean isRealTime() {
+        return mIsRealTime;
+    }
+
+    @Override
+    public boolean isLive() {
+        return false;
+    }
+
+    @Override
+    public long getTimeNanos() {
+        return mIsRealTime ? System.nanoTime() : mFastClock;
+    }
+
+    @Override
+    public synchronized void start(final int[] sensorTypes, int samplingRateMicros, final Listener listener) {
+        if (mThread != null && mThread.isAlive()) {
+            throw new IllegalStateException("Playback is started already");
+        }
+        rewind(sensorTypes, samplingRateMicros);
+        mIsRunning = true;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                play(sensorTypes, listener);
+            }
+        }, getClass().getSimpleName());
+        mThread.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        mIsRunning = false;
+        if (mThread != null) {
+            mThread.interrupt();
+            mThread = null;
+        }
+    }
+
+    /**
+     * Blocks until playback finishes or is stopped, e.g. to process a replayed recording synchronously in tests
+     *
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     */
+    public void await() throws InterruptedException {
+        final Thread thread;
+        synchronized (this) {
+            thread = mThread;
+        }
+        if (thread != null) {
+            thread.join();
+        }
+    }
+
+    private void play(int[] sensorTypes, Listener listener) {
+        final Reading reading = new Reading();
+        long firstTimestamp = 0;
+        long startTime = 0;
+        boolean isFirst = true;
+        while (mIsRunning && nextReading(sensorTypes, reading)) {
+            long timestamp = reading.timestamp;
+            if (mIsRealTime) {
+                if (isFirst) {
+                    firstTimestamp = timestamp;
+                    startTime = System.nanoTime();
+                }
+                timestamp = timestamp - firstTimestamp + startTime;
+                long wait;
+                while ((wait = timestamp - System.nanoTime()) > 0 && mIsRunning) {
+                    LockSupport.parkNanos(wait);
+                }
+            } else {
+                mFastClock = timestamp;
+            }
+            isFirst = false;
+            if (mIsRunning) {
+                listener.onSensorData(reading.sensorType, timestamp, reading.values);
+            }
+        }
+        if (mIsRunning) {
+            listener.onSourceFinished();
+        }
+    }
+
+    /**
+     * Prepares for playback from the start. Called on the thread that starts playback
+     *
+     * @param sensorTypes        Types of sensors to play back
+     * @param samplingRateMicros Requested interval between readings in micros
+     */
+    protected abstract void rewind(int[] sensorTypes, int samplingRateMicros);
+
+    /**
+     * Produces the next reading, in order of timestamps. Called on the playback thread
+     *
+     * @param sensorTypes Types of sensors to play back, same as passed to {@link #rewind(int[], int)}. Readings of
+     *                    other types must be skipped
+     * @param out         Reading to fill
+     * @return true if the reading was produced, false if there are no more readings
+     */
+    protected abstract boolean nextReading(int[] sensorTypes, Reading out);
+
+    /**
+     * @param sensorTypes Array of sensor types
+     * @param sensorType  Type to look for
+     * @return true if the array contains the type
+     */
+    protected static boolean contains(int[] sensorTypes, int sensorType) {
+        for (int type : sensorTypes) {
+            if (type == sensorType) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
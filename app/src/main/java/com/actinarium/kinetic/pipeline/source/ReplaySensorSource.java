@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline.source;
+
+import com.actinarium.kinetic.util.DataSet3;
+import com.actinarium.kinetic.util.DataSet4;
+
+/**
+ * Sensor source replaying a recorded {@link TraceFile}. Readings of all channels are merged in order of timestamps
+ *
+ * @author Paul Danyliuk
+ */
+public class ReplaySensorSource extends PlaybackSensorSource {
+
+    private final TraceFile mTrace;
+    private final int[] mCursors;
+
+    /**
+     * Create a source replaying a trace
+     *
+     * @param trace      Trace to replay
+     * @param isRealTime true to replay at real time, false to replay as fast as possible
+     */
+    public ReplaySensorSource(TraceFile trace, boolean isRealTime) {
+        super(isRealTime);
+        mTrace = trace;
+        mCursors = new int[trace.getChannelCount()];
+    }
+
+    public TraceFile getTrace() {
+        return mTrace;
+    }
+
+    @Override
+    public boolean hasSensor(int sensorType) {
+        return mTrace.get(sensorType) != null;
+    }
+
+    @Override
+    public String getSensorName(int sensorType) {
+        return "Replayed sensor " + sensorType;
+    }
+
+    @Override
+    public int getMinDelayMicros(int sensorType) {
+        return 0;
+    }
+
+    @Override
+    protected void rewind(int[] sensorTypes, int samplingRateMicros) {
+        for (int i = 0; i < mCursors.length; i++) {
+            mCursors[i] = 0;
+        }
+    }
+
+    @Override
+    protected boolean nextReading(int[] sensorTypes, Reading out) {
+        // Few channels, so a linear scan for the earliest pending reading is as good as a heap
+        int next = -1;
+        long nextTime = Long.MAX_VALUE;
+        for (int i = 0; i < mCursors.length; i++) {
+            final DataSet3 data = mTrace.getData(i);
+            if (mCursors[i] < data.length && data.times[mCursors[i]] < nextTime
+                    && contains(sensorTypes, mTrace.getType(i))) {
+                next = i;
+                nextTime = data.times[mCursors[i]];
+            }
+        }
+        if (next == -1) {
+            return false;
+        }
+
+        final DataSet3 data = mTrace.getData(next);
+        final int index = mCursors[next]++;
+        out.sensorType = mTrace.getType(next);
+        out.timestamp = nextTime;
+        out.values[0] = data.valuesX[index];
+        out.values[1] = data.valuesY[index];
+        out.values[2] = data.valuesZ[index];
+        out.values[3] = data instanceof DataSet4 ? ((DataSet4) data).values4[index] : 0f;
+        return true;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline.source;
+
+/**
+ * Source of sensor readings for {@link com.actinarium.kinetic.pipeline.DataRecorder}. Decouples the capture path from
+ * {@link android.hardware.SensorManager}, so that it can be fed with recorded traces or synthetic data and exercised
+ * without a device.
+ *
+ * @author Paul Danyliuk
+ */
+public interface SensorSource {
+
+    /**
+     * @param sensorType Sensor type, e.g. {@link android.hardware.Sensor#TYPE_ACCELEROMETER}
+     * @return true if this source can deliver readings of this type
+     */
+    boolean hasSensor(int sensorType);
+
+    /**
+     * @param sensorType Sensor type this source has
+     * @return Human readable name of the sensor
+     */
+    String getSensorName(int sensorType);
+
+    /**
+     * @param sensorType Sensor type this source has
+     * @return Minimum interval between readings in micros, or 0 if unknown
+     */
+    int getMinDelayMicros(int sensorType);
+
+    /**
+     * @return true if readings are produced by hardware in real time, so it's worth listening to them before recording
+     * starts (e.g. to estimate gravity). Playback sources deliver their data only once, so they should be started
+     * right when recording starts
+     */
+    boolean isLive();
+
+    /**
+     * @return Current time in nanos, in the same time base as reading timestamps
+     */
+    long getTimeNanos();
+
+    /**
+     * Starts delivering readings. Depending on implementation, readings may be delivered on a different thread
+     *
+     * @param sensorTypes        Types of sensors to deliver readings of. Types this source doesn't have are ignored
+     * @param samplingRateMicros Requested interval between readings in micros. Sources may deliver faster or slower
+     * @param listener           Listener to deliver readings to
+     */
+    void start(int[] sensorTypes, int samplingRateMicros, Listener listener);
+
+    /**
+     * Stops delivering readings. Some readings may still arrive after this call if delivered on a different thread
+     */
+    void stop();
+
+    /**
+     * Receiver of sensor readings
+     */
+    interface Listener {
+
+        /**
+         * Called for each sensor reading
+         *
+         * @param sensorType Sensor type
+         * @param timestamp  Reading timestamp in nanos
+         * @param values     Reading values. Owned by the source and reused, so copy them if you need to keep them
+         */
+        void onSensorData(int sensorType, long timestamp, float[] values);
+
+        /**
+         * Called when a source has no more readings to deliver. Never called for live sources
+         */
+        void onSourceFinished();
+    }
+}
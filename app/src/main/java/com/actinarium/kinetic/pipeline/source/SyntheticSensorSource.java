@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline.source;
+
+import android.hardware.Sensor;
+
+import java.util.Random;
+
+/**
+ * <p>Sensor source generating a deterministic synthetic motion: the device lies flat, oscillates along world X axis and
+ * sways around Z axis. Accelerometer, gyroscope, rotation vector and linear acceleration readings are consistent with
+ * each other, so the processing pipeline should recover the motion. Rate, duration, noise, dropped samples and
+ * timestamp jitter are configurable via {@link Builder}, and the same seed always produces the same readings.</p>
+ * <p>Usage:</p>
+ * <pre>
+ * SyntheticSensorSource source = new SyntheticSensorSource.Builder()
+ *         .setRate(4000)
+ *         .setNoise(0.05f)
+ *         .setGaps(0.001f, 20)
+ *         .build();
+ * </pre>
+ *
+ * @author Paul Danyliuk
+ */
+public class SyntheticSensorSource extends PlaybackSensorSource {
+
+    private static final float GRAVITY = 9.81f;
+    private static final int[] SUPPORTED_TYPES = {
+            Sensor.TYPE_ACCELEROMETER,
+            Sensor.TYPE_GYROSCOPE,
+            Sensor.TYPE_ROTATION_VECTOR,
+            Sensor.TYPE_LINEAR_ACCELERATION
+    };
+
+    private final float mRate;
+    private final long mDurationNanos;
+    private final float mNoise;
+    private final float mJitter;
+    private final float mGapProbability;
+    private final int mGapLength;
+    private final long mSeed;
+    private final float mAmplitude;
+    private final float mFrequency;
+    private final float mRotationAmplitude;
+    private final float mRotationFrequency;
+
+    // Playback state
+    private final int[] mTypes = new int[SUPPORTED_TYPES.length];
+    private final int[] mGapRemaining = new int[SUPPORTED_TYPES.length];
+    private int mTypeCount;
+    private int mTypeIndex;
+    private long mTick;
+    private long mTickCount;
+    private double mPeriodNanos;
+    private Random mRandom;
+
+    private SyntheticSensorSource(Builder builder) {
+        super(builder.mIsRealTime);
+        mRate = builder.mRate;
+        mDurationNanos = builder.mDurationNanos;
+        mNoise = builder.mNoise;
+        mJitter = builder.mJitter;
+        mGapProbability = builder.mGapProbability;
+        mGapLength = builder.mGapLength;
+        mSeed = builder.mSeed;
+        mAmplitude = builder.mAmplitude;
+        mFrequency = builder.mFrequency;
+        mRotationAmplitude = builder.mRotationAmplitude;
+        mRotationFrequency = builder.mRotationFrequency;
+    }
+
+    @Override
+    public boolean hasSensor(int sensorType) {
+        return contains(SUPPORTED_TYPES, sensorType);
+    }
+
+    @Override
+    public String getSensorName(int sensorType) {
+        return "Synthetic sensor " + sensorType;
+    }
+
+    @Override
+    public int getMinDelayMicros(int sensorType) {
+        return mRate > 0 ? (int) (1000000 / mRate) : 0;
+    }
+
+    @Override
+    protected void rewind(int[] sensorTypes, int samplingRateMicros) {
+        mTypeCount = 0;
+        for (int type : SUPPORTED_TYPES) {
+            if (contains(sensorTypes, type)) {
+                mGapRemaining[mTypeCount] = 0;
+                mTypes[mTypeCount++] = type;
+            }
+        }
+        mPeriodNanos = mRate > 0 ? 1e9 / mRate : samplingRateMicros * 1000.0;
+        mTickCount = (long) (mDurationNanos / mPeriodNanos) + 1;
+        mTick = 0;
+        mTypeIndex = 0;
+        mRandom = new Random(mSeed);
+    }
+
+    @Override
+    protected boolean nextReading(int[] sensorTypes, Reading out) {
+        while (mTick < mTickCount && mTypeCount != 0) {
+            final int index = mTypeIndex;
+            final long tick = mTick;
+            if (++mTypeIndex == mTypeCount) {
+                mTypeIndex = 0;
+                mTick++;
+            }
+
+            // Dropped samples
+            if (mGapRemaining[index] > 0) {
+                mGapRemaining[index]--;
+                continue;
+            }
+            if (mGapProbability > 0 && mRandom.nextFloat() < mGapProbability) {
+                mGapRemaining[index] = mGapLength - 1;
+                continue;
+            }
+
+            double time = tick * mPeriodNanos;
+            if (mJitter > 0) {
+                time += (mRandom.nextFloat() * 2 - 1) * mJitter * mPeriodNanos;
+            }
+            out.sensorType = mTypes[index];
+            out.timestamp = Math.round(time);
+            generate(out.sensorType, tick * mPeriodNanos / 1e9, out.values);
+            return true;
+        }
+        return false;
+    }
+
+    private void generate(int sensorType, double t, float[] values) {
+        final double omega = 2 * Math.PI * mFrequency;
+        final double rotationOmega = 2 * Math.PI * mRotationFrequency;
+        final double theta = mRotationAmplitude * Math.sin(rotationOmega * t);
+        final double accel = -mAmplitude * omega * omega * Math.sin(omega * t);
+
+        switch (sensorType) {
+            case Sensor.TYPE_ACCELEROMETER:
+            case Sensor.TYPE_LINEAR_ACCELERATION:
+                // World X acceleration in device coordinates, rotated by theta around Z
+                values[0] = (float) (Math.cos(theta) * accel) + noise();
+                values[1] = (float) (-Math.sin(theta) * accel) + noise();
+                values[2] = (sensorType == Sensor.TYPE_ACCELEROMETER ? GRAVITY : 0f) + noise();
+                values[3] = 0f;
+                break;
+            case Sensor.TYPE_GYROSCOPE:
+                values[0] = noise();
+                values[1] = noise();
+                values[2] = (float) (mRotationAmplitude * rotationOmega * Math.cos(rotationOmega * t)) + noise();
+                values[3] = 0f;
+                break;
+            case Sensor.TYPE_ROTATION_VECTOR:
+                // Unit quaternion stays noiseless, as real fused rotation vectors are smooth
+                values[0] = 0f;
+                values[1] = 0f;
+                values[2] = (float) Math.sin(theta / 2);
+                values[3] = (float) Math.cos(theta / 2);
+                break;
+        }
+    }
+
+    private float noise() {
+        return mNoise > 0 ? (float) mRandom.nextGaussian() * mNoise : 0f;
+    }
+
+    /**
+     * Builder of synthetic sensor sources
+     */
+    public static final class Builder {
+
+        private boolean mIsRealTime;
+        private float mRate;
+        private long mDurationNanos = 10000000000L;
+        private float mNoise;
+        private float mJitter;
+        private float mGapProbability;
+        private int mGapLength = 1;
+        private long mSeed;
+        private float mAmplitude = 0.1f;
+        private float mFrequency = 1f;
+        private float mRotationAmplitude = 0.5f;
+        private float mRotationFrequency = 0.5f;
+
+        /**
+         * @param isRealTime true to pace readings at real time, false (default) to deliver them as fast as possible
+         * @return this builder
+         */
+        public Builder setRealTime(boolean isRealTime) {
+            mIsRealTime = isRealTime;
+            return this;
+        }
+
+        /**
+         * @param rateHz Readings per second for each sensor, e.g. 4000 for stress tests, or 0 (default) to follow the
+         *               sampling rate requested when starting the source
+         * @return this builder
+         */
+        public Builder setRate(float rateHz) {
+            mRate = rateHz;
+            return this;
+        }
+
+        /**
+         * @param durationNanos Duration of generated motion in nanos, 10 s by default
+         * @return this builder
+         */
+        public Builder setDuration(long durationNanos) {
+            mDurationNanos = durationNanos;
+            return this;
+        }
+
+        /**
+         * @param stdDev Standard deviation of gaussian noise added to accelerometer and gyroscope readings, 0 by
+         *               default
+         * @return this builder
+         */
+        public Builder setNoise(float stdDev) {
+            mNoise = stdDev;
+            return this;
+        }
+
+        /**
+         * @param fraction Max timestamp deviation as a fraction of the sampling period, clamped to 0..0.45 so that
+         *                 readings of one sensor stay ordered. 0 by default
+         * @return this builder
+         */
+        public Builder setJitter(float fraction) {
+            mJitter = Math.max(0f, Math.min(0.45f, fraction));
+            return this;
+        }
+
+        /**
+         * @param probability Probability of each reading to start a gap, 0 (no gaps) by default
+         * @param length      Number of readings of the same sensor dropped in each gap
+         * @return this builder
+         */
+        public Builder setGaps(float probability, int length) {
+            mGapProbability = probability;
+            mGapLength = Math.max(1, length);
+            return this;
+        }
+
+        /**
+         * @param seed Seed for noise, jitter and gaps
+         * @return this builder
+         */
+        public Builder setSeed(long seed) {
+            mSeed = seed;
+            return this;
+        }
+
+        /**
+         * @param amplitude Amplitude of oscillation along X axis in meters, 0.1 by default
+         * @param frequency Frequency of oscillation in Hz, 1 by default
+         * @return this builder
+         */
+        public Builder setMotion(float amplitude, float frequency) {
+            mAmplitude = amplitude;
+            mFrequency = frequency;
+            return this;
+        }
+
+        /**
+         * @param amplitude Amplitude of sway around Z axis in radians, 0.5 by default
+         * @param frequency Frequency of sway in Hz, 0.5 by default
+         * @return this builder
+         */
+        public Builder setRotation(float amplitude, float frequency) {
+            mRotationAmplitude = amplitude;
+            mRotationFrequency = frequency;
+            return this;
+        }
+
+        public SyntheticSensorSource build() {
+            return new SyntheticSensorSource(this);
+        }
+    }
+}
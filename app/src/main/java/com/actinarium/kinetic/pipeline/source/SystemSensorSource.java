@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline.source;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Sensor source backed by device sensors via {@link SensorManager}. Readings are delivered on the main thread
+ *
+ * @author Paul Danyliuk
+ */
+public class SystemSensorSource implements SensorSource, SensorEventListener {
+
+    private static final String TAG = "SystemSensorSource";
+
+    private final SensorManager mSensorManager;
+    private Listener mListener;
+
+    /**
+     * Create a source of device sensors
+     *
+     * @param context Context, used to look up sensor manager service
+     */
+    public SystemSensorSource(Context context) {
+        mSensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+    }
+
+    /**
+     * @param sensorType Sensor type
+     * @return Default sensor of this type, or null if the device doesn't have one
+     */
+    public Sensor getSensor(int sensorType) {
+        return mSensorManager.getDefaultSensor(sensorType);
+    }
+
+    @Override
+    public boolean hasSensor(int sensorType) {
+        return getSensor(sensorType) != null;
+    }
+
+    @Override
+    public String getSensorName(int sensorType) {
+        return getSensor(sensorType).getName();
+    }
+
+    @Override
+    public int getMinDelayMicros(int sensorType) {
+        return getSensor(sensorType).getMinDelay();
+    }
+
+    @Override
+    public boolean isLive() {
+        return true;
+    }
+
+    @Override
+    public long getTimeNanos() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    @Override
+    public void start(int[] sensorTypes, int samplingRateMicros, Listener listener) {
+        mListener = listener;
+        // todo: enable reporting latency and flush
+        for (int type : sensorTypes) {
+            final Sensor sensor = getSensor(type);
+            if (sensor != null) {
+                mSensorManager.registerListener(this, sensor, samplingRateMicros);
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        mSensorManager.unregisterListener(this);
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        mListener.onSensorData(event.sensor.getType(), event.timestamp, event.values);
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        Log.d(TAG, sensor.getName() + " accuracy: " + accuracy);
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline.source;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>Compression of sensor data columns, in the style of Facebook's Gorilla time series database:</p>
+ * <ul>
+ * <li>Timestamps are stored as deltas of deltas, since sensor intervals are nearly constant, each as a zig-zag
+ * varint. A steady stream costs one byte per sample.</li>
+ * <li>Float values are XOR'ed with the previous value, and only the meaningful bits of the result are stored, reusing
+ * the previous leading/trailing zero window when it fits. Unchanged values cost one bit.</li>
+ * </ul>
+ * <p>Encoding and decoding work on NIO buffers and don't allocate per sample. Buffers must be large enough, see
+ * {@link #getMaxTimesSize(int)} and {@link #getMaxValuesSize(int)}.</p>
+ *
+ * @author Paul Danyliuk
+ */
+public final class TraceCodec {
+
+    /**
+     * Private constructor, to prevent instantiation
+     */
+    private TraceCodec() {}
+
+    /**
+     * @param length Number of timestamps
+     * @return Max number of bytes {@link #encodeTimes(long[], int, ByteBuffer)} can produce
+     */
+    public static int getMaxTimesSize(int length) {
+        return length * 10;
+    }
+
+    /**
+     * @param length Number of values
+     * @return Max number of bytes {@link #encodeValues(float[], int, ByteBuffer)} can produce
+     */
+    public static int getMaxValuesSize(int length) {
+        // The first value takes 32 bits, each next one 44 bits at worst, plus padding
+        return length * 6 + 4;
+    }
+
+    /**
+     * Encodes timestamps as zig-zag varint deltas of deltas
+     *
+     * @param times  Timestamps
+     * @param length Number of timestamps to encode
+     * @param out    Buffer to write to, starting at its position
+     */
+    public static void encodeTimes(long[] times, int length, ByteBuffer out) {
+        long prevTime = 0;
+        long prevDelta = 0;
+        for (int i = 0; i < length; i++) {
+            final long time = times[i];
+            if (i == 0) {
+                writeVarLong(out, zigZag(time));
+            } else {
+                final long delta = time - prevTime;
+                writeVarLong(out, zigZag(delta - prevDelta));
+                prevDelta = delta;
+            }
+            prevTime = time;
+        }
+    }
+
+    /**
+     * Decodes timestamps written by {@link #encodeTimes(long[], int, ByteBuffer)}
+     *
+     * @param in     Buffer to read from, starting at its position
+     * @param times  Array to decode timestamps into
+     * @param length Number of timestamps to decode
+     */
+    public static void decodeTimes(ByteBuffer in, long[] times, int length) {
+        long time = 0;
+        long delta = 0;
+        for (int i = 0; i < length; i++) {
+            if (i == 0) {
+                time = unZigZag(readVarLong(in));
+            } else {
+                delta += unZigZag(readVarLong(in));
+                time += delta;
+            }
+            times[i] = time;
+        }
+    }
+
+    /**
+     * Encodes values as XOR with the previous value, storing only meaningful bits
+     *
+     * @param values Values
+     * @param length Number of values to encode
+     * @param out    Buffer to write to, starting at its position. Written up to a whole byte
+     */
+    public static void encodeValues(float[] values, int length, ByteBuffer out) {
+        if (length == 0) {
+            return;
+        }
+        final BitWriter writer = new BitWriter(out);
+        int prevBits = Float.floatToRawIntBits(values[0]);
+        writer.write(prevBits, 32);
+
+        int prevLeading = -1;
+        int prevTrailing = 0;
+        for (int i = 1; i < length; i++) {
+            final int bits = Float.floatToRawIntBits(values[i]);
+            final int xor = bits ^ prevBits;
+            prevBits = bits;
+            if (xor == 0) {
+                writer.write(0, 1);
+                continue;
+            }
+
+            // Leading zero count has to fit into 5 bits
+            final int leading = Math.min(Integer.numberOfLeadingZeros(xor), 31);
+            final int trailing = Integer.numberOfTrailingZeros(xor);
+            if (prevLeading != -1 && leading >= prevLeading && trailing >= prevTrailing) {
+                // Meaningful bits fit into the previous window
+                writer.write(0b10, 2);
+                writer.write(xor >>> prevTrailing, 32 - prevLeading - prevTrailing);
+            } else {
+                final int meaningful = 32 - leading - trailing;
+                writer.write(0b11, 2);
+                writer.write(leading, 5);
+                writer.write(meaningful - 1, 5);
+                writer.write(xor >>> trailing, meaningful);
+                prevLeading = leading;
+                prevTrailing = trailing;
+            }
+        }
+        writer.flush();
+    }
+
+    /**
+     * Decodes values written by {@link #encodeValues(float[], int, ByteBuffer)}
+     *
+     * @param in     Buffer to read from, starting at its position. Read up to a whole byte
+     * @param values Array to decode values into
+     * @param length Number of values to decode
+     * @throws IllegalArgumentException          if the data is corrupt
+     * @throws java.nio.BufferUnderflowException if the data is truncated
+     */
+    public static void decodeValues(ByteBuffer in, float[] values, int length) {
+        if (length == 0) {
+            return;
+        }
+        final BitReader reader = new BitReader(in);
+        int bits = reader.read(32);
+        values[0] = Float.intBitsToFloat(bits);
+
+        int leading = 0;
+        int trailing = 0;
+        for (int i = 1; i < length; i++) {
+            if (reader.read(1) != 0) {
+                if (reader.read(1) != 0) {
+                    leading = reader.read(5);
+                    trailing = 32 - leading - (reader.read(5) + 1);
+                    if (trailing < 0) {
+                        throw new IllegalArgumentException("Meaningful bits don't fit into a float at value " + i);
+                    }
+                }
+                bits ^= reader.read(32 - leading - trailing) << trailing;
+            }
+            values[i] = Float.intBitsToFloat(bits);
+        }
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarLong(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    /**
+     * Writes bit sequences to a byte buffer, most significant bit first
+     */
+    private static final class BitWriter {
+
+        private final ByteBuffer mOut;
+        private long mBuffer;
+        private int mCount;
+
+        BitWriter(ByteBuffer out) {
+            mOut = out;
+        }
+
+        /**
+         * @param value Bits to write, in the lowest bits
+         * @param count Number of bits to write, up to 32
+         */
+        void write(int value, int count) {
+            mBuffer = (mBuffer << count) | (value & (0xFFFFFFFFL >>> (32 - count)));
+            mCount += count;
+            while (mCount >= 8) {
+                mCount -= 8;
+                mOut.put((byte) (mBuffer >>> mCount));
+            }
+        }
+
+        /**
+         * Writes remaining bits, padded with zeros to a whole byte
+         */
+        void flush() {
+            if (mCount > 0) {
+                mOut.put((byte) (mBuffer << (8 - mCount)));
+                mCount = 0;
+            }
+        }
+    }
+
+    /**
+     * Reads bit sequences from a byte buffer, most significant bit first
+     */
+    private static final class BitReader {
+
+        private final ByteBuffer mIn;
+        private long mBuffer;
+        private int mCount;
+
+        BitReader(ByteBuffer in) {
+            mIn = in;
+        }
+
+        /**
+         * @param count Number of bits to read, up to 32
+         * @return Bits read, in the lowest bits
+         */
+        int read(int count) {
+            while (mCount < count) {
+                mBuffer = (mBuffer << 8) | (mIn.get() & 0xFF);
+                mCount += 8;
+            }
+            mCount -= count;
+            return (int) ((mBuffer >>> mCount) & (0xFFFFFFFFL >>> (32 - count)));
+        }
+    }
+}
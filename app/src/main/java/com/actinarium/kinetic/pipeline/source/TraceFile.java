@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline.source;
+
+import com.actinarium.kinetic.pipeline.SensorChannels;
+import com.actinarium.kinetic.util.DataSet3;
+import com.actinarium.kinetic.util.DataSet4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * <p>A recorded trace: raw readings of several sensors along with the initial gravity, as needed to replay or
+ * reprocess a recording. Stored in a big-endian binary format:</p>
+ * <pre>
+ * int     magic ("KTRC")
+ * int     version
+ * float*3 gravity
+ * int     channel count
+ * for each channel:
+ *   int     sensor type
+ *   int     value count (3 or 4)
+ *   int     length
+ *   for timestamps and each of value count:
+ *     int     column size in bytes
+ *     byte*N  column compressed with {@link TraceCodec}
+ * </pre>
+ *
+ * @author Paul Danyliuk
+ */
+public final class TraceFile {
+
+    public static final int MAGIC = 0x4B545243;
+    public static final int VERSION = 2;
+    public static final String EXTENSION = ".ktrace";
+
+    /**
+     * Size of the file header, which is larger than channel and column headers
+     */
+    private static final int HEADER_SIZE = 24;
+    private static final int CHANNEL_HEADER_SIZE = 12;
+
+    private final float[] mGravity;
+    private final int[] mTypes;
+    private final DataSet3[] mData;
+
+    /**
+     * Create a trace over existing data. Data is not copied
+     *
+     * @param gravity Initial gravity
+     * @param types   Sensor types
+     * @param data    Data set of each sensor type, {@link DataSet4} for rotation vectors
+     */
+    public TraceFile(float[] gravity, int[] types, DataSet3[] data) {
+        if (types.length != data.length) {
+            throw new IllegalArgumentException("Got " + types.length + " types and " + data.length + " data sets");
+        }
+        mGravity = gravity;
+        mTypes = types;
+        mData = data;
+    }
+
+    /**
+     * Create a trace holding a copy of recorded data
+     *
+     * @param gravity  Initial gravity
+     * @param channels Recorded channels
+     * @return A trace
+     */
+    public static TraceFile copyOf(float[] gravity, SensorChannels channels) {
+        final int count = channels.size();
+        int[] types = new int[count];
+        DataSet3[] data = new DataSet3[count];
+        for (int i = 0; i < count; i++) {
+            types[i] = channels.getType(i);
+            final DataSet3 source = channels.get(types[i]);
+            data[i] = source instanceof DataSet4 ? new DataSet4((DataSet4) source) : new DataSet3(source);
+        }
+        return new TraceFile(gravity.clone(), types, data);
+    }
+
+    public float[] getGravity() {
+        return mGravity;
+    }
+
+    public int getChannelCount() {
+        return mTypes.length;
+    }
+
+    public int getType(int index) {
+        return mTypes[index];
+    }
+
+    public DataSet3 getData(int index) {
+        return mData[index];
+    }
+
+    /**
+     * @param sensorType Sensor type
+     * @return Data of this sensor type, or null if the trace doesn't have it
+     */
+    public DataSet3 get(int sensorType) {
+        for (int i = 0; i < mTypes.length; i++) {
+            if (mTypes[i] == sensorType) {
+                return mData[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads a trace from file. The file is memory-mapped rather than read through a stream
+     *
+     * @param file File to read
+     * @return The trace
+     * @throws IOException if the file cannot be read or is not a trace
+     */
+    public static TraceFile read(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads a trace from a stream
+     *
+     * @param stream Stream to read till the end, not closed by this method
+     * @return The trace
+     * @throws IOException if the stream cannot be read or doesn't contain a trace
+     */
+    public static TraceFile read(InputStream stream) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = stream.read(buffer)) != -1) {
+            bytes.write(buffer, 0, count);
+        }
+        return read(ByteBuffer.wrap(bytes.toByteArray()));
+    }
+
+    /**
+     * Reads a trace from a buffer
+     *
+     * @param buffer Buffer to read, starting at its position
+     * @return The trace
+     * @throws IOException if the buffer doesn't contain a trace
+     */
+    public static TraceFile read(ByteBuffer buffer) throws IOException {
+        final ByteBuffer in = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+        try {
+            if (in.getInt() != MAGIC) {
+                throw new IOException("Not a trace file");
+            }
+            final int version = in.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported trace version " + version);
+            }
+            float[] gravity = new float[3];
+            for (int i = 0; i < 3; i++) {
+                gravity[i] = in.getFloat();
+            }
+            final int count = in.getInt();
+            if (count < 0 || count > in.remaining() / CHANNEL_HEADER_SIZE) {
+                throw new IOException("Corrupt trace header");
+            }
+            int[] types = new int[count];
+            DataSet3[] data = new DataSet3[count];
+            for (int i = 0; i < count; i++) {
+                types[i] = in.getInt();
+                final int valueCount = in.getInt();
+                final int length = in.getInt();
+                // Check length against what's left before allocating for it. Compressed timestamps take at least a byte
+                if (valueCount != 3 && valueCount != 4 || length < 0 || length > in.remaining()) {
+                    throw new IOException("Corrupt trace channel header");
+                }
+                final DataSet3 dataSet = valueCount == 4 ? new DataSet4(length) : new DataSet3(length);
+                TraceCodec.decodeTimes(slice(in), dataSet.times, length);
+                TraceCodec.decodeValues(slice(in), dataSet.valuesX, length);
+                TraceCodec.decodeValues(slice(in), dataSet.valuesY, length);
+                TraceCodec.decodeValues(slice(in), dataSet.valuesZ, length);
+                if (valueCount == 4) {
+                    TraceCodec.decodeValues(slice(in), ((DataSet4) dataSet).values4, length);
+                }
+                dataSet.length = length;
+                data[i] = dataSet;
+            }
+            return new TraceFile(gravity, types, data);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Trace is truncated", e);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupt trace column", e);
+        }
+    }
+
+    /**
+     * Writes this trace to file
+     *
+     * @param file File to write
+     * @throws IOException if the file cannot be written
+     */
+    public void write(File file) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            write(out.getChannel());
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes this trace to a stream
+     *
+     * @param stream Stream to write to, flushed but not closed by this method
+     * @throws IOException if the stream cannot be written
+     */
+    public void write(OutputStream stream) throws IOException {
+        write(Channels.newChannel(stream));
+        stream.flush();
+    }
+
+    /**
+     * Writes this trace to a byte channel, compressing each column with {@link TraceCodec}
+     *
+     * @param channel Channel to write to, not closed by this method
+     * @throws IOException if the channel cannot be written
+     */
+    public void write(WritableByteChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION);
+        for (int i = 0; i < 3; i++) {
+            header.putFloat(mGravity[i]);
+        }
+        header.putInt(mTypes.length);
+        writeFully(channel, header);
+
+        // One buffer for all columns, large enough for the worst case of the longest one
+        int maxLength = 0;
+        for (DataSet3 dataSet : mData) {
+            maxLength = Math.max(maxLength, dataSet.length);
+        }
+        ByteBuffer column = ByteBuffer.allocateDirect(
+                Math.max(TraceCodec.getMaxTimesSize(maxLength), TraceCodec.getMaxValuesSize(maxLength)));
+
+        for (int i = 0; i < mTypes.length; i++) {
+            final DataSet3 dataSet = mData[i];
+            final int length = dataSet.length;
+            header.clear();
+            header.putInt(mTypes[i]).putInt(dataSet.getChannels()).putInt(length);
+            writeFully(channel, header);
+
+            column.clear();
+            TraceCodec.encodeTimes(dataSet.times, length, column);
+            writeColumn(channel, header, column);
+            column.clear();
+            TraceCodec.encodeValues(dataSet.valuesX, length, column);
+            writeColumn(channel, header, column);
+            column.clear();
+            TraceCodec.encodeValues(dataSet.valuesY, length, column);
+            writeColumn(channel, header, column);
+            column.clear();
+            TraceCodec.encodeValues(dataSet.valuesZ, length, column);
+            writeColumn(channel, header, column);
+            if (dataSet instanceof DataSet4) {
+                column.clear();
+                TraceCodec.encodeValues(((DataSet4) dataSet).values4, length, column);
+                writeColumn(channel, header, column);
+            }
+        }
+    }
+
+    /**
+     * Writes a column prefixed with its size in bytes
+     */
+    private static void writeColumn(WritableByteChannel channel, ByteBuffer header, ByteBuffer column)
+            throws IOException {
+        column.flip();
+        header.clear();
+        header.putInt(column.remaining());
+        writeFully(channel, header);
+        while (column.hasRemaining()) {
+            channel.write(column);
+        }
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Reads a column prefixed with its size in bytes, advancing the buffer past it
+     *
+     * @return A view of the column bytes
+     */
+    private static ByteBuffer slice(ByteBuffer in) throws IOException {
+        final int size = in.getInt();
+        if (size < 0 || size > in.remaining()) {
+            throw new IOException("Corrupt trace column");
+        }
+        ByteBuffer column = in.slice();
+        column.limit(size);
+        in.position(in.position() + size);
+        return column;
+    }
+}
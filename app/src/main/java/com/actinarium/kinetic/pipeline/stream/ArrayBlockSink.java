@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline.stream;
+
+/**
+ * Block sink collecting all samples into growable in-memory arrays
+ *
+ * @author Paul Danyliuk
+ */
+public class ArrayBlockSink implements BlockSink {
+
+    private long[] mTimes;
+    private float[][] mChannels;
+    private int mLength;
+
+    /**
+     * Create a sink
+     *
+     * @param channels         Number of value channels
+     * @param expectedSamples  Initial capacity. The sink grows if more samples arrive, but sizing it right saves copying
+     */
+    public ArrayBlockSink(int channels, int expectedSamples) {
+        final int capacity = Math.max(expectedSamples, 1);
+        mTimes = new long[capacity];
+        mChannels = new float[channels][capacity];
+    }
+
+    @Override
+    public void write(Block block) {
+        final int count = block.length;
+        ensureCapacity(mLength + count);
+        System.arraycopy(block.times, 0, mTimes, mLength, count);
+        for (int channel = 0; channel < mChannels.length; channel++) {
+            System.arraycopy(block.values[channel], 0, mChannels[channel], mLength, count);
+        }
+        mLength += count;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mTimes.length) {
+            return;
+        }
+        final int newCapacity = Math.max(capacity, mTimes.length * 2);
+        long[] times = new long[newCapacity];
+        System.arraycopy(mTimes, 0, times, 0, mLength);
+        mTimes = times;
+        for (int channel = 0; channel < mChannels.length; channel++) {
+            float[] values = new float[newCapacity];
+            System.arraycopy(mChannels[channel], 0, values, 0, mLength);
+            mChannels[channel] = values;
+        }
+    }
+
+    /**
+     * @return Number of collected samples
+     */
+    public int getLength() {
+        return mLength;
+    }
+
+    /**
+     * @return Collected timestamps. The array may be longer than {@link #getLength()}
+     */
+    public long[] getTimes() {
+        return mTimes;
+    }
+
+    /**
+     * @param channel Channel index
+     * @return Collected values of given channel. The array may be longer than {@link #getLength()}
+     */
+    public float[] getValues(int channel) {
+        return mChannels[channel];
+    }
+}
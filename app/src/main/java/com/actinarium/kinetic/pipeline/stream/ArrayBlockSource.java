@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline.stream;
+
+/**
+ * Block source reading samples from in-memory arrays, e.g. the arrays of a
+ * {@link com.actinarium.kinetic.util.DataSet3}
+ *
+ * @author Paul Danyliuk
+ */
+public class ArrayBlockSource implements BlockSource {
+
+    private final long[] mTimes;
+    private final float[][] mChannels;
+    private final int mLength;
+    private int mPosition;
+
+    /**
+     * Create a source over given arrays
+     *
+     * @param times    Sample timestamps in nanos
+     * @param length   Number of samples to read from the arrays
+     * @param channels Value arrays, one per channel, each at least of given length
+     */
+    public ArrayBlockSource(long[] times, int length, float[]... channels) {
+        mTimes = times;
+        mLength = length;
+        mChannels = channels;
+    }
+
+    @Override
+    public int getChannels() {
+        return mChannels.length;
+    }
+
+    @Override
+    public boolean read(Block block) {
+        final int count = Math.min(block.getCapacity(), mLength - mPosition);
+        if (count <= 0) {
+            block.length = 0;
+            return false;
+        }
+        System.arraycopy(mTimes, mPosition, block.times, 0, count);
+        for (int channel = 0; channel < mChannels.length; channel++) {
+            System.arraycopy(mChannels[channel], mPosition, block.values[channel], 0, count);
+        }
+        block.length = count;
+        mPosition += count;
+        return true;
+    }
+}
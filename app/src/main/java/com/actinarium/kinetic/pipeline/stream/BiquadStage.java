@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline.stream;
+
+import com.actinarium.kinetic.pipeline.FilterBank;
+
+/**
+ * Applies a cascade of biquad filter sections to all channels. Adjacent biquad stages fuse into one longer cascade.
+ *
+ * @author Paul Danyliuk
+ */
+public class BiquadStage extends MapStage {
+
+    private final FilterBank mFilter;
+
+    /**
+     * Create a filtering stage
+     *
+     * @param filter Filter bank with as many channels as the upstream. Must not be shared with other stages
+     */
+    public BiquadStage(FilterBank filter) {
+        mFilter = filter;
+    }
+
+    @Override
+    protected void process(Block block) {
+        final int channels = block.getChannels();
+        for (int channel = 0; channel < channels; channel++) {
+            mFilter.process(channel, block.values[channel], 0, block.length);
+        }
+    }
+
+    @Override
+    protected MapStage fuse(MapStage next) {
+        if (next instanceof BiquadStage) {
+            return new BiquadStage(mFilter.then(((BiquadStage) next).mFilter));
+        }
+        return null;
+    }
+}
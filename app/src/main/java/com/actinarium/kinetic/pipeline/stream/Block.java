@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline.stream;
+
+/**
+ * A fixed-size block of sensor samples (timestamps and several value channels) passed between chunked pipeline stages.
+ * Blocks are allocated once per pipeline and reused for every chunk, so processing arbitrarily long recordings takes
+ * constant memory and each block stays cache-resident while all stages run over it.
+ *
+ * @author Paul Danyliuk
+ */
+public final class Block {
+
+    /**
+     * Default number of samples in a block. With a timestamp and three values per sample it's about 5 KB, which
+     * comfortably fits into L1 cache together with stage state
+     */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    public final long[] times;
+    /**
+     * Values by channel, i.e. <code>values[channel][sample]</code>
+     */
+    public final float[][] values;
+    /**
+     * Number of fresh samples in this block, starting from index zero
+     */
+    public int length;
+
+    /**
+     * Create a new block
+     *
+     * @param channels Number of value channels
+     * @param capacity Max number of samples the block can hold
+     */
+    public Block(int channels, int capacity) {
+        times = new long[capacity];
+        values = new float[channels][capacity];
+    }
+
+    public int getCapacity() {
+        return times.length;
+    }
+
+    public int getChannels() {
+        return values.length;
+    }
+
+    /**
+     * Copies a single sample from another block
+     *
+     * @param source      Block to copy from, must have the same number of channels
+     * @param sourceIndex Index of the sample in the source block
+     * @param index       Index to put the sample at in this block
+     */
+    public void copySample(Block source, int sourceIndex, int index) {
+        times[index] = source.times[sourceIndex];
+        for (int channel = 0; channel < values.length; channel++) {
+            values[channel][index] = source.values[channel][sourceIndex];
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline.stream;
+
+import java.io.IOException;
+
+/**
+ * A consumer of sample blocks at the end of a chunked pipeline
+ *
+ * @author Paul Danyliuk
+ */
+public interface BlockSink {
+
+    /**
+     * Consumes a chunk of samples. The block is reused for subsequent chunks, so implementations must copy the data
+     * they want to keep.
+     *
+     * @param block Block with samples
+     * @throws IOException if the underlying storage fails
+     */
+    void write(Block block) throws IOException;
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline.stream;
+
+import java.io.IOException;
+
+/**
+ * A pull-based source of sample blocks
+ *
+ * @author Paul Danyliuk
+ */
+public interface BlockSource {
+
+    /**
+     * @return Number of value channels in produced samples
+     */
+    int getChannels();
+
+    /**
+     * Fills the block with the next chunk of samples
+     *
+     * @param block Block to fill, with the number of channels equal to {@link #getChannels()}. Its length will be set
+     *              to the number of samples read
+     * @return true if any samples were read, false if the source is exhausted
+     * @throws IOException if the underlying storage fails
+     */
+    boolean read(Block block) throws IOException;
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline.stream;
+
+/**
+ * A stage of chunked pipeline that pulls blocks from the upstream source and produces transformed blocks. Stages may
+ * keep state between blocks (e.g. running sums), so one stage instance must only be used in one pipeline.
+ *
+ * @author Paul Danyliuk
+ */
+public abstract class BlockStage implements BlockSource {
+
+    protected BlockSource mUpstream;
+
+    /**
+     * Connect this stage to the upstream source. Called by {@link ChunkedPipeline.Builder}
+     *
+     * @param upstream Source to pull blocks from
+     */
+    void attach(BlockSource upstream) {
+        mUpstream = upstream;
+    }
+
+    @Override
+    public int getChannels() {
+        return mUpstream.getChannels();
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline.stream;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A pull-based pipeline that streams samples from a {@link BlockSource} through a chain of {@link BlockStage}s into a
+ * {@link BlockSink} in fixed-size {@link Block blocks}. Unlike {@link com.actinarium.kinetic.pipeline.MotionGraph},
+ * which materializes every intermediate data set, this pipeline only ever holds one block per stage, so it can process
+ * recordings of any length in constant memory. Adjacent map stages are fused when the pipeline is built.
+ *
+ * @author Paul Danyliuk
+ */
+public final class ChunkedPipeline {
+
+    private final BlockSource mOutput;
+    private final int mBlockCapacity;
+    private final int mStageCount;
+
+    private ChunkedPipeline(BlockSource output, int blockCapacity, int stageCount) {
+        mOutput = output;
+        mBlockCapacity = blockCapacity;
+        mStageCount = stageCount;
+    }
+
+    /**
+     * Runs the pipeline until the source is exhausted. The pipeline can only be run once, since stages keep state
+     *
+     * @param sink Sink to write resulting blocks to
+     * @return Total number of samples written to the sink
+     * @throws IOException if the source or the sink fails
+     */
+    public long run(BlockSink sink) throws IOException {
+        final Block block = new Block(mOutput.getChannels(), mBlockCapacity);
+        long samples = 0;
+        while (mOutput.read(block)) {
+            sink.write(block);
+            samples += block.length;
+        }
+        return samples;
+    }
+
+    /**
+     * @return Number of stages after fusion
+     */
+    public int getStageCount() {
+        return mStageCount;
+    }
+
+    public static final class Builder {
+
+        private final BlockSource mSource;
+        private final List<BlockStage> mStages = new ArrayList<>();
+        private int mBlockCapacity = Block.DEFAULT_CAPACITY;
+
+        /**
+         * Start building a pipeline
+         *
+         * @param source Source of samples
+         */
+        public Builder(BlockSource source) {
+            mSource = source;
+        }
+
+        /**
+         * Appends a stage to the pipeline. Stages are stateful and must not be shared between pipelines
+         *
+         * @param stage Stage to add
+         * @return this
+         */
+        public Builder addStage(BlockStage stage) {
+            mStages.add(stage);
+            return this;
+        }
+
+        /**
+         * @param blockCapacity Number of samples in each block, {@link Block#DEFAULT_CAPACITY} by default
+         * @return this
+         */
+        public Builder setBlockCapacity(int blockCapacity) {
+            if (blockCapacity <= 0) {
+                throw new IllegalArgumentException("Block capacity must be positive");
+            }
+            mBlockCapacity = blockCapacity;
+            return this;
+        }
+
+        public ChunkedPipeline build() {
+            // Fuse adjacent map stages where possible
+            List<BlockStage> fused = new ArrayList<>(mStages.size());
+            for (BlockStage stage : mStages) {
+                final int last = fused.size() - 1;
+                if (last >= 0 && fused.get(last) instanceof MapStage && stage instanceof MapStage) {
+                    MapStage merged = ((MapStage) fused.get(last)).fuse((MapStage) stage);
+                    if (merged != null) {
+                        fused.set(last, merged);
+                        continue;
+                    }
+                }
+                fused.add(stage);
+            }
+
+            BlockSource upstream = mSource;
+            for (BlockStage stage : fused) {
+                stage.attach(upstream);
+                upstream = stage;
+            }
+            return new ChunkedPipeline(upstream, mBlockCapacity, fused.size());
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline.stream;
+
+/**
+ * Integrates all channels twice (e.g. acceleration into velocity into offset) in a single pass, assuming starting
+ * values are 0. Produces the same result as two consecutive {@link IntegrateStage}s, but reads and writes each block
+ * once.
+ *
+ * @author Paul Danyliuk
+ */
+public class DoubleIntegrateStage extends MapStage {
+
+    private float[] mDeltas = new float[0];
+    private float[] mPrevValues;
+    private float[] mFirstSums;
+    private float[] mSecondSums;
+    private long mPrevTime;
+    private boolean mIsStarted;
+
+    @Override
+    protected void process(Block block) {
+        final int length = block.length;
+        if (length == 0) {
+            return;
+        }
+        final int channels = block.getChannels();
+        if (!mIsStarted) {
+            mPrevValues = new float[channels];
+            mFirstSums = new float[channels];
+            mSecondSums = new float[channels];
+            for (int channel = 0; channel < channels; channel++) {
+                mPrevValues[channel] = block.values[channel][0];
+            }
+            mPrevTime = block.times[0];
+            mIsStarted = true;
+        }
+        if (mDeltas.length < length) {
+            mDeltas = new float[block.getCapacity()];
+        }
+
+        final float[] deltas = mDeltas;
+        computeDeltas(block, mPrevTime, deltas);
+        mPrevTime = block.times[length - 1];
+
+        for (int channel = 0; channel < channels; channel++) {
+            final float[] values = block.values[channel];
+            float prev = mPrevValues[channel];
+            float first = mFirstSums[channel];
+            float second = mSecondSums[channel];
+            for (int i = 0; i < length; i++) {
+                final float value = values[i];
+                final float halfDelta = deltas[i] * 0.5f;
+                final float nextFirst = first + (prev + value) * halfDelta;
+                second += (first + nextFirst) * halfDelta;
+                first = nextFirst;
+                prev = value;
+                values[i] = second;
+            }
+            mPrevValues[channel] = prev;
+            mFirstSums[channel] = first;
+            mSecondSums[channel] = second;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline.stream;
+
+import java.io.IOException;
+
+/**
+ * Chunked counterpart of {@link com.actinarium.kinetic.pipeline.DataTransformer#removeGravityFromRaw}. Consumes raw
+ * accelerometer samples from the upstream, and rotation vector samples from a secondary source in lockstep, reading
+ * the latter only as far as the timestamps of the current accelerometer block require.
+ *
+ * @author Paul Danyliuk
+ */
+public class GravityStage extends BlockStage {
+
+    private final BlockSource mRotationSource;
+    private final float[] mGravity;
+    private final Block mRotationBlock;
+    private int mRotationIndex;
+
+    // Two rotation vector samples surrounding the current accelerometer timestamp
+    private long mPrevRotationTime;
+    private final float[] mPrevRotation = new float[4];
+    private long mNextRotationTime;
+    private final float[] mNextRotation = new float[4];
+    private boolean mHasNextRotation;
+
+    private final float[] mWorldGravity = new float[3];
+    private boolean mIsStarted;
+
+    // Scratch arrays reused for every sample
+    private final float[] mMatrix = new float[9];
+    private final float[] mRotation = new float[4];
+
+    /**
+     * Create a gravity removal stage
+     *
+     * @param rotationSource Source of rotation vector samples, must have 4 channels
+     * @param gravity        Averaged gravity readings, accurate as of recording start
+     */
+    public GravityStage(BlockSource rotationSource, float[] gravity) {
+        if (rotationSource.getChannels() != 4) {
+            throw new IllegalArgumentException("Rotation vector source must have 4 channels");
+        }
+        mRotationSource = rotationSource;
+        mGravity = gravity;
+        mRotationBlock = new Block(4, Block.DEFAULT_CAPACITY);
+    }
+
+    @Override
+    public boolean read(Block block) throws IOException {
+        if (!mUpstream.read(block)) {
+            return false;
+        }
+        final float[] matrix = mMatrix;
+        final float[] rotation = mRotation;
+
+        if (!mIsStarted) {
+            if (!nextRotation()) {
+                throw new IOException("Rotation vector source is empty");
+            }
+            shiftRotation();
+            mHasNextRotation = nextRotation();
+            // Determine gravity vector in world coordinates from the initial orientation
+            Rotations.getRotationMatrixFromVector(matrix, mPrevRotation);
+            Rotations.multiply(mWorldGravity, matrix, mGravity);
+            mIsStarted = true;
+        }
+
+        final float[] x = block.values[0];
+        final float[] y = block.values[1];
+        final float[] z = block.values[2];
+        for (int i = 0; i < block.length; i++) {
+            getRotationForTime(block.times[i], rotation);
+            Rotations.getRotationMatrixFromVector(matrix, rotation);
+            // Transposing a rotation matrix is the same as inverting one, so just multiply by columns
+            x[i] -= matrix[0] * mWorldGravity[0] + matrix[3] * mWorldGravity[1] + matrix[6] * mWorldGravity[2];
+            y[i] -= matrix[1] * mWorldGravity[0] + matrix[4] * mWorldGravity[1] + matrix[7] * mWorldGravity[2];
+            z[i] -= matrix[2] * mWorldGravity[0] + matrix[5] * mWorldGravity[1] + matrix[8] * mWorldGravity[2];
+        }
+        return true;
+    }
+
+    /**
+     * Interpolates rotation vector for given time, assuming times are requested in increasing order
+     */
+    private void getRotationForTime(long time, float[] out) throws IOException {
+        while (mHasNextRotation && mNextRotationTime < time) {
+            shiftRotation();
+            mHasNextRotation = nextRotation();
+        }
+        if (!mHasNextRotation || time <= mPrevRotationTime) {
+            System.arraycopy(mPrevRotation, 0, out, 0, 4);
+            return;
+        }
+        float weight = (time - mPrevRotationTime) / (float) (mNextRotationTime - mPrevRotationTime);
+        for (int i = 0; i < 4; i++) {
+            out[i] = mPrevRotation[i] + weight * (mNextRotation[i] - mPrevRotation[i]);
+        }
+    }
+
+    private void shiftRotation() {
+        mPrevRotationTime = mNextRotationTime;
+        System.arraycopy(mNextRotation, 0, mPrevRotation, 0, 4);
+    }
+
+    /**
+     * Reads the next rotation vector sample into "next" slot
+     *
+     * @return false if the rotation source is exhausted
+     */
+    private boolean nextRotation() throws IOException {
+        if (mRotationIndex >= mRotationBlock.length) {
+            if (!mRotationSource.read(mRotationBlock)) {
+                return false;
+            }
+            mRotationIndex = 0;
+        }
+        mNextRotationTime = mRotationBlock.times[mRotationIndex];
+        for (int i = 0; i < 4; i++) {
+            mNextRotation[i] = mRotationBlock.values[i][mRotationIndex];
+        }
+        mRotationIndex++;
+        return true;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline.stream;
+
+/**
+ * Integrates all channels over time with the trapezoidal rule, assuming starting values are 0. Chunked counterpart of
+ * {@link com.actinarium.kinetic.pipeline.DataTransformer#integrate(com.actinarium.kinetic.util.DataSet3)}. Two adjacent
+ * integration stages fuse into a {@link DoubleIntegrateStage}.
+ *
+ * @author Paul Danyliuk
+ */
+public class IntegrateStage extends MapStage {
+
+    private float[] mDeltas = new float[0];
+    private float[] mPrevValues;
+    private float[] mSums;
+    private long mPrevTime;
+    private boolean mIsStarted;
+
+    @Override
+    protected void process(Block block) {
+        final int length = block.length;
+        if (length == 0) {
+            return;
+        }
+        final int channels = block.getChannels();
+        if (!mIsStarted) {
+            // Assume the device is at rest when we start recording, and make the first sample yield zero delta
+            mPrevValues = new float[channels];
+            mSums = new float[channels];
+            for (int channel = 0; channel < channels; channel++) {
+                mPrevValues[channel] = block.values[channel][0];
+            }
+            mPrevTime = block.times[0];
+            mIsStarted = true;
+        }
+        if (mDeltas.length < length) {
+            mDeltas = new float[block.getCapacity()];
+        }
+
+        final float[] deltas = mDeltas;
+        computeDeltas(block, mPrevTime, deltas);
+        mPrevTime = block.times[length - 1];
+
+        // Channel by channel, so that each loop is a tight multiply-add over two arrays
+        for (int channel = 0; channel < channels; channel++) {
+            final float[] values = block.values[channel];
+            float prev = mPrevValues[channel];
+            float sum = mSums[channel];
+            for (int i = 0; i < length; i++) {
+                final float value = values[i];
+                sum += (prev + value) * deltas[i] * 0.5f;
+                prev = value;
+                values[i] = sum;
+            }
+            mPrevValues[channel] = prev;
+            mSums[channel] = sum;
+        }
+    }
+
+    @Override
+    protected MapStage fuse(MapStage next) {
+        if (next.getClass() == IntegrateStage.class) {
+            return new DoubleIntegrateStage();
+        }
+        return null;
+    }
+}
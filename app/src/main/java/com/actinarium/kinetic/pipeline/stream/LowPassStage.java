@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline.stream;
+
+/**
+ * First order low-pass filter (exponential moving average) over all channels. Adjacent low-pass stages fuse into one
+ * that applies both filters in a single pass.
+ *
+ * @author Paul Danyliuk
+ */
+public class LowPassStage extends MapStage {
+
+    private final float[] mAlphas;
+    private float[][] mStates;
+
+    /**
+     * Create a low-pass filter stage
+     *
+     * @param alpha Smoothing factor between 0f and 1f, the portion of the previous output retained for each sample
+     */
+    public LowPassStage(float alpha) {
+        this(new float[]{alpha});
+    }
+
+    private LowPassStage(float[] alphas) {
+        mAlphas = alphas;
+    }
+
+    @Override
+    protected void process(Block block) {
+        final int length = block.length;
+        if (length == 0) {
+            return;
+        }
+        final int channels = block.getChannels();
+        final int filters = mAlphas.length;
+        if (mStates == null) {
+            // Start from the first sample to avoid a ramp from zero
+            mStates = new float[filters][channels];
+            for (int filter = 0; filter < filters; filter++) {
+                for (int channel = 0; channel < channels; channel++) {
+                    mStates[filter][channel] = block.values[channel][0];
+                }
+            }
+        }
+
+        for (int channel = 0; channel < channels; channel++) {
+            final float[] values = block.values[channel];
+            for (int filter = 0; filter < filters; filter++) {
+                final float alpha = mAlphas[filter];
+                final float beta = 1 - alpha;
+                float state = mStates[filter][channel];
+                for (int i = 0; i < length; i++) {
+                    state = alpha * state + beta * values[i];
+                    values[i] = state;
+                }
+                mStates[filter][channel] = state;
+            }
+        }
+    }
+
+    @Override
+    protected MapStage fuse(MapStage next) {
+        if (next instanceof LowPassStage) {
+            final float[] nextAlphas = ((LowPassStage) next).mAlphas;
+            float[] alphas = new float[mAlphas.length + nextAlphas.length];
+            System.arraycopy(mAlphas, 0, alphas, 0, mAlphas.length);
+            System.arraycopy(nextAlphas, 0, alphas, mAlphas.length, nextAlphas.length);
+            return new LowPassStage(alphas);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline.stream;
+
+import java.io.IOException;
+
+/**
+ * A stage that transforms each block in place, producing exactly as many samples as it consumes. Adjacent map stages
+ * can be fused into a single stage that makes one pass over each block instead of several.
+ *
+ * @author Paul Danyliuk
+ */
+public abstract class MapStage extends BlockStage {
+
+    @Override
+    public final boolean read(Block block) throws IOException {
+        if (!mUpstream.read(block)) {
+            return false;
+        }
+        process(block);
+        return true;
+    }
+
+    /**
+     * Transforms the block in place
+     *
+     * @param block Block with fresh samples from the upstream
+     */
+    protected abstract void process(Block block);
+
+    /**
+     * Attempts to fuse this stage with the next one into a single stage that computes the same result in one loop
+     *
+     * @param next The stage immediately downstream of this one
+     * @return Fused stage, or null if these stages cannot be fused
+     */
+    protected MapStage fuse(MapStage next) {
+        return null;
+    }
+
+    /**
+     * Computes time deltas between consecutive samples of the block in seconds, so that stages don't repeat the
+     * conversion for each channel
+     *
+     * @param block    Block with fresh samples
+     * @param prevTime Timestamp of the sample preceding the block
+     * @param out      Array to write deltas to, at least the length of the block
+     */
+    static void computeDeltas(Block block, long prevTime, float[] out) {
+        final long[] times = block.times;
+        final int length = block.length;
+        long prev = prevTime;
+        for (int i = 0; i < length; i++) {
+            out[i] = (times[i] - prev) * 1e-9f;
+            prev = times[i];
+        }
+    }
+}
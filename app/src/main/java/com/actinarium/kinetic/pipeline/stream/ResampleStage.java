@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline.stream;
+
+import java.io.IOException;
+
+/**
+ * Resamples the stream to a fixed sampling period using linear interpolation, starting at the timestamp of the first
+ * sample. Unlike {@link MapStage map stages}, the number of produced samples differs from the number of consumed ones,
+ * so this stage reads upstream into its own block and fills the downstream block independently.
+ *
+ * @author Paul Danyliuk
+ */
+public class ResampleStage extends BlockStage {
+
+    private final long mPeriod;
+    private Block mInput;
+    private int mInputIndex;
+    private boolean mIsExhausted;
+
+    private long mPrevTime;
+    private float[] mPrevValues;
+    private long mNextTime;
+    private boolean mIsStarted;
+
+    /**
+     * Create a resampling stage
+     *
+     * @param periodNanos Time between output samples, in nanoseconds
+     */
+    public ResampleStage(long periodNanos) {
+        if (periodNanos <= 0) {
+            throw new IllegalArgumentException("Period must be positive");
+        }
+        mPeriod = periodNanos;
+    }
+
+    @Override
+    public boolean read(Block block) throws IOException {
+        final int channels = block.getChannels();
+        if (mInput == null) {
+            mInput = new Block(channels, block.getCapacity());
+            mPrevValues = new float[channels];
+        }
+
+        int length = 0;
+        final int capacity = block.getCapacity();
+        while (length < capacity) {
+            if (mInputIndex >= mInput.length) {
+                if (mIsExhausted || !mUpstream.read(mInput)) {
+                    mIsExhausted = true;
+                    break;
+                }
+                mInputIndex = 0;
+            }
+
+            final long time = mInput.times[mInputIndex];
+            if (!mIsStarted) {
+                block.copySample(mInput, mInputIndex, length++);
+                rememberInput(time);
+                mNextTime = time + mPeriod;
+                mIsStarted = true;
+                continue;
+            }
+
+            // Emit all output samples that fall between the previous and the current input sample
+            final long span = time - mPrevTime;
+            while (mNextTime <= time && length < capacity) {
+                final float weight = span == 0 ? 1f : (mNextTime - mPrevTime) / (float) span;
+                block.times[length] = mNextTime;
+                for (int channel = 0; channel < channels; channel++) {
+                    final float prev = mPrevValues[channel];
+                    block.values[channel][length] = prev + weight * (mInput.values[channel][mInputIndex] - prev);
+                }
+                length++;
+                mNextTime += mPeriod;
+            }
+            if (mNextTime > time) {
+                // Done with this input sample, otherwise the output block is full and we'll get back to it next time
+                rememberInput(time);
+            }
+        }
+
+        block.length = length;
+        return length > 0;
+    }
+
+    private void rememberInput(long time) {
+        mPrevTime = time;
+        for (int channel = 0; channel < mPrevValues.length; channel++) {
+            mPrevValues[channel] = mInput.values[channel][mInputIndex];
+        }
+        mInputIndex++;
+    }
+}
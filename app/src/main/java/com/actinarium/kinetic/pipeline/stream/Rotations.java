@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline.stream;
+
+/**
+ * Rotation math needed by chunked stages, reimplemented without Android framework classes so that the pipeline can run
+ * on a plain JVM. Matrices are 3x3, row-major, as in {@link android.hardware.SensorManager}.
+ *
+ * @author Paul Danyliuk
+ */
+final class Rotations {
+
+    private Rotations() {}
+
+    /**
+     * Same as {@link android.hardware.SensorManager#getRotationMatrixFromVector(float[], float[])} for a 3x3 matrix
+     * and a rotation vector with a scalar component
+     *
+     * @param matrix         Array of 9 to write the rotation matrix to
+     * @param rotationVector Rotation vector of length 4 (x*sin(theta/2), y*sin(theta/2), z*sin(theta/2), cos(theta/2))
+     */
+    static void getRotationMatrixFromVector(float[] matrix, float[] rotationVector) {
+        final float q1 = rotationVector[0];
+        final float q2 = rotationVector[1];
+        final float q3 = rotationVector[2];
+        final float q0 = rotationVector[3];
+
+        final float sqQ1 = 2 * q1 * q1;
+        final float sqQ2 = 2 * q2 * q2;
+        final float sqQ3 = 2 * q3 * q3;
+        final float q1q2 = 2 * q1 * q2;
+        final float q3q0 = 2 * q3 * q0;
+        final float q1q3 = 2 * q1 * q3;
+        final float q2q0 = 2 * q2 * q0;
+        final float q2q3 = 2 * q2 * q3;
+        final float q1q0 = 2 * q1 * q0;
+
+        matrix[0] = 1 - sqQ2 - sqQ3;
+        matrix[1] = q1q2 - q3q0;
+        matrix[2] = q1q3 + q2q0;
+        matrix[3] = q1q2 + q3q0;
+        matrix[4] = 1 - sqQ1 - sqQ3;
+        matrix[5] = q2q3 - q1q0;
+        matrix[6] = q1q3 - q2q0;
+        matrix[7] = q2q3 + q1q0;
+        matrix[8] = 1 - sqQ1 - sqQ2;
+    }
+
+    /**
+     * Multiplies a 3x3 matrix by a vector
+     *
+     * @param out    Array of 3 to write the result to, must not be the same as vector
+     * @param matrix Row-major 3x3 matrix
+     * @param vector Vector of 3
+     */
+    static void multiply(float[] out, float[] matrix, float[] vector) {
+        out[0] = matrix[0] * vector[0] + matrix[1] * vector[1] + matrix[2] * vector[2];
+        out[1] = matrix[3] * vector[0] + matrix[4] * vector[1] + matrix[5] * vector[2];
+        out[2] = matrix[6] * vector[0] + matrix[7] * vector[1] + matrix[8] * vector[2];
+    }
+}
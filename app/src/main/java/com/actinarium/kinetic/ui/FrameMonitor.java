@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.ui;
+
+import android.view.Choreographer;
+
+import java.util.Locale;
+
+/**
+ * <p>Opt-in frame time monitor based on {@link Choreographer} frame callbacks. Tracks frame durations and janky frames,
+ * and attributes time reported via {@link #recordDraw(long)} and {@link #recordInterpolation(long)} to frames, so we
+ * can tell whether chart redraws or preview animation are the ones to blame.</p><p>Must be used on the main thread.
+ * Once started, the monitor requests a callback every frame, so keep it stopped unless measuring. Callbacks are
+ * requested through a {@link FrameScheduler}, which is the main thread's {@link Choreographer} unless provided
+ * otherwise (e.g. in tests).</p>
+ *
+ * @author Paul Danyliuk
+ */
+public class FrameMonitor implements Choreographer.FrameCallback {
+
+    public static final long DEFAULT_FRAME_INTERVAL_NANOS = 1000000000L / 60;
+
+    /**
+     * A frame is considered janky if it took this many times longer than the frame interval
+     */
+    private static final float JANK_FACTOR = 1.5f;
+
+    /**
+     * Schedules frame callbacks with the {@link Choreographer} of the calling thread
+     */
+    public static final FrameScheduler CHOREOGRAPHER = new FrameScheduler() {
+        @Override
+        public void postFrameCallback(Choreographer.FrameCallback callback) {
+            Choreographer.getInstance().postFrameCallback(callback);
+        }
+
+        @Override
+        public void removeFrameCallback(Choreographer.FrameCallback callback) {
+            Choreographer.getInstance().removeFrameCallback(callback);
+        }
+    };
+
+    private final long mFrameIntervalNanos;
+    private final FrameScheduler mScheduler;
+    private boolean mIsRunning;
+    private long mLastFrameTime;
+
+    // Accumulated since the last frame callback
+    private long mFrameDrawNanos;
+    private long mFrameInterpolationNanos;
+
+    // Session totals
+    private int mFrameCount;
+    private int mJankyFrameCount;
+    private int mSkippedFrameCount;
+    private long mTotalFrameNanos;
+    private long mMaxFrameNanos;
+    private long mTotalDrawNanos;
+    private long mMaxDrawNanos;
+    private long mTotalInterpolationNanos;
+    private long mMaxInterpolationNanos;
+
+    /**
+     * Create a frame monitor
+     *
+     * @param frameIntervalNanos Expected frame interval, i.e. 1 / display refresh rate, e.g. {@link
+     *                           #DEFAULT_FRAME_INTERVAL_NANOS}
+     */
+    public FrameMonitor(long frameIntervalNanos) {
+        this(frameIntervalNanos, CHOREOGRAPHER);
+    }
+
+    /**
+     * Create a frame monitor
+     *
+     * @param frameIntervalNanos Expected frame interval, i.e. 1 / display refresh rate, e.g. {@link
+     *                           #DEFAULT_FRAME_INTERVAL_NANOS}
+     * @param scheduler          Scheduler to request frame callbacks from
+     */
+    public FrameMonitor(long frameIntervalNanos, FrameScheduler scheduler) {
+        mFrameIntervalNanos = frameIntervalNanos;
+        mScheduler = scheduler;
+    }
+
+    /**
+     * Starts monitoring frames. Measurements are accumulated over sessions until {@link #reset()}
+     */
+    public void start() {
+        if (mIsRunning) {
+            return;
+        }
+        mIsRunning = true;
+        mLastFrameTime = 0;
+        mFrameDrawNanos = 0;
+        mFrameInterpolationNanos = 0;
+        mScheduler.postFrameCallback(this);
+    }
+
+    /**
+     * Stops monitoring frames
+     */
+    public void stop() {
+        if (!mIsRunning) {
+            return;
+        }
+        mIsRunning = false;
+        mScheduler.removeFrameCallback(this);
+    }
+
+    public boolean isRunning() {
+        return mIsRunning;
+    }
+
+    /**
+     * Clears all measurements
+     */
+    public void reset() {
+        mLastFrameTime = 0;
+        mFrameDrawNanos = 0;
+        mFrameInterpolationNanos = 0;
+        mFrameCount = 0;
+        mJankyFrameCount = 0;
+        mSkippedFrameCount = 0;
+        mTotalFrameNanos = 0;
+        mMaxFrameNanos = 0;
+        mTotalDrawNanos = 0;
+        mMaxDrawNanos = 0;
+        mTotalInterpolationNanos = 0;
+        mMaxInterpolationNanos = 0;
+    }
+
+    /**
+     * Accounts time spent drawing in the current frame. No-op if the monitor is stopped
+     *
+     * @param nanos Time spent, in nanos
+     */
+    public void recordDraw(long nanos) {
+        if (mIsRunning) {
+            mFrameDrawNanos += nanos;
+        }
+    }
+
+    /**
+     * Accounts time spent evaluating interpolators in the current frame. No-op if the monitor is stopped
+     *
+     * @param nanos Time spent, in nanos
+     */
+    public void recordInterpolation(long nanos) {
+        if (mIsRunning) {
+            mFrameInterpolationNanos += nanos;
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!mIsRunning) {
+            return;
+        }
+
+        // Animation and drawing happen after frame callbacks, so whatever was recorded belongs to the previous frame
+        if (mLastFrameTime != 0) {
+            final long duration = frameTimeNanos - mLastFrameTime;
+            mFrameCount++;
+            mTotalFrameNanos += duration;
+            if (duration > mMaxFrameNanos) {
+                mMaxFrameNanos = duration;
+            }
+            if (duration > mFrameIntervalNanos * JANK_FACTOR) {
+                mJankyFrameCount++;
+                mSkippedFrameCount += (int) ((duration + mFrameIntervalNanos / 2) / mFrameIntervalNanos) - 1;
+            }
+
+            mTotalDrawNanos += mFrameDrawNanos;
+            if (mFrameDrawNanos > mMaxDrawNanos) {
+                mMaxDrawNanos = mFrameDrawNanos;
+            }
+            mTotalInterpolationNanos += mFrameInterpolationNanos;
+            if (mFrameInterpolationNanos > mMaxInterpolationNanos) {
+                mMaxInterpolationNanos = mFrameInterpolationNanos;
+            }
+        }
+        mLastFrameTime = frameTimeNanos;
+        mFrameDrawNanos = 0;
+        mFrameInterpolationNanos = 0;
+
+        mScheduler.postFrameCallback(this);
+    }
+
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * @return Number of frames that took longer than 1.5 frame intervals
+     */
+    public int getJankyFrameCount() {
+        return mJankyFrameCount;
+    }
+
+    /**
+     * @return Estimated number of vsyncs missed in janky frames
+     */
+    public int getSkippedFrameCount() {
+        return mSkippedFrameCount;
+    }
+
+    public long getMeanFrameNanos() {
+        return mFrameCount == 0 ? 0 : mTotalFrameNanos / mFrameCount;
+    }
+
+    public long getMaxFrameNanos() {
+        return mMaxFrameNanos;
+    }
+
+    /**
+     * @return Mean time spent drawing per frame
+     */
+    public long getMeanDrawNanos() {
+        return mFrameCount == 0 ? 0 : mTotalDrawNanos / mFrameCount;
+    }
+
+    public long getMaxDrawNanos() {
+        return mMaxDrawNanos;
+    }
+
+    /**
+     * @return Mean time spent evaluating interpolators per frame
+     */
+    public long getMeanInterpolationNanos() {
+        return mFrameCount == 0 ? 0 : mTotalInterpolationNanos / mFrameCount;
+    }
+
+    public long getMaxInterpolationNanos() {
+        return mMaxInterpolationNanos;
+    }
+
+    /**
+     * @return Human readable summary of the measurements
+     */
+    public String getSummary() {
+        return String.format(Locale.US,
+                "Frames: %d, janky %d (%d skipped), mean %.2f ms, max %.2f ms\n"
+                        + "Chart draw/frame: mean %.3f ms, max %.3f ms\n"
+                        + "Interpolators/frame: mean %.3f ms, max %.3f ms",
+                mFrameCount, mJankyFrameCount, mSkippedFrameCount, getMeanFrameNanos() / 1e6f, mMaxFrameNanos / 1e6f,
+                getMeanDrawNanos() / 1e6f, mMaxDrawNanos / 1e6f,
+                getMeanInterpolationNanos() / 1e6f, mMaxInterpolationNanos / 1e6f);
+    }
+
+    /**
+     * Source of frame callbacks, abstracted from {@link Choreographer} so that frames can be simulated
+     */
+    public interface FrameScheduler {
+
+        /**
+         * Requests a callback on the next frame
+         *
+         * @param callback Callback to run
+         */
+        void postFrameCallback(Choreographer.FrameCallback callback);
+
+        /**
+         * Cancels a pending callback
+         *
+         * @param callback Callback previously posted
+         */
+        void removeFrameCallback(Choreographer.FrameCallback callback);
+    }
+}
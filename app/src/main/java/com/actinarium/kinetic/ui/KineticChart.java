@@ -20,24 +20,26 @@ import android.content.Context;
 import android.content.res.TypedArray;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Path;
 import android.graphics.Rect;
 import android.util.AttributeSet;
 import android.view.View;
 import com.actinarium.kinetic.R;
+import com.actinarium.kinetic.pipeline.PipelineMetrics;
 
 /**
- * Own implementation of chart optimized for rendering data from Kinetic app
+ * Own implementation of chart optimized for rendering data from Kinetic app. Chart geometry is kept as a path normalized
+ * to the unit width and raw values, which doesn't depend on the view's size and can outlive the view, see {@link
+ * #createPath(long[], float[], int)}. On layout it's only scaled to the chart area
  *
  * @author Paul Danyliuk
  */
 public class KineticChart extends View {
 
     // Chart data
-    private long[] mTimes;
-    private float[] mValues;
-    private int mLength;
+    private Path mSourcePath;
     private float mMinY;
     private float mMaxY;
     private float mTrimStart;
@@ -50,11 +52,12 @@ public class KineticChart extends View {
     private Paint mLinePaint;
     private Paint mAxisPaint;
     private Path mPath;
+    private Matrix mMatrix;
     private int mAxisThickness;
+    private FrameMonitor mFrameMonitor;
 
     // Pre-calculated values
     private float mMultY;
-    private double mDivX;
     private float mZeroY;
 
     public KineticChart(Context context) {
@@ -97,6 +100,7 @@ public class KineticChart extends View {
         mAxisPaint.setStyle(Paint.Style.FILL);
 
         mPath = new Path();
+        mMatrix = new Matrix();
     }
 
     @Override
@@ -123,10 +127,13 @@ public class KineticChart extends View {
 
     @Override
     protected void onDraw(Canvas canvas) {
+        final boolean isMonitored = mFrameMonitor != null && mFrameMonitor.isRunning();
+        final long start = isMonitored ? System.nanoTime() : 0;
+
         // Draw horizontal axis on the zero
         canvas.drawRect(mChartArea.left, mZeroY - mAxisThickness / 2, mChartArea.right, mZeroY + mAxisThickness / 2, mAxisPaint);
 
-        if (mLength != 0) {
+        if (mSourcePath != null) {
             // Draw path
             canvas.save();
             canvas.translate(mChartArea.left, mZeroY);
@@ -158,6 +165,19 @@ public class KineticChart extends View {
 
         // Draw vertical axis on the left - over the path
         canvas.drawRect(mChartArea.left - mAxisThickness, mChartArea.top, mChartArea.left, mChartArea.bottom, mAxisPaint);
+
+        if (isMonitored) {
+            mFrameMonitor.recordDraw(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Set frame monitor to report drawing time to
+     *
+     * @param frameMonitor Frame monitor, or null
+     */
+    public void setFrameMonitor(FrameMonitor frameMonitor) {
+        mFrameMonitor = frameMonitor;
     }
 
     /**
@@ -171,9 +191,19 @@ public class KineticChart extends View {
      * @param maxY   Value to use as a maximum
      */
     public void setData(long[] times, float[] values, int length, float minY, float maxY) {
-        mTimes = times;
-        mValues = values;
-        mLength = length;
+        setPath(length != 0 ? createPath(times, values, length) : null, minY, maxY);
+    }
+
+    /**
+     * Set the geometry to draw in this chart, as created by {@link #createPath(long[], float[], int)}. The path is not
+     * modified, so it can be retained and shared, e.g. across configuration changes
+     *
+     * @param path Normalized chart path, or null to draw nothing
+     * @param minY Value to use as a minimum
+     * @param maxY Value to use as a maximum
+     */
+    public void setPath(Path path, float minY, float maxY) {
+        mSourcePath = path;
         mMinY = minY;
         mMaxY = maxY;
         if (!mChartArea.isEmpty()) {
@@ -183,6 +213,31 @@ public class KineticChart extends View {
         }
     }
 
+    /**
+     * Creates chart geometry for provided data: X is the fraction of the time range from 0f to 1f, Y is the value as
+     * is. Doesn't touch any views, so it can be called on any thread
+     *
+     * @param times  Timestamps in nanos, for X axis
+     * @param values Sensor readings (pre-transformed if required), for Y axis
+     * @param length Number of entries to use from times and values arrays, must be positive
+     * @return Normalized path to pass to {@link #setPath(Path, float, float)}
+     */
+    public static Path createPath(long[] times, float[] values, int length) {
+        final long start = PipelineMetrics.begin(PipelineMetrics.STAGE_CHART_PATH);
+        try {
+            Path path = new Path();
+            final double duration = times[length - 1] - times[0];
+            final double divX = duration != 0 ? duration : 1;
+            path.moveTo(0, values[0]);
+            for (int i = 1; i < length; i++) {
+                path.lineTo((float) ((times[i] - times[0]) / divX), values[i]);
+            }
+            return path;
+        } finally {
+            PipelineMetrics.end(PipelineMetrics.STAGE_CHART_PATH, start, length);
+        }
+    }
+
     /**
      * Tell the chart how many of it from the start and the end to trim out
      *
@@ -198,11 +253,13 @@ public class KineticChart extends View {
     }
 
     private void recalculateChartPath() {
-        mPath.rewind();
-        mPath.moveTo(0, (mValues[0]) * mMultY);
-        for (int i = 1; i < mLength; i++) {
-            mPath.lineTo((float) ((mTimes[i] - mTimes[0]) / mDivX), (mValues[i]) * mMultY);
+        if (mSourcePath == null) {
+            mPath.rewind();
+            return;
         }
+        // Scale normalized geometry to the chart area, natively rather than point by point
+        mMatrix.setScale(mChartArea.width(), mMultY);
+        mSourcePath.transform(mMatrix, mPath);
     }
 
     /**
@@ -215,14 +272,6 @@ public class KineticChart extends View {
             mMultY = mChartArea.height() / (mMinY - mMaxY);
         }
 
-        // Division factor for transforming times into chart x coords
-        if (mTimes != null && mChartArea.width() != 0) {
-            mDivX = (mTimes[mLength - 1] - mTimes[0]) / mChartArea.width();
-        }
-        if (mDivX == 0) {
-            mDivX = 1L;
-        }
-
         mZeroY = mChartArea.top + mChartArea.height() * mMaxY / (mMaxY - mMinY);
     }
 
@@ -20,20 +20,27 @@ import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.support.v7.app.AppCompatActivity;
 import com.actinarium.kinetic.R;
+import com.actinarium.kinetic.pipeline.MotionGraph;
+import com.actinarium.kinetic.pipeline.ParallelIntegrator;
+import com.actinarium.kinetic.pipeline.PipelineMetrics;
+import com.actinarium.kinetic.pipeline.SystraceTracer;
 import com.actinarium.kinetic.util.DataSet3;
 import com.actinarium.kinetic.util.DataSet4;
+import com.actinarium.kinetic.util.TimelineIndex;
 
 public class MainActivity extends AppCompatActivity implements RecordFragment.Host, ResultsFragment.Host {
 
     private static final String ARG_ACCEL = "com.actinarium.kinetic.bundle.ACCEL";
     private static final String ARG_GYRO = "com.actinarium.kinetic.bundle.GYRO";
     private static final String ARG_RV = "com.actinarium.kinetic.bundle.RV";
+    private static final String ARG_LINEAR = "com.actinarium.kinetic.bundle.LINEAR";
+    private static final String ARG_GRAVITY = "com.actinarium.kinetic.bundle.GRAVITY";
+    private static final String ARG_RV_TIMELINE = "com.actinarium.kinetic.bundle.RV_TIMELINE";
     private static final String ARG_RHS = "com.actinarium.kinetic.bundle.RHS";
     private static final String ARG_HAM = "com.actinarium.kinetic.bundle.HAM";
 
-    private DataSet3 mAccelData;
-    private DataSet3 mGyroData;
-    private DataSet4 mRotVectorData;
+    private MotionGraph mGraph;
+    private ResultsFragment.PreparedState mPreparedState = new ResultsFragment.PreparedState();
 
     private boolean[] mResultHoldersState;
     private int[] mHolderToAnimatorMap;
@@ -41,12 +48,33 @@ public class MainActivity extends AppCompatActivity implements RecordFragment.Ho
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        PipelineMetrics.setTracer(new SystraceTracer());
         setContentView(R.layout.activity_main);
 
-        if (savedInstanceState != null) {
-            mAccelData = savedInstanceState.getParcelable(ARG_ACCEL);
-            mGyroData = savedInstanceState.getParcelable(ARG_GYRO);
-            mRotVectorData = savedInstanceState.getParcelable(ARG_RV);
+        // On configuration change, take the recording and everything derived from it as is. Saved state is only read
+        // if the process was killed
+        final RetainedState retained = (RetainedState) getLastCustomNonConfigurationInstance();
+        if (retained != null) {
+            mGraph = retained.mGraph;
+            mPreparedState = retained.mPreparedState;
+            mResultHoldersState = retained.mResultHoldersState;
+            mHolderToAnimatorMap = retained.mHolderToAnimatorMap;
+            return;
+        } else if (savedInstanceState != null) {
+            DataSet3 accelData = savedInstanceState.getParcelable(ARG_ACCEL);
+            if (accelData != null) {
+                // Only raw data and the timeline index are saved, everything else will be recomputed on demand
+                mGraph = new MotionGraph(
+                        accelData,
+                        savedInstanceState.<DataSet3>getParcelable(ARG_GYRO),
+                        savedInstanceState.<DataSet4>getParcelable(ARG_RV),
+                        savedInstanceState.<DataSet3>getParcelable(ARG_LINEAR),
+                        savedInstanceState.getFloatArray(ARG_GRAVITY),
+                        MotionGraph.DEFAULT_CACHE_BYTES
+                );
+                mGraph.restoreRotVectorTimeline(savedInstanceState.<TimelineIndex>getParcelable(ARG_RV_TIMELINE));
+                mGraph.setParallelIntegrator(ParallelIntegrator.getInstance());
+            }
             mResultHoldersState = savedInstanceState.getBooleanArray(ARG_RHS);
             mHolderToAnimatorMap = savedInstanceState.getIntArray(ARG_HAM);
             return;
@@ -65,10 +93,15 @@ public class MainActivity extends AppCompatActivity implements RecordFragment.Ho
     }
 
     @Override
-    public void onDataRecorded(DataSet3 accelData, DataSet3 gyroData, DataSet4 rotVectorData) {
-        mAccelData = accelData;
-        mGyroData = gyroData;
-        mRotVectorData = rotVectorData;
+    public void onDataRecorded(MotionGraph graph) {
+        // The previous recording is no longer displayed, so its buffer can take the next one
+        if (mGraph != null) {
+            releaseGraph();
+        }
+        mGraph = graph;
+        // Long recordings are integrated on all cores, short ones stay on the calling thread
+        mGraph.setParallelIntegrator(ParallelIntegrator.getInstance());
+        mPreparedState = new ResultsFragment.PreparedState();
 
         getSupportFragmentManager()
                 .beginTransaction()
@@ -79,18 +112,16 @@ public class MainActivity extends AppCompatActivity implements RecordFragment.Ho
     }
 
     @Override
-    public DataSet3 getAccelData() {
-        return mAccelData;
-    }
-
-    @Override
-    public DataSet3 getGyroData() {
-        return mGyroData;
+    public MotionGraph getMotionGraph() {
+        return mGraph;
     }
 
     @Override
     public void onRecordingDiscarded() {
         super.onBackPressed();
+        releaseGraph();
+        mGraph = null;
+        mPreparedState = new ResultsFragment.PreparedState();
     }
 
     @Override
@@ -98,6 +129,11 @@ public class MainActivity extends AppCompatActivity implements RecordFragment.Ho
         return mResultHoldersState;
     }
 
+    @Override
+    public ResultsFragment.PreparedState getPreparedState() {
+        return mPreparedState;
+    }
+
     @Override
     public int[] getHolderToAnimatorMap() {
         return mHolderToAnimatorMap;
@@ -113,13 +149,59 @@ public class MainActivity extends AppCompatActivity implements RecordFragment.Ho
         }
     }
 
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+        RetainedState retained = new RetainedState();
+        retained.mGraph = mGraph;
+        retained.mPreparedState = mPreparedState;
+        retained.mResultHoldersState = mResultHoldersState;
+        retained.mHolderToAnimatorMap = mHolderToAnimatorMap;
+        return retained;
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // Unless the graph is retained for the next instance, the buffer can go back to the pool
+        if (mGraph != null && !isChangingConfigurations()) {
+            releaseGraph();
+        }
+    }
+
+    /**
+     * Releases the graph without waiting for a task still preparing results from it, which keeps the buffer until done
+     */
+    private void releaseGraph() {
+        mGraph.release();
+    }
+
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
-        outState.putParcelable(ARG_ACCEL, mAccelData);
-        outState.putParcelable(ARG_GYRO, mGyroData);
-        outState.putParcelable(ARG_RV, mRotVectorData);
+        // On configuration change the recording is retained as is, so only parcel it in case the process gets killed
+        if (mGraph != null && !isChangingConfigurations()) {
+            outState.putParcelable(ARG_ACCEL, mGraph.getRawAccelData());
+            outState.putParcelable(ARG_GYRO, mGraph.getRawGyroData());
+            outState.putParcelable(ARG_RV, mGraph.getRawRotVectorData());
+            outState.putParcelable(ARG_LINEAR, mGraph.getHardwareLinearAccelData());
+            outState.putFloatArray(ARG_GRAVITY, mGraph.getGravity());
+            // The index is derived on demand, so it can't be read while a task is computing. Then it's rebuilt on
+            // restore instead
+            if (!mGraph.isInUse()) {
+                outState.putParcelable(ARG_RV_TIMELINE, mGraph.getRotVectorTimeline());
+            }
+        }
         outState.putBooleanArray(ARG_RHS, mResultHoldersState);
         outState.putIntArray(ARG_HAM, mHolderToAnimatorMap);
     }
+
+    /**
+     * Recording and its derived state, retained across configuration changes instead of being parceled
+     */
+    private static final class RetainedState {
+        MotionGraph mGraph;
+        ResultsFragment.PreparedState mPreparedState;
+        boolean[] mResultHoldersState;
+        int[] mHolderToAnimatorMap;
+    }
 }
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.ui;
+
+import android.graphics.Color;
+import android.graphics.Typeface;
+import android.util.Log;
+import android.util.TypedValue;
+import android.view.Gravity;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+import com.actinarium.kinetic.pipeline.PipelineMetrics;
+
+/**
+ * A debug overlay displaying {@link PipelineMetrics} and, optionally, {@link FrameMonitor} measurements on top of the
+ * screen, refreshed periodically while shown. Hidden by default, so that it's available in production builds without
+ * getting in the way.
+ *
+ * @author Paul Danyliuk
+ */
+public class MetricsOverlay implements Runnable {
+
+    private static final String TAG = "MetricsOverlay";
+    private static final long REFRESH_INTERVAL_MILLIS = 500;
+
+    private final TextView mView;
+    private FrameMonitor mFrameMonitor;
+    private boolean mIsShown;
+
+    /**
+     * Create an overlay and add it to the container, initially hidden
+     *
+     * @param container Frame layout to put the overlay on top of
+     */
+    public MetricsOverlay(FrameLayout container) {
+        mView = new TextView(container.getContext());
+        mView.setTypeface(Typeface.MONOSPACE);
+        mView.setTextSize(TypedValue.COMPLEX_UNIT_SP, 10);
+        mView.setTextColor(Color.WHITE);
+        mView.setBackgroundColor(0xB0000000);
+        final int padding = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 8,
+                container.getResources().getDisplayMetrics());
+        mView.setPadding(padding, padding, padding, padding);
+        mView.setVisibility(View.GONE);
+        container.addView(mView, new FrameLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT,
+                ViewGroup.LayoutParams.WRAP_CONTENT, Gravity.BOTTOM));
+    }
+
+    /**
+     * Set frame monitor to run while the overlay is shown. Each time the overlay is shown starts a new monitoring
+     * session, whose summary is logged when the overlay is hidden
+     *
+     * @param frameMonitor Frame monitor, or null
+     */
+    public void setFrameMonitor(FrameMonitor frameMonitor) {
+        mFrameMonitor = frameMonitor;
+    }
+
+    /**
+     * Shows the overlay if it's hidden and vice versa
+     */
+    public void toggle() {
+        mIsShown = !mIsShown;
+        if (mIsShown) {
+            mView.setVisibility(View.VISIBLE);
+            if (mFrameMonitor != null) {
+                mFrameMonitor.reset();
+                mFrameMonitor.start();
+            }
+            run();
+        } else {
+            stop();
+            mView.setVisibility(View.GONE);
+        }
+    }
+
+    /**
+     * Stops refreshing and ends frame monitoring session, e.g. when the view is being destroyed
+     */
+    public void stop() {
+        mView.removeCallbacks(this);
+        if (mFrameMonitor != null && mFrameMonitor.isRunning()) {
+            mFrameMonitor.stop();
+            Log.i(TAG, mFrameMonitor.getSummary());
+        }
+    }
+
+    @Override
+    public void run() {
+        final String metrics = PipelineMetrics.dump();
+        mView.setText(mFrameMonitor != null ? metrics + '\n' + mFrameMonitor.getSummary() : metrics);
+        mView.postDelayed(this, REFRESH_INTERVAL_MILLIS);
+    }
+}
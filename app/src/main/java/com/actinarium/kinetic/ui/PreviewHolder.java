@@ -40,9 +40,14 @@ public class PreviewHolder {
 
     private final ObjectAnimator[] mAnimators = new ObjectAnimator[3];
     private final boolean[] mEnabled = new boolean[3];
+    private final MonitoredInterpolator[] mInterpolators = new MonitoredInterpolator[3];
+    private FrameMonitor mFrameMonitor;
 
     public PreviewHolder(View animatedView) {
         mAnimatedView = animatedView;
+        for (int i = 0; i < 3; i++) {
+            mInterpolators[i] = new MonitoredInterpolator();
+        }
 
         mAnimators[ANIMATOR_X] = ObjectAnimator.ofFloat(animatedView, "translationX", 0f);
         mAnimators[ANIMATOR_X].setRepeatCount(ValueAnimator.INFINITE);
@@ -92,9 +97,39 @@ public class PreviewHolder {
         return mEnabled[animator];
     }
 
+    /**
+     * Set frame monitor to report interpolator evaluation time to
+     *
+     * @param frameMonitor Frame monitor, or null
+     */
+    public void setFrameMonitor(FrameMonitor frameMonitor) {
+        mFrameMonitor = frameMonitor;
+    }
+
     public void setInterpolator(int animator, Interpolator interpolator, float magnitude) {
-        mAnimators[animator].setInterpolator(interpolator);
+        mInterpolators[animator].mDelegate = interpolator;
+        mAnimators[animator].setInterpolator(mInterpolators[animator]);
         // Y and rotation are in the opposite direction of recorded data
         mAnimators[animator].setFloatValues(0f, animator == ANIMATOR_X ? magnitude : -magnitude);
     }
+
+    /**
+     * Wrapper measuring how long the actual interpolator takes to evaluate, if frames are being monitored
+     */
+    private class MonitoredInterpolator implements Interpolator {
+
+        private Interpolator mDelegate;
+
+        @Override
+        public float getInterpolation(float input) {
+            final FrameMonitor monitor = mFrameMonitor;
+            if (monitor == null || !monitor.isRunning()) {
+                return mDelegate.getInterpolation(input);
+            }
+            final long start = System.nanoTime();
+            final float result = mDelegate.getInterpolation(input);
+            monitor.recordInterpolation(System.nanoTime() - start);
+            return result;
+        }
+    }
 }
@@ -20,29 +20,43 @@ package com.actinarium.kinetic.ui;
 import android.animation.ObjectAnimator;
 import android.content.Context;
 import android.graphics.drawable.Drawable;
+import android.hardware.Sensor;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v4.app.Fragment;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.animation.LinearInterpolator;
 import android.widget.FrameLayout;
 import android.widget.Toast;
+import com.actinarium.kinetic.BuildConfig;
 import com.actinarium.kinetic.R;
 import com.actinarium.kinetic.pipeline.DataRecorder;
-import com.actinarium.kinetic.pipeline.DataTransformer;
-import com.actinarium.kinetic.util.DataSet3;
-import com.actinarium.kinetic.util.DataSet4;
+import com.actinarium.kinetic.pipeline.IngestMonitor;
+import com.actinarium.kinetic.pipeline.MotionGraph;
+import com.actinarium.kinetic.pipeline.PipelineMetrics;
+import com.actinarium.kinetic.pipeline.RecordingPool;
+import com.actinarium.kinetic.pipeline.SensorChannels;
+import com.actinarium.kinetic.pipeline.source.TraceFile;
+
+import java.io.File;
+import java.io.IOException;
 
 /**
  * A fragment for welcome screen with record button. Since it's the only button on the screen, we can avoid anonymous
- * classes and make the fragment a listener for the button itself
+ * classes and make the fragment a listener for the button itself. Long-pressing the button toggles retrospective
+ * capture, in which case pressing it keeps the last few seconds instead of starting a new recording
  */
-public class RecordFragment extends Fragment implements View.OnClickListener, DataRecorder.Callback {
+public class RecordFragment extends Fragment implements View.OnClickListener, View.OnLongClickListener,
+        DataRecorder.Callback, DataRecorder.IngestListener {
 
     public static final String TAG = "RecordFragment";
 
+    private static final String TRACES_DIR = "traces";
+
     private Host mHost;
     private DataRecorder mRecorder;
     private boolean mIsRecording;
@@ -67,11 +81,15 @@ public class RecordFragment extends Fragment implements View.OnClickListener, Da
 
         mRecordButton = (FloatingActionButton) view.findViewById(R.id.record);
         mRecordButton.setOnClickListener(this);
+        mRecordButton.setOnLongClickListener(this);
         FrameLayout fabHolder = (FrameLayout) view.findViewById(R.id.fab_holder);
         mProgress = fabHolder.getForeground();
         mProgress.setLevel(0);
 
-        mRecorder = new DataRecorder(getContext(), this, DataRecorder.DEFAULT_RECORDING_TIME_MILLIS, DataRecorder.DEFAULT_SAMPLING_MICROS);
+        // Record hardware linear acceleration too where available, so that gravity needn't be removed in software
+        mRecorder = new DataRecorder(getContext(), this, DataRecorder.DEFAULT_RECORDING_TIME_MILLIS,
+                DataRecorder.DEFAULT_SAMPLING_MICROS, Sensor.TYPE_LINEAR_ACCELERATION);
+        mRecorder.setIngestListener(this);
 
         return view;
     }
@@ -90,7 +108,12 @@ public class RecordFragment extends Fragment implements View.OnClickListener, Da
 
     @Override
     public void onClick(View v) {
-        if (!mIsRecording) {
+        if (mRecorder.isCapturing()) {
+            // Keep what's been captured so far, capture goes on until the fragment is stopped
+            if (!mRecorder.snapshot()) {
+                Toast.makeText(getContext(), R.string.snapshot_empty, Toast.LENGTH_SHORT).show();
+            }
+        } else if (!mIsRecording) {
             // Start recording
             mIsRecording = true;
             mRecordButton.setImageDrawable(getResources().getDrawable(R.drawable.ic_pause));
@@ -110,8 +133,25 @@ public class RecordFragment extends Fragment implements View.OnClickListener, Da
     }
 
     @Override
-    public void onDataRecordedResult(@DataRecorder.Status int status, DataSet3 accelData, DataSet3 gyroData,
-                                     DataSet4 rotVectorData, float[] gravity) {
+    public boolean onLongClick(View v) {
+        if (mIsRecording) {
+            return false;
+        }
+        if (mRecorder.isCapturing()) {
+            mRecorder.stopCapture();
+            mProgress.setLevel(0);
+            Toast.makeText(getContext(), R.string.capture_stopped, Toast.LENGTH_SHORT).show();
+        } else {
+            mRecorder.startCapture();
+            mProgress.setLevel(10000);
+            Toast.makeText(getContext(), getString(R.string.capture_started,
+                    DataRecorder.DEFAULT_RECORDING_TIME_MILLIS / 1000), Toast.LENGTH_LONG).show();
+        }
+        return true;
+    }
+
+    @Override
+    public void onDataRecordedResult(@DataRecorder.Status int status, SensorChannels channels, float[] gravity) {
         mIsRecording = false;
         mRecordButton.setImageDrawable(getResources().getDrawable(R.drawable.ic_record));
 
@@ -120,24 +160,54 @@ public class RecordFragment extends Fragment implements View.OnClickListener, Da
         } else if (status < 0) {
             Toast.makeText(getContext(), R.string.app_error, Toast.LENGTH_LONG).show();
         } else {
-            // Try to remove gravity from raw readings
-            DataTransformer.removeGravityFromRaw(accelData, rotVectorData, accelData, gravity);
-
-            // Integrate raw readings:
-
-            // acceleration -> velocity
-            DataTransformer.integrate(accelData);
-            // velocity -> offset
-            DataTransformer.integrate(accelData);
+            if (status == DataRecorder.STATUS_SNAPSHOT_TRUNCATED) {
+                Toast.makeText(getContext(), R.string.snapshot_truncated, Toast.LENGTH_LONG).show();
+            }
+
+            // Keep raw traces of debug recordings for replay and batch reprocessing. Copy before handing the buffer over
+            if (BuildConfig.DEBUG) {
+                saveTrace(TraceFile.copyOf(gravity, channels));
+            }
+
+            // Processing graph takes ownership of the recording buffer and will remove gravity and integrate raw
+            // readings on demand. Metrics are per recording, so drop whatever was collected for the previous one
+            PipelineMetrics.reset();
+            mHost.onDataRecorded(new MotionGraph(channels, RecordingPool.getInstance(), gravity,
+                    MotionGraph.DEFAULT_CACHE_BYTES));
+        }
+    }
 
-            // angular velocity -> phase
-            DataTransformer.integrate(gyroData);
+    private void saveTrace(final TraceFile trace) {
+        final File dir = getContext().getExternalFilesDir(TRACES_DIR);
+        if (dir == null) {
+            return;
+        }
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final File file = new File(dir, "trace_" + System.currentTimeMillis() + TraceFile.EXTENSION);
+                try {
+                    trace.write(file);
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not save trace to " + file, e);
+                }
+            }
+        });
+    }
 
-            mHost.onDataRecorded(accelData, gyroData, rotVectorData);
+    @Override
+    public void onIngestReport(IngestMonitor monitor, String summary, boolean isFinal) {
+        if (isFinal) {
+            // Show along with pipeline metrics on the results screen
+            PipelineMetrics.setIngestSummary(summary);
+        }
+        // Periodic reports come every second while recording, so only log them while debugging ingest issues
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, summary);
         }
     }
 
     public interface Host {
-        void onDataRecorded(DataSet3 accelData, DataSet3 gyroData, DataSet4 rotVectorData);
+        void onDataRecorded(MotionGraph graph);
     }
 }
@@ -16,6 +16,7 @@
 
 package com.actinarium.kinetic.ui;
 
+import android.graphics.Path;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.CompoundButton;
@@ -23,6 +24,7 @@ import android.widget.Spinner;
 import android.widget.Switch;
 import android.widget.TextView;
 import com.actinarium.kinetic.R;
+import com.actinarium.kinetic.pipeline.PipelineMetrics;
 import com.actinarium.kinetic.util.LookupTableInterpolator;
 
 /**
@@ -45,10 +47,10 @@ public class ResultHolder implements AdapterView.OnItemSelectedListener, Compoun
 
     private boolean mIsSpinnerListenerLocked;
 
-    private final LookupTableInterpolator mInterpolator;
-    private float mMagnitude;
-
-    private int mLength;
+    private Prepared mPrepared;
+    private boolean mIsTrimmed;
+    private float mTrimStart;
+    private float mTrimEnd;
 
     /**
      * Create a holder for a single result row and wire up interactivity
@@ -67,8 +69,6 @@ public class ResultHolder implements AdapterView.OnItemSelectedListener, Compoun
         mTitle = title;
         mIsRotation = isRotation;
 
-        mInterpolator = new LookupTableInterpolator();
-
         TextView titleLabel = (TextView) rootView.findViewById(R.id.title);
         titleLabel.setText(title);
 
@@ -99,72 +99,125 @@ public class ResultHolder implements AdapterView.OnItemSelectedListener, Compoun
     }
 
     public void setData(long[] times, float[] values, int length, float linearMagnitude) {
-        mLength = length;
-
-        // Calculate real min and max - used to normalize interpolator values
-        float realMin = values[0];
-        float realMax = values[0];
-        for (int i = 1; i < length; i++) {
-            if (values[i] < realMin) {
-                realMin = values[i];
-            } else if (values[i] > realMax) {
-                realMax = values[i];
-            }
-        }
+        bind(prepare(times, values, length, mIsRotation, linearMagnitude));
+    }
 
-        mInterpolator.setData(values);
-        mInterpolator.setRange(0, mLength - 1);
-        if (realMax > -realMin && realMax > 0) {
-            // Let the multiplier be the negative of the maximum value (so that maximum value maps to 1f)
-            mInterpolator.setTransformation(0f, 1 / realMax);
-        } else if (realMin < 0) {
-            // If we're all about negative values, let the multiplier be -minimum (so that minimum value is -1f)
-            mInterpolator.setTransformation(0f, 1 / -realMin);
-        } else {
-            // Both min and max are zero. Multiplier is 1
-            mInterpolator.setTransformation(0f, 1f);
+    /**
+     * Shows prepared result in this holder. The result is used as is, so binding is cheap. Until it's called, the
+     * chart is empty and the holder has no interpolator
+     *
+     * @param prepared Result prepared with {@link #prepare(long[], float[], int, boolean, float)}, possibly for an
+     *                 earlier instance of this holder
+     */
+    public void bind(Prepared prepared) {
+        mPrepared = prepared;
+        mChart.setPath(prepared.mPath, prepared.mChartMin, prepared.mChartMax);
+        if (mIsTrimmed) {
+            applyTrim();
         }
+    }
 
-        // Determine chart min/max - we don't want to look at over-magnified jitter
-        float chartMin, chartMax;
-        // And also determine magnitude for the preview
-        if (mIsRotation) {
-            // If those are rotation values, make them a multiple of pi/2
-            chartMin = (float) (Math.floor(realMin / Math.PI * 2.0) * Math.PI / 2);
-            chartMax = (float) (Math.ceil(realMax / Math.PI * 2.0) * Math.PI / 2);
-            // Magnitude will be the exact value as a maximum (converted to degrees)
-            mMagnitude = (float) (mInterpolator.getMultiplier() * 180 / Math.PI);
-        } else {
-            // If those are offset values, I want to make the minimum range of -5cm..5cm
-            chartMin = Math.min(realMin, -0.05f);
-            chartMax = Math.max(realMax, 0.05f);
-            // Magnitude is always the constant
-            // todo: no, it should be determined proportionally based on what's mapped to X / Y
-            mMagnitude = linearMagnitude;
+    /**
+     * @return true if a prepared result is bound to this holder
+     */
+    public boolean isPrepared() {
+        return mPrepared != null;
+    }
+
+    /**
+     * Derives everything a holder displays from result data: the interpolator and chart geometry. Doesn't touch any
+     * views, and the result can be retained across configuration changes
+     *
+     * @param times           Timestamps in nanos
+     * @param values          Result values
+     * @param length          Number of entries to use from times and values arrays
+     * @param isRotation      If the result is rotation data as opposed to offset data
+     * @param linearMagnitude Preview magnitude of offset data
+     * @return Prepared result to {@link #bind(Prepared)}
+     */
+    public static Prepared prepare(long[] times, float[] values, int length, boolean isRotation,
+                                   float linearMagnitude) {
+        final long start = PipelineMetrics.begin(PipelineMetrics.STAGE_RESULT_DATA);
+        try {
+            final Prepared prepared = new Prepared();
+            prepared.mLength = length;
+            final LookupTableInterpolator interpolator = prepared.mInterpolator;
+
+            // Calculate real min and max - used to normalize interpolator values
+            float realMin = values[0];
+            float realMax = values[0];
+            for (int i = 1; i < length; i++) {
+                if (values[i] < realMin) {
+                    realMin = values[i];
+                } else if (values[i] > realMax) {
+                    realMax = values[i];
+                }
+            }
+
+            interpolator.setData(values);
+            interpolator.setRange(0, length - 1);
+            interpolator.setNormalizingTransformation(realMin, realMax);
+
+            // Determine chart min/max - we don't want to look at over-magnified jitter
+            float chartMin, chartMax;
+            // And also determine magnitude for the preview
+            if (isRotation) {
+                // If those are rotation values, make them a multiple of pi/2
+                chartMin = (float) (Math.floor(realMin / Math.PI * 2.0) * Math.PI / 2);
+                chartMax = (float) (Math.ceil(realMax / Math.PI * 2.0) * Math.PI / 2);
+                // Magnitude will be the exact value as a maximum (converted to degrees)
+                prepared.mMagnitude = (float) (interpolator.getMultiplier() * 180 / Math.PI);
+            } else {
+                // If those are offset values, I want to make the minimum range of -5cm..5cm
+                chartMin = Math.min(realMin, -0.05f);
+                chartMax = Math.max(realMax, 0.05f);
+                // Magnitude is always the constant
+                // todo: no, it should be determined proportionally based on what's mapped to X / Y
+                prepared.mMagnitude = linearMagnitude;
+            }
+            prepared.mMagnitude = 100f;
+            prepared.mChartMin = chartMin;
+            prepared.mChartMax = chartMax;
+            prepared.mPath = KineticChart.createPath(times, values, length);
+
+            return prepared;
+        } finally {
+            PipelineMetrics.end(PipelineMetrics.STAGE_RESULT_DATA, start, length);
         }
-        mMagnitude = 100f;
+    }
 
-        mChart.setData(times, values, length, chartMin, chartMax);
+    public void setFrameMonitor(FrameMonitor frameMonitor) {
+        mChart.setFrameMonitor(frameMonitor);
     }
 
     public void setTrim(float trimStart, float trimEnd) {
-        final int start = (int) (mLength * trimStart);
-        final int end = (int) (mLength * (1 - trimEnd) + 0.5);
-        mInterpolator.setRange(start, end);
+        mIsTrimmed = true;
+        mTrimStart = trimStart;
+        mTrimEnd = trimEnd;
+        if (mPrepared != null) {
+            applyTrim();
+        }
         mChart.setTrim(trimStart, trimEnd);
     }
 
+    private void applyTrim() {
+        final int length = mPrepared.mLength;
+        final int start = (int) (length * mTrimStart);
+        final int end = (int) (length * (1 - mTrimEnd) + 0.5);
+        mPrepared.mInterpolator.setRange(start, end);
+    }
+
     public void setSelectedAnimator(int animator) {
         mIsSpinnerListenerLocked = true;
         mAnimatorSpinner.setSelection(animator + 1, false);
     }
 
     public LookupTableInterpolator getInterpolator() {
-        return mInterpolator;
+        return mPrepared.mInterpolator;
     }
 
     public float getMagnitude() {
-        return mMagnitude;
+        return mPrepared.mMagnitude;
     }
 
     public String getTitle() {
@@ -193,6 +246,22 @@ public class ResultHolder implements AdapterView.OnItemSelectedListener, Compoun
         mHost.onResultToggle(mId, isChecked);
     }
 
+    /**
+     * Everything derived from result data that a holder displays, independent of views
+     */
+    public static final class Prepared {
+
+        private final LookupTableInterpolator mInterpolator = new LookupTableInterpolator();
+        private Path mPath;
+        private float mChartMin;
+        private float mChartMax;
+        private float mMagnitude;
+        private int mLength;
+
+        private Prepared() {
+        }
+    }
+
     public interface Host {
         void onResultToggle(int id, boolean isEnabled);
         void onAnimatorSelected(int id, int animator);
@@ -19,6 +19,7 @@ package com.actinarium.kinetic.ui;
 
 import android.content.Context;
 import android.content.DialogInterface;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.ShareCompat;
@@ -27,11 +28,15 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
+import android.widget.FrameLayout;
 import android.widget.ImageButton;
 import android.widget.SeekBar;
 import android.widget.Toast;
 import com.actinarium.kinetic.R;
 import com.actinarium.kinetic.pipeline.CodeGenerator;
+import com.actinarium.kinetic.pipeline.MotionDetector;
+import com.actinarium.kinetic.pipeline.MotionGraph;
+import com.actinarium.kinetic.pipeline.PipelineMetrics;
 import com.actinarium.kinetic.util.DataSet3;
 
 import java.util.ArrayList;
@@ -39,12 +44,16 @@ import java.util.Random;
 
 /**
  * A fragment that displays recording result. Just like record fragment, implements a listener for the seek bars right
- * away
+ * away. Results of a fresh recording are processed and prepared on a worker thread while the fragment slides in, so
+ * the screen shows up at once and fills in when they're ready. Only enabled results are prepared up front, disabled
+ * ones are prepared once enabled
  */
 public class ResultsFragment extends Fragment implements SeekBar.OnSeekBarChangeListener, ResultHolder.Host {
 
     public static final String TAG = "ResultsFragment";
 
+    private static final String ARG_TRIM_PENDING = "com.actinarium.kinetic.bundle.TRIM_PENDING";
+
     private static final int RESULT_OFFSET_X = 0;
     private static final int RESULT_OFFSET_Y = 1;
     private static final int RESULT_OFFSET_Z = 2;
@@ -52,17 +61,36 @@ public class ResultsFragment extends Fragment implements SeekBar.OnSeekBarChange
     private static final int RESULT_ROT_ROLL = 4;
     private static final int RESULT_ROT_YAW = 5;
 
+    /**
+     * Export modes in the order of items in R.array.export_modes
+     */
+    private static final int[] EXPORT_MODE_ITEMS = {
+            CodeGenerator.EXPORT_FLOAT,
+            CodeGenerator.EXPORT_FIXED_POINT,
+            CodeGenerator.EXPORT_DATA_ONLY,
+            CodeGenerator.EXPORT_PACKED
+    };
+
     private Host mHost;
 
     private ResultHolder[] mHolders = new ResultHolder[6];
 
     private PreviewHolder mPreviewHolder;
+    private MetricsOverlay mMetricsOverlay;
+    private FrameMonitor mFrameMonitor;
     private SeekBar mTrimStart;
     private SeekBar mTrimEnd;
     private int mStartProgress;
     private int mEndProgress;
     private int mMax;
     private long mFullDuration;
+    private Button mExportButton;
+
+    private PrepareTask mPrepareTask;
+    private PreparedState mState;
+    private DataSet3 mAccelData;
+    private DataSet3 mGyroData;
+    private float mLinearMagnitude;
 
     private String[] mEpithets;
     private boolean[] mResultEnabledStates;
@@ -82,9 +110,6 @@ public class ResultsFragment extends Fragment implements SeekBar.OnSeekBarChange
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
         View view = inflater.inflate(R.layout.fragment_results, container, false);
 
-        DataSet3 accelData = mHost.getAccelData();
-        DataSet3 gyroData = mHost.getGyroData();
-
         // Discard button (X)
         ImageButton discard = (ImageButton) view.findViewById(R.id.discard);
         discard.setImageAlpha(180);
@@ -95,12 +120,25 @@ public class ResultsFragment extends Fragment implements SeekBar.OnSeekBarChange
             }
         });
 
+        // Long press on discard button toggles pipeline metrics overlay, which also monitors frames while shown
+        final float refreshRate = getActivity().getWindowManager().getDefaultDisplay().getRefreshRate();
+        mFrameMonitor = new FrameMonitor(refreshRate > 0
+                ? (long) (1000000000L / refreshRate) : FrameMonitor.DEFAULT_FRAME_INTERVAL_NANOS);
+        mMetricsOverlay = new MetricsOverlay((FrameLayout) view);
+        mMetricsOverlay.setFrameMonitor(mFrameMonitor);
+        discard.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                mMetricsOverlay.toggle();
+                return true;
+            }
+        });
+
         // Preview animation
         View animatedView = view.findViewById(R.id.preview_sprite);
-        float linearMagnitude = getResources().getDimension(R.dimen.linear_magnitude);
-        mFullDuration = (accelData.times[accelData.length - 1] - accelData.times[0]) / 1000000L;
+        mLinearMagnitude = getResources().getDimension(R.dimen.linear_magnitude);
         mPreviewHolder = new PreviewHolder(animatedView);
-        mPreviewHolder.setDuration(mFullDuration);
+        mPreviewHolder.setFrameMonitor(mFrameMonitor);
 
         // Trim range
         mTrimStart = (SeekBar) view.findViewById(R.id.trim_start);
@@ -117,24 +155,94 @@ public class ResultsFragment extends Fragment implements SeekBar.OnSeekBarChange
             View item = inflater.inflate(R.layout.item_measurement, resultsContainer, false);
             resultsContainer.addView(item);
             mHolders[i] = new ResultHolder(i, this, item, resultTitles[i], i >= 3, mResultEnabledStates[i], mMap[i]);
+            mHolders[i].setFrameMonitor(mFrameMonitor);
         }
 
-        Button export = (Button) inflater.inflate(R.layout.item_export_button, resultsContainer, false);
-        export.setOnClickListener(new View.OnClickListener() {
+        mExportButton = (Button) inflater.inflate(R.layout.item_export_button, resultsContainer, false);
+        mExportButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                onExport();
+                onExportClicked();
             }
         });
-        resultsContainer.addView(export);
+        mExportButton.setEnabled(false);
+        resultsContainer.addView(mExportButton);
         mEpithets = getResources().getStringArray(R.array.epithets);
 
-        mHolders[0].setData(accelData.times, accelData.valuesX, accelData.length, linearMagnitude);
-        mHolders[1].setData(accelData.times, accelData.valuesY, accelData.length, linearMagnitude);
-        mHolders[2].setData(accelData.times, accelData.valuesZ, accelData.length, linearMagnitude);
-        mHolders[3].setData(gyroData.times, gyroData.valuesX, gyroData.length, 0f);
-        mHolders[4].setData(gyroData.times, gyroData.valuesY, gyroData.length, 0f);
-        mHolders[5].setData(gyroData.times, gyroData.valuesZ, gyroData.length, 0f);
+        return view;
+    }
+
+    @Override
+    public void onViewStateRestored(Bundle savedInstanceState) {
+        super.onViewStateRestored(savedInstanceState);
+
+        // Prepared results are retained along with the recording, so after rotation holders only need to bind them.
+        // Otherwise process and prepare them in background. Idle head and tail are trimmed once per recording, unless
+        // the user has trimmed it already: after that, seek bars restore the trim themselves. Either way, it's done
+        // once they have restored their state, so that the detected trim isn't overwritten
+        mState = mHost.getPreparedState();
+        if (savedInstanceState != null && !savedInstanceState.getBoolean(ARG_TRIM_PENDING, true)) {
+            // The state isn't retained if the process was killed
+            mState.mIsTrimPending = false;
+        }
+        boolean isPrepared = mState.mAccelData != null && (!mState.mIsTrimPending || mState.mIsMotionDetected);
+        for (int i = 0; i < 6 && isPrepared; i++) {
+            isPrepared = !mResultEnabledStates[i] || mState.mResults[i] != null;
+        }
+        if (isPrepared) {
+            onResultsPrepared(mState.mAccelData, mState.mGyroData);
+        } else {
+            mPrepareTask = new PrepareTask(this, mHost.getMotionGraph(), mState, mResultEnabledStates.clone(),
+                    mLinearMagnitude);
+            // One task at a time, so that a task cancelled by rotation and still running doesn't compute on the graph
+            // alongside the new one
+            mPrepareTask.executeOnExecutor(AsyncTask.SERIAL_EXECUTOR);
+        }
+    }
+
+    @Override
+    public void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        if (mState != null) {
+            outState.putBoolean(ARG_TRIM_PENDING, mState.mIsTrimPending);
+        }
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        mMetricsOverlay.stop();
+        if (mPrepareTask != null) {
+            mPrepareTask.cancel(false);
+            mPrepareTask = null;
+        }
+    }
+
+    /**
+     * Called on the main thread once processed data is available and enabled results are prepared, along with the
+     * motion window if the recording is yet to be trimmed
+     *
+     * @param accelData Offset data
+     * @param gyroData  Rotation data
+     */
+    private void onResultsPrepared(DataSet3 accelData, DataSet3 gyroData) {
+        mAccelData = accelData;
+        mGyroData = gyroData;
+        mFullDuration = (accelData.times[accelData.length - 1] - accelData.times[0]) / 1000000L;
+        mPreviewHolder.setDuration(getTrimmedDuration());
+
+        // Results enabled while preparation was running weren't prepared by the task
+        for (int i = 0; i < 6; i++) {
+            if (mResultEnabledStates[i]) {
+                ensurePrepared(i);
+            }
+        }
+        if (mState.mIsTrimPending && mState.mIsMotionDetected) {
+            if (mState.mHasMotionWindow) {
+                applyAutoTrim(accelData, mState.mMotionWindow);
+            }
+            mState.mIsTrimPending = false;
+        }
 
         // Wire up animators to results
         for (int i = 0; i < mMap.length; i++) {
@@ -142,13 +250,70 @@ public class ResultsFragment extends Fragment implements SeekBar.OnSeekBarChange
             if (animator != PreviewHolder.NO_ANIMATOR) {
                 // This holder is mapped to an animator. Inject result data into animation holder
                 final ResultHolder holder = mHolders[i];
-                mPreviewHolder.setInterpolator(animator, holder.getInterpolator(), holder.getMagnitude());
+                if (holder.isEnabled()) {
+                    mPreviewHolder.setInterpolator(animator, holder.getInterpolator(), holder.getMagnitude());
+                }
                 mPreviewHolder.setEnabled(animator, holder.isEnabled());
             }
         }
         mPreviewHolder.startAnimation();
+        mExportButton.setEnabled(true);
+    }
 
-        return view;
+    /**
+     * Prepares and binds a result if it's not prepared yet, e.g. when a disabled result gets enabled. Must be called
+     * once processed data is available
+     *
+     * @param id Index of the result
+     */
+    private void ensurePrepared(int id) {
+        final ResultHolder holder = mHolders[id];
+        if (holder.isPrepared()) {
+            return;
+        }
+        final ResultHolder.Prepared[] prepared = mState.mResults;
+        if (prepared[id] == null) {
+            final DataSet3 data = id < 3 ? mAccelData : mGyroData;
+            prepared[id] = ResultHolder.prepare(data.times, getAxisValues(data, id % 3), data.length, id >= 3,
+                    id < 3 ? mLinearMagnitude : 0f);
+        }
+        holder.bind(prepared[id]);
+    }
+
+    private static float[] getAxisValues(DataSet3 data, int axis) {
+        switch (axis) {
+            case 0:
+                return data.valuesX;
+            case 1:
+                return data.valuesY;
+            default:
+                return data.valuesZ;
+        }
+    }
+
+    /**
+     * Proposes initial trim, so that exported tables and preview contain only the motion itself
+     *
+     * @param accelData Data whose timeline the trim range is relative to
+     * @param window    Start and end timestamps of the motion
+     */
+    private void applyAutoTrim(DataSet3 accelData, long[] window) {
+        final long start = accelData.times[0];
+        final float duration = accelData.times[accelData.length - 1] - start;
+        final float startFraction = Math.max(0f, Math.min(1f, (window[0] - start) / duration));
+        final float endFraction = Math.max(0f, Math.min(1f, (start + duration - window[1]) / duration));
+        if (startFraction + endFraction >= 1f) {
+            return;
+        }
+
+        // These will call onProgressChanged, updating holders
+        mTrimStart.setProgress(Math.round(startFraction * mMax));
+        mTrimEnd.setProgress(Math.round(endFraction * mMax));
+        mPreviewHolder.setDuration(getTrimmedDuration());
+    }
+
+    private long getTrimmedDuration() {
+        return mFullDuration * (mMax - mStartProgress - mEndProgress) / mMax;
     }
 
     /**
@@ -172,7 +337,27 @@ public class ResultsFragment extends Fragment implements SeekBar.OnSeekBarChange
                 .show();
     }
 
-    private void onExport() {
+    /**
+     * Called when Export button is pressed. Asks which form the lookup tables should be exported in
+     */
+    private void onExportClicked() {
+        new AlertDialog.Builder(getContext())
+                .setTitle(R.string.export_as)
+                .setItems(R.array.export_modes, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        @CodeGenerator.ExportMode final int mode = EXPORT_MODE_ITEMS[which];
+                        if (mode == CodeGenerator.EXPORT_PACKED) {
+                            onExportPacked();
+                        } else {
+                            onExport(mode);
+                        }
+                    }
+                })
+                .show();
+    }
+
+    private void onExport(@CodeGenerator.ExportMode int mode) {
         // Allocate string builder large enough
         StringBuilder exportBuilder = new StringBuilder(4096);
 
@@ -180,33 +365,95 @@ public class ResultsFragment extends Fragment implements SeekBar.OnSeekBarChange
         ArrayList<Integer> usedInts = new ArrayList<>(6);
         Random random = new Random();
 
+        int samples = 0;
+        final long start = PipelineMetrics.begin(PipelineMetrics.STAGE_CODE_GENERATION);
+        try {
+            for (ResultHolder holder : mHolders) {
+                if (holder.isEnabled()) {
+                    // Pick a name
+                    int index;
+                    do {
+                        index = random.nextInt(mEpithets.length);
+                    } while (usedInts.contains(index));
+                    usedInts.add(index);
+
+                    // Generate code and append to the builder
+                    final float[] values = holder.getInterpolator().exportData();
+                    exportBuilder.append(CodeGenerator.generateInterpolatorCode(
+                            CodeGenerator.DEFAULT_PACKAGE_NAME,
+                            getString(R.string.class_name_template, mEpithets[index]),
+                            holder.getTitle(),
+                            values,
+                            mode
+                    )).append("\n\n");
+                    samples += values.length;
+                }
+            }
+        } finally {
+            PipelineMetrics.end(PipelineMetrics.STAGE_CODE_GENERATION, start, samples);
+        }
+
+        shareExport(exportBuilder.toString());
+    }
+
+    /**
+     * Exports all enabled results as a single class with interleaved lookup tables
+     */
+    private void onExportPacked() {
+        ArrayList<ResultHolder> enabled = new ArrayList<>(6);
+        int length = 0;
         for (ResultHolder holder : mHolders) {
             if (holder.isEnabled()) {
-                // Pick a name
-                int index;
-                do {
-                    index = random.nextInt(mEpithets.length);
-                } while (usedInts.contains(index));
-                usedInts.add(index);
-
-                // Generate code and append to the builder
-                exportBuilder.append(CodeGenerator.generateInterpolatorCode(
-                        CodeGenerator.DEFAULT_PACKAGE_NAME,
-                        getString(R.string.class_name_template, mEpithets[index]),
-                        holder.getTitle(),
-                        holder.getInterpolator().exportData()
-                )).append("\n\n");
+                enabled.add(holder);
+                length = Math.max(length, holder.getInterpolator().exportData().length);
             }
         }
+        if (enabled.isEmpty()) {
+            shareExport("");
+            return;
+        }
+
+        // Tables of offsets and rotations may have different lengths, so bring them to the longest one
+        final int count = enabled.size();
+        String[] titles = new String[count];
+        float[][] channels = new float[count][];
+        for (int i = 0; i < count; i++) {
+            ResultHolder holder = enabled.get(i);
+            titles[i] = holder.getTitle();
+            channels[i] = holder.getInterpolator().exportData(length);
+        }
 
-        if (exportBuilder.length() == 0) {
+        String epithet = mEpithets[new Random().nextInt(mEpithets.length)];
+        final String className = getString(R.string.packed_class_name_template, epithet);
+        final String code;
+        final long start = PipelineMetrics.begin(PipelineMetrics.STAGE_CODE_GENERATION);
+        try {
+            code = CodeGenerator.generatePackedInterpolatorCode(
+                    CodeGenerator.DEFAULT_PACKAGE_NAME,
+                    className,
+                    titles,
+                    channels
+            );
+        } finally {
+            PipelineMetrics.end(PipelineMetrics.STAGE_CODE_GENERATION, start, count * length);
+        }
+        shareExport(code);
+    }
+
+    /**
+     * Shares generated code, or notifies that there's nothing to share
+     *
+     * @param code generated code, empty if nothing was exported
+     */
+    private void shareExport(String code) {
+        if (code.length() == 0) {
             Toast.makeText(getContext(), R.string.nothing_to_export, Toast.LENGTH_LONG).show();
         } else {
             // Share this to any app that can handle raw text (e.g. a mail app to send generated code to myself)
             ShareCompat.IntentBuilder.from(getActivity())
                     .setChooserTitle(R.string.export_to)
                     .setType("text/plain")
-                    .setText(exportBuilder.toString())
+                    .setText(code)
                     .startChooser();
         }
     }
@@ -214,10 +461,21 @@ public class ResultsFragment extends Fragment implements SeekBar.OnSeekBarChange
     @Override
     public void onResultToggle(int id, boolean isEnabled) {
         mResultEnabledStates[id] = isEnabled;
+        if (mAccelData == null) {
+            // Still preparing, newly enabled results will be picked up once done
+            return;
+        }
+        if (isEnabled) {
+            ensurePrepared(id);
+        }
         // If there's an animator mapped to this result, enable/disable it
         int ourAnimator = mMap[id];
         if (ourAnimator != PreviewHolder.NO_ANIMATOR) {
+            final ResultHolder us = mHolders[id];
             mPreviewHolder.stopAnimation();
+            if (isEnabled) {
+                mPreviewHolder.setInterpolator(ourAnimator, us.getInterpolator(), us.getMagnitude());
+            }
             mPreviewHolder.setEnabled(ourAnimator, isEnabled);
             mPreviewHolder.startAnimation();
         }
@@ -255,14 +513,19 @@ public class ResultsFragment extends Fragment implements SeekBar.OnSeekBarChange
                 mPreviewHolder.setEnabled(ourPrevAnimator, false);
             }
 
-            // Now we bind there
-            ResultHolder us = mHolders[id];
-            mPreviewHolder.setInterpolator(animator, us.getInterpolator(), us.getMagnitude());
-            mPreviewHolder.stopAnimation();
-            mPreviewHolder.setEnabled(animator, us.isEnabled());
-            mPreviewHolder.startAnimation();
             // And don't forget to remember that
             mMap[id] = animator;
+
+            // Now we bind there, unless still preparing, in which case animators are wired up once done
+            ResultHolder us = mHolders[id];
+            if (mAccelData != null) {
+                if (us.isEnabled()) {
+                    mPreviewHolder.setInterpolator(animator, us.getInterpolator(), us.getMagnitude());
+                }
+                mPreviewHolder.stopAnimation();
+                mPreviewHolder.setEnabled(animator, us.isEnabled());
+                mPreviewHolder.startAnimation();
+            }
         }
     }
 
@@ -287,21 +550,171 @@ public class ResultsFragment extends Fragment implements SeekBar.OnSeekBarChange
 
     @Override
     public void onStartTrackingTouch(SeekBar seekBar) {
+        // Don't override user's trim with the detected one
+        mState.mIsTrimPending = false;
         mPreviewHolder.stopAnimation();
     }
 
     @Override
     public void onStopTrackingTouch(SeekBar seekBar) {
         if (mStartProgress + mEndProgress < mMax) {
-            final long newDuration = mFullDuration * (mMax - mStartProgress - mEndProgress) / mMax;
-            mPreviewHolder.setDuration(newDuration);
+            mPreviewHolder.setDuration(getTrimmedDuration());
             mPreviewHolder.startAnimation();
         }
     }
 
+    /**
+     * Results of the current recording prepared so far, along with its detected motion window. Retained by the host
+     * across configuration changes, so that the work of a task cancelled by rotation isn't lost
+     */
+    public static final class PreparedState {
+
+        /**
+         * Processed offset and rotation data, null until published by a task
+         */
+        DataSet3 mAccelData;
+        DataSet3 mGyroData;
+
+        /**
+         * Prepared results by holder index, null if not prepared yet
+         */
+        final ResultHolder.Prepared[] mResults = new ResultHolder.Prepared[6];
+        final long[] mMotionWindow = new long[2];
+        boolean mIsMotionDetected;
+        boolean mHasMotionWindow;
+
+        /**
+         * true until the detected trim is applied or the user trims the recording themselves
+         */
+        boolean mIsTrimPending = true;
+    }
+
+    /**
+     * Processes recording data, detects the motion window and prepares enabled results in background. What's done is
+     * published into the retained state even if the task is cancelled, e.g. by rotation. The task holds its own
+     * reference to the graph and marks it in use until the result is delivered, so the host can drop and release it
+     * without waiting when the recording is discarded. Then the task finds the graph released and bails
+     */
+    private static class PrepareTask extends AsyncTask<Void, Void, Boolean> {
+
+        private final ResultsFragment mFragment;
+        private final MotionGraph mGraph;
+        private final PreparedState mTarget;
+        private final ResultHolder.Prepared[] mPrepared;
+        private final boolean[] mIsEnabled;
+        private final float mMagnitude;
+        private final boolean mIsDetecting;
+
+        private DataSet3 mTaskAccelData;
+        private DataSet3 mTaskGyroData;
+        private final long[] mWindow = new long[2];
+        private boolean mHasWindow;
+        private boolean mIsDetected;
+        private boolean mIsInUse;
+
+        PrepareTask(ResultsFragment fragment, MotionGraph graph, PreparedState target, boolean[] isEnabled,
+                    float magnitude) {
+            mFragment = fragment;
+            mGraph = graph;
+            mTarget = target;
+            mPrepared = target.mResults.clone();
+            mIsEnabled = isEnabled;
+            mMagnitude = magnitude;
+            mIsDetecting = target.mIsTrimPending && !target.mIsMotionDetected;
+        }
+
+        @Override
+        protected void onPreExecute() {
+            // Marked on the main thread, which is the only one to end the use too, so the host can tell if it's safe
+            // to access the graph
+            mIsInUse = mGraph.beginUse();
+        }
+
+        @Override
+        protected Boolean doInBackground(Void... params) {
+            if (!mIsInUse) {
+                return false;
+            }
+            // No locks are held, since the graph keeps its buffer until the use ends. If it's released meanwhile,
+            // getters return null
+            mTaskAccelData = mGraph.getOffset();
+            mTaskGyroData = mGraph.getPhase();
+            if (mTaskAccelData == null || mTaskGyroData == null) {
+                return false;
+            }
+            if (mIsDetecting && !isCancelled()) {
+                final DataSet3 linearAccelData = mGraph.getLinearAcceleration();
+                final DataSet3 gyroData = mGraph.getRawGyroData();
+                if (linearAccelData == null || gyroData == null) {
+                    return false;
+                }
+                mHasWindow = MotionDetector.detect(linearAccelData, gyroData, MotionDetector.DEFAULT_WINDOW_NANOS,
+                        mWindow);
+                mIsDetected = true;
+            }
+            // Processed data is not pooled, so it stays valid even if the graph gets released meanwhile
+            for (int i = 0; i < 6 && !isCancelled(); i++) {
+                if (mIsEnabled[i] && mPrepared[i] == null) {
+                    final DataSet3 data = i < 3 ? mTaskAccelData : mTaskGyroData;
+                    mPrepared[i] = ResultHolder.prepare(data.times, getAxisValues(data, i % 3), data.length, i >= 3,
+                            i < 3 ? mMagnitude : 0f);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        protected void onPostExecute(Boolean isPrepared) {
+            endUse();
+            if (!isPrepared) {
+                return;
+            }
+            publish();
+            mFragment.mPrepareTask = null;
+            mFragment.onResultsPrepared(mTaskAccelData, mTaskGyroData);
+        }
+
+        @Override
+        protected void onCancelled(Boolean isPrepared) {
+            endUse();
+            if (isPrepared != null && isPrepared) {
+                publish();
+            }
+        }
+
+        private void endUse() {
+            if (mIsInUse) {
+                mIsInUse = false;
+                mGraph.endUse();
+            }
+        }
+
+        private void publish() {
+            if (mTarget.mAccelData == null) {
+                mTarget.mAccelData = mTaskAccelData;
+                mTarget.mGyroData = mTaskGyroData;
+            }
+            for (int i = 0; i < 6; i++) {
+                if (mTarget.mResults[i] == null) {
+                    mTarget.mResults[i] = mPrepared[i];
+                }
+            }
+            if (mIsDetected && !mTarget.mIsMotionDetected) {
+                mTarget.mIsMotionDetected = true;
+                mTarget.mHasMotionWindow = mHasWindow;
+                System.arraycopy(mWindow, 0, mTarget.mMotionWindow, 0, 2);
+            }
+        }
+    }
+
     public interface Host {
-        DataSet3 getAccelData();
-        DataSet3 getGyroData();
+
+        /**
+         * @return Processing graph of the current recording, which results are prepared from on a worker thread. The
+         * graph isn't thread safe, so the host must not access its derived data while it's in use
+         */
+        MotionGraph getMotionGraph();
+
         void onRecordingDiscarded();
 
         /**
@@ -310,6 +723,13 @@ public class ResultsFragment extends Fragment implements SeekBar.OnSeekBarChange
          */
         boolean[] getResultHoldersState();
 
+        /**
+         * Get reference to the state that retains prepared results of the current recording across configuration
+         * changes
+         * @return reference to the state, editable. Must be a new one for each recording
+         */
+        PreparedState getPreparedState();
+
         /**
          * Get reference to the array that maps holders to animators in preview
          * @return
@@ -26,6 +26,8 @@ import android.os.Parcelable;
  */
 public class DataSet3 implements Parcelable {
 
+    private static final long NANOS_IN_SECONDS = 1000000000;
+
     public final long[] times;
     public final float[] valuesX;
     public final float[] valuesY;
@@ -38,9 +40,17 @@ public class DataSet3 implements Parcelable {
     protected final int mDataSize;
 
     /**
-     * Used for faster interpolated lookup
+     * Used for faster interpolated lookup by {@link #getForTime(long, float[])}
+     */
+    private final Cursor mCursor = new Cursor();
+
+    /**
+     * Lazily built time deltas in seconds and reciprocal sampling intervals in 1/nanos, shared by all transforms that
+     * read this data set. Valid for the first {@link #mTimeDeltasLength} events
      */
-    protected int mSlidingIndex = 0;
+    private float[] mTimeDeltas;
+    private float[] mInverseIntervals;
+    private volatile int mTimeDeltasLength;
 
     /**
      * Create a new data set for provided number of sensor events
@@ -58,11 +68,26 @@ public class DataSet3 implements Parcelable {
         times = new long[dataSize];
     }
 
+    /**
+     * Create a new data set holding a copy of fresh values of provided data set, trimmed to its length
+     *
+     * @param source The data set to copy values from
+     */
+    public DataSet3(DataSet3 source) {
+        this(source.length);
+        System.arraycopy(source.times, 0, times, 0, source.length);
+        System.arraycopy(source.valuesX, 0, valuesX, 0, source.length);
+        System.arraycopy(source.valuesY, 0, valuesY, 0, source.length);
+        System.arraycopy(source.valuesZ, 0, valuesZ, 0, source.length);
+        length = source.length;
+    }
+
     /**
      * Resets data end pointer to zero
      */
     public void reset() {
         length = 0;
+        mTimeDeltasLength = 0;
     }
 
     /**
@@ -72,67 +97,299 @@ public class DataSet3 implements Parcelable {
      * @return true if data was added, false if array is overflowing
      */
     public boolean put(SensorEvent event) {
+        return put(event.timestamp, event.values);
+    }
+
+    /**
+     * Appends a timestamp and 3 values to this data set
+     *
+     * @param time   Timestamp in nanos
+     * @param values Values, the first 3 of which are taken
+     * @return true if data was added, false if array is overflowing
+     */
+    public boolean put(long time, float[] values) {
         // Check if we're not overflowing allocated arrays
         if (length == mDataSize) {
             return false;
         }
 
         // If everything is OK, save the data
-        times[length] = event.timestamp;
-        valuesX[length] = event.values[0];
-        valuesY[length] = event.values[1];
-        valuesZ[length] = event.values[2];
+        times[length] = time;
+        valuesX[length] = values[0];
+        valuesY[length] = values[1];
+        valuesZ[length] = values[2];
         length++;
         return true;
     }
 
+    /**
+     * @return Number of values in each event, i.e. the minimum length of arrays passed to {@link #getForTime(long,
+     * float[])}
+     */
+    public int getChannels() {
+        return 3;
+    }
+
     /**
      * Calculates the set of values for provided time. If time lands on exact measurement in the data set, it is
      * returned as is, otherwise this method will linearly interpolate between two closest points. If time is outside
-     * the range, the first or the last value will be used. <b>Heads up:</b> this method is optimized to perform with
-     * O(1) complexity for sequential lookups (i.e. when the next call to this method has <code>time</code> equal or
-     * greater than previously provided time. Also you should use {@link #resetForInterpolatedRead()} each time before
-     * reading the data from the start.
+     * the range, the first or the last value will be used. <b>Heads up:</b> this method uses an internal cursor and is
+     * therefore not thread-safe. Use {@link #getForTime(long, float[], Cursor)} to read from multiple threads.
      *
      * @param time Timestamp in nanos to get value set for
      * @param out  Array to fill with values, must be at least of length 3
      */
     public void getForTime(long time, float[] out) {
+        getForTime(time, out, mCursor);
+    }
+
+    /**
+     * Calculates the set of values for provided time, same as {@link #getForTime(long, float[])}, but starting the
+     * search from provided cursor. Lookups take O(1) for sequential times and O(log d) for a jump over d events in
+     * either direction, so scrubbing back and forth is cheap too.
+     *
+     * @param time   Timestamp in nanos to get value set for
+     * @param out    Array to fill with values, must be at least of length {@link #getChannels()}
+     * @param cursor Cursor owned by the caller, will be moved to the found position
+     */
+    public void getForTime(long time, float[] out, Cursor cursor) {
         // Corner cases: before range start and after range end
         if (time <= times[0]) {
-            out[0] = valuesX[0];
-            out[1] = valuesY[0];
-            out[2] = valuesZ[0];
+            cursor.mIndex = 0;
+            copyValues(0, out);
             return;
         }
         if (time >= times[length - 1]) {
-            out[0] = valuesX[length - 1];
-            out[1] = valuesY[length - 1];
-            out[2] = valuesZ[length - 1];
+            cursor.mIndex = length - 2;
+            copyValues(length - 1, out);
             return;
         }
 
-        // Now since we know that times are always increasing, and this method will be probably called for sequential
-        // times, we can try optimizing lookup to be close to O(1) by using a sliding index.
-        while (times[mSlidingIndex + 1] < time) {
-            mSlidingIndex++;
+        final int index = findIndex(times, 0, length, time, cursor.mIndex);
+        cursor.mIndex = index;
+
+        // Return linearly interpolated value between two data points
+        interpolateValues(index, (time - times[index]) * getInverseIntervals()[index], out);
+    }
+
+    /**
+     * Calculates the sets of values for many timestamps at once, e.g. to resample this data set onto another one's
+     * timeline. When times are sorted, this is a single merge-style pass over both timelines
+     *
+     * @param requestTimes Timestamps in nanos to get value sets for
+     * @param count        Number of timestamps to use from the array
+     * @param cursor       Cursor owned by the caller, will be moved to the position of the last timestamp
+     * @param out          Arrays to fill with values, one per channel (X, Y, Z, ...), each at least of given count.
+     *                     Can be fewer than {@link #getChannels()} to only read the first channels
+     */
+    public void getForTimes(long[] requestTimes, int count, Cursor cursor, float[]... out) {
+        final int channels = out.length;
+        final long firstTime = times[0];
+        final long lastTime = times[length - 1];
+        final float[] inverseIntervals = getInverseIntervals();
+        for (int i = 0; i < count; i++) {
+            final long time = requestTimes[i];
+            // Outside the range, "interpolate" between the first or the last event and itself
+            final int index;
+            final int next;
+            final float weight;
+            if (time <= firstTime) {
+                cursor.mIndex = 0;
+                index = next = 0;
+                weight = 0;
+            } else if (time >= lastTime) {
+                cursor.mIndex = length - 2;
+                index = next = length - 1;
+                weight = 0;
+            } else {
+                index = findIndex(times, 0, length, time, cursor.mIndex);
+                cursor.mIndex = index;
+                next = index + 1;
+                weight = (time - times[index]) * inverseIntervals[index];
+            }
+            // Write straight into the output arrays instead of going through a temporary value set
+            for (int channel = 0; channel < channels; channel++) {
+                final float[] values = getChannelValues(channel);
+                out[channel][i] = values[index] + weight * (values[next] - values[index]);
+            }
+        }
+    }
+
+    /**
+     * Finds the last event at or before provided time, galloping from the hint in the direction of the time and then
+     * binary searching within the found range
+     *
+     * @param times  Timestamps array
+     * @param offset Index of the first event in the array
+     * @param length Number of events, at least 2
+     * @param time   Timestamp strictly within the range of events
+     * @param hint   Index to start search from, relative to offset
+     * @return Index of the event relative to offset, in range of [0, length - 2]
+     */
+    static int findIndex(long[] times, int offset, int length, long time, int hint) {
+        final int last = length - 2;
+        int lo;
+        int hi;
+        if (hint < 0) {
+            hint = 0;
+        } else if (hint > last) {
+            hint = last;
         }
-        // Just in case the time requested was an earlier one
-        while (times[mSlidingIndex] > time) {
-            mSlidingIndex--;
+
+        // Gallop to find a range such that times[lo] <= time < times[hi]
+        int step = 1;
+        if (times[offset + hint] <= time) {
+            lo = hint;
+            while (lo + step <= last && times[offset + lo + step] <= time) {
+                lo += step;
+                step <<= 1;
+            }
+            hi = Math.min(lo + step, length - 1);
+        } else {
+            hi = hint;
+            while (hi - step > 0 && times[offset + hi - step] > time) {
+                hi -= step;
+                step <<= 1;
+            }
+            lo = Math.max(hi - step, 0);
         }
 
-        // Now the sliding index should be the closest one which is <= time
+        // Then binary search within it
+        while (hi - lo > 1) {
+            final int mid = (lo + hi) >>> 1;
+            if (times[offset + mid] <= time) {
+                lo = mid;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
 
-        // Return linearly interpolated value between two data points
-        float weight = (time - times[mSlidingIndex]) / (float) (times[mSlidingIndex + 1] - times[mSlidingIndex]);
-        out[0] = valuesX[mSlidingIndex] + weight * (valuesX[mSlidingIndex + 1] - valuesX[mSlidingIndex]);
-        out[1] = valuesY[mSlidingIndex] + weight * (valuesY[mSlidingIndex + 1] - valuesY[mSlidingIndex]);
-        out[2] = valuesZ[mSlidingIndex] + weight * (valuesZ[mSlidingIndex + 1] - valuesZ[mSlidingIndex]);
+    /**
+     * @param channel Channel index, less than {@link #getChannels()}
+     * @return Backing array of values of given channel
+     */
+    protected float[] getChannelValues(int channel) {
+        switch (channel) {
+            case 0:
+                return valuesX;
+            case 1:
+                return valuesY;
+            case 2:
+                return valuesZ;
+            default:
+                throw new IndexOutOfBoundsException("No channel " + channel + " in a 3-channel data set");
+        }
     }
 
+    /**
+     * Copies values of the event at provided index
+     *
+     * @param index Index of the event
+     * @param out   Array to fill with values
+     */
+    protected void copyValues(int index, float[] out) {
+        out[0] = valuesX[index];
+        out[1] = valuesY[index];
+        out[2] = valuesZ[index];
+    }
+
+    /**
+     * Linearly interpolates values between the event at provided index and the next one
+     *
+     * @param index  Index of the earlier event
+     * @param weight Weight of the later event, 0f to 1f
+     * @param out    Array to fill with values
+     */
+    protected void interpolateValues(int index, float weight, float[] out) {
+        out[0] = valuesX[index] + weight * (valuesX[index + 1] - valuesX[index]);
+        out[1] = valuesY[index] + weight * (valuesY[index + 1] - valuesY[index]);
+        out[2] = valuesZ[index] + weight * (valuesZ[index + 1] - valuesZ[index]);
+    }
+
+    /**
+     * Moves the internal cursor used by {@link #getForTime(long, float[])} to the start. Not required for correctness,
+     * but makes the following sequential reads from the start O(1)
+     */
     public void resetForInterpolatedRead() {
-        mSlidingIndex = 0;
+        mCursor.reset();
+    }
+
+    /**
+     * Returns time deltas between consecutive events in seconds, so that transforms don't need to convert timestamps
+     * for each value set on each pass. The array is built lazily and extended as new events are appended.
+     *
+     * @return Array where element <code>i</code> is <code>times[i] - times[i - 1]</code> in seconds, and element 0 is
+     * 0. Only the first {@link #length} elements are valid. Must not be modified
+     */
+    public float[] getTimeDeltas() {
+        ensureTimeDeltas();
+        return mTimeDeltas;
+    }
+
+    /**
+     * Returns reciprocals of intervals between consecutive events, used to calculate interpolation weights with a
+     * multiplication instead of a division
+     *
+     * @return Array where element <code>i</code> is <code>1 / (times[i + 1] - times[i])</code> in 1/nanos. Only the
+     * first <code>length - 1</code> elements are valid. Must not be modified
+     */
+    public float[] getInverseIntervals() {
+        ensureTimeDeltas();
+        return mInverseIntervals;
+    }
+
+    /**
+     * Discards cached time deltas. Must be called after timestamps are written directly into {@link #times} rather
+     * than appended with {@link #put(SensorEvent)}
+     */
+    public void invalidateTimeDeltas() {
+        mTimeDeltasLength = 0;
+    }
+
+    private void ensureTimeDeltas() {
+        if (mTimeDeltasLength >= length) {
+            return;
+        }
+        // Readers with their own cursors may get here from several threads at once
+        synchronized (this) {
+            if (mTimeDeltasLength >= length) {
+                return;
+            }
+            if (mTimeDeltas == null) {
+                mTimeDeltas = new float[mDataSize];
+                mInverseIntervals = new float[mDataSize];
+            }
+            // Only events appended since the last call need computing
+            int i = mTimeDeltasLength;
+            if (i == 0) {
+                mTimeDeltas[0] = 0;
+                i = 1;
+            }
+            for (; i < length; i++) {
+                final long interval = times[i] - times[i - 1];
+                mTimeDeltas[i] = interval / (float) NANOS_IN_SECONDS;
+                mInverseIntervals[i - 1] = 1f / interval;
+            }
+            mTimeDeltasLength = length;
+        }
+    }
+
+    /**
+     * Position of the last interpolated lookup, used as a starting point for the next one. Each thread reading the same
+     * data set should use its own cursor.
+     */
+    public static final class Cursor {
+
+        int mIndex;
+
+        /**
+         * Moves the cursor to the start of data set
+         */
+        public void reset() {
+            mIndex = 0;
+        }
     }
 
     // Parcelable stuff
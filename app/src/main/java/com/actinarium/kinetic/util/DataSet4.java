@@ -16,7 +16,6 @@
 
 package com.actinarium.kinetic.util;
 
-import android.hardware.SensorEvent;
 import android.os.Parcel;
 import android.os.Parcelable;
 
@@ -31,8 +30,7 @@ public class DataSet4 extends DataSet3 {
     /**
      * Create a new data set for provided number of sensor events
      *
-     * @param dataSize    The number of sensor events this data set will be able to contain at max
-     * @param hasFourSets Whether this data set should remember {@link SensorEvent#values SensorEvent.values[3]}
+     * @param dataSize The number of sensor events this data set will be able to contain at max
      */
     public DataSet4(int dataSize) {
         super(dataSize);
@@ -40,77 +38,52 @@ public class DataSet4 extends DataSet3 {
     }
 
     /**
-     * Resets data end pointer to zero
+     * Create a new data set holding a copy of fresh values of provided data set, trimmed to its length
+     *
+     * @param source The data set to copy values from
      */
-    public void reset() {
-        length = 0;
+    public DataSet4(DataSet4 source) {
+        super(source);
+        values4 = new float[source.length];
+        System.arraycopy(source.values4, 0, values4, 0, source.length);
     }
 
     /**
-     * Appends event data (timestamp and 3 values) to this data set
+     * Appends a timestamp and 4 values to this data set
      *
-     * @param event Sensor event to take data from
+     * @param time   Timestamp in nanos
+     * @param values Values, the first 4 of which are taken
      * @return true if data was added, false if array is overflowing
      */
-    public boolean put(SensorEvent event) {
-        // Check if we're not overflowing allocated arrays
-        if (length == mDataSize) {
+    @Override
+    public boolean put(long time, float[] values) {
+        if (!super.put(time, values)) {
             return false;
         }
-
-        // If everything is OK, save the data
-        times[length] = event.timestamp;
-        valuesX[length] = event.values[0];
-        valuesY[length] = event.values[1];
-        valuesZ[length] = event.values[2];
-        if (values4 != null) {
-            values4[length] = event.values[3];
-        }
-        length++;
+        values4[length - 1] = values[3];
         return true;
     }
 
-    /**
-     * @inheritDoc
-     *
-     * @param out Array to fill with values, must be at least of length 4
-     */
     @Override
-    public void getForTime(long time, float[] out) {
-        // Corner cases: before range start and after range end
-        if (time <= times[0]) {
-            out[0] = valuesX[0];
-            out[1] = valuesY[0];
-            out[2] = valuesZ[0];
-            out[3] = values4[0];
-            return;
-        }
-        if (time >= times[length - 1]) {
-            out[0] = valuesX[length - 1];
-            out[1] = valuesY[length - 1];
-            out[2] = valuesZ[length - 1];
-            out[3] = values4[length - 1];
-            return;
-        }
+    public int getChannels() {
+        return 4;
+    }
 
-        // Now since we know that times are always increasing, and this method will be probably called for sequential
-        // times, we can try optimizing lookup to be close to O(1) by using a sliding index.
-        while (times[mSlidingIndex + 1] < time) {
-            mSlidingIndex++;
-        }
-        // Just in case the time requested was an earlier one
-        while (times[mSlidingIndex] > time) {
-            mSlidingIndex--;
-        }
+    @Override
+    protected float[] getChannelValues(int channel) {
+        return channel == 3 ? values4 : super.getChannelValues(channel);
+    }
 
-        // Now the sliding index should be the closest one which is <= time
+    @Override
+    protected void copyValues(int index, float[] out) {
+        super.copyValues(index, out);
+        out[3] = values4[index];
+    }
 
-        // Return linearly interpolated value between two data points
-        float weight = (time - times[mSlidingIndex]) / (float) (times[mSlidingIndex + 1] - times[mSlidingIndex]);
-        out[0] = valuesX[mSlidingIndex] + weight * (valuesX[mSlidingIndex + 1] - valuesX[mSlidingIndex]);
-        out[1] = valuesY[mSlidingIndex] + weight * (valuesY[mSlidingIndex + 1] - valuesY[mSlidingIndex]);
-        out[2] = valuesZ[mSlidingIndex] + weight * (valuesZ[mSlidingIndex + 1] - valuesZ[mSlidingIndex]);
-        out[3] = values4[mSlidingIndex] + weight * (values4[mSlidingIndex + 1] - values4[mSlidingIndex]);
+    @Override
+    protected void interpolateValues(int index, float weight, float[] out) {
+        super.interpolateValues(index, weight, out);
+        out[3] = values4[index] + weight * (values4[index + 1] - values4[index]);
     }
 
     // Parcelable stuff
@@ -0,0 +1,477 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.util;
+
+import android.hardware.SensorEvent;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.support.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * <p>A mutable sensor data set with any number of value channels, backed by one timestamp array and one value array of
+ * fixed lengths. Unlike {@link DataSet3} and {@link DataSet4}, new sensors and derived channels don't need new classes,
+ * and since this class is final, the ingest path and lookups aren't virtual.</p><p>Values can be laid out either
+ * {@link #LAYOUT_PLANAR planar} (all values of channel 0, then all values of channel 1 etc), which suits per-channel
+ * transforms, or {@link #LAYOUT_INTERLEAVED interleaved} (all channels of event 0, then of event 1 etc), which suits
+ * reading all channels at given time.</p>
+ *
+ * @author Paul Danyliuk
+ */
+public final class DataSetN implements Parcelable {
+
+    /**
+     * Struct of arrays: each channel is a contiguous run of values
+     */
+    public static final int LAYOUT_PLANAR = 0;
+    /**
+     * Array of structs: values of each event are contiguous
+     */
+    public static final int LAYOUT_INTERLEAVED = 1;
+
+    private final long[] mTimes;
+    private final float[] mValues;
+    private final int mChannels;
+    @Layout
+    private final int mLayout;
+
+    // Value of channel c at event i (relative to this view) is at mValues[mBase + i * mEventStride + c * mChannelStride]
+    private final int mOffset;
+    private final int mBase;
+    private final int mEventStride;
+    private final int mChannelStride;
+    private final int mCapacity;
+    private final boolean mIsView;
+
+    private int mLength;
+
+    /**
+     * Used for faster interpolated lookup by {@link #getForTime(long, float[])}
+     */
+    private final DataSet3.Cursor mCursor = new DataSet3.Cursor();
+
+    /**
+     * Create a new data set for provided number of events
+     *
+     * @param channels Number of values in each event
+     * @param capacity The number of events this data set will be able to contain at max
+     * @param layout   How to lay out values in memory
+     */
+    public DataSetN(int channels, int capacity, @Layout int layout) {
+        this(new long[capacity], new float[channels * capacity], channels, layout, capacity, 0, capacity, 0, false);
+    }
+
+    private DataSetN(long[] times, float[] values, int channels, @Layout int layout, int planeSize, int offset,
+                     int capacity, int length, boolean isView) {
+        mTimes = times;
+        mValues = values;
+        mChannels = channels;
+        mLayout = layout;
+        mOffset = offset;
+        if (layout == LAYOUT_PLANAR) {
+            mBase = offset;
+            mEventStride = 1;
+            mChannelStride = planeSize;
+        } else {
+            mBase = offset * channels;
+            mEventStride = channels;
+            mChannelStride = 1;
+        }
+        mCapacity = capacity;
+        mLength = length;
+        mIsView = isView;
+    }
+
+    /**
+     * Create a new data set holding a copy of fresh values of provided data set, trimmed to its length
+     *
+     * @param source The data set to copy values from, {@link DataSet4} values are copied too
+     * @param layout How to lay out values in memory
+     * @return A new data set
+     */
+    public static DataSetN copyOf(DataSet3 source, @Layout int layout) {
+        final int channels = source.getChannels();
+        DataSetN result = new DataSetN(channels, source.length, layout);
+        float[] values = new float[channels];
+        for (int i = 0; i < source.length; i++) {
+            source.copyValues(i, values);
+            result.put(source.times[i], values);
+        }
+        return result;
+    }
+
+    /**
+     * Create a new data set holding a copy of fresh values of this data set, trimmed to its length
+     *
+     * @param layout How to lay out values in the copy, e.g. to convert between layouts
+     * @return A new data set
+     */
+    public DataSetN copy(@Layout int layout) {
+        DataSetN result = new DataSetN(mChannels, mLength, layout);
+        System.arraycopy(mTimes, mOffset, result.mTimes, 0, mLength);
+        if (layout == mLayout && layout == LAYOUT_INTERLEAVED) {
+            System.arraycopy(mValues, mBase, result.mValues, 0, mLength * mChannels);
+        } else {
+            for (int channel = 0; channel < mChannels; channel++) {
+                result.setChannel(channel, getChannel(channel, null, 0), 0, mLength);
+            }
+        }
+        result.mLength = mLength;
+        return result;
+    }
+
+    /**
+     * Creates a view over a range of events of this data set. The view shares memory with this data set, so changes to
+     * values are visible both ways, but it has its own length and cursor and cannot be appended to.
+     *
+     * @param start Index of the first event, inclusive
+     * @param end   Index of the last event, exclusive
+     * @return A view over the range
+     */
+    public DataSetN subRange(int start, int end) {
+        if (start < 0 || end > mLength || start > end) {
+            throw new IndexOutOfBoundsException("Range [" + start + ", " + end + ") is out of [0, " + mLength + ")");
+        }
+        final int planeSize = mLayout == LAYOUT_PLANAR ? mChannelStride : 0;
+        final int length = end - start;
+        return new DataSetN(mTimes, mValues, mChannels, mLayout, planeSize, mOffset + start, length, length, true);
+    }
+
+    public int getChannels() {
+        return mChannels;
+    }
+
+    @Layout
+    public int getLayout() {
+        return mLayout;
+    }
+
+    /**
+     * @return Number of fresh events in this data set
+     */
+    public int getLength() {
+        return mLength;
+    }
+
+    /**
+     * @return Max number of events this data set can hold
+     */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * @return true if this data set is a view over another one
+     */
+    public boolean isView() {
+        return mIsView;
+    }
+
+    /**
+     * Resets data end pointer to zero. A view only drops its own range, i.e. becomes empty, while the data set it was
+     * created from keeps all of its events
+     */
+    public void reset() {
+        mLength = 0;
+        mCursor.reset();
+    }
+
+    /**
+     * Appends an event to this data set
+     *
+     * @param time   Timestamp in nanos
+     * @param values Values of the event, at least {@link #getChannels()} of them. Extra values are ignored
+     * @return true if data was added, false if array is overflowing
+     */
+    public boolean put(long time, float[] values) {
+        return put(time, values, 0);
+    }
+
+    /**
+     * Appends an event to this data set, taking its values from a part of provided array
+     *
+     * @param time        Timestamp in nanos
+     * @param values      Array holding values of the event
+     * @param valueOffset Index of the value of channel 0 in the array, followed by at least {@link #getChannels()} - 1
+     *                    more values
+     * @return true if data was added, false if array is overflowing
+     */
+    public boolean put(long time, float[] values, int valueOffset) {
+        if (mLength == mCapacity || mIsView) {
+            return false;
+        }
+        mTimes[mOffset + mLength] = time;
+        int index = mBase + mLength * mEventStride;
+        for (int channel = 0; channel < mChannels; channel++) {
+            mValues[index] = values[valueOffset + channel];
+            index += mChannelStride;
+        }
+        mLength++;
+        return true;
+    }
+
+    /**
+     * Appends event data (timestamp and values) to this data set
+     *
+     * @param event Sensor event to take data from
+     * @return true if data was added, false if array is overflowing
+     */
+    public boolean put(SensorEvent event) {
+        return put(event.timestamp, event.values);
+    }
+
+    /**
+     * Overwrites an event at provided index, e.g. to use this data set as a ring buffer. Doesn't change length
+     *
+     * @param index  Index of the event, less than {@link #getCapacity()}
+     * @param time   Timestamp in nanos
+     * @param values Values of the event, at least {@link #getChannels()} of them. Extra values are ignored
+     */
+    public void set(int index, long time, float[] values) {
+        mTimes[mOffset + index] = time;
+        int j = mBase + index * mEventStride;
+        for (int channel = 0; channel < mChannels; channel++) {
+            mValues[j] = values[channel];
+            j += mChannelStride;
+        }
+    }
+
+    /**
+     * Reads all values of an event
+     *
+     * @param index Index of the event
+     * @param out   Array to fill with values, must be at least of length {@link #getChannels()}
+     */
+    public void get(int index, float[] out) {
+        int j = mBase + index * mEventStride;
+        for (int channel = 0; channel < mChannels; channel++) {
+            out[channel] = mValues[j];
+            j += mChannelStride;
+        }
+    }
+
+    public long getTime(int index) {
+        return mTimes[mOffset + index];
+    }
+
+    public float get(int index, int channel) {
+        return mValues[mBase + index * mEventStride + channel * mChannelStride];
+    }
+
+    public void set(int index, int channel, float value) {
+        mValues[mBase + index * mEventStride + channel * mChannelStride] = value;
+    }
+
+    /**
+     * Same as {@link DataSet3#getForTime(long, float[])}: reads values at provided time, linearly interpolating
+     * between two closest events. Uses an internal cursor and is therefore not thread-safe
+     *
+     * @param time Timestamp in nanos to get value set for
+     * @param out  Array to fill with values, must be at least of length {@link #getChannels()}
+     */
+    public void getForTime(long time, float[] out) {
+        getForTime(time, out, mCursor);
+    }
+
+    /**
+     * Same as {@link DataSet3#getForTime(long, float[], DataSet3.Cursor)}: reads values at provided time, linearly
+     * interpolating between two closest events, starting search from provided cursor. In interleaved layout both
+     * events are read from one contiguous run of memory
+     *
+     * @param time   Timestamp in nanos to get value set for
+     * @param out    Array to fill with values, must be at least of length {@link #getChannels()}
+     * @param cursor Cursor owned by the caller, will be moved to the found position
+     */
+    public void getForTime(long time, float[] out, DataSet3.Cursor cursor) {
+        final int last = mLength - 1;
+        int index;
+        if (time <= mTimes[mOffset]) {
+            cursor.mIndex = 0;
+            index = mBase;
+        } else if (time >= mTimes[mOffset + last]) {
+            cursor.mIndex = last - 1;
+            index = mBase + last * mEventStride;
+        } else {
+            final int i = DataSet3.findIndex(mTimes, mOffset, mLength, time, cursor.mIndex);
+            cursor.mIndex = i;
+            final long t0 = mTimes[mOffset + i];
+            final float weight = (time - t0) / (float) (mTimes[mOffset + i + 1] - t0);
+            index = mBase + i * mEventStride;
+            for (int channel = 0; channel < mChannels; channel++) {
+                final float v0 = mValues[index];
+                out[channel] = v0 + weight * (mValues[index + mEventStride] - v0);
+                index += mChannelStride;
+            }
+            return;
+        }
+        for (int channel = 0; channel < mChannels; channel++) {
+            out[channel] = mValues[index];
+            index += mChannelStride;
+        }
+    }
+
+    // Bulk operations. In planar layout each of these is a tight loop over a contiguous run of values
+
+    /**
+     * Copies values of a channel into an array
+     *
+     * @param channel   Channel index
+     * @param out       Array to copy values to, or null to allocate a new one
+     * @param outOffset Index in the array to start writing at
+     * @return The array values were copied to
+     */
+    public float[] getChannel(int channel, float[] out, int outOffset) {
+        if (out == null) {
+            out = new float[mLength + outOffset];
+        }
+        final int start = mBase + channel * mChannelStride;
+        if (mEventStride == 1) {
+            System.arraycopy(mValues, start, out, outOffset, mLength);
+        } else {
+            for (int i = 0, j = start; i < mLength; i++, j += mEventStride) {
+                out[outOffset + i] = mValues[j];
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Overwrites values of a channel for existing events
+     *
+     * @param channel  Channel index
+     * @param in       Array to copy values from
+     * @param inOffset Index in the array to start reading at
+     * @param count    Number of events to overwrite starting from index 0, not more than {@link #getLength()}
+     */
+    public void setChannel(int channel, float[] in, int inOffset, int count) {
+        final int start = mBase + channel * mChannelStride;
+        if (mEventStride == 1) {
+            System.arraycopy(in, inOffset, mValues, start, count);
+        } else {
+            for (int i = 0, j = start; i < count; i++, j += mEventStride) {
+                mValues[j] = in[inOffset + i];
+            }
+        }
+    }
+
+    /**
+     * Multiplies all values of a channel by a factor
+     *
+     * @param channel Channel index
+     * @param factor  Factor to multiply by
+     */
+    public void scale(int channel, float factor) {
+        final float[] values = mValues;
+        final int stride = mEventStride;
+        final int end = mBase + channel * mChannelStride + mLength * stride;
+        for (int j = mBase + channel * mChannelStride; j < end; j += stride) {
+            values[j] *= factor;
+        }
+    }
+
+    /**
+     * Adds a constant to all values of a channel, e.g. to remove bias
+     *
+     * @param channel Channel index
+     * @param value   Value to add
+     */
+    public void offset(int channel, float value) {
+        final float[] values = mValues;
+        final int stride = mEventStride;
+        final int end = mBase + channel * mChannelStride + mLength * stride;
+        for (int j = mBase + channel * mChannelStride; j < end; j += stride) {
+            values[j] += value;
+        }
+    }
+
+    /**
+     * Adds values of another data set multiplied by a factor to values of this one, event by event, i.e.
+     * <code>this += other * factor</code>. Timestamps are not checked
+     *
+     * @param other  Data set with the same number of channels and at least as many events
+     * @param factor Factor to multiply other values by, e.g. -1f to subtract
+     */
+    public void addScaled(DataSetN other, float factor) {
+        if (other.mChannels != mChannels) {
+            throw new IllegalArgumentException("Channel count mismatch: " + other.mChannels + " != " + mChannels);
+        }
+        final float[] values = mValues;
+        final float[] otherValues = other.mValues;
+        for (int channel = 0; channel < mChannels; channel++) {
+            int j = mBase + channel * mChannelStride;
+            int k = other.mBase + channel * other.mChannelStride;
+            for (int i = 0; i < mLength; i++) {
+                values[j] += otherValues[k] * factor;
+                j += mEventStride;
+                k += other.mEventStride;
+            }
+        }
+    }
+
+    // Parcelable stuff
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        // Only fresh events are written, so views and partially filled data sets are compacted
+        dest.writeInt(mChannels);
+        dest.writeInt(mLayout);
+        dest.writeInt(mLength);
+        for (int i = 0; i < mLength; i++) {
+            dest.writeLong(mTimes[mOffset + i]);
+        }
+        float[] channel = new float[mLength];
+        for (int c = 0; c < mChannels; c++) {
+            getChannel(c, channel, 0);
+            dest.writeFloatArray(channel);
+        }
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<DataSetN> CREATOR = new Creator<DataSetN>() {
+        @Override
+        public DataSetN createFromParcel(Parcel in) {
+            final int channels = in.readInt();
+            @Layout final int layout = in.readInt();
+            final int length = in.readInt();
+            DataSetN dataSet = new DataSetN(channels, length, layout);
+            for (int i = 0; i < length; i++) {
+                dataSet.mTimes[i] = in.readLong();
+            }
+            dataSet.mLength = length;
+            for (int c = 0; c < channels; c++) {
+                dataSet.setChannel(c, in.createFloatArray(), 0, length);
+            }
+            return dataSet;
+        }
+
+        @Override
+        public DataSetN[] newArray(int size) {
+            return new DataSetN[size];
+        }
+    };
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({LAYOUT_PLANAR, LAYOUT_INTERLEAVED})
+    public @interface Layout {
+    }
+}
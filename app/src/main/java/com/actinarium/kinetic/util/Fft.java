@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.util;
+
+/**
+ * Radix-2 fast Fourier transform of a fixed size. Twiddle factors, the bit reversal permutation and work buffers are
+ * allocated once per instance, so transforms don't allocate. Not thread safe: use an instance per thread.
+ *
+ * @author Paul Danyliuk
+ */
+public final class Fft {
+
+    private final int mSize;
+    private final float[] mCos;
+    private final float[] mSin;
+    private final int[] mBitReverse;
+
+    // Work buffers for correlation
+    private final float[] mRe;
+    private final float[] mIm;
+
+    /**
+     * Create an FFT engine
+     *
+     * @param size Transform size, must be a power of two
+     */
+    public Fft(int size) {
+        if (size < 2 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("FFT size must be a power of two, got " + size);
+        }
+        mSize = size;
+        mCos = new float[size / 2];
+        mSin = new float[size / 2];
+        for (int i = 0; i < size / 2; i++) {
+            final double angle = 2 * Math.PI * i / size;
+            mCos[i] = (float) Math.cos(angle);
+            mSin[i] = (float) Math.sin(angle);
+        }
+        mBitReverse = new int[size];
+        final int shift = 32 - Integer.numberOfTrailingZeros(size);
+        for (int i = 0; i < size; i++) {
+            mBitReverse[i] = Integer.reverse(i) >>> shift;
+        }
+        mRe = new float[size];
+        mIm = new float[size];
+    }
+
+    /**
+     * Smallest FFT size that fits provided number of samples
+     *
+     * @param samples Number of samples
+     * @return A power of two not less than samples
+     */
+    public static int sizeFor(int samples) {
+        return samples <= 2 ? 2 : Integer.highestOneBit(samples - 1) << 1;
+    }
+
+    public int getSize() {
+        return mSize;
+    }
+
+    /**
+     * Forward transform in place
+     *
+     * @param re Real parts, of {@link #getSize()} length
+     * @param im Imaginary parts, of {@link #getSize()} length
+     */
+    public void transform(float[] re, float[] im) {
+        final int n = mSize;
+
+        // Reorder into bit reversed order, then combine butterflies of growing length
+        for (int i = 0; i < n; i++) {
+            final int j = mBitReverse[i];
+            if (j > i) {
+                float t = re[i];
+                re[i] = re[j];
+                re[j] = t;
+                t = im[i];
+                im[i] = im[j];
+                im[j] = t;
+            }
+        }
+        for (int length = 2; length <= n; length <<= 1) {
+            final int half = length >> 1;
+            final int step = n / length;
+            for (int start = 0; start < n; start += length) {
+                for (int k = 0, w = 0; k < half; k++, w += step) {
+                    final int a = start + k;
+                    final int b = a + half;
+                    final float cos = mCos[w];
+                    final float sin = mSin[w];
+                    // Multiply by e^(-i * angle)
+                    final float vr = re[b] * cos + im[b] * sin;
+                    final float vi = im[b] * cos - re[b] * sin;
+                    re[b] = re[a] - vr;
+                    im[b] = im[a] - vi;
+                    re[a] += vr;
+                    im[a] += vi;
+                }
+            }
+        }
+    }
+
+    /**
+     * Inverse transform in place, including 1/n scaling
+     *
+     * @param re Real parts, of {@link #getSize()} length
+     * @param im Imaginary parts, of {@link #getSize()} length
+     */
+    public void inverse(float[] re, float[] im) {
+        // Inverse transform is a conjugate of the forward transform of a conjugate
+        final int n = mSize;
+        for (int i = 0; i < n; i++) {
+            im[i] = -im[i];
+        }
+        transform(re, im);
+        final float scale = 1f / n;
+        for (int i = 0; i < n; i++) {
+            re[i] *= scale;
+            im[i] = -im[i] * scale;
+        }
+    }
+
+    /**
+     * Computes circular cross-correlation of two real signals, <code>out[k] = sum(a[i] * b[(i + k) mod n])</code>.
+     * Both signals are transformed at once, packed into real and imaginary parts of one complex signal. To get linear
+     * rather than circular correlation, the size must be at least the sum of signal lengths.
+     *
+     * @param a       First signal
+     * @param aLength Number of samples of the first signal to use, not more than {@link #getSize()}
+     * @param b       Second signal
+     * @param bLength Number of samples of the second signal to use, not more than {@link #getSize()}
+     * @param out     Array of {@link #getSize()} length to write correlation to. Index k holds the correlation at lag
+     *                k, and index n - k at lag -k
+     */
+    public void correlate(float[] a, int aLength, float[] b, int bLength, float[] out) {
+        final int n = mSize;
+        final float[] re = mRe;
+        final float[] im = mIm;
+        System.arraycopy(a, 0, re, 0, aLength);
+        System.arraycopy(b, 0, im, 0, bLength);
+        for (int i = aLength; i < n; i++) {
+            re[i] = 0;
+        }
+        for (int i = bLength; i < n; i++) {
+            im[i] = 0;
+        }
+        transform(re, im);
+
+        // Unpack spectra A and B of the two real signals from Z = A + iB, using Hermitian symmetry, and compute
+        // conj(A) * B, which is Hermitian too so only half of it needs to be computed
+        for (int k = 0; k <= n / 2; k++) {
+            final int m = (n - k) & (n - 1);
+            final float xr = re[k];
+            final float xi = im[k];
+            final float yr = re[m];
+            final float yi = im[m];
+            final float ar = (xr + yr) * 0.5f;
+            final float ai = (xi - yi) * 0.5f;
+            final float br = (xi + yi) * 0.5f;
+            final float bi = (yr - xr) * 0.5f;
+            final float pr = ar * br + ai * bi;
+            final float pi = ar * bi - ai * br;
+            re[k] = pr;
+            im[k] = pi;
+            re[m] = pr;
+            im[m] = -pi;
+        }
+
+        inverse(re, im);
+        System.arraycopy(re, 0, out, 0, n);
+    }
+}
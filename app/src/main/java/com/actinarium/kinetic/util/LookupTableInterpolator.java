@@ -74,6 +74,26 @@ public class LookupTableInterpolator implements Interpolator {
         mValueMult = valueMult;
     }
 
+    /**
+     * Sets transformation so that the value furthest from zero maps to 1f, or to -1f if all values are negative,
+     * keeping zero at zero
+     *
+     * @param min Minimum raw value
+     * @param max Maximum raw value
+     */
+    public void setNormalizingTransformation(float min, float max) {
+        if (max > -min && max > 0) {
+            // Let the multiplier be the negative of the maximum value (so that maximum value maps to 1f)
+            setTransformation(0f, 1 / max);
+        } else if (min < 0) {
+            // If we're all about negative values, let the multiplier be -minimum (so that minimum value is -1f)
+            setTransformation(0f, 1 / -min);
+        } else {
+            // Both min and max are zero. Multiplier is 1
+            setTransformation(0f, 1f);
+        }
+    }
+
     public float getMultiplier() {
         return mValueMult;
     }
@@ -115,4 +135,20 @@ public class LookupTableInterpolator implements Interpolator {
         }
         return result;
     }
+
+    /**
+     * Exports data from selected range resampled to given number of values at regular intervals, applying extra and
+     * multiplier to all resulting values. Used to bring lookup tables of different lengths to a common length
+     *
+     * @param length Number of values to produce, at least 2
+     * @return A new array of normalized values from selected range
+     */
+    public float[] exportData(int length) {
+        float[] result = new float[length];
+        final float step = 1f / (length - 1);
+        for (int i = 0; i < length; i++) {
+            result[i] = getInterpolation(i * step);
+        }
+        return result;
+    }
 }
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.util;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * Maps each event of one data set (the target) onto the timeline of another (the source): for every target event it
+ * holds the index of the source event at or before it and the weight of the next source event. Built once per pair of
+ * recorded streams by merge-joining their timestamps, so that every stage combining these streams reads aligned values
+ * in O(1) instead of searching the source timeline again. Immutable.
+ *
+ * @author Paul Danyliuk
+ */
+public final class TimelineIndex implements Parcelable {
+
+    private final int mLength;
+    private final int[] mIndices;
+    private final float[] mWeights;
+
+    private TimelineIndex(int length, int[] indices, float[] weights) {
+        mLength = length;
+        mIndices = indices;
+        mWeights = weights;
+    }
+
+    /**
+     * Builds an index mapping target events onto the source timeline. Target times before the first source event map
+     * to the first source event, and ones after the last map to the last, same as in {@link
+     * DataSet3#getForTime(long, float[])}
+     *
+     * @param target Data set whose timestamps to align, must not be empty
+     * @param source Data set to look values up in, must not be empty
+     * @return A new index
+     */
+    public static TimelineIndex build(DataSet3 target, DataSet3 source) {
+        final int length = target.length;
+        final int[] indices = new int[length];
+        final float[] weights = new float[length];
+        final long[] targetTimes = target.times;
+        final long[] sourceTimes = source.times;
+        final int last = source.length - 1;
+        final float[] inverseIntervals = source.getInverseIntervals();
+
+        // Both timelines are increasing, so a single forward pass over both is enough
+        int j = 0;
+        for (int i = 0; i < length; i++) {
+            final long time = targetTimes[i];
+            if (time <= sourceTimes[0] || last == 0) {
+                indices[i] = 0;
+                weights[i] = 0;
+            } else if (time >= sourceTimes[last]) {
+                indices[i] = last - 1;
+                weights[i] = 1;
+            } else {
+                // Step onto an exactly matching source event, so that it's returned as is rather than interpolated to
+                while (sourceTimes[j + 1] <= time) {
+                    j++;
+                }
+                indices[i] = j;
+                weights[i] = (time - sourceTimes[j]) * inverseIntervals[j];
+            }
+        }
+        return new TimelineIndex(length, indices, weights);
+    }
+
+    /**
+     * @return Number of target events in this index
+     */
+    public int getLength() {
+        return mLength;
+    }
+
+    /**
+     * @param targetIndex Index of the target event
+     * @return Index of the source event at or before the target event
+     */
+    public int getIndex(int targetIndex) {
+        return mIndices[targetIndex];
+    }
+
+    /**
+     * @param targetIndex Index of the target event
+     * @return Weight of the source event following {@link #getIndex(int)}, 0f to 1f
+     */
+    public float getWeight(int targetIndex) {
+        return mWeights[targetIndex];
+    }
+
+    /**
+     * Checks if this index can be used with given data sets
+     *
+     * @param target Target data set
+     * @param source Source data set
+     * @return true if the index covers all target events and refers only to existing source events
+     */
+    public boolean isValidFor(DataSet3 target, DataSet3 source) {
+        if (mLength != target.length) {
+            return false;
+        }
+        return mLength == 0 || mIndices[mLength - 1] < Math.max(source.length - 1, 1);
+    }
+
+    /**
+     * Reads source values aligned to the target event
+     *
+     * @param source      Source data set this index was built for
+     * @param targetIndex Index of the target event
+     * @param out         Array to fill with values, must be at least of length {@link DataSet3#getChannels()}
+     */
+    public void getValues(DataSet3 source, int targetIndex, float[] out) {
+        final float weight = mWeights[targetIndex];
+        final int index = mIndices[targetIndex];
+        if (weight == 0) {
+            // Also covers single-event sources, where there's no next event to interpolate towards
+            source.copyValues(index, out);
+        } else {
+            source.interpolateValues(index, weight, out);
+        }
+    }
+
+    // Parcelable stuff
+
+    private TimelineIndex(Parcel in) {
+        mLength = in.readInt();
+        mIndices = in.createIntArray();
+        mWeights = in.createFloatArray();
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(mLength);
+        dest.writeIntArray(mIndices);
+        dest.writeFloatArray(mWeights);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<TimelineIndex> CREATOR = new Creator<TimelineIndex>() {
+        @Override
+        public TimelineIndex createFromParcel(Parcel in) {
+            return new TimelineIndex(in);
+        }
+
+        @Override
+        public TimelineIndex[] newArray(int size) {
+            return new TimelineIndex[size];
+        }
+    };
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline;
+
+import android.view.animation.Interpolator;
+import com.actinarium.kinetic.util.LookupTableInterpolator;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Verifies that code produced by {@link CodeGenerator} compiles and matches {@link LookupTableInterpolator} numerically
+ * over dense inputs, in every export mode
+ */
+public class CodeGeneratorTest {
+
+    /**
+     * The largest size spans several chunks, since a single array initializer for it would exceed method size limit
+     */
+    private static final int[] TABLE_SIZES = {2, 3, 101, 2001, 12001};
+    private static final int INPUT_STEPS = 100000;
+
+    /**
+     * Float export rounds values to 4 decimal places
+     */
+    private static final float FLOAT_TOLERANCE = 1e-4f;
+    /**
+     * Fixed point export has quantization error of table values plus truncation of the interpolated value
+     */
+    private static final float FIXED_POINT_TOLERANCE = 2e-4f;
+
+    @Test
+    public void floatExport_matchesLookupTableInterpolator() throws Exception {
+        verifyMode(CodeGenerator.EXPORT_FLOAT, 0.2f, FLOAT_TOLERANCE);
+    }
+
+    @Test
+    public void fixedPointExport_matchesLookupTableInterpolator() throws Exception {
+        verifyMode(CodeGenerator.EXPORT_FIXED_POINT, 0.2f, FIXED_POINT_TOLERANCE);
+    }
+
+    @Test
+    public void fixedPointExport_largeOvershoot_matchesLookupTableInterpolator() throws Exception {
+        // Values up to ~2.5 don't fit into 14 fractional bits, so generator has to drop precision
+        verifyMode(CodeGenerator.EXPORT_FIXED_POINT, 1.5f, 2 * FIXED_POINT_TOLERANCE);
+    }
+
+    @Test
+    public void dataOnlyExport_matchesLookupTableInterpolator() throws Exception {
+        verifyMode(CodeGenerator.EXPORT_DATA_ONLY, 0.2f, FLOAT_TOLERANCE);
+    }
+
+    @Test
+    public void packedExport_matchesLookupTableInterpolator() throws Exception {
+        verifyMode(CodeGenerator.EXPORT_PACKED, 0.2f, FLOAT_TOLERANCE);
+    }
+
+    @Test
+    public void packedExport_allChannels_matchLookupTableInterpolators() throws Exception {
+        for (int size : TABLE_SIZES) {
+            float[][] tables = {
+                    GeneratedInterpolators.naturalMotion(size, 0.1f, 1),
+                    GeneratedInterpolators.naturalMotion(size, 0.3f, 2),
+                    GeneratedInterpolators.naturalMotion(size, 0.5f, 3)
+            };
+            Class<?> packed = GeneratedInterpolators.createPacked(tables[0], tables[1], tables[2]);
+            Method evaluator = GeneratedInterpolators.getPackedEvaluator(packed);
+            assertEquals(3, packed.getField("CHANNELS").getInt(null));
+
+            LookupTableInterpolator[] references = new LookupTableInterpolator[3];
+            Interpolator[] views = new Interpolator[3];
+            for (int channel = 0; channel < 3; channel++) {
+                references[channel] = GeneratedInterpolators.reference(tables[channel]);
+                views[channel] = (Interpolator) GeneratedInterpolators.getPackedField(packed,
+                        GeneratedInterpolators.PACKED_CONSTANTS[channel]);
+            }
+
+            float[] out = new float[3];
+            for (int i = 1; i < INPUT_STEPS; i++) {
+                final float input = i / (float) INPUT_STEPS;
+                evaluator.invoke(null, input, out);
+                for (int channel = 0; channel < 3; channel++) {
+                    final float expected = references[channel].getInterpolation(input);
+                    final String message = "Channel " + channel + ", size " + size + ", input " + input;
+                    assertEquals(message, expected, out[channel], FLOAT_TOLERANCE);
+                    assertEquals(message, expected, views[channel].getInterpolation(input), FLOAT_TOLERANCE);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void packedExport_fullRecording_compiles() throws Exception {
+        // Six channels of a 10 second recording at 200 Hz with safety overhead, as produced by DataRecorder
+        final int size = DataRecorder.DEFAULT_RECORDING_TIME_MILLIS * 1200 / DataRecorder.DEFAULT_SAMPLING_MICROS + 1;
+        String[] titles = new String[6];
+        float[][] tables = new float[6][];
+        for (int channel = 0; channel < 6; channel++) {
+            titles[channel] = "Channel " + (char) ('A' + channel);
+            tables[channel] = GeneratedInterpolators.naturalMotion(size, 0.2f, channel);
+        }
+        final String className = "FullRecordingMotion";
+        Class<?> packed = GeneratedCodeCompiler.compile(GeneratedInterpolators.PACKAGE_NAME + "." + className,
+                CodeGenerator.generatePackedInterpolatorCode(GeneratedInterpolators.PACKAGE_NAME, className, titles,
+                        tables));
+
+        Interpolator last = (Interpolator) GeneratedInterpolators.getPackedField(packed, "CHANNEL_F");
+        LookupTableInterpolator reference = GeneratedInterpolators.reference(tables[5]);
+        for (int i = 1; i < INPUT_STEPS; i++) {
+            final float input = i / (float) INPUT_STEPS;
+            assertEquals(reference.getInterpolation(input), last.getInterpolation(input), FLOAT_TOLERANCE);
+        }
+    }
+
+    @Test
+    public void allExports_clampInputRange() throws Exception {
+        float[] values = GeneratedInterpolators.naturalMotion(101, 0.2f, 0);
+        for (int mode : GeneratedInterpolators.EXPORT_MODES) {
+            Interpolator interpolator = GeneratedInterpolators.create(mode, values);
+            final String modeName = GeneratedInterpolators.getModeName(mode);
+            assertEquals(modeName, 0f, interpolator.getInterpolation(-0.5f), 0f);
+            assertEquals(modeName, 0f, interpolator.getInterpolation(0f), 0f);
+            assertEquals(modeName, 1f, interpolator.getInterpolation(1f), 0f);
+            assertEquals(modeName, 1f, interpolator.getInterpolation(1.5f), 0f);
+        }
+    }
+
+    private static void verifyMode(int mode, float overshoot, float tolerance) {
+        for (int size : TABLE_SIZES) {
+            float[] values = GeneratedInterpolators.naturalMotion(size, overshoot, size);
+            LookupTableInterpolator reference = GeneratedInterpolators.reference(values);
+            Interpolator generated = GeneratedInterpolators.create(mode, values);
+
+            // Generated interpolators return exactly 0f and 1f at the ends, so compare the inner range only
+            for (int i = 1; i < INPUT_STEPS; i++) {
+                final float input = i / (float) INPUT_STEPS;
+                assertEquals(GeneratedInterpolators.getModeName(mode) + ", size " + size + ", input " + input,
+                        reference.getInterpolation(input), generated.getInterpolation(input), tolerance);
+            }
+        }
+    }
+}
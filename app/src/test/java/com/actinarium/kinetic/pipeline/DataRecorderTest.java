@@ -0,0 +1,507 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline;
+
+import android.hardware.Sensor;
+import com.actinarium.kinetic.pipeline.source.ReplaySensorSource;
+import com.actinarium.kinetic.pipeline.source.SensorSource;
+import com.actinarium.kinetic.pipeline.source.SyntheticSensorSource;
+import com.actinarium.kinetic.pipeline.source.TestTraces;
+import com.actinarium.kinetic.pipeline.source.TraceFile;
+import com.actinarium.kinetic.util.DataSet3;
+import com.actinarium.kinetic.util.DataSet4;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Drives {@link DataRecorder} on a plain JVM with playback sources and a manually pumped scheduler
+ *
+ * @author Paul Danyliuk
+ */
+public class DataRecorderTest {
+
+    private static final long TIMEOUT_MILLIS = 10000;
+    private static final int[] TYPES = {
+            Sensor.TYPE_ACCELEROMETER,
+            Sensor.TYPE_GYROSCOPE,
+            Sensor.TYPE_ROTATION_VECTOR,
+            Sensor.TYPE_LINEAR_ACCELERATION
+    };
+
+    private static final int[] REQUIRED_TYPES = {
+            Sensor.TYPE_ACCELEROMETER,
+            Sensor.TYPE_GYROSCOPE,
+            Sensor.TYPE_ROTATION_VECTOR
+    };
+
+    @Test
+    public void record_replayedTrace_recordsEveryReading() {
+        TraceFile trace = createTrace(500, 1L);
+        ManualScheduler scheduler = new ManualScheduler();
+        ResultCallback callback = new ResultCallback();
+        DataRecorder recorder = new DataRecorder(new ReplaySensorSource(trace, false), scheduler, callback,
+                DataRecorder.DEFAULT_RECORDING_TIME_MILLIS, DataRecorder.DEFAULT_SAMPLING_MICROS,
+                Sensor.TYPE_LINEAR_ACCELERATION);
+        recorder.setRecordingPool(new RecordingPool(1));
+
+        recorder.startRecording();
+        scheduler.runUntil(callback);
+
+        assertEquals(Integer.valueOf(DataRecorder.STATUS_DONE), callback.mStatus);
+        for (int type : TYPES) {
+            assertSameData(trace.get(type), callback.mChannels.get(type));
+        }
+        final DataSet4 expectedRotation = (DataSet4) trace.get(Sensor.TYPE_ROTATION_VECTOR);
+        final DataSet4 actualRotation = (DataSet4) callback.mChannels.get(Sensor.TYPE_ROTATION_VECTOR);
+        for (int i = 0; i < expectedRotation.length; i++) {
+            assertEquals("W " + i, expectedRotation.values4[i], actualRotation.values4[i], 0f);
+        }
+
+        // Playback starts right away, so gravity is taken from the first reading
+        final DataSet3 accel = trace.get(Sensor.TYPE_ACCELEROMETER);
+        assertArrayEquals(new float[]{accel.valuesX[0], accel.valuesY[0], accel.valuesZ[0]}, callback.mGravity, 0f);
+    }
+
+    @Test
+    public void record_replayedTraceOverflows_stopsOutOfBounds() {
+        TraceFile trace = createTrace(500, 2L);
+        ManualScheduler scheduler = new ManualScheduler();
+        ResultCallback callback = new ResultCallback();
+        // 100 ms at 5 ms with 20% overhead is 25 readings per sensor
+        DataRecorder recorder = new DataRecorder(new ReplaySensorSource(trace, false), scheduler, callback, 100,
+                DataRecorder.DEFAULT_SAMPLING_MICROS);
+        recorder.setRecordingPool(new RecordingPool(1));
+
+        recorder.startRecording();
+        scheduler.runUntil(callback);
+
+        assertEquals(Integer.valueOf(DataRecorder.STATUS_OUT_OF_BOUNDS), callback.mStatus);
+        final SensorChannels channels = callback.mChannels;
+        int longest = 0;
+        for (int type : REQUIRED_TYPES) {
+            longest = Math.max(longest, channels.get(type).length);
+        }
+        assertEquals(25, longest);
+        assertTrue(!channels.has(Sensor.TYPE_LINEAR_ACCELERATION));
+    }
+
+    @Test
+    public void record_pooledBufferOfOtherRecorder_dropsItsSensors() {
+        TraceFile trace = createTrace(50, 3L);
+        RecordingPool pool = new RecordingPool(1);
+        ManualScheduler scheduler = new ManualScheduler();
+        ResultCallback callback = new ResultCallback();
+        DataRecorder recorder = new DataRecorder(new ReplaySensorSource(trace, false), scheduler, callback,
+                DataRecorder.DEFAULT_RECORDING_TIME_MILLIS, DataRecorder.DEFAULT_SAMPLING_MICROS,
+                Sensor.TYPE_LINEAR_ACCELERATION);
+        recorder.setRecordingPool(pool);
+        recorder.startRecording();
+        scheduler.runUntil(callback);
+        assertTrue(callback.mChannels.has(Sensor.TYPE_LINEAR_ACCELERATION));
+        pool.release(callback.mChannels);
+
+        // Same buffer, but this recorder doesn't record linear acceleration
+        ManualScheduler otherScheduler = new ManualScheduler();
+        ResultCallback otherCallback = new ResultCallback();
+        DataRecorder otherRecorder = new DataRecorder(new ReplaySensorSource(trace, false), otherScheduler,
+                otherCallback, DataRecorder.DEFAULT_RECORDING_TIME_MILLIS, DataRecorder.DEFAULT_SAMPLING_MICROS);
+        otherRecorder.setRecordingPool(pool);
+        otherRecorder.startRecording();
+        otherScheduler.runUntil(otherCallback);
+
+        assertSame(callback.mChannels, otherCallback.mChannels);
+        assertTrue(!otherCallback.mChannels.has(Sensor.TYPE_LINEAR_ACCELERATION));
+        assertEquals(REQUIRED_TYPES.length, otherCallback.mChannels.size());
+    }
+
+    @Test
+    public void record_syntheticKilohertzWithGapsAndJitter_matchesSource() throws InterruptedException {
+        final int rate = 4000;
+        final long durationNanos = 500000000L;
+        final int samplingMicros = 1000000 / rate;
+
+        // Collect what the source produces on its own first, then record the same readings
+        SyntheticSensorSource source = createSyntheticSource(rate, durationNanos);
+        CollectingListener expected = new CollectingListener();
+        source.start(TYPES, samplingMicros, expected);
+        source.await();
+        assertTrue(expected.mIsFinished);
+
+        ManualScheduler scheduler = new ManualScheduler();
+        ResultCallback callback = new ResultCallback();
+        IngestCollector ingest = new IngestCollector();
+        DataRecorder recorder = new DataRecorder(createSyntheticSource(rate, durationNanos), scheduler, callback,
+                1000, samplingMicros, Sensor.TYPE_LINEAR_ACCELERATION);
+        recorder.setRecordingPool(new RecordingPool(1));
+        recorder.setIngestListener(ingest);
+
+        recorder.startRecording();
+        scheduler.runUntil(callback);
+
+        assertEquals(Integer.valueOf(DataRecorder.STATUS_DONE), callback.mStatus);
+        assertTrue(ingest.mIsFinal);
+        final IngestMonitor monitor = recorder.getIngestMonitor();
+        for (int i = 0; i < TYPES.length; i++) {
+            final DataSet3 expectedData = expected.get(TYPES[i]);
+            final DataSet3 actualData = callback.mChannels.get(TYPES[i]);
+            assertSameData(expectedData, actualData);
+
+            // About 1% of readings start a gap of 5, so a good share of 2000 readings per sensor are missing
+            assertTrue(expectedData.length < durationNanos * rate / 1000000000L);
+            assertEquals(actualData.length, monitor.getSampleCount(i));
+            assertTrue("No drops detected for sensor " + TYPES[i], monitor.getDropCount(i) > 0);
+        }
+    }
+
+    @Test
+    public void record_sourceKeepsDelivering_stopsOnTimeout() {
+        ManualSource source = new ManualSource();
+        ManualScheduler scheduler = new ManualScheduler();
+        ResultCallback callback = new ResultCallback();
+        IngestCollector ingest = new IngestCollector();
+        DataRecorder recorder = new DataRecorder(source, scheduler, callback, 2500,
+                DataRecorder.DEFAULT_SAMPLING_MICROS);
+        recorder.setRecordingPool(new RecordingPool(1));
+        recorder.setIngestListener(ingest);
+
+        recorder.startRecording();
+        float[] values = new float[4];
+        for (int i = 0; i < 10; i++) {
+            source.mTime = i * 5000000L;
+            for (int type : REQUIRED_TYPES) {
+                values[0] = i;
+                source.mListener.onSensorData(type, source.mTime, values);
+            }
+        }
+
+        // Periodic reports at 1 and 2 seconds
+        scheduler.advance(2000);
+        assertEquals(2, ingest.mReportCount);
+        assertTrue(!ingest.mIsFinal);
+        assertTrue(callback.mStatus == null);
+
+        scheduler.advance(500);
+        assertEquals(Integer.valueOf(DataRecorder.STATUS_DONE), callback.mStatus);
+        assertEquals(3, ingest.mReportCount);
+        assertTrue(ingest.mIsFinal);
+        assertTrue(!source.mIsStarted);
+        assertEquals(10, callback.mChannels.get(Sensor.TYPE_GYROSCOPE).length);
+
+        // Readings that arrive after the recording is over are ignored, and periodic reports are over too
+        source.mListener.onSensorData(Sensor.TYPE_GYROSCOPE, 100000000L, values);
+        assertEquals(10, callback.mChannels.get(Sensor.TYPE_GYROSCOPE).length);
+        scheduler.advance(DataRecorder.INGEST_REPORT_INTERVAL_MILLIS * 2);
+        assertEquals(3, ingest.mReportCount);
+    }
+
+    @Test
+    public void snapshot_motionAtWindowStart_usesGravityEstimatedBeforeIt() {
+        ManualSource source = new ManualSource();
+        ManualScheduler scheduler = new ManualScheduler();
+        ResultCallback callback = new ResultCallback();
+        DataRecorder recorder = new DataRecorder(source, scheduler, callback, 1000,
+                DataRecorder.DEFAULT_SAMPLING_MICROS);
+        recorder.setRecordingPool(new RecordingPool(1));
+
+        recorder.startCapture();
+        assertTrue(!recorder.snapshot());
+
+        // 2 seconds at rest, except for a jolt right where the last second starts
+        float[] values = new float[4];
+        for (int i = 0; i < 400; i++) {
+            values[0] = i >= 199 && i < 219 ? 5f : 0f;
+            values[2] = 9.81f;
+            for (int type : REQUIRED_TYPES) {
+                source.mListener.onSensorData(type, i * 5000000L, values);
+            }
+        }
+        assertTrue(recorder.snapshot());
+
+        assertEquals(Integer.valueOf(DataRecorder.STATUS_SNAPSHOT), callback.mStatus);
+        final DataSet3 accel = callback.mChannels.get(Sensor.TYPE_ACCELEROMETER);
+        assertEquals(201, accel.length);
+        assertEquals(5f, accel.valuesX[0], 0f);
+        assertArrayEquals(new float[]{0f, 0f, 9.81f}, callback.mGravity, 1e-4f);
+        assertTrue(recorder.isCapturing());
+    }
+
+    @Test
+    public void snapshot_sensorsFasterThanExpected_keepsLatestTruncated() {
+        ManualSource source = new ManualSource();
+        ManualScheduler scheduler = new ManualScheduler();
+        ResultCallback callback = new ResultCallback();
+        // 1 second at 5 ms with 20% overhead is 241 readings per sensor, but the source delivers every 2 ms
+        DataRecorder recorder = new DataRecorder(source, scheduler, callback, 1000,
+                DataRecorder.DEFAULT_SAMPLING_MICROS);
+        recorder.setRecordingPool(new RecordingPool(1));
+
+        recorder.startCapture();
+        float[] values = new float[4];
+        for (int i = 0; i < 1000; i++) {
+            values[0] = i;
+            for (int type : REQUIRED_TYPES) {
+                source.mListener.onSensorData(type, i * 2000000L, values);
+            }
+        }
+        assertTrue(recorder.snapshot());
+
+        assertEquals(Integer.valueOf(DataRecorder.STATUS_SNAPSHOT_TRUNCATED), callback.mStatus);
+        for (int type : REQUIRED_TYPES) {
+            final DataSet3 data = callback.mChannels.get(type);
+            assertEquals(241, data.length);
+            assertEquals(999, data.valuesX[240], 0f);
+        }
+    }
+
+    private static SyntheticSensorSource createSyntheticSource(int rate, long durationNanos) {
+        return new SyntheticSensorSource.Builder()
+                .setRate(rate)
+                .setDuration(durationNanos)
+                .setNoise(0.05f)
+                .setJitter(0.2f)
+                .setGaps(0.01f, 5)
+                .setSeed(42L)
+                .build();
+    }
+
+    private static void assertSameData(DataSet3 expected, DataSet3 actual) {
+        assertNotNull(actual);
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("Time " + i, expected.times[i], actual.times[i]);
+            assertEquals("X " + i, expected.valuesX[i], actual.valuesX[i], 0f);
+            assertEquals("Y " + i, expected.valuesY[i], actual.valuesY[i], 0f);
+            assertEquals("Z " + i, expected.valuesZ[i], actual.valuesZ[i], 0f);
+        }
+    }
+
+    private static TraceFile createTrace(int length, long seed) {
+        return TestTraces.createTrace(TYPES, length, seed, TestTraces.NOISE);
+    }
+
+    /**
+     * Scheduler with a virtual clock. Posted tasks run when the test thread pumps them, and delayed ones once the
+     * clock is advanced past their time
+     */
+    private static final class ManualScheduler implements DataRecorder.Scheduler {
+
+        private final Thread mThread = Thread.currentThread();
+        private final BlockingQueue<Runnable> mPosted = new LinkedBlockingQueue<>();
+        private final List<Delayed> mDelayed = new ArrayList<>();
+        private long mNowMillis;
+
+        @Override
+        public boolean isCurrentThread() {
+            return Thread.currentThread() == mThread;
+        }
+
+        @Override
+        public void post(Runnable task) {
+            mPosted.add(task);
+        }
+
+        @Override
+        public void postDelayed(Runnable task, long delayMillis) {
+            mDelayed.add(new Delayed(task, mNowMillis + delayMillis));
+        }
+
+        @Override
+        public void removeCallbacks(Runnable task) {
+            mPosted.remove(task);
+            for (Iterator<Delayed> iterator = mDelayed.iterator(); iterator.hasNext(); ) {
+                if (iterator.next().mTask == task) {
+                    iterator.remove();
+                }
+            }
+        }
+
+        /**
+         * Runs posted tasks until the callback receives a result
+         */
+        void runUntil(ResultCallback callback) {
+            final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (callback.mStatus == null) {
+                final Runnable task;
+                try {
+                    task = mPosted.poll(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                if (task == null) {
+                    fail("Recording hasn't finished in time");
+                }
+                task.run();
+            }
+        }
+
+        /**
+         * Advances the clock, running delayed tasks that become due in order of their time
+         */
+        void advance(long millis) {
+            final long target = mNowMillis + millis;
+            while (true) {
+                Delayed next = null;
+                for (Delayed delayed : mDelayed) {
+                    if (delayed.mTimeMillis <= target && (next == null || delayed.mTimeMillis < next.mTimeMillis)) {
+                        next = delayed;
+                    }
+                }
+                if (next == null) {
+                    break;
+                }
+                mDelayed.remove(next);
+                mNowMillis = next.mTimeMillis;
+                next.mTask.run();
+            }
+            mNowMillis = target;
+        }
+
+        private static final class Delayed {
+            final Runnable mTask;
+            final long mTimeMillis;
+
+            Delayed(Runnable task, long timeMillis) {
+                mTask = task;
+                mTimeMillis = timeMillis;
+            }
+        }
+    }
+
+    /**
+     * Playback source whose readings are delivered by the test itself, on the test thread
+     */
+    private static final class ManualSource implements SensorSource {
+
+        private Listener mListener;
+        private boolean mIsStarted;
+        private long mTime;
+
+        @Override
+        public boolean hasSensor(int sensorType) {
+            for (int type : REQUIRED_TYPES) {
+                if (type == sensorType) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public String getSensorName(int sensorType) {
+            return "Manual sensor " + sensorType;
+        }
+
+        @Override
+        public int getMinDelayMicros(int sensorType) {
+            return 0;
+        }
+
+        @Override
+        public boolean isLive() {
+            return false;
+        }
+
+        @Override
+        public long getTimeNanos() {
+            return mTime;
+        }
+
+        @Override
+        public void start(int[] sensorTypes, int samplingRateMicros, Listener listener) {
+            mListener = listener;
+            mIsStarted = true;
+        }
+
+        @Override
+        public void stop() {
+            mIsStarted = false;
+        }
+    }
+
+    private static final class ResultCallback implements DataRecorder.Callback {
+
+        private volatile Integer mStatus;
+        private SensorChannels mChannels;
+        private float[] mGravity;
+
+        @Override
+        public void onDataRecordedResult(@DataRecorder.Status int status, SensorChannels channels, float[] gravity) {
+            mChannels = channels;
+            mGravity = gravity != null ? gravity.clone() : null;
+            mStatus = status;
+        }
+    }
+
+    private static final class IngestCollector implements DataRecorder.IngestListener {
+
+        private int mReportCount;
+        private boolean mIsFinal;
+
+        @Override
+        public void onIngestReport(IngestMonitor monitor, String summary, boolean isFinal) {
+            mReportCount++;
+            mIsFinal = isFinal;
+        }
+    }
+
+    /**
+     * Collects readings of a playback source into data sets, one per sensor type
+     */
+    private static final class CollectingListener implements SensorSource.Listener {
+
+        private final DataSet3[] mData = new DataSet3[TYPES.length];
+        private volatile boolean mIsFinished;
+
+        CollectingListener() {
+            for (int i = 0; i < TYPES.length; i++) {
+                mData[i] = new DataSet3(10000);
+            }
+        }
+
+        DataSet3 get(int sensorType) {
+            for (int i = 0; i < TYPES.length; i++) {
+                if (TYPES[i] == sensorType) {
+                    return mData[i];
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void onSensorData(int sensorType, long timestamp, float[] values) {
+            get(sensorType).put(timestamp, values);
+        }
+
+        @Override
+        public void onSourceFinished() {
+            mIsFinished = true;
+        }
+    }
+}
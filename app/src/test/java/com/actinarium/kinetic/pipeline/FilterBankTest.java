@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline;
+
+import com.actinarium.kinetic.util.DataSet3;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies frequency response of {@link Biquad} presets, both from coefficients and as measured by running sine waves
+ * through a {@link FilterBank}, and that {@link FilterBank#filtFilt(DataSet3, DataSet3)} has no phase shift
+ *
+ * @author Paul Danyliuk
+ */
+public class FilterBankTest {
+
+    private static final float SAMPLE_RATE = 200f;
+    private static final float CUTOFF = 20f;
+    private static final double HALF_POWER = Math.sqrt(0.5);
+
+    @Test
+    public void lowPass_response() {
+        final Biquad lowPass = Biquad.lowPass(SAMPLE_RATE, CUTOFF, Biquad.BUTTERWORTH_Q);
+        assertEquals(1.0, magnitude(lowPass, 0), 1e-5);
+        assertEquals(HALF_POWER, magnitude(lowPass, CUTOFF), 1e-5);
+        assertEquals(0.0, magnitude(lowPass, SAMPLE_RATE / 2), 1e-5);
+        // Second order roll-off is 12 dB per octave well above the cutoff
+        assertTrue(magnitude(lowPass, CUTOFF * 4) < 0.07);
+
+        assertEquals(magnitude(lowPass, 2), measure(lowPass, 2), 1e-3);
+        assertEquals(magnitude(lowPass, CUTOFF), measure(lowPass, CUTOFF), 1e-3);
+        assertEquals(magnitude(lowPass, 60), measure(lowPass, 60), 1e-3);
+    }
+
+    @Test
+    public void highPass_response() {
+        final Biquad highPass = Biquad.highPass(SAMPLE_RATE, CUTOFF, Biquad.BUTTERWORTH_Q);
+        assertEquals(0.0, magnitude(highPass, 0), 1e-5);
+        assertEquals(HALF_POWER, magnitude(highPass, CUTOFF), 1e-5);
+        assertEquals(1.0, magnitude(highPass, SAMPLE_RATE / 2), 1e-5);
+
+        assertEquals(magnitude(highPass, 5), measure(highPass, 5), 1e-3);
+        assertEquals(magnitude(highPass, 60), measure(highPass, 60), 1e-3);
+    }
+
+    @Test
+    public void bandPass_response() {
+        final Biquad bandPass = Biquad.bandPass(SAMPLE_RATE, CUTOFF, 2f);
+        assertEquals(1.0, magnitude(bandPass, CUTOFF), 1e-5);
+        assertEquals(0.0, magnitude(bandPass, 0), 1e-5);
+        assertEquals(0.0, magnitude(bandPass, SAMPLE_RATE / 2), 1e-5);
+        // With Q of 2 the band is about a quarter of an octave wide on either side of the center
+        assertTrue(magnitude(bandPass, CUTOFF / 2) < HALF_POWER);
+        assertTrue(magnitude(bandPass, CUTOFF * 2) < HALF_POWER);
+        assertTrue(magnitude(bandPass, CUTOFF * 1.1) > HALF_POWER);
+
+        assertEquals(1.0, measure(bandPass, CUTOFF), 1e-3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void lowPass_cutoffAboveNyquist_throws() {
+        Biquad.lowPass(SAMPLE_RATE, SAMPLE_RATE / 2, Biquad.BUTTERWORTH_Q);
+    }
+
+    @Test
+    public void filtFilt_hasNoPhaseShift() {
+        final Biquad lowPass = Biquad.lowPass(SAMPLE_RATE, CUTOFF, Biquad.BUTTERWORTH_Q);
+        final FilterBank filter = new FilterBank(3, lowPass);
+        final float frequency = 10f;
+        final int length = 2000;
+        DataSet3 input = new DataSet3(length);
+        for (int i = 0; i < length; i++) {
+            final double phase = 2 * Math.PI * frequency * i / SAMPLE_RATE;
+            input.times[i] = i * 5000000L;
+            input.valuesX[i] = (float) Math.sin(phase);
+            input.valuesY[i] = (float) Math.cos(phase);
+            input.valuesZ[i] = 1f;
+        }
+        input.length = length;
+        DataSet3 output = new DataSet3(length);
+        filter.filtFilt(input, output);
+
+        // Forward-backward filtering squares magnitude and cancels phase, so away from the edges output is the input
+        // scaled by |H|^2, sample to sample
+        final double gain = Math.pow(magnitude(lowPass, frequency), 2);
+        for (int i = 200; i < length - 200; i++) {
+            assertEquals(gain * input.valuesX[i], output.valuesX[i], 1e-3);
+            assertEquals(gain * input.valuesY[i], output.valuesY[i], 1e-3);
+            assertEquals(1f, output.valuesZ[i], 1e-4);
+        }
+
+        // While filtering one way only delays the wave
+        filter.reset();
+        float[] forward = input.valuesX.clone();
+        filter.process(0, forward, 0, length);
+        double maxError = 0;
+        for (int i = 200; i < length - 200; i++) {
+            maxError = Math.max(maxError, Math.abs(gain * input.valuesX[i] - forward[i]));
+        }
+        assertTrue(maxError > 0.1);
+    }
+
+    @Test
+    public void process_constantInput_hasNoStartupTransient() {
+        final FilterBank filter = new FilterBank(1, Biquad.lowPass(SAMPLE_RATE, CUTOFF, Biquad.BUTTERWORTH_Q),
+                Biquad.lowPass(SAMPLE_RATE, CUTOFF, Biquad.BUTTERWORTH_Q));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(9.81f, filter.process(0, 9.81f), 1e-4f);
+        }
+    }
+
+    /**
+     * Computes magnitude response of a section at given frequency from its transfer function
+     */
+    private static double magnitude(Biquad section, double frequency) {
+        final double w = 2 * Math.PI * frequency / SAMPLE_RATE;
+        final double cos1 = Math.cos(w);
+        final double sin1 = Math.sin(w);
+        final double cos2 = Math.cos(2 * w);
+        final double sin2 = Math.sin(2 * w);
+        final double numRe = section.b0 + section.b1 * cos1 + section.b2 * cos2;
+        final double numIm = -section.b1 * sin1 - section.b2 * sin2;
+        final double denRe = 1 + section.a1 * cos1 + section.a2 * cos2;
+        final double denIm = -section.a1 * sin1 - section.a2 * sin2;
+        return Math.sqrt((numRe * numRe + numIm * numIm) / (denRe * denRe + denIm * denIm));
+    }
+
+    /**
+     * Measures gain of a section by running a sine wave through it and taking RMS of the output once it settles. Peaks
+     * of a sampled wave fall between samples, while RMS over whole periods doesn't depend on that
+     */
+    private static double measure(Biquad section, double frequency) {
+        final FilterBank filter = new FilterBank(1, section);
+        final int length = 4000;
+        double sumOfSquares = 0;
+        for (int i = 0; i < length; i++) {
+            final float output = filter.process(0, (float) Math.sin(2 * Math.PI * frequency * i / SAMPLE_RATE));
+            if (i >= length / 2) {
+                sumOfSquares += output * output;
+            }
+        }
+        return Math.sqrt(2 * sumOfSquares / (length / 2));
+    }
+}
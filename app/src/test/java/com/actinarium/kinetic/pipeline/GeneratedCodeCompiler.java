@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline;
+
+import com.actinarium.kinetic.runtime.TableInterpolator;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Test helper that compiles Java sources produced by {@link CodeGenerator} in process and loads resulting classes.
+ * Since generated interpolators implement <code>android.view.animation.Interpolator</code>, stub sources of that
+ * interface are compiled alongside. Loading is parent-first, so if Android classes are already on the test classpath,
+ * generated classes will link against those, and the stubs are used otherwise.
+ *
+ * @author Paul Danyliuk
+ */
+final class GeneratedCodeCompiler {
+
+    private static final String TIME_INTERPOLATOR_STUB = "package android.animation;"
+            + "\npublic interface TimeInterpolator {"
+            + "\n    float getInterpolation(float input);"
+            + "\n}";
+    private static final String INTERPOLATOR_STUB = "package android.view.animation;"
+            + "\npublic interface Interpolator extends android.animation.TimeInterpolator {"
+            + "\n}";
+
+    /**
+     * Private constructor, to prevent instantiation
+     */
+    private GeneratedCodeCompiler() {}
+
+    /**
+     * Compiles a single generated class and loads it
+     *
+     * @param className fully qualified name of the class
+     * @param source    Java source of the class
+     * @return loaded class
+     */
+    static Class<?> compile(String className, String source) {
+        Map<String, String> sources = new HashMap<>(1);
+        sources.put(className, source);
+        try {
+            return compile(sources).loadClass(className);
+        } catch (ClassNotFoundException e) {
+            throw new AssertionError("Compiled class " + className + " could not be loaded: " + e);
+        }
+    }
+
+    /**
+     * Compiles generated classes and returns a class loader to load them from
+     *
+     * @param sources Java sources, keyed by fully qualified class names
+     * @return class loader that has all compiled classes
+     */
+    static ClassLoader compile(Map<String, String> sources) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new AssertionError("No system Java compiler: tests must be run on a JDK, not a JRE");
+        }
+
+        List<JavaFileObject> units = new ArrayList<>(sources.size() + 2);
+        units.add(new SourceFile("android.animation.TimeInterpolator", TIME_INTERPOLATOR_STUB));
+        units.add(new SourceFile("android.view.animation.Interpolator", INTERPOLATOR_STUB));
+        for (Map.Entry<String, String> entry : sources.entrySet()) {
+            units.add(new SourceFile(entry.getKey(), entry.getValue()));
+        }
+
+        // Data-only exports depend on the runtime library, so make sure it's visible to the compiler
+        final String classPath = System.getProperty("java.class.path") + File.pathSeparator + getLocation(
+                TableInterpolator.class);
+        final List<String> options = Arrays.asList("-classpath", classPath, "-proc:none", "-nowarn");
+
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        StandardJavaFileManager standardManager = compiler.getStandardFileManager(diagnostics, null, null);
+        MemoryFileManager fileManager = new MemoryFileManager(standardManager);
+        final boolean success = compiler.getTask(null, fileManager, diagnostics, options, null, units).call();
+        if (!success) {
+            StringBuilder message = new StringBuilder("Generated code failed to compile:");
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                message.append('\n').append(diagnostic.toString());
+            }
+            for (String source : sources.values()) {
+                message.append("\n\n").append(source);
+            }
+            throw new AssertionError(message.toString());
+        }
+
+        return new MemoryClassLoader(GeneratedCodeCompiler.class.getClassLoader(), fileManager.mOutputs);
+    }
+
+    private static String getLocation(Class<?> clazz) {
+        try {
+            return new File(clazz.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+        } catch (Exception e) {
+            throw new AssertionError("Cannot locate " + clazz.getName() + " on the classpath: " + e);
+        }
+    }
+
+    /**
+     * Source file backed by a string
+     */
+    private static final class SourceFile extends SimpleJavaFileObject {
+
+        private final String mSource;
+
+        SourceFile(String className, String source) {
+            super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+            mSource = source;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return mSource;
+        }
+    }
+
+    /**
+     * Class file backed by a byte array
+     */
+    private static final class ClassFile extends SimpleJavaFileObject {
+
+        private final ByteArrayOutputStream mBytes = new ByteArrayOutputStream(4096);
+
+        ClassFile(String className) {
+            super(URI.create("bytes:///" + className.replace('.', '/') + Kind.CLASS.extension), Kind.CLASS);
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            return mBytes;
+        }
+    }
+
+    /**
+     * File manager that keeps compiled classes in memory
+     */
+    private static final class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+
+        private final Map<String, ClassFile> mOutputs = new HashMap<>();
+
+        MemoryFileManager(StandardJavaFileManager fileManager) {
+            super(fileManager);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(JavaFileManager.Location location, String className,
+                                                   JavaFileObject.Kind kind, FileObject sibling) {
+            ClassFile file = new ClassFile(className);
+            mOutputs.put(className, file);
+            return file;
+        }
+    }
+
+    /**
+     * Class loader that defines classes compiled in memory
+     */
+    private static final class MemoryClassLoader extends ClassLoader {
+
+        private final Map<String, ClassFile> mClasses;
+
+        MemoryClassLoader(ClassLoader parent, Map<String, ClassFile> classes) {
+            super(parent);
+            mClasses = classes;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            ClassFile file = mClasses.get(name);
+            if (file == null) {
+                throw new ClassNotFoundException(name);
+            }
+            final byte[] bytes = file.mBytes.toByteArray();
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline;
+
+import android.view.animation.Interpolator;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Micro-benchmark of {@link Interpolator#getInterpolation(float)} for generated interpolators across table sizes and
+ * export modes. Reports nanoseconds per call, so that the fastest correct encoding can be picked for production. Absolute
+ * numbers on a desktop JVM don't translate to ART, but relative ordering is a good hint.
+ * <p>
+ * Takes minutes, so it's excluded from unit tests unless Gradle is run with <code>-Pbenchmark</code>. The report is
+ * written to the file given in {@link #REPORT_PROPERTY} system property, <code>build/reports/benchmark.txt</code> by
+ * default</p>
+ */
+public class GeneratedInterpolatorBenchmark {
+
+    static final String REPORT_PROPERTY = "kinetic.benchmark.report";
+
+    private static final int[] TABLE_SIZES = {101, 2001, 6001};
+    private static final int WARM_UP_CALLS = 2000000;
+    private static final int MEASURED_CALLS = 5000000;
+    private static final int ROUNDS = 3;
+
+    /**
+     * Inputs are visited with a stride co-prime to the table size, so that calls don't just walk the table sequentially
+     */
+    private static final float INPUT_STRIDE = 0.6180339887f;
+
+    @Test
+    public void benchmarkExportModes() throws Exception {
+        StringBuilder report = new StringBuilder("Generated interpolator benchmark, ns per call:\n");
+        report.append(String.format(Locale.ROOT, "%-12s", "mode"));
+        for (int size : TABLE_SIZES) {
+            report.append(String.format(Locale.ROOT, "%12d", size));
+        }
+        report.append('\n');
+
+        float blackHole = 0f;
+        for (int mode : GeneratedInterpolators.EXPORT_MODES) {
+            report.append(String.format(Locale.ROOT, "%-12s", GeneratedInterpolators.getModeName(mode)));
+            for (int size : TABLE_SIZES) {
+                Interpolator interpolator = GeneratedInterpolators.create(mode,
+                        GeneratedInterpolators.naturalMotion(size, 0.2f, size));
+                blackHole += run(interpolator, WARM_UP_CALLS);
+
+                // Take the best of several rounds to filter out GC and JIT noise
+                long best = Long.MAX_VALUE;
+                for (int round = 0; round < ROUNDS; round++) {
+                    final long start = System.nanoTime();
+                    blackHole += run(interpolator, MEASURED_CALLS);
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                report.append(String.format(Locale.ROOT, "%12.2f", best / (double) MEASURED_CALLS));
+            }
+            report.append('\n');
+        }
+
+        writeReport(report.toString());
+        // Consume results, otherwise JIT could eliminate the calls altogether
+        assertFalse(Float.isNaN(blackHole));
+    }
+
+    private static void writeReport(String report) throws IOException {
+        File file = new File(System.getProperty(REPORT_PROPERTY, "build/reports/benchmark.txt"));
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create directory " + parent);
+        }
+        Writer writer = new FileWriter(file);
+        try {
+            writer.write(report);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static float run(Interpolator interpolator, int calls) {
+        float sum = 0f;
+        float input = 0f;
+        for (int i = 0; i < calls; i++) {
+            input += INPUT_STRIDE;
+            if (input >= 1f) {
+                input -= 1f;
+            }
+            sum += interpolator.getInterpolation(input);
+        }
+        return sum;
+    }
+}
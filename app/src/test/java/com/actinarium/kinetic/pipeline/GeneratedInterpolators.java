@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline;
+
+import android.view.animation.Interpolator;
+import com.actinarium.kinetic.util.LookupTableInterpolator;
+
+import java.lang.reflect.Method;
+import java.util.Random;
+
+/**
+ * Test helper that produces lookup tables resembling recorded motion, and interpolators generated from them in every
+ * export mode, compiled with {@link GeneratedCodeCompiler}
+ *
+ * @author Paul Danyliuk
+ */
+final class GeneratedInterpolators {
+
+    static final String PACKAGE_NAME = "com.example.kinetic.test";
+
+    static final int[] EXPORT_MODES = {
+            CodeGenerator.EXPORT_FLOAT, CodeGenerator.EXPORT_FIXED_POINT, CodeGenerator.EXPORT_DATA_ONLY,
+            CodeGenerator.EXPORT_PACKED
+    };
+
+    static final String[] PACKED_TITLES = {"Offset - X", "Offset - Y", "Rotation - Yaw"};
+    static final String[] PACKED_CONSTANTS = {"OFFSET_X", "OFFSET_Y", "ROTATION_YAW"};
+
+    private static int sClassCounter;
+
+    /**
+     * Private constructor, to prevent instantiation
+     */
+    private GeneratedInterpolators() {}
+
+    /**
+     * Produces a lookup table of a damped oscillation with overshoot and a bit of noise, going from 0 to 1
+     *
+     * @param length    number of values
+     * @param overshoot how far past 1f the motion goes at its peak, roughly
+     * @param seed      seed for the noise
+     * @return lookup table
+     */
+    static float[] naturalMotion(int length, float overshoot, long seed) {
+        Random random = new Random(seed);
+        float[] values = new float[length];
+        for (int i = 0; i < length; i++) {
+            final double x = length == 1 ? 0 : i / (double) (length - 1);
+            final double oscillation = Math.exp(-4 * x) * Math.cos(10 * x);
+            values[i] = (float) (1 - oscillation + overshoot * Math.sin(Math.PI * x) + random.nextGaussian() * 0.002);
+        }
+        values[0] = 0f;
+        return values;
+    }
+
+    /**
+     * Creates an in-app interpolator that uses the whole table as is
+     *
+     * @param values lookup table
+     * @return reference interpolator
+     */
+    static LookupTableInterpolator reference(float[] values) {
+        LookupTableInterpolator interpolator = new LookupTableInterpolator();
+        interpolator.setData(values);
+        // Range end is offset by two, see LookupTableInterpolator#setRange
+        interpolator.setRange(0, values.length + 1);
+        return interpolator;
+    }
+
+    /**
+     * Generates, compiles and instantiates an interpolator for the given table
+     *
+     * @param mode   export mode, one of {@link #EXPORT_MODES}
+     * @param values lookup table
+     * @return generated interpolator
+     */
+    static Interpolator create(int mode, float[] values) {
+        if (mode == CodeGenerator.EXPORT_PACKED) {
+            return (Interpolator) getPackedField(createPacked(values, values, values), PACKED_CONSTANTS[0]);
+        }
+
+        final String className = nextClassName();
+        final String source = CodeGenerator.generateInterpolatorCode(PACKAGE_NAME, className, "Test", values, mode);
+        Class<?> clazz = GeneratedCodeCompiler.compile(PACKAGE_NAME + "." + className, source);
+        try {
+            if (mode == CodeGenerator.EXPORT_DATA_ONLY) {
+                return (Interpolator) clazz.getMethod("create").invoke(null);
+            } else {
+                return (Interpolator) clazz.getConstructor().newInstance();
+            }
+        } catch (Exception e) {
+            throw new AssertionError("Cannot instantiate generated interpolator: " + e);
+        }
+    }
+
+    /**
+     * Generates and compiles a packed class with three channels
+     *
+     * @param first  lookup table for the first channel
+     * @param second lookup table for the second channel
+     * @param third  lookup table for the third channel
+     * @return generated class
+     */
+    static Class<?> createPacked(float[] first, float[] second, float[] third) {
+        final String className = nextClassName();
+        final String source = CodeGenerator.generatePackedInterpolatorCode(PACKAGE_NAME, className, PACKED_TITLES,
+                new float[][]{first, second, third});
+        return GeneratedCodeCompiler.compile(PACKAGE_NAME + "." + className, source);
+    }
+
+    static Object getPackedField(Class<?> packedClass, String name) {
+        try {
+            return packedClass.getField(name).get(null);
+        } catch (Exception e) {
+            throw new AssertionError("Generated packed class has no field " + name + ": " + e);
+        }
+    }
+
+    static Method getPackedEvaluator(Class<?> packedClass) {
+        try {
+            return packedClass.getMethod("getInterpolations", float.class, float[].class);
+        } catch (NoSuchMethodException e) {
+            throw new AssertionError("Generated packed class has no getInterpolations method");
+        }
+    }
+
+    static String getModeName(int mode) {
+        switch (mode) {
+            case CodeGenerator.EXPORT_FLOAT:
+                return "float";
+            case CodeGenerator.EXPORT_FIXED_POINT:
+                return "fixed point";
+            case CodeGenerator.EXPORT_DATA_ONLY:
+                return "data only";
+            case CodeGenerator.EXPORT_PACKED:
+                return "packed";
+            default:
+                return "unknown";
+        }
+    }
+
+    private static synchronized String nextClassName() {
+        return "Generated" + (++sClassCounter) + "Interpolator";
+    }
+}
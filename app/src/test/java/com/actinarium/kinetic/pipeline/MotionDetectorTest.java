@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline;
+
+import com.actinarium.kinetic.util.DataSet3;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that {@link MotionDetector} finds motion in quiet, noisy and boundary cases
+ *
+ * @author Paul Danyliuk
+ */
+public class MotionDetectorTest {
+
+    private static final long START_NANOS = 1000000000L;
+    private static final long STEP_NANOS = 5000000L;
+    private static final long WINDOW_NANOS = MotionDetector.DEFAULT_WINDOW_NANOS;
+    private static final int LENGTH = 1000;
+
+    /**
+     * Sensor noise of a resting device
+     */
+    private static final float NOISE = 0.02f;
+    private static final float MOTION = 3f;
+
+    @Test
+    public void detect_stillRecording_returnsFalse() {
+        DataSet3 data = createDataSet(LENGTH, 0, 0, -1, -1, 1L);
+        long[] out = {-1, -1};
+
+        assertFalse(MotionDetector.detect(data, WINDOW_NANOS, out));
+        assertArrayEquals(new long[]{-1, -1}, out);
+    }
+
+    @Test
+    public void detect_tooShort_returnsFalse() {
+        DataSet3 data = createDataSet(2, NOISE, MOTION, 0, 2, 2L);
+        long[] out = {-1, -1};
+
+        assertFalse(MotionDetector.detect(data, WINDOW_NANOS, out));
+        assertArrayEquals(new long[]{-1, -1}, out);
+    }
+
+    @Test
+    public void detect_motionInNoise_findsMotion() {
+        DataSet3 data = createDataSet(LENGTH, NOISE, MOTION, 400, 600, 3L);
+        long[] out = new long[2];
+
+        assertTrue(MotionDetector.detect(data, WINDOW_NANOS, out));
+        assertWindow(data, 400, 600, out);
+    }
+
+    @Test
+    public void detect_motionAtStart_clampsToRecording() {
+        DataSet3 data = createDataSet(LENGTH, NOISE, MOTION, 0, 300, 4L);
+        long[] out = new long[2];
+
+        assertTrue(MotionDetector.detect(data, WINDOW_NANOS, out));
+        assertEquals(data.times[0], out[0]);
+        assertWindow(data, 0, 300, out);
+    }
+
+    @Test
+    public void detect_motionAtEnd_endsWithRecording() {
+        DataSet3 data = createDataSet(LENGTH, NOISE, MOTION, 700, LENGTH, 5L);
+        long[] out = new long[2];
+
+        assertTrue(MotionDetector.detect(data, WINDOW_NANOS, out));
+        assertEquals(data.times[LENGTH - 1], out[1]);
+        assertWindow(data, 700, LENGTH, out);
+    }
+
+    @Test
+    public void detect_twoSensors_returnsUnionExtended() {
+        DataSet3 accel = createDataSet(LENGTH, NOISE, MOTION, 200, 400, 6L);
+        DataSet3 gyro = createDataSet(LENGTH, NOISE, MOTION, 500, 700, 7L);
+        DataSet3 still = createDataSet(LENGTH, 0, 0, -1, -1, 8L);
+        long[] accelWindow = new long[2];
+        long[] gyroWindow = new long[2];
+        assertTrue(MotionDetector.detect(accel, WINDOW_NANOS, accelWindow));
+        assertTrue(MotionDetector.detect(gyro, WINDOW_NANOS, gyroWindow));
+
+        long[] out = new long[2];
+        assertTrue(MotionDetector.detect(accel, gyro, WINDOW_NANOS, out));
+        assertEquals(accelWindow[0] - WINDOW_NANOS / 2, out[0]);
+        assertEquals(gyroWindow[1] + WINDOW_NANOS / 2, out[1]);
+
+        assertTrue(MotionDetector.detect(still, gyro, WINDOW_NANOS, out));
+        assertEquals(gyroWindow[0] - WINDOW_NANOS / 2, out[0]);
+        assertEquals(gyroWindow[1] + WINDOW_NANOS / 2, out[1]);
+
+        out[0] = out[1] = -1;
+        assertFalse(MotionDetector.detect(still, still, WINDOW_NANOS, out));
+        assertArrayEquals(new long[]{-1, -1}, out);
+    }
+
+    /**
+     * Asserts that the detected window covers the motion and doesn't stray further than a sliding window from it
+     */
+    private static void assertWindow(DataSet3 data, int motionFrom, int motionTo, long[] out) {
+        final long motionStart = data.times[motionFrom];
+        final long motionEnd = data.times[motionTo - 1];
+        assertTrue("Start " + out[0] + " is after motion start " + motionStart, out[0] <= motionStart);
+        assertTrue("Start " + out[0] + " is too early", out[0] >= motionStart - 2 * WINDOW_NANOS);
+        assertTrue("End " + out[1] + " is before motion end " + motionEnd, out[1] >= motionEnd);
+        assertTrue("End " + out[1] + " is too late", out[1] <= motionEnd + 2 * WINDOW_NANOS);
+    }
+
+    /**
+     * Creates a recording at roughly 200 Hz with timestamp jitter, a gravity-like offset and sensor noise, and a
+     * large oscillation between the given events
+     */
+    private static DataSet3 createDataSet(int length, float noise, float motion, int motionFrom, int motionTo,
+                                          long seed) {
+        Random random = new Random(seed);
+        DataSet3 data = new DataSet3(length);
+        long time = START_NANOS;
+        for (int i = 0; i < length; i++) {
+            data.times[i] = time;
+            time += STEP_NANOS + random.nextInt(1000000) - 500000;
+            float x = (float) (random.nextGaussian() * noise);
+            float y = (float) (random.nextGaussian() * noise);
+            float z = 9.81f + (float) (random.nextGaussian() * noise);
+            if (i >= motionFrom && i < motionTo) {
+                x += motion * (float) Math.sin(i * 0.3);
+                y += motion * (float) Math.cos(i * 0.2);
+            }
+            data.valuesX[i] = x;
+            data.valuesY[i] = y;
+            data.valuesZ[i] = z;
+        }
+        data.length = length;
+        return data;
+    }
+}
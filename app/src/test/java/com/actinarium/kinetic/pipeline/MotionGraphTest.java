@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline;
+
+import android.hardware.Sensor;
+import com.actinarium.kinetic.util.DataSet3;
+import com.actinarium.kinetic.util.DataSet4;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies memoization and invalidation of {@link MotionGraph} stages, and ownership of pooled recording buffers
+ *
+ * @author Paul Danyliuk
+ */
+public class MotionGraphTest {
+
+    private static final int LENGTH = 100;
+
+    private static final float[] GRAVITY = {0f, 0f, 9.81f};
+
+    /**
+     * Two outputs, or 2 * 28 bytes per event
+     */
+    private static final long TWO_OUTPUTS_BYTES = 2 * 28L * LENGTH;
+
+    @Test
+    public void get_repeated_returnsMemoizedOutputs() {
+        MotionGraph graph = createGraph(false, MotionGraph.DEFAULT_CACHE_BYTES);
+        final DataSet3 linear = graph.getLinearAcceleration();
+        final DataSet3 velocity = graph.getVelocity();
+        final DataSet3 offset = graph.getOffset();
+        final DataSet3 phase = graph.getPhase();
+
+        assertSame(linear, graph.getLinearAcceleration());
+        assertSame(velocity, graph.getVelocity());
+        assertSame(offset, graph.getOffset());
+        assertSame(phase, graph.getPhase());
+    }
+
+    @Test
+    public void setGravity_recomputesOnlyGravityDependentStages() {
+        MotionGraph graph = createGraph(false, MotionGraph.DEFAULT_CACHE_BYTES);
+        final DataSet3 linear = graph.getLinearAcceleration();
+        final DataSet3 velocity = graph.getVelocity();
+        final DataSet3 offset = graph.getOffset();
+        final DataSet3 phase = graph.getPhase();
+        final Object timeline = graph.getRotVectorTimeline();
+
+        final float[] gravity = {0.1f, 0f, 9.7f};
+        graph.setGravity(gravity);
+        assertArrayEquals(gravity, graph.getGravity(), 0f);
+        assertNotSame(linear, graph.getLinearAcceleration());
+        assertNotSame(velocity, graph.getVelocity());
+        assertNotSame(offset, graph.getOffset());
+        assertSame(phase, graph.getPhase());
+        assertSame(timeline, graph.getRotVectorTimeline());
+    }
+
+    @Test
+    public void setGravity_hardwareLinearAccel_bypassesGravityStage() {
+        MotionGraph graph = createGraph(true, MotionGraph.DEFAULT_CACHE_BYTES);
+        final DataSet3 offset = graph.getOffset();
+        assertSame(graph.getHardwareLinearAccelData(), graph.getLinearAcceleration());
+
+        graph.setGravity(new float[]{0.1f, 0f, 9.7f});
+        assertSame(offset, graph.getOffset());
+    }
+
+    @Test
+    public void get_overBudget_evictsAndRecomputesSameData() {
+        MotionGraph graph = createGraph(true, TWO_OUTPUTS_BYTES);
+        final DataSet3 velocity = graph.getVelocity();
+        final DataSet3 offset = graph.getOffset();
+
+        // Phase takes the place of least recently used velocity
+        graph.getPhase();
+        assertSame(offset, graph.getOffset());
+        final DataSet3 recomputed = graph.getVelocity();
+        assertNotSame(velocity, recomputed);
+        assertSameData(velocity, recomputed);
+
+        // Recomputing an evicted stage doesn't invalidate stages downstream of it
+        assertSame(offset, graph.getOffset());
+    }
+
+    @Test
+    public void trimMemory_recomputesSameData() {
+        MotionGraph graph = createGraph(false, MotionGraph.DEFAULT_CACHE_BYTES);
+        final DataSet3 offset = graph.getOffset();
+
+        graph.trimMemory();
+        final DataSet3 recomputed = graph.getOffset();
+        assertNotSame(offset, recomputed);
+        assertSameData(offset, recomputed);
+    }
+
+    @Test
+    public void release_pooledBuffer_returnsItAndStopsServingData() {
+        RecordingPool pool = new RecordingPool(1);
+        MotionGraph graph = new MotionGraph(record(pool), pool, new float[]{0f, 0f, 9.81f},
+                MotionGraph.DEFAULT_CACHE_BYTES);
+        assertNotNull(graph.getOffset());
+        assertEquals(1, pool.getInUseCount());
+        assertFalse(graph.isReleased());
+
+        graph.release();
+        assertTrue(graph.isReleased());
+        assertEquals(0, pool.getInUseCount());
+        assertNull(graph.getRawAccelData());
+        assertNull(graph.getLinearAcceleration());
+        assertNull(graph.getOffset());
+        assertNull(graph.getPhase());
+    }
+
+    @Test
+    public void release_whileInUse_keepsBufferUntilUseEnds() {
+        RecordingPool pool = new RecordingPool(1);
+        MotionGraph graph = new MotionGraph(record(pool), pool, new float[]{0f, 0f, 9.81f},
+                MotionGraph.DEFAULT_CACHE_BYTES);
+        assertTrue(graph.beginUse());
+        assertTrue(graph.beginUse());
+        assertTrue(graph.isInUse());
+
+        graph.release();
+        assertTrue(graph.isReleased());
+        assertNull(graph.getOffset());
+        assertEquals(1, pool.getInUseCount());
+        assertFalse(graph.beginUse());
+
+        graph.endUse();
+        assertEquals(1, pool.getInUseCount());
+        graph.endUse();
+        assertFalse(graph.isInUse());
+        assertEquals(0, pool.getInUseCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void endUse_notInUse_throws() {
+        createGraph(false, MotionGraph.DEFAULT_CACHE_BYTES).endUse();
+    }
+
+    @Test
+    public void create_emptyHardwareLinearAccel_removesGravityInSoftware() {
+        RecordingPool pool = new RecordingPool(1);
+        SensorChannels channels = record(pool);
+        channels.add(Sensor.TYPE_LINEAR_ACCELERATION);
+        MotionGraph graph = new MotionGraph(channels, pool, new float[]{0f, 0f, 9.81f},
+                MotionGraph.DEFAULT_CACHE_BYTES);
+
+        assertNull(graph.getHardwareLinearAccelData());
+        assertEquals(LENGTH, graph.getLinearAcceleration().length);
+    }
+
+    private static void assertSameData(DataSet3 expected, DataSet3 actual) {
+        assertEquals(expected.length, actual.length);
+        assertArrayEquals(expected.times, actual.times);
+        assertArrayEquals(expected.valuesX, actual.valuesX, 0f);
+        assertArrayEquals(expected.valuesY, actual.valuesY, 0f);
+        assertArrayEquals(expected.valuesZ, actual.valuesZ, 0f);
+    }
+
+    /**
+     * Creates a graph of the device swaying along X and rocking around Y, without rotating in space
+     */
+    private static MotionGraph createGraph(boolean hasHardwareLinearAccel, long cacheBytes) {
+        DataSet3 accel = new DataSet3(LENGTH);
+        DataSet3 gyro = new DataSet3(LENGTH);
+        DataSet4 rotVector = new DataSet4(LENGTH);
+        DataSet3 linear = new DataSet3(LENGTH);
+        for (int i = 0; i < LENGTH; i++) {
+            final long time = 1000000000L + i * 5000000L;
+            accel.times[i] = gyro.times[i] = rotVector.times[i] = linear.times[i] = time;
+            linear.valuesX[i] = accel.valuesX[i] = (float) Math.sin(i * 0.1);
+            accel.valuesZ[i] = 9.81f;
+            gyro.valuesY[i] = (float) Math.cos(i * 0.1);
+            rotVector.values4[i] = 1f;
+        }
+        accel.length = gyro.length = rotVector.length = linear.length = LENGTH;
+        return new MotionGraph(accel, gyro, rotVector, hasHardwareLinearAccel ? linear : null, GRAVITY, cacheBytes);
+    }
+
+    /**
+     * Records the device lying still and level for half a second
+     */
+    private static SensorChannels record(RecordingPool pool) {
+        SensorChannels channels = pool.acquire(LENGTH);
+        channels.add(Sensor.TYPE_ACCELEROMETER);
+        channels.add(Sensor.TYPE_GYROSCOPE);
+        channels.add(Sensor.TYPE_ROTATION_VECTOR);
+        for (int i = 0; i < LENGTH; i++) {
+            final long time = i * 5000000L;
+            channels.put(0, time, new float[]{0f, 0f, 9.81f});
+            channels.put(1, time, new float[]{0f, 0f, 0f});
+            channels.put(2, time, new float[]{0f, 0f, 0f, 1f, 0f});
+        }
+        return channels;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline;
+
+import android.hardware.Sensor;
+import com.actinarium.kinetic.pipeline.source.TestTraces;
+import com.actinarium.kinetic.util.DataSet3;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Verifies that {@link ParallelIntegrator} matches sequential {@link DataTransformer#integrate(DataSet3, DataSet3)}
+ *
+ * @author Paul Danyliuk
+ */
+public class ParallelIntegratorTest {
+
+    private static final int PARALLELISM = 4;
+    private static final int THRESHOLD = 1000;
+
+    /**
+     * Blocks are summed in a different order, and rounding error of a float running sum over a couple hundred
+     * thousand samples is already around 1e-5 of its magnitude
+     */
+    private static final float RELATIVE_TOLERANCE = 1e-4f;
+
+    private static ExecutorService sExecutor;
+
+    @BeforeClass
+    public static void setUp() {
+        sExecutor = Executors.newFixedThreadPool(PARALLELISM);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        sExecutor.shutdownNow();
+    }
+
+    @Test
+    public void integrate_longDataSet_matchesSequential() {
+        verify(new ParallelIntegrator(sExecutor, PARALLELISM, THRESHOLD), 200003, false);
+    }
+
+    @Test
+    public void integrate_inPlace_matchesSequential() {
+        verify(new ParallelIntegrator(sExecutor, PARALLELISM, THRESHOLD), 200003, true);
+    }
+
+    @Test
+    public void integrate_moreBlocksThanCores_matchesSequential() {
+        verify(new ParallelIntegrator(sExecutor, PARALLELISM * 3, THRESHOLD), 10007, false);
+    }
+
+    @Test
+    public void integrate_belowThreshold_isSequential() {
+        DataSet3 input = createDataSet(THRESHOLD - 1, 0);
+        DataSet3 expected = new DataSet3(input.length);
+        DataTransformer.integrate(input, expected);
+        DataSet3 actual = new DataSet3(input.length);
+        new ParallelIntegrator(sExecutor, PARALLELISM, THRESHOLD).integrate(input, actual);
+
+        assertArrayEquals(expected.valuesX, actual.valuesX, 0f);
+        assertArrayEquals(expected.valuesY, actual.valuesY, 0f);
+        assertArrayEquals(expected.valuesZ, actual.valuesZ, 0f);
+    }
+
+    private static void verify(ParallelIntegrator integrator, int length, boolean inPlace) {
+        DataSet3 input = createDataSet(length, length);
+        DataSet3 expected = new DataSet3(length);
+        DataTransformer.integrate(input, expected);
+
+        final DataSet3 actual;
+        if (inPlace) {
+            actual = input;
+        } else {
+            actual = new DataSet3(length);
+        }
+        integrator.integrate(input, actual);
+
+        assertEquals(length, actual.length);
+        assertArrayEquals(expected.times, actual.times);
+        assertClose(expected.valuesX, actual.valuesX, length);
+        assertClose(expected.valuesY, actual.valuesY, length);
+        assertClose(expected.valuesZ, actual.valuesZ, length);
+    }
+
+    private static void assertClose(float[] expected, float[] actual, int length) {
+        float magnitude = 1f;
+        for (int i = 0; i < length; i++) {
+            magnitude = Math.max(magnitude, Math.abs(expected[i]));
+        }
+        final float tolerance = magnitude * RELATIVE_TOLERANCE;
+        for (int i = 0; i < length; i++) {
+            assertEquals("Sample " + i, expected[i], actual[i], tolerance);
+        }
+    }
+
+    /**
+     * Creates a noisy signal with a drift, so that integrated values keep growing
+     */
+    private static DataSet3 createDataSet(int length, long seed) {
+        return TestTraces.createDataSet(Sensor.TYPE_ACCELEROMETER, length, new Random(seed), new TestTraces.Shape() {
+            @Override
+            public void getValues(int sensorType, int index, Random random, float[] values) {
+                values[0] = (float) random.nextGaussian();
+                values[1] = (float) (random.nextGaussian() + 0.1);
+                values[2] = (float) Math.sin(index * 0.01);
+            }
+        });
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline;
+
+import com.actinarium.kinetic.util.DataSet3;
+import com.actinarium.kinetic.util.DataSet4;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Verifies that {@link PipelineMetrics} keeps tracer sections balanced and that instrumented {@link MotionGraph}
+ * stages run on a plain JVM
+ *
+ * @author Paul Danyliuk
+ */
+public class PipelineMetricsTest {
+
+    private static final int LENGTH = 100;
+
+    private RecordingTracer mTracer;
+
+    @Before
+    public void setUp() {
+        PipelineMetrics.reset();
+        mTracer = new RecordingTracer();
+        PipelineMetrics.setTracer(mTracer);
+    }
+
+    @After
+    public void tearDown() {
+        PipelineMetrics.setTracer(null);
+        PipelineMetrics.reset();
+    }
+
+    @Test
+    public void end_stageThrows_sectionIsClosed() {
+        try {
+            final long start = PipelineMetrics.begin(PipelineMetrics.STAGE_GRAVITY);
+            try {
+                throw new IllegalStateException();
+            } finally {
+                PipelineMetrics.end(PipelineMetrics.STAGE_GRAVITY, start, 0);
+            }
+        } catch (IllegalStateException expected) {
+            // Expected
+        }
+
+        assertEquals(0, mTracer.mDepth);
+        assertEquals(1, mTracer.mSections.size());
+        assertEquals(1, PipelineMetrics.getStats().size());
+    }
+
+    @Test
+    public void motionGraph_withoutTracer_collectsStats() {
+        PipelineMetrics.setTracer(null);
+        createGraph().getOffset();
+
+        assertTrue(mTracer.mSections.isEmpty());
+        assertTrue(PipelineMetrics.getStats().size() >= 3);
+    }
+
+    @Test
+    public void motionGraph_computesStages_tracesEachStage() {
+        createGraph().getPhase();
+        createGraph().getOffset();
+
+        assertEquals(0, mTracer.mDepth);
+        assertTrue(mTracer.mSections.contains(PipelineMetrics.STAGE_TIMELINE));
+        assertTrue(mTracer.mSections.contains(PipelineMetrics.STAGE_GRAVITY));
+        assertTrue(mTracer.mSections.contains(PipelineMetrics.STAGE_VELOCITY));
+        assertTrue(mTracer.mSections.contains(PipelineMetrics.STAGE_OFFSET));
+        assertTrue(mTracer.mSections.contains(PipelineMetrics.STAGE_PHASE));
+        for (PipelineMetrics.StageStats stats : PipelineMetrics.getStats()) {
+            assertTrue(stats.getName(), stats.getCount() > 0);
+        }
+    }
+
+    private static MotionGraph createGraph() {
+        DataSet3 accel = new DataSet3(LENGTH);
+        DataSet3 gyro = new DataSet3(LENGTH);
+        DataSet4 rotVector = new DataSet4(LENGTH);
+        for (int i = 0; i < LENGTH; i++) {
+            final long time = 1000000000L + i * 5000000L;
+            accel.times[i] = gyro.times[i] = rotVector.times[i] = time;
+            accel.valuesZ[i] = 9.81f;
+            accel.valuesX[i] = (float) Math.sin(i * 0.1);
+            gyro.valuesY[i] = (float) Math.cos(i * 0.1);
+            // Identity rotation
+            rotVector.values4[i] = 1f;
+        }
+        accel.length = gyro.length = rotVector.length = LENGTH;
+        return new MotionGraph(accel, gyro, rotVector, new float[]{0, 0, 9.81f});
+    }
+
+    /**
+     * Remembers begun sections and checks that they're properly nested
+     */
+    private static final class RecordingTracer implements PipelineMetrics.Tracer {
+
+        private final List<String> mSections = new ArrayList<>();
+        private int mDepth;
+
+        @Override
+        public void beginSection(String stage) {
+            mSections.add(stage);
+            mDepth++;
+        }
+
+        @Override
+        public void endSection() {
+            if (mDepth == 0) {
+                fail("Section ended without being begun");
+            }
+            mDepth--;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline;
+
+import android.hardware.Sensor;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Verifies that {@link RecordingPool} hands out free buffers before allocating and keeps the most useful ones
+ *
+ * @author Paul Danyliuk
+ */
+public class RecordingPoolTest {
+
+    @Test
+    public void acquire_freeBuffer_isReusedAndReset() {
+        RecordingPool pool = new RecordingPool(2);
+        SensorChannels buffer = pool.acquire(100);
+        buffer.add(Sensor.TYPE_ACCELEROMETER);
+        buffer.put(0, 1000L, new float[]{1f, 2f, 3f});
+        pool.release(buffer);
+        assertEquals(0, pool.getInUseCount());
+
+        // A smaller request fits into the same buffer
+        assertSame(buffer, pool.acquire(50));
+        assertEquals(1, pool.getInUseCount());
+        assertEquals(0, buffer.get(Sensor.TYPE_ACCELEROMETER).length);
+    }
+
+    @Test
+    public void acquire_freeBufferTooSmall_allocates() {
+        RecordingPool pool = new RecordingPool(2);
+        SensorChannels small = pool.acquire(100);
+        pool.release(small);
+
+        SensorChannels large = pool.acquire(200);
+        assertNotSame(small, large);
+        assertEquals(200, large.getDataSize());
+        assertEquals(1, pool.getInUseCount());
+
+        // Both are kept, since the pool had room for the second one
+        assertSame(small, pool.acquire(100));
+        pool.release(large);
+        assertSame(large, pool.acquire(150));
+    }
+
+    @Test
+    public void release_overflowBuffer_replacesSmallerFreeOne() {
+        RecordingPool pool = new RecordingPool(1);
+        SensorChannels small = pool.acquire(100);
+        SensorChannels overflow = pool.acquire(200);
+        assertNotSame(small, overflow);
+        // Not counted while the pool is full
+        assertEquals(1, pool.getInUseCount());
+
+        pool.release(small);
+        pool.release(overflow);
+        assertEquals(0, pool.getInUseCount());
+        assertSame(overflow, pool.acquire(100));
+        assertEquals(1, pool.getInUseCount());
+    }
+
+    @Test
+    public void release_overflowBufferNotLarger_isDropped() {
+        RecordingPool pool = new RecordingPool(1);
+        SensorChannels kept = pool.acquire(200);
+        SensorChannels overflow = pool.acquire(100);
+        pool.release(kept);
+        pool.release(overflow);
+
+        assertSame(kept, pool.acquire(100));
+        assertNotSame(overflow, pool.acquire(100));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void release_twice_throws() {
+        RecordingPool pool = new RecordingPool(2);
+        SensorChannels buffer = pool.acquire(100);
+        pool.release(buffer);
+        pool.release(buffer);
+    }
+}
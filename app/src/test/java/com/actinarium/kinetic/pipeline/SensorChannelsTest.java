@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline;
+
+import android.hardware.Sensor;
+import com.actinarium.kinetic.util.DataSet3;
+import com.actinarium.kinetic.util.DataSet4;
+import com.actinarium.kinetic.util.DataSetN;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that {@link SensorChannels} routes readings to per-sensor data sets and keeps all reported values
+ *
+ * @author Paul Danyliuk
+ */
+public class SensorChannelsTest {
+
+    @Test
+    public void put_uncalibratedGyroscope_recordsBiasAsExtras() {
+        SensorChannels channels = new SensorChannels(10);
+        channels.add(Sensor.TYPE_GYROSCOPE_UNCALIBRATED);
+        assertTrue(channels.put(0, 100, new float[]{1f, 2f, 3f, 0.1f, 0.2f, 0.3f}));
+
+        DataSet3 data = channels.get(Sensor.TYPE_GYROSCOPE_UNCALIBRATED);
+        assertEquals(1, data.length);
+        assertEquals(3f, data.valuesZ[0], 0f);
+        DataSetN extras = channels.getExtras(Sensor.TYPE_GYROSCOPE_UNCALIBRATED);
+        assertEquals(3, extras.getChannels());
+        assertEquals(1, extras.getLength());
+        assertEquals(100, extras.getTime(0));
+        assertEquals(0.1f, extras.get(0, 0), 0f);
+        assertEquals(0.3f, extras.get(0, 2), 0f);
+    }
+
+    @Test
+    public void put_rotationVectorWithoutAccuracy_recordsNaN() {
+        SensorChannels channels = new SensorChannels(10);
+        channels.add(Sensor.TYPE_ROTATION_VECTOR);
+        assertTrue(channels.put(0, 100, new float[]{0f, 0f, 0.6f, 0.8f, 0.05f}));
+        assertTrue(channels.put(0, 200, new float[]{0f, 0f, 0.8f, 0.6f}));
+
+        DataSet4 data = (DataSet4) channels.get(Sensor.TYPE_ROTATION_VECTOR);
+        assertEquals(2, data.length);
+        assertEquals(0.6f, data.values4[1], 0f);
+        DataSetN extras = channels.getExtras(Sensor.TYPE_ROTATION_VECTOR);
+        assertEquals(2, extras.getLength());
+        assertEquals(0.05f, extras.get(0, 0), 0f);
+        assertTrue(Float.isNaN(extras.get(1, 0)));
+    }
+
+    @Test
+    public void getExtras_axesOnlySensor_isNull() {
+        SensorChannels channels = new SensorChannels(10);
+        channels.add(Sensor.TYPE_ACCELEROMETER);
+        assertNull(channels.getExtras(Sensor.TYPE_ACCELEROMETER));
+        assertNull(channels.getExtras(Sensor.TYPE_GYROSCOPE));
+    }
+
+    @Test
+    public void put_overflow_keepsExtrasAligned() {
+        SensorChannels channels = new SensorChannels(2);
+        channels.add(Sensor.TYPE_MAGNETIC_FIELD_UNCALIBRATED);
+        final float[] values = {1f, 2f, 3f, 4f, 5f, 6f};
+        assertTrue(channels.put(0, 1, values));
+        assertTrue(channels.put(0, 2, values));
+        assertFalse(channels.put(0, 3, values));
+        assertEquals(2, channels.getExtras(Sensor.TYPE_MAGNETIC_FIELD_UNCALIBRATED).getLength());
+
+        channels.reset();
+        assertEquals(0, channels.get(Sensor.TYPE_MAGNETIC_FIELD_UNCALIBRATED).length);
+        assertEquals(0, channels.getExtras(Sensor.TYPE_MAGNETIC_FIELD_UNCALIBRATED).getLength());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setFilter_rotationVector_throws() {
+        SensorChannels channels = new SensorChannels(10);
+        channels.add(Sensor.TYPE_ROTATION_VECTOR);
+        channels.setFilter(Sensor.TYPE_ROTATION_VECTOR,
+                new FilterBank(3, Biquad.lowPass(200f, 20f, Biquad.BUTTERWORTH_Q)));
+    }
+
+    @Test
+    public void put_withFilter_filtersAxesOnly() {
+        SensorChannels channels = new SensorChannels(100);
+        channels.add(Sensor.TYPE_GYROSCOPE_UNCALIBRATED);
+        channels.setFilter(Sensor.TYPE_GYROSCOPE_UNCALIBRATED,
+                new FilterBank(3, Biquad.lowPass(200f, 20f, Biquad.BUTTERWORTH_Q)));
+        for (int i = 0; i < 100; i++) {
+            // Alternating at Nyquist rate, which the low-pass filter removes altogether
+            final float sign = i % 2 == 0 ? 1f : -1f;
+            channels.put(0, i, new float[]{sign, 1f + sign, 2f, sign, sign, sign});
+        }
+
+        DataSet3 data = channels.get(Sensor.TYPE_GYROSCOPE_UNCALIBRATED);
+        DataSetN extras = channels.getExtras(Sensor.TYPE_GYROSCOPE_UNCALIBRATED);
+        assertEquals(0f, data.valuesX[99], 1e-3f);
+        assertEquals(1f, data.valuesY[99], 1e-3f);
+        assertEquals(2f, data.valuesZ[99], 1e-3f);
+        assertEquals(-1f, extras.get(99, 0), 0f);
+    }
+
+    @Test
+    public void add_manySensors_growsRegistry() {
+        SensorChannels channels = new SensorChannels(10);
+        final int[] types = {
+                Sensor.TYPE_ACCELEROMETER, Sensor.TYPE_GYROSCOPE, Sensor.TYPE_ROTATION_VECTOR,
+                Sensor.TYPE_LINEAR_ACCELERATION, Sensor.TYPE_GYROSCOPE_UNCALIBRATED, Sensor.TYPE_MAGNETIC_FIELD
+        };
+        for (int type : types) {
+            assertTrue(channels.add(type));
+        }
+        assertFalse(channels.add(Sensor.TYPE_GYROSCOPE));
+        assertEquals(types.length, channels.size());
+        for (int i = 0; i < types.length; i++) {
+            assertEquals(i, channels.indexOf(types[i]));
+        }
+        assertEquals(3, channels.getExtras(Sensor.TYPE_GYROSCOPE_UNCALIBRATED).getChannels());
+    }
+
+    @Test
+    public void retainAll_otherSensorsRegistered_keepsOnlyProvidedInOrder() {
+        SensorChannels channels = new SensorChannels(10);
+        channels.add(Sensor.TYPE_ACCELEROMETER);
+        channels.add(Sensor.TYPE_LINEAR_ACCELERATION);
+        channels.add(Sensor.TYPE_GYROSCOPE);
+        final DataSet3 gyro = channels.get(Sensor.TYPE_GYROSCOPE);
+
+        channels.retainAll(new int[]{Sensor.TYPE_GYROSCOPE, Sensor.TYPE_ACCELEROMETER, Sensor.TYPE_ROTATION_VECTOR});
+        assertEquals(2, channels.size());
+        assertEquals(Sensor.TYPE_ACCELEROMETER, channels.getType(0));
+        assertEquals(Sensor.TYPE_GYROSCOPE, channels.getType(1));
+        assertFalse(channels.has(Sensor.TYPE_LINEAR_ACCELERATION));
+        assertSame(gyro, channels.get(Sensor.TYPE_GYROSCOPE));
+        assertFalse(channels.add(Sensor.TYPE_GYROSCOPE));
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline;
+
+import android.hardware.Sensor;
+import com.actinarium.kinetic.util.DataSet3;
+import com.actinarium.kinetic.util.DataSet4;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that {@link SensorRing} keeps the latest readings and copies a time window out in order
+ *
+ * @author Paul Danyliuk
+ */
+public class SensorRingTest {
+
+    private static final int[] TYPES = {Sensor.TYPE_ACCELEROMETER, Sensor.TYPE_ROTATION_VECTOR};
+    private static final long PERIOD = 5000000L;
+
+    @Test
+    public void copyTo_afterWrapAround_copiesWindowInOrder() {
+        SensorRing ring = new SensorRing(TYPES, 100);
+        fill(ring, 250);
+        SensorChannels target = createTarget(100);
+
+        // Window covers the last 40 periods, i.e. 41 readings
+        assertTrue(ring.copyTo(target, 40 * PERIOD));
+        DataSet3 accel = target.get(Sensor.TYPE_ACCELEROMETER);
+        DataSet4 rotation = (DataSet4) target.get(Sensor.TYPE_ROTATION_VECTOR);
+        assertEquals(41, accel.length);
+        assertEquals(41, rotation.length);
+        for (int i = 0; i < 41; i++) {
+            final int reading = 209 + i;
+            assertEquals(reading * PERIOD, accel.times[i]);
+            assertEquals(reading, accel.valuesX[i], 0f);
+            assertEquals(-reading, accel.valuesZ[i], 0f);
+            assertEquals(reading * 0.5f, rotation.values4[i], 0f);
+        }
+    }
+
+    @Test
+    public void copyTo_windowLongerThanBuffer_copiesAllBufferedAndReportsTruncation() {
+        SensorRing ring = new SensorRing(TYPES, 100);
+        fill(ring, 150);
+        SensorChannels target = createTarget(200);
+
+        assertFalse(ring.copyTo(target, 1000 * PERIOD));
+        DataSet3 accel = target.get(Sensor.TYPE_ACCELEROMETER);
+        assertEquals(100, accel.length);
+        assertEquals(50 * PERIOD, accel.times[0]);
+        assertEquals(149 * PERIOD, accel.times[99]);
+    }
+
+    @Test
+    public void copyTo_windowLongerThanBufferNotWrapped_isComplete() {
+        SensorRing ring = new SensorRing(TYPES, 100);
+        fill(ring, 100);
+        SensorChannels target = createTarget(100);
+
+        assertTrue(ring.copyTo(target, 1000 * PERIOD));
+        assertEquals(100, target.get(Sensor.TYPE_ACCELEROMETER).length);
+    }
+
+    @Test
+    public void copyTo_targetTooSmall_keepsLatestAndReportsTruncation() {
+        SensorRing ring = new SensorRing(TYPES, 100);
+        fill(ring, 100);
+        SensorChannels target = createTarget(30);
+
+        assertFalse(ring.copyTo(target, 1000 * PERIOD));
+        DataSet3 accel = target.get(Sensor.TYPE_ACCELEROMETER);
+        assertEquals(30, accel.length);
+        assertEquals(70 * PERIOD, accel.times[0]);
+        assertEquals(99 * PERIOD, accel.times[29]);
+        assertEquals(30, target.get(Sensor.TYPE_ROTATION_VECTOR).length);
+    }
+
+    @Test
+    public void getReadingAt_findsLatestNotAfterTime() {
+        SensorRing ring = new SensorRing(TYPES, 100);
+        float[] out = new float[3];
+        assertFalse(ring.getReadingAt(0, 0, out));
+
+        fill(ring, 150);
+        assertTrue(ring.getReadingAt(0, 120 * PERIOD + 1, out));
+        assertEquals(120, out[0], 0f);
+        assertTrue(ring.getReadingAt(0, 1000 * PERIOD, out));
+        assertEquals(149, out[0], 0f);
+
+        // Readings before 50 have been overwritten, so the oldest one is the best guess
+        assertTrue(ring.getReadingAt(0, 10 * PERIOD, out));
+        assertEquals(50, out[0], 0f);
+    }
+
+    @Test
+    public void copyTo_emptyRing_leavesTargetEmpty() {
+        SensorRing ring = new SensorRing(TYPES, 100);
+        SensorChannels target = createTarget(100);
+        target.put(0, 0, new float[3]);
+
+        assertTrue(ring.copyTo(target, 1000 * PERIOD));
+        assertEquals(0, target.get(Sensor.TYPE_ACCELEROMETER).length);
+        assertEquals(Long.MIN_VALUE, ring.getLatestTime());
+    }
+
+    private static void fill(SensorRing ring, int count) {
+        float[] values = new float[4];
+        for (int i = 0; i < count; i++) {
+            values[0] = i;
+            values[1] = i + 1;
+            values[2] = -i;
+            values[3] = i * 0.5f;
+            ring.put(0, i * PERIOD, values);
+            ring.put(1, i * PERIOD, values);
+        }
+    }
+
+    private static SensorChannels createTarget(int dataSize) {
+        SensorChannels target = new SensorChannels(dataSize);
+        for (int type : TYPES) {
+            target.add(type);
+        }
+        return target;
+    }
+}
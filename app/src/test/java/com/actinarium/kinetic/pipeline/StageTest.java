@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Verifies memoization, invalidation and eviction of {@link Stage} outputs in a {@link StageCache}
+ *
+ * @author Paul Danyliuk
+ */
+public class StageTest {
+
+    private static final long SIZE = 100;
+
+    @Test
+    public void get_repeated_computesOnce() {
+        StageCache cache = new StageCache(1000);
+        CountingStage root = new CountingStage(cache);
+        CountingStage stage = new CountingStage(cache, root);
+
+        final Object output = stage.get();
+        assertSame(output, stage.get());
+        assertEquals(1, stage.mComputeCount);
+        assertEquals(1, root.mComputeCount);
+        assertEquals(2 * SIZE, cache.getSize());
+    }
+
+    @Test
+    public void invalidate_recomputesOnlyDownstream() {
+        StageCache cache = new StageCache(1000);
+        CountingStage root = new CountingStage(cache);
+        CountingStage changed = new CountingStage(cache, root);
+        CountingStage downstream = new CountingStage(cache, changed);
+        CountingStage sibling = new CountingStage(cache, root);
+        downstream.get();
+        sibling.get();
+
+        changed.invalidate();
+        downstream.get();
+        sibling.get();
+        assertEquals(1, root.mComputeCount);
+        assertEquals(2, changed.mComputeCount);
+        assertEquals(2, downstream.mComputeCount);
+        assertEquals(1, sibling.mComputeCount);
+
+        // Stale outputs are dropped rather than kept alongside new ones
+        assertEquals(4 * SIZE, cache.getSize());
+    }
+
+    @Test
+    public void put_overBudget_evictsLeastRecentlyUsed() {
+        StageCache cache = new StageCache(2 * SIZE + SIZE / 2);
+        CountingStage first = new CountingStage(cache);
+        CountingStage second = new CountingStage(cache);
+        CountingStage third = new CountingStage(cache);
+        first.get();
+        second.get();
+        first.get();
+        third.get();
+
+        assertEquals(2 * SIZE, cache.getSize());
+        first.get();
+        third.get();
+        assertEquals(1, first.mComputeCount);
+        assertEquals(1, third.mComputeCount);
+        second.get();
+        assertEquals(2, second.mComputeCount);
+    }
+
+    @Test
+    public void get_inputEvicted_recomputesInputOnly() {
+        // Room for two outputs, so computing the leaf evicts the root
+        StageCache cache = new StageCache(2 * SIZE + SIZE / 2);
+        CountingStage root = new CountingStage(cache);
+        CountingStage middle = new CountingStage(cache, root);
+        CountingStage leaf = new CountingStage(cache, middle);
+        final Object output = leaf.get();
+
+        root.get();
+        assertEquals(2, root.mComputeCount);
+
+        // Recomputing an evicted input doesn't change its revision, so downstream output is still valid
+        assertSame(output, leaf.get());
+        assertEquals(1, middle.mComputeCount);
+        assertEquals(1, leaf.mComputeCount);
+    }
+
+    @Test
+    public void put_outputOverBudget_isKept() {
+        StageCache cache = new StageCache(SIZE / 2);
+        CountingStage stage = new CountingStage(cache);
+        final Object output = stage.get();
+
+        assertSame(output, stage.get());
+        assertEquals(SIZE, cache.getSize());
+    }
+
+    @Test
+    public void clear_recomputesOnNextGet() {
+        StageCache cache = new StageCache(1000);
+        CountingStage stage = new CountingStage(cache);
+        final Object output = stage.get();
+
+        cache.clear();
+        assertEquals(0, cache.getSize());
+        assertNotSame(output, stage.get());
+        assertEquals(2, stage.mComputeCount);
+    }
+
+    /**
+     * Stage producing a new object of fixed size from its inputs each time it's computed
+     */
+    private static final class CountingStage extends Stage<Object> {
+
+        private final Stage<?>[] mInputs;
+        private int mComputeCount;
+
+        CountingStage(StageCache cache, Stage<?>... inputs) {
+            super(cache, inputs);
+            mInputs = inputs;
+        }
+
+        @Override
+        protected Object compute() {
+            mComputeCount++;
+            for (Stage<?> input : mInputs) {
+                input.get();
+            }
+            return new Object();
+        }
+
+        @Override
+        protected long sizeOf(Object output) {
+            return SIZE;
+        }
+    }
+}
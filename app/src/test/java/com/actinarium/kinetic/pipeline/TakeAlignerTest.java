@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline;
+
+import com.actinarium.kinetic.util.DataSet3;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that {@link TakeAligner} finds the lag between takes of the same motion and averages them
+ *
+ * @author Paul Danyliuk
+ */
+public class TakeAlignerTest {
+
+    private static final long PERIOD = 5000000L;
+    private static final long MAX_DURATION = 3000000000L;
+    private static final long MAX_LAG = 500000000L;
+
+    @Test
+    public void findLag_delayedTake_isPositive() {
+        TakeAligner aligner = new TakeAligner(PERIOD, MAX_DURATION);
+        DataSet3 reference = createTake(2000000000L, 0, 0.02f, 1);
+        DataSet3 take = createTake(2000000000L, 150000000L, 0.02f, 2);
+        assertEquals(150000000L, aligner.findLag(reference, take, MAX_LAG), PERIOD);
+    }
+
+    @Test
+    public void findLag_earlyTake_isNegative() {
+        TakeAligner aligner = new TakeAligner(PERIOD, MAX_DURATION);
+        DataSet3 reference = createTake(2000000000L, 0, 0.02f, 1);
+        DataSet3 take = createTake(2000000000L, -230000000L, 0.02f, 2);
+        assertEquals(-230000000L, aligner.findLag(reference, take, MAX_LAG), PERIOD);
+    }
+
+    @Test
+    public void findLag_beyondMaxLag_staysWithinBounds() {
+        TakeAligner aligner = new TakeAligner(PERIOD, MAX_DURATION);
+        DataSet3 reference = createTake(2000000000L, 0, 0f, 1);
+        DataSet3 take = createTake(2000000000L, 400000000L, 0f, 2);
+        assertTrue(Math.abs(aligner.findLag(reference, take, 100000000L)) <= 100000000L);
+    }
+
+    @Test
+    public void findLag_emptyTake_isZero() {
+        TakeAligner aligner = new TakeAligner(PERIOD, MAX_DURATION);
+        DataSet3 reference = createTake(2000000000L, 0, 0.02f, 1);
+        assertEquals(0, aligner.findLag(reference, new DataSet3(10), MAX_LAG));
+        assertEquals(0, aligner.findLag(new DataSet3(10), reference, MAX_LAG));
+    }
+
+    @Test
+    public void average_reducesNoise() {
+        TakeAligner aligner = new TakeAligner(PERIOD, MAX_DURATION);
+        final float noise = 0.2f;
+        DataSet3[] takes = {
+                createTake(2000000000L, 0, noise, 1),
+                createTake(2000000000L, 120000000L, noise, 2),
+                createTake(2000000000L, -80000000L, noise, 3),
+                createTake(2000000000L, 40000000L, noise, 4),
+                new DataSet3(10)
+        };
+        DataSet3 averaged = aligner.average(takes, MAX_LAG);
+        DataSet3 clean = createTake(2000000000L, 0, 0f, 1);
+
+        assertEquals(takes[0].times[0], averaged.times[0]);
+        final double singleError = rmsError(takes[0], clean);
+        final double averagedError = rmsError(averaged, clean);
+        // Averaging four takes halves noise, give or take
+        assertTrue("Averaged error " + averagedError + " vs single take " + singleError,
+                averagedError < singleError * 0.65);
+
+        // Repeated calls reuse buffers and give the same result
+        DataSet3 again = aligner.average(takes, MAX_LAG);
+        for (int i = 0; i < averaged.length; i++) {
+            assertEquals(averaged.valuesX[i], again.valuesX[i], 0f);
+        }
+    }
+
+    @Test
+    public void average_emptyReference_isEmpty() {
+        TakeAligner aligner = new TakeAligner(PERIOD, MAX_DURATION);
+        DataSet3[] takes = {new DataSet3(10), createTake(2000000000L, 0, 0.02f, 1)};
+        assertEquals(0, aligner.average(takes, MAX_LAG).length);
+    }
+
+    /**
+     * Creates a take of a motion made of two pulses of different widths on each axis, with jittery timestamps
+     *
+     * @param duration Take duration in nanos
+     * @param delay    How much later than in the reference take the motion happens, relative to the take start
+     * @param noise    Standard deviation of noise added to values
+     * @param seed     Seed for noise and jitter
+     */
+    private static DataSet3 createTake(long duration, long delay, float noise, long seed) {
+        Random random = new Random(seed);
+        final int length = (int) (duration / PERIOD) + 1;
+        DataSet3 take = new DataSet3(length);
+        final long start = seed * 10000000000L;
+        for (int i = 0; i < length; i++) {
+            final long offset = i * PERIOD + (i == 0 ? 0 : random.nextInt(1000000) - 500000);
+            final double t = (offset - delay) / 1e9;
+            take.times[i] = start + offset;
+            take.valuesX[i] = (float) (pulse(t, 0.8, 0.05) - pulse(t, 1.1, 0.1) + random.nextGaussian() * noise);
+            take.valuesY[i] = (float) (0.5 * pulse(t, 0.9, 0.08) + random.nextGaussian() * noise);
+            take.valuesZ[i] = (float) (9.81 + 0.3 * pulse(t, 1.2, 0.04) + random.nextGaussian() * noise);
+        }
+        take.length = length;
+        return take;
+    }
+
+    private static double pulse(double t, double center, double width) {
+        final double x = (t - center) / width;
+        return Math.exp(-x * x);
+    }
+
+    /**
+     * RMS difference of X values over the middle of the take, resampling the clean take at given timestamps
+     */
+    private static double rmsError(DataSet3 actual, DataSet3 clean) {
+        final long cleanStart = clean.times[0];
+        final long actualStart = actual.times[0];
+        float[] values = new float[3];
+        double sum = 0;
+        int count = 0;
+        for (int i = actual.length / 4; i < actual.length * 3 / 4; i++) {
+            clean.getForTime(actual.times[i] - actualStart + cleanStart, values);
+            final double diff = actual.valuesX[i] - values[0];
+            sum += diff * diff;
+            count++;
+        }
+        return Math.sqrt(sum / count);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline.source;
+
+import android.hardware.Sensor;
+import com.actinarium.kinetic.util.DataSet3;
+import com.actinarium.kinetic.util.DataSet4;
+
+import java.util.Random;
+
+/**
+ * Generates synthetic recordings for tests: each sensor is sampled at roughly 200 Hz with jitter on its own timeline,
+ * and values come from a {@link Shape}. Recordings are reproducible for the same seed. Also compiled into the tests of
+ * the command line tool.
+ *
+ * @author Paul Danyliuk
+ */
+public final class TestTraces {
+
+    public static final long START_NANOS = 1000000000L;
+    public static final long PERIOD_NANOS = 5000000L;
+    public static final long JITTER_NANOS = 1000000L;
+    public static final float[] GRAVITY = {0, 0, 9.81f};
+
+    /**
+     * Accelerometer, gyroscope and rotation vector, as required to compute motion
+     */
+    public static final int[] REQUIRED_TYPES = {
+            Sensor.TYPE_ACCELEROMETER, Sensor.TYPE_GYROSCOPE, Sensor.TYPE_ROTATION_VECTOR
+    };
+
+    /**
+     * Gaussian noise on all axes, with gravity on Z, and a uniformly random fourth value
+     */
+    public static final Shape NOISE = new Shape() {
+        @Override
+        public void getValues(int sensorType, int index, Random random, float[] values) {
+            values[0] = (float) random.nextGaussian();
+            values[1] = (float) random.nextGaussian();
+            values[2] = (float) random.nextGaussian() + 9.81f;
+            if (values.length == 4) {
+                values[3] = random.nextFloat();
+            }
+        }
+    };
+
+    /**
+     * Private constructor, to prevent instantiation
+     */
+    private TestTraces() {}
+
+    /**
+     * Creates a trace with {@link #GRAVITY}
+     *
+     * @param types  Sensor types to record, each gets its own timeline
+     * @param length Number of samples of each sensor
+     * @param seed   Seed of timestamp jitter and of noise in values
+     * @param shape  Shape of values
+     * @return A new trace
+     */
+    public static TraceFile createTrace(int[] types, int length, long seed, Shape shape) {
+        Random random = new Random(seed);
+        DataSet3[] data = new DataSet3[types.length];
+        for (int i = 0; i < types.length; i++) {
+            data[i] = createDataSet(types[i], length, random, shape);
+        }
+        return new TraceFile(GRAVITY.clone(), types.clone(), data);
+    }
+
+    /**
+     * Creates a data set of a single sensor
+     *
+     * @param sensorType Sensor type, which makes it a {@link DataSet4} for rotation vectors
+     * @param length     Number of samples
+     * @param random     Source of timestamp jitter and of noise in values
+     * @param shape      Shape of values
+     * @return A new data set of given length
+     */
+    public static DataSet3 createDataSet(int sensorType, int length, Random random, Shape shape) {
+        final boolean isRotation = sensorType == Sensor.TYPE_ROTATION_VECTOR;
+        final DataSet3 dataSet = isRotation ? new DataSet4(length) : new DataSet3(length);
+        final float[] values = new float[isRotation ? 4 : 3];
+        long time = START_NANOS + random.nextInt((int) PERIOD_NANOS);
+        for (int i = 0; i < length; i++) {
+            time += PERIOD_NANOS + random.nextInt((int) JITTER_NANOS) - JITTER_NANOS / 2;
+            shape.getValues(sensorType, i, random, values);
+            dataSet.put(time, values);
+        }
+        return dataSet;
+    }
+
+    /**
+     * Produces sensor values of synthetic recordings
+     */
+    public interface Shape {
+
+        /**
+         * Computes values of a sample. Called for each sensor in turn, in order of samples
+         *
+         * @param sensorType Sensor type
+         * @param index      Index of the sample
+         * @param random     Source of noise
+         * @param values     Array to fill, of 4 values for rotation vectors and of 3 otherwise. Holds values of the
+         *                   previous sample of the same sensor, if any
+         */
+        void getValues(int sensorType, int index, Random random, float[] values);
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline.source;
+
+import org.junit.Test;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Verifies that {@link TraceCodec} restores columns bit for bit
+ *
+ * @author Paul Danyliuk
+ */
+public class TraceCodecTest {
+
+    private static final int LENGTH = 10000;
+
+    @Test
+    public void values_randomBits_roundTrip() {
+        Random random = new Random(1);
+        float[] values = new float[LENGTH];
+        for (int i = 0; i < LENGTH; i++) {
+            values[i] = Float.intBitsToFloat(random.nextInt());
+        }
+        assertValuesRoundTrip(values);
+    }
+
+    @Test
+    public void values_sensorLike_roundTripCompressed() {
+        Random random = new Random(2);
+        float[] values = new float[LENGTH];
+        for (int i = 0; i < LENGTH; i++) {
+            values[i] = 9.81f + (float) random.nextGaussian() * 0.05f;
+        }
+        final int size = assertValuesRoundTrip(values);
+        assertTrue("Compressed to " + size + " bytes", size < LENGTH * 4);
+    }
+
+    @Test
+    public void values_specialFloats_roundTrip() {
+        final float[] special = {
+                0f, -0f, Float.MIN_VALUE, -Float.MIN_VALUE, Float.MIN_NORMAL / 2, Float.MIN_NORMAL, Float.MAX_VALUE,
+                Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY, Float.NaN,
+                Float.intBitsToFloat(0x7FC00001), Float.intBitsToFloat(0xFF800001), Float.intBitsToFloat(0x00000003),
+                1f, 1f, 1f, Float.intBitsToFloat(0x80000001), 0f
+        };
+        assertValuesRoundTrip(special);
+
+        // The same values in random order, so that windows get reused and reset in all combinations
+        Random random = new Random(3);
+        float[] values = new float[LENGTH];
+        for (int i = 0; i < LENGTH; i++) {
+            values[i] = special[random.nextInt(special.length)];
+        }
+        assertValuesRoundTrip(values);
+    }
+
+    @Test
+    public void values_repeated_takeOneBitEach() {
+        float[] values = new float[LENGTH];
+        Arrays.fill(values, 0.1234f);
+        final int size = assertValuesRoundTrip(values);
+        assertEquals(4 + (LENGTH - 1 + 7) / 8, size);
+    }
+
+    @Test
+    public void values_emptyAndSingle_roundTrip() {
+        assertEquals(0, assertValuesRoundTrip(new float[0]));
+        assertEquals(4, assertValuesRoundTrip(new float[]{Float.NaN}));
+    }
+
+    @Test
+    public void times_irregular_roundTrip() {
+        Random random = new Random(4);
+        long[] times = new long[LENGTH];
+        long time = 123456789012345L;
+        for (int i = 0; i < LENGTH; i++) {
+            switch (random.nextInt(4)) {
+                case 0:
+                    // Steady
+                    time += 5000000L;
+                    break;
+                case 1:
+                    // Jitter
+                    time += 5000000L + random.nextInt(2000000) - 1000000;
+                    break;
+                case 2:
+                    // Gap
+                    time += random.nextInt(Integer.MAX_VALUE);
+                    break;
+                default:
+                    // Out of order or repeated
+                    time -= random.nextInt(3) * 1000000L;
+            }
+            times[i] = time;
+        }
+        assertTimesRoundTrip(times);
+    }
+
+    @Test
+    public void times_extremes_roundTrip() {
+        assertTimesRoundTrip(new long[]{Long.MIN_VALUE, Long.MAX_VALUE, 0, Long.MAX_VALUE, Long.MIN_VALUE, -1, 1});
+        assertTimesRoundTrip(new long[0]);
+    }
+
+    @Test
+    public void times_steady_takeOneByteEach() {
+        long[] times = new long[LENGTH];
+        for (int i = 0; i < LENGTH; i++) {
+            times[i] = 1000000000L + i * 5000000L;
+        }
+        final int size = assertTimesRoundTrip(times);
+        // Besides the first timestamp and the first delta
+        assertTrue("Encoded to " + size + " bytes", size <= LENGTH + 16);
+    }
+
+    @Test
+    public void decode_truncated_throws() {
+        float[] values = new float[100];
+        Random random = new Random(5);
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextFloat();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(TraceCodec.getMaxValuesSize(values.length));
+        TraceCodec.encodeValues(values, values.length, buffer);
+        buffer.flip();
+        buffer.limit(buffer.limit() / 2);
+        try {
+            TraceCodec.decodeValues(buffer, new float[values.length], values.length);
+            fail("Truncated values decoded");
+        } catch (BufferUnderflowException expected) {
+            // Expected
+        }
+
+        long[] times = {1, 1000000000000L, 2000000000000L};
+        buffer = ByteBuffer.allocate(TraceCodec.getMaxTimesSize(times.length));
+        TraceCodec.encodeTimes(times, times.length, buffer);
+        buffer.flip();
+        buffer.limit(buffer.limit() - 1);
+        try {
+            TraceCodec.decodeTimes(buffer, new long[times.length], times.length);
+            fail("Truncated timestamps decoded");
+        } catch (BufferUnderflowException expected) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void decodeValues_windowOverflow_throws() {
+        // First value, then a new window of 31 leading zeros and 32 meaningful bits
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        buffer.putInt(0);
+        buffer.put((byte) 0xFF).put((byte) 0xFF).put((byte) 0xFF).put((byte) 0xFF);
+        buffer.flip();
+        try {
+            TraceCodec.decodeValues(buffer, new float[2], 2);
+            fail("Corrupt values decoded");
+        } catch (IllegalArgumentException expected) {
+            // Expected
+        }
+    }
+
+    /**
+     * @return Encoded size in bytes
+     */
+    private static int assertValuesRoundTrip(float[] values) {
+        final int length = values.length;
+        ByteBuffer buffer = ByteBuffer.allocate(TraceCodec.getMaxValuesSize(length));
+        TraceCodec.encodeValues(values, length, buffer);
+        final int size = buffer.position();
+        buffer.flip();
+
+        float[] decoded = new float[length];
+        TraceCodec.decodeValues(buffer, decoded, length);
+        assertEquals("Bytes left", 0, buffer.remaining());
+        for (int i = 0; i < length; i++) {
+            // Compare raw bits, so that NaN payloads and signed zeros count
+            assertEquals("Value " + i, Float.floatToRawIntBits(values[i]), Float.floatToRawIntBits(decoded[i]));
+        }
+        return size;
+    }
+
+    /**
+     * @return Encoded size in bytes
+     */
+    private static int assertTimesRoundTrip(long[] times) {
+        final int length = times.length;
+        ByteBuffer buffer = ByteBuffer.allocate(TraceCodec.getMaxTimesSize(length));
+        TraceCodec.encodeTimes(times, length, buffer);
+        final int size = buffer.position();
+        buffer.flip();
+
+        long[] decoded = new long[length];
+        TraceCodec.decodeTimes(buffer, decoded, length);
+        assertEquals("Bytes left", 0, buffer.remaining());
+        assertArrayEquals(times, decoded);
+        return size;
+    }
+}
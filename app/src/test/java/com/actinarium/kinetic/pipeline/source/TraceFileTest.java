@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline.source;
+
+import android.hardware.Sensor;
+import com.actinarium.kinetic.util.DataSet3;
+import com.actinarium.kinetic.util.DataSet4;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Verifies reading and writing of {@link TraceFile}, including damaged input
+ *
+ * @author Paul Danyliuk
+ */
+public class TraceFileTest {
+
+    private static final int LENGTH = 1000;
+    private static final float[] GRAVITY = {0.1f, -0.2f, 9.81f};
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void write_readFile_roundTrips() throws IOException {
+        TraceFile trace = createTrace(1L);
+        File file = mFolder.newFile("trace" + TraceFile.EXTENSION);
+        trace.write(file);
+
+        assertSameTrace(trace, TraceFile.read(file));
+        // Below raw size of 8 bytes per timestamp and 4 per value of 3 channels, mostly thanks to timestamps
+        assertTrue("File size " + file.length(), file.length() < LENGTH * (3 * 8 + 10 * 4));
+    }
+
+    @Test
+    public void write_readStream_roundTrips() throws IOException {
+        TraceFile trace = createTrace(2L);
+        assertSameTrace(trace, TraceFile.read(new ByteArrayInputStream(toBytes(trace))));
+    }
+
+    @Test
+    public void write_emptyChannels_roundTrips() throws IOException {
+        TraceFile trace = new TraceFile(GRAVITY, new int[]{Sensor.TYPE_ACCELEROMETER, Sensor.TYPE_ROTATION_VECTOR},
+                new DataSet3[]{new DataSet3(0), new DataSet4(0)});
+        assertSameTrace(trace, TraceFile.read(ByteBuffer.wrap(toBytes(trace))));
+    }
+
+    @Test
+    public void read_truncated_throws() {
+        final byte[] bytes = toBytes(createTrace(4L));
+        // Cut at every byte of the headers and at a stride through the columns
+        for (int length = 0; length < bytes.length; length += length < 100 ? 1 : 97) {
+            assertRejected(Arrays.copyOf(bytes, length));
+        }
+        assertRejected(Arrays.copyOf(bytes, bytes.length - 1));
+    }
+
+    @Test
+    public void read_corruptHeaders_throws() {
+        final byte[] bytes = toBytes(createTrace(5L));
+
+        // Magic
+        assertRejected(patchInt(bytes, 0, 0x12345678));
+        // Version, including the uncompressed version 1 that is no longer supported
+        assertRejected(patchInt(bytes, 4, 1));
+        assertRejected(patchInt(bytes, 4, 3));
+        // Channel count
+        assertRejected(patchInt(bytes, 20, -1));
+        assertRejected(patchInt(bytes, 20, Integer.MAX_VALUE));
+        // Value count of the first channel
+        assertRejected(patchInt(bytes, 28, 5));
+        // Length of the first channel, which must not be allocated for
+        assertRejected(patchInt(bytes, 32, -1));
+        assertRejected(patchInt(bytes, 32, Integer.MAX_VALUE));
+        // Size of the first column
+        assertRejected(patchInt(bytes, 36, -1));
+        assertRejected(patchInt(bytes, 36, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void read_corruptColumns_throwsOrDecodesGarbage() {
+        final byte[] bytes = toBytes(createTrace(6L));
+        Random random = new Random(7);
+        for (int i = 0; i < 1000; i++) {
+            byte[] corrupt = bytes.clone();
+            // Keep the file header intact, so that damage lands in channels
+            final int index = 24 + random.nextInt(corrupt.length - 24);
+            corrupt[index] = (byte) random.nextInt();
+            try {
+                TraceFile.read(ByteBuffer.wrap(corrupt));
+            } catch (IOException expected) {
+                // Either way nothing but IOException may come out
+            }
+        }
+    }
+
+    private static void assertRejected(byte[] bytes) {
+        try {
+            TraceFile.read(ByteBuffer.wrap(bytes));
+            fail("Damaged trace of " + bytes.length + " bytes read");
+        } catch (IOException expected) {
+            // Expected
+        }
+    }
+
+    private static byte[] patchInt(byte[] bytes, int offset, int value) {
+        byte[] patched = bytes.clone();
+        ByteBuffer.wrap(patched).putInt(offset, value);
+        return patched;
+    }
+
+    private static byte[] toBytes(TraceFile trace) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            trace.write(out);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static void assertSameTrace(TraceFile expected, TraceFile actual) {
+        assertArrayEquals(expected.getGravity(), actual.getGravity(), 0f);
+        assertEquals(expected.getChannelCount(), actual.getChannelCount());
+        for (int i = 0; i < expected.getChannelCount(); i++) {
+            assertEquals(expected.getType(i), actual.getType(i));
+            final DataSet3 expectedData = expected.getData(i);
+            final DataSet3 actualData = actual.getData(i);
+            assertEquals(expectedData.getClass(), actualData.getClass());
+            assertEquals(expectedData.length, actualData.length);
+            for (int j = 0; j < expectedData.length; j++) {
+                assertEquals(expectedData.times[j], actualData.times[j]);
+                assertBitsEqual(expectedData.valuesX[j], actualData.valuesX[j]);
+                assertBitsEqual(expectedData.valuesY[j], actualData.valuesY[j]);
+                assertBitsEqual(expectedData.valuesZ[j], actualData.valuesZ[j]);
+                if (expectedData instanceof DataSet4) {
+                    assertBitsEqual(((DataSet4) expectedData).values4[j], ((DataSet4) actualData).values4[j]);
+                }
+            }
+        }
+    }
+
+    private static void assertBitsEqual(float expected, float actual) {
+        assertEquals(Float.floatToRawIntBits(expected), Float.floatToRawIntBits(actual));
+    }
+
+    /**
+     * Creates a trace with noisy readings, dropouts to NaN and runs of repeated values
+     */
+    private static TraceFile createTrace(long seed) {
+        return TestTraces.createTrace(TestTraces.REQUIRED_TYPES, LENGTH, seed, new TestTraces.Shape() {
+            @Override
+            public void getValues(int sensorType, int index, Random random, float[] values) {
+                if (index == 0 || random.nextInt(10) != 0) {
+                    values[0] = (float) random.nextGaussian();
+                    values[1] = random.nextInt(100) == 0 ? Float.NaN : (float) random.nextGaussian();
+                    values[2] = 9.81f + (float) random.nextGaussian() * 0.01f;
+                }
+                if (values.length == 4) {
+                    values[3] = random.nextFloat();
+                }
+            }
+        });
+    }
+}
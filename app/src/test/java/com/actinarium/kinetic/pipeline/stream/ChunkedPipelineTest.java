@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline.stream;
+
+import com.actinarium.kinetic.pipeline.DataTransformer;
+import com.actinarium.kinetic.util.DataSet3;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Verifies that {@link ChunkedPipeline} fuses adjacent map stages, and that chunked stages produce the same results as
+ * their sequential {@link DataTransformer} counterparts regardless of block boundaries
+ *
+ * @author Paul Danyliuk
+ */
+public class ChunkedPipelineTest {
+
+    private static final int LENGTH = 1003;
+
+    /**
+     * Small enough for the data set to span several blocks, and not a divisor of its length
+     */
+    private static final int BLOCK_CAPACITY = 64;
+
+    /**
+     * Time deltas are computed in a slightly different way, so running sums drift apart by a few ulps
+     */
+    private static final float RELATIVE_TOLERANCE = 1e-5f;
+
+    @Test
+    public void build_twoIntegrations_fuseIntoOneStage() throws IOException {
+        DataSet3 input = createDataSet(LENGTH);
+        DataSet3 expected = new DataSet3(input);
+        DataTransformer.integrate(expected);
+        DataTransformer.integrate(expected);
+
+        ChunkedPipeline pipeline = new ChunkedPipeline.Builder(createSource(input))
+                .addStage(new IntegrateStage())
+                .addStage(new IntegrateStage())
+                .setBlockCapacity(BLOCK_CAPACITY)
+                .build();
+        assertEquals(1, pipeline.getStageCount());
+        assertMatches(expected, run(pipeline));
+    }
+
+    @Test
+    public void run_doubleIntegrateStage_matchesTwoIntegrateStages() throws IOException {
+        DataSet3 input = createDataSet(LENGTH);
+
+        // A no-op map stage between the two integrations prevents them from fusing
+        ChunkedPipeline unfused = new ChunkedPipeline.Builder(createSource(input))
+                .addStage(new IntegrateStage())
+                .addStage(new LowPassStage(0f))
+                .addStage(new IntegrateStage())
+                .setBlockCapacity(BLOCK_CAPACITY)
+                .build();
+        assertEquals(3, unfused.getStageCount());
+
+        ChunkedPipeline fused = new ChunkedPipeline.Builder(createSource(input))
+                .addStage(new DoubleIntegrateStage())
+                .setBlockCapacity(BLOCK_CAPACITY)
+                .build();
+        assertMatches(run(unfused), run(fused));
+    }
+
+    @Test
+    public void build_lowPassChain_fusesIntoOneStage() throws IOException {
+        final float first = 0.5f;
+        final float second = 0.8f;
+        DataSet3 input = createDataSet(LENGTH);
+        DataSet3 expected = new DataSet3(input);
+        lowPass(expected.valuesX, expected.length, first);
+        lowPass(expected.valuesX, expected.length, second);
+        lowPass(expected.valuesY, expected.length, first);
+        lowPass(expected.valuesY, expected.length, second);
+        lowPass(expected.valuesZ, expected.length, first);
+        lowPass(expected.valuesZ, expected.length, second);
+
+        ChunkedPipeline pipeline = new ChunkedPipeline.Builder(createSource(input))
+                .addStage(new LowPassStage(first))
+                .addStage(new LowPassStage(second))
+                .setBlockCapacity(BLOCK_CAPACITY)
+                .build();
+        assertEquals(1, pipeline.getStageCount());
+
+        // Fused filter does the very same arithmetic in the same order, so the result must be exact
+        DataSet3 actual = run(pipeline);
+        assertEquals(expected.length, actual.length);
+        assertArrayEquals(expected.valuesX, actual.valuesX, 0f);
+        assertArrayEquals(expected.valuesY, actual.valuesY, 0f);
+        assertArrayEquals(expected.valuesZ, actual.valuesZ, 0f);
+    }
+
+    @Test
+    public void run_blockCapacity_doesNotAffectResult() throws IOException {
+        DataSet3 input = createDataSet(LENGTH);
+        ChunkedPipeline small = new ChunkedPipeline.Builder(createSource(input))
+                .addStage(new LowPassStage(0.7f))
+                .addStage(new IntegrateStage())
+                .setBlockCapacity(7)
+                .build();
+        ChunkedPipeline large = new ChunkedPipeline.Builder(createSource(input))
+                .addStage(new LowPassStage(0.7f))
+                .addStage(new IntegrateStage())
+                .setBlockCapacity(LENGTH)
+                .build();
+        assertMatches(run(large), run(small));
+    }
+
+    /**
+     * Reference exponential moving average, starting from the first value
+     */
+    private static void lowPass(float[] values, int length, float alpha) {
+        float state = values[0];
+        for (int i = 0; i < length; i++) {
+            state = alpha * state + (1 - alpha) * values[i];
+            values[i] = state;
+        }
+    }
+
+    static ArrayBlockSource createSource(DataSet3 data) {
+        return new ArrayBlockSource(data.times, data.length, data.valuesX, data.valuesY, data.valuesZ);
+    }
+
+    static DataSet3 run(ChunkedPipeline pipeline) throws IOException {
+        ArrayBlockSink sink = new ArrayBlockSink(3, LENGTH);
+        pipeline.run(sink);
+        final int length = sink.getLength();
+        DataSet3 result = new DataSet3(length);
+        System.arraycopy(sink.getTimes(), 0, result.times, 0, length);
+        System.arraycopy(sink.getValues(0), 0, result.valuesX, 0, length);
+        System.arraycopy(sink.getValues(1), 0, result.valuesY, 0, length);
+        System.arraycopy(sink.getValues(2), 0, result.valuesZ, 0, length);
+        result.length = length;
+        return result;
+    }
+
+    private static void assertMatches(DataSet3 expected, DataSet3 actual) {
+        assertEquals(expected.length, actual.length);
+        assertArrayEquals(expected.times, actual.times);
+        assertClose(expected.valuesX, actual.valuesX, expected.length);
+        assertClose(expected.valuesY, actual.valuesY, expected.length);
+        assertClose(expected.valuesZ, actual.valuesZ, expected.length);
+    }
+
+    private static void assertClose(float[] expected, float[] actual, int length) {
+        float magnitude = 1f;
+        for (int i = 0; i < length; i++) {
+            magnitude = Math.max(magnitude, Math.abs(expected[i]));
+        }
+        final float tolerance = magnitude * RELATIVE_TOLERANCE;
+        for (int i = 0; i < length; i++) {
+            assertEquals("Sample " + i, expected[i], actual[i], tolerance);
+        }
+    }
+
+    /**
+     * Creates a smooth signal sampled at roughly 200 Hz with deterministic jitter
+     */
+    static DataSet3 createDataSet(int length) {
+        DataSet3 data = new DataSet3(length);
+        long time = 1000000000L;
+        for (int i = 0; i < length; i++) {
+            time += 5000000L + (i * 7919L) % 1000000L - 500000L;
+            data.times[i] = time;
+            data.valuesX[i] = (float) Math.sin(i * 0.05);
+            data.valuesY[i] = (float) Math.cos(i * 0.013) + 0.1f;
+            data.valuesZ[i] = i % 17 - 8;
+        }
+        data.length = length;
+        return data;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.pipeline.stream;
+
+import com.actinarium.kinetic.util.DataSet3;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Verifies that {@link ResampleStage} matches sequential interpolation with {@link DataSet3#getForTime(long, float[])}
+ *
+ * @author Paul Danyliuk
+ */
+public class ResampleStageTest {
+
+    private static final int LENGTH = 1003;
+    private static final long PERIOD = 4000000L;
+
+    @Test
+    public void read_jitteredInput_matchesInterpolatedLookups() throws IOException {
+        DataSet3 input = ChunkedPipelineTest.createDataSet(LENGTH);
+        DataSet3 actual = resample(input, PERIOD, 64);
+
+        final long start = input.times[0];
+        final int expectedLength = (int) ((input.times[LENGTH - 1] - start) / PERIOD) + 1;
+        assertEquals(expectedLength, actual.length);
+
+        final float[] expected = new float[3];
+        for (int i = 0; i < actual.length; i++) {
+            assertEquals(start + i * PERIOD, actual.times[i]);
+            input.getForTime(actual.times[i], expected);
+            assertEquals("X at " + i, expected[0], actual.valuesX[i], 1e-5f);
+            assertEquals("Y at " + i, expected[1], actual.valuesY[i], 1e-5f);
+            assertEquals("Z at " + i, expected[2], actual.valuesZ[i], 1e-5f);
+        }
+    }
+
+    @Test
+    public void read_periodLongerThanInterval_skipsInputSamples() throws IOException {
+        DataSet3 input = ChunkedPipelineTest.createDataSet(LENGTH);
+        DataSet3 actual = resample(input, PERIOD * 5, 64);
+
+        final float[] expected = new float[3];
+        for (int i = 0; i < actual.length; i++) {
+            input.getForTime(actual.times[i], expected);
+            assertEquals("X at " + i, expected[0], actual.valuesX[i], 1e-5f);
+        }
+    }
+
+    @Test
+    public void read_outputBlockFull_resumesFromSameInputSample() throws IOException {
+        // With a period much shorter than input intervals, a single input sample fills several tiny output blocks
+        DataSet3 input = ChunkedPipelineTest.createDataSet(LENGTH);
+        DataSet3 expected = resample(input, PERIOD / 10, LENGTH * 20);
+        DataSet3 actual = resample(input, PERIOD / 10, 3);
+
+        assertEquals(expected.length, actual.length);
+        assertArrayEquals(expected.times, actual.times);
+        assertArrayEquals(expected.valuesX, actual.valuesX, 0f);
+        assertArrayEquals(expected.valuesY, actual.valuesY, 0f);
+        assertArrayEquals(expected.valuesZ, actual.valuesZ, 0f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_nonPositivePeriod_throws() {
+        new ResampleStage(0);
+    }
+
+    private static DataSet3 resample(DataSet3 input, long period, int blockCapacity) throws IOException {
+        return ChunkedPipelineTest.run(new ChunkedPipeline.Builder(ChunkedPipelineTest.createSource(input))
+                .addStage(new ResampleStage(period))
+                .setBlockCapacity(blockCapacity)
+                .build());
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.ui;
+
+import android.view.Choreographer;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives {@link FrameMonitor} with simulated frames to verify its accounting
+ *
+ * @author Paul Danyliuk
+ */
+public class FrameMonitorTest {
+
+    private static final long INTERVAL = 16000000L;
+    private static final long START = 1000000000L;
+
+    private ManualScheduler mScheduler;
+    private FrameMonitor mMonitor;
+    private long mTime;
+
+    @Before
+    public void setUp() {
+        mScheduler = new ManualScheduler();
+        mMonitor = new FrameMonitor(INTERVAL, mScheduler);
+        mTime = START;
+    }
+
+    @Test
+    public void start_postsCallbackOnce() {
+        mMonitor.start();
+        mMonitor.start();
+        assertTrue(mMonitor.isRunning());
+        assertSame(mMonitor, mScheduler.mPending);
+        assertEquals(1, mScheduler.mPostCount);
+    }
+
+    @Test
+    public void stop_removesCallbackAndIgnoresRecords() {
+        mMonitor.start();
+        frame(0);
+        mMonitor.stop();
+        assertFalse(mMonitor.isRunning());
+        assertNull(mScheduler.mPending);
+
+        // A callback already dispatched when the monitor was stopped must be ignored too
+        mMonitor.recordDraw(5000000L);
+        mMonitor.doFrame(mTime + INTERVAL);
+        assertEquals(0, mMonitor.getFrameCount());
+        assertEquals(0, mMonitor.getMaxDrawNanos());
+    }
+
+    @Test
+    public void doFrame_firstFrame_onlyStartsTiming() {
+        mMonitor.start();
+        // Recorded before the first callback, so there's no frame to attribute it to
+        mMonitor.recordDraw(7000000L);
+        frame(0);
+        assertEquals(0, mMonitor.getFrameCount());
+        assertSame(mMonitor, mScheduler.mPending);
+
+        frame(INTERVAL);
+        assertEquals(1, mMonitor.getFrameCount());
+        assertEquals(0, mMonitor.getMaxDrawNanos());
+    }
+
+    @Test
+    public void doFrame_jankThreshold_isOneAndHalfIntervals() {
+        mMonitor.start();
+        frame(0);
+        frame(INTERVAL);
+        frame(INTERVAL * 3 / 2);
+        assertEquals(0, mMonitor.getJankyFrameCount());
+
+        frame(INTERVAL * 3 / 2 + 1000);
+        assertEquals(1, mMonitor.getJankyFrameCount());
+        assertEquals(3, mMonitor.getFrameCount());
+        assertEquals(INTERVAL * 3 / 2 + 1000, mMonitor.getMaxFrameNanos());
+    }
+
+    @Test
+    public void doFrame_longFrames_countSkippedVsyncs() {
+        mMonitor.start();
+        frame(0);
+        // Rounded to the nearest vsync, minus the one that did happen
+        frame(INTERVAL * 2);
+        assertEquals(1, mMonitor.getSkippedFrameCount());
+        frame(INTERVAL * 3 + INTERVAL / 3);
+        assertEquals(3, mMonitor.getSkippedFrameCount());
+        frame(INTERVAL * 5 - INTERVAL / 3);
+        assertEquals(7, mMonitor.getSkippedFrameCount());
+        assertEquals(3, mMonitor.getJankyFrameCount());
+    }
+
+    @Test
+    public void recordDraw_attributedToFrameInWhichItHappened() {
+        mMonitor.start();
+        frame(0);
+        mMonitor.recordDraw(2000000L);
+        mMonitor.recordInterpolation(1000000L);
+        mMonitor.recordDraw(1000000L);
+        frame(INTERVAL);
+        assertEquals(3000000L, mMonitor.getMaxDrawNanos());
+        assertEquals(1000000L, mMonitor.getMaxInterpolationNanos());
+
+        mMonitor.recordDraw(5000000L);
+        frame(INTERVAL);
+        // Nothing recorded in this one
+        frame(INTERVAL);
+
+        assertEquals(3, mMonitor.getFrameCount());
+        assertEquals(5000000L, mMonitor.getMaxDrawNanos());
+        assertEquals((3000000L + 5000000L) / 3, mMonitor.getMeanDrawNanos());
+        assertEquals(1000000L, mMonitor.getMaxInterpolationNanos());
+        assertEquals(1000000L / 3, mMonitor.getMeanInterpolationNanos());
+    }
+
+    @Test
+    public void reset_clearsMeasurements() {
+        mMonitor.start();
+        frame(0);
+        mMonitor.recordDraw(2000000L);
+        frame(INTERVAL * 4);
+        mMonitor.reset();
+
+        assertEquals(0, mMonitor.getFrameCount());
+        assertEquals(0, mMonitor.getJankyFrameCount());
+        assertEquals(0, mMonitor.getSkippedFrameCount());
+        assertEquals(0, mMonitor.getMaxFrameNanos());
+        assertEquals(0, mMonitor.getMaxDrawNanos());
+
+        // Timing restarts from the next frame
+        frame(INTERVAL * 10);
+        assertEquals(0, mMonitor.getFrameCount());
+        frame(INTERVAL);
+        assertEquals(1, mMonitor.getFrameCount());
+        assertEquals(0, mMonitor.getJankyFrameCount());
+    }
+
+    /**
+     * Advances time by given duration and runs the pending frame callback
+     */
+    private void frame(long duration) {
+        mTime += duration;
+        mScheduler.runFrame(mTime);
+    }
+
+    /**
+     * Holds the posted callback until a frame is simulated
+     */
+    private static final class ManualScheduler implements FrameMonitor.FrameScheduler {
+
+        private Choreographer.FrameCallback mPending;
+        private int mPostCount;
+
+        @Override
+        public void postFrameCallback(Choreographer.FrameCallback callback) {
+            mPending = callback;
+            mPostCount++;
+        }
+
+        @Override
+        public void removeFrameCallback(Choreographer.FrameCallback callback) {
+            if (mPending == callback) {
+                mPending = null;
+            }
+        }
+
+        void runFrame(long frameTimeNanos) {
+            final Choreographer.FrameCallback callback = mPending;
+            mPending = null;
+            callback.doFrame(frameTimeNanos);
+        }
+    }
+}
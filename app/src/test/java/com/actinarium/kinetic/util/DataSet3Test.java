@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Verifies that {@link DataSet3} keeps its cached time deltas and inverse intervals in sync with timestamps, and that
+ * cursor-based lookups find the same events as a linear scan wherever the cursor was left
+ *
+ * @author Paul Danyliuk
+ */
+public class DataSet3Test {
+
+    private static final int THREADS = 4;
+
+    @Test
+    public void getTimeDeltas_afterPut_extendsCache() {
+        DataSet3 dataSet = new DataSet3(10);
+        put(dataSet, 0L, 10000000L, 30000000L);
+        float[] deltas = dataSet.getTimeDeltas();
+        assertEquals(0f, deltas[0], 0f);
+        assertEquals(0.01f, deltas[1], 1e-9f);
+        assertEquals(0.02f, deltas[2], 1e-9f);
+
+        put(dataSet, 60000000L, 100000000L);
+        assertSame(deltas, dataSet.getTimeDeltas());
+        assertEquals(0.02f, deltas[2], 1e-9f);
+        assertEquals(0.03f, deltas[3], 1e-9f);
+        assertEquals(0.04f, deltas[4], 1e-9f);
+
+        float[] inverse = dataSet.getInverseIntervals();
+        assertEquals(1e-7f, inverse[0], 1e-12f);
+        assertEquals(1f / 40000000L, inverse[3], 1e-12f);
+    }
+
+    @Test
+    public void getTimeDeltas_afterPut_onlyComputesAppendedEvents() {
+        DataSet3 dataSet = new DataSet3(10);
+        put(dataSet, 0L, 10000000L);
+        dataSet.getTimeDeltas();
+
+        // Without invalidation, a direct write to a cached timestamp goes unnoticed
+        dataSet.times[1] = 20000000L;
+        put(dataSet, 30000000L);
+        float[] deltas = dataSet.getTimeDeltas();
+        assertEquals(0.01f, deltas[1], 1e-9f);
+        assertEquals(0.01f, deltas[2], 1e-9f);
+    }
+
+    @Test
+    public void invalidateTimeDeltas_afterDirectWrite_recomputes() {
+        DataSet3 dataSet = new DataSet3(10);
+        put(dataSet, 0L, 10000000L, 20000000L);
+        dataSet.getTimeDeltas();
+
+        dataSet.times[1] = 5000000L;
+        dataSet.times[2] = 25000000L;
+        dataSet.invalidateTimeDeltas();
+        float[] deltas = dataSet.getTimeDeltas();
+        assertEquals(0f, deltas[0], 0f);
+        assertEquals(0.005f, deltas[1], 1e-9f);
+        assertEquals(0.02f, deltas[2], 1e-9f);
+        assertEquals(1f / 5000000L, dataSet.getInverseIntervals()[0], 1e-12f);
+
+        float[] values = new float[3];
+        dataSet.getForTime(15000000L, values);
+        assertEquals(1.5f, values[0], 1e-6f);
+    }
+
+    @Test
+    public void reset_discardsCache() {
+        DataSet3 dataSet = new DataSet3(10);
+        put(dataSet, 0L, 10000000L, 20000000L);
+        dataSet.getTimeDeltas();
+
+        dataSet.reset();
+        put(dataSet, 1000000000L, 1040000000L);
+        float[] deltas = dataSet.getTimeDeltas();
+        assertEquals(0f, deltas[0], 0f);
+        assertEquals(0.04f, deltas[1], 1e-9f);
+        assertEquals(1f / 40000000L, dataSet.getInverseIntervals()[0], 1e-12f);
+    }
+
+    @Test
+    public void getForTime_concurrentFirstAccess_matchesSequential() throws Exception {
+        final int length = 5000;
+        final long[] requestTimes = new long[length * 2];
+        for (int i = 0; i < requestTimes.length; i++) {
+            requestTimes[i] = 1000000L + i * 2500000L + i % 7;
+        }
+        final float[] expected = lookUpAll(createDataSet(length), requestTimes, new DataSet3.Cursor());
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            // Repeat with fresh data sets to give a race between lazy cache builders more chances to show up
+            for (int round = 0; round < 20; round++) {
+                final DataSet3 dataSet = createDataSet(length);
+                final CountDownLatch start = new CountDownLatch(1);
+                @SuppressWarnings("unchecked")
+                Future<float[]>[] futures = new Future[THREADS];
+                for (int thread = 0; thread < THREADS; thread++) {
+                    futures[thread] = executor.submit(new Callable<float[]>() {
+                        @Override
+                        public float[] call() throws Exception {
+                            start.await();
+                            return lookUpAll(dataSet, requestTimes, new DataSet3.Cursor());
+                        }
+                    });
+                }
+                start.countDown();
+                for (Future<float[]> future : futures) {
+                    assertArrayEquals(expected, future.get(), 0f);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void findIndex_anyHint_matchesLinearScan() {
+        final DataSet3 dataSet = createDataSet(100);
+        final long[] times = dataSet.times;
+        final int[] hints = {-10, 0, 1, 37, 63, 98, 99, 150};
+        for (int i = 0; i < 99; i++) {
+            // Exact hit, between events, and right before the next event
+            final long[] requests = {times[i], times[i] + 1, times[i + 1] - 1};
+            for (long time : requests) {
+                for (int hint : hints) {
+                    assertEquals("Time " + time + ", hint " + hint, linearScan(times, 0, 100, time),
+                            DataSet3.findIndex(times, 0, 100, time, hint));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void findIndex_withOffset_returnsRelativeIndex() {
+        final DataSet3 dataSet = createDataSet(100);
+        final long[] times = dataSet.times;
+        for (int i = 20; i < 59; i++) {
+            final long time = times[i] + 1;
+            assertEquals(i - 20, DataSet3.findIndex(times, 20, 40, time, 0));
+            assertEquals(i - 20, DataSet3.findIndex(times, 20, 40, time, 38));
+            assertEquals(i - 20, DataSet3.findIndex(times, 20, 40, time, 1000));
+        }
+    }
+
+    @Test
+    public void getForTime_staleCursor_jumpsBothWays() {
+        final DataSet3 dataSet = createDataSet(1000);
+        final long[] times = dataSet.times;
+        final DataSet3.Cursor cursor = new DataSet3.Cursor();
+        final float[] values = new float[3];
+
+        // Scrub back and forth by varying distances, landing between events at a quarter of the interval
+        final int[] indices = {500, 501, 3, 998, 0, 640, 639, 10, 900, 899, 2};
+        for (int index : indices) {
+            final long time = times[index] + (times[index + 1] - times[index]) / 4;
+            dataSet.getForTime(time, values, cursor);
+            assertEquals("Index " + index, index + 0.25f, values[0], 1e-3f);
+            assertEquals("Cursor for " + index, index, cursor.mIndex);
+        }
+    }
+
+    @Test
+    public void getForTime_exactHitsAndOutOfRange_returnEventValues() {
+        final DataSet3 dataSet = createDataSet(100);
+        final DataSet3.Cursor cursor = new DataSet3.Cursor();
+        final float[] values = new float[3];
+        for (int i = 99; i >= 0; i -= 3) {
+            dataSet.getForTime(dataSet.times[i], values, cursor);
+            assertEquals(i, values[0], 0f);
+        }
+
+        dataSet.getForTime(Long.MIN_VALUE, values, cursor);
+        assertEquals(0f, values[0], 0f);
+        assertEquals(0, cursor.mIndex);
+        dataSet.getForTime(Long.MAX_VALUE, values, cursor);
+        assertEquals(99f, values[0], 0f);
+        assertEquals(98, cursor.mIndex);
+    }
+
+    @Test
+    public void getForTimes_matchesGetForTime() {
+        final DataSet4 dataSet = new DataSet4(200);
+        long time = 0;
+        for (int i = 0; i < 200; i++) {
+            time += 4000000L + (i * 7919L) % 2000000L;
+            dataSet.put(time, new float[]{i, -i, i * 0.5f, i % 3});
+        }
+        final long[] times = dataSet.times;
+
+        // Sorted and unsorted request times, exact hits, and times outside the range on both ends
+        final long[] requests = {times[0] - 100, times[0], times[0] + 7, times[50], times[50] + 1000000L, times[10],
+                times[199], times[199] + 100, times[120] + 3, times[121], times[198] + 1, times[1] - 1};
+        final int count = requests.length;
+        final float[][] actual = new float[4][count];
+        dataSet.getForTimes(requests, count, new DataSet3.Cursor(), actual);
+
+        final float[] expected = new float[4];
+        final DataSet3.Cursor cursor = new DataSet3.Cursor();
+        for (int i = 0; i < count; i++) {
+            dataSet.getForTime(requests[i], expected, cursor);
+            for (int channel = 0; channel < 4; channel++) {
+                assertEquals("Request " + i + ", channel " + channel, expected[channel], actual[channel][i], 0f);
+            }
+        }
+
+        // Only the first channels when fewer output arrays are passed
+        final float[] first = new float[count];
+        dataSet.getForTimes(requests, count, new DataSet3.Cursor(), first);
+        assertArrayEquals(actual[0], first, 0f);
+    }
+
+    private static float[] lookUpAll(DataSet3 dataSet, long[] requestTimes, DataSet3.Cursor cursor) {
+        float[] result = new float[requestTimes.length];
+        float[] values = new float[3];
+        for (int i = 0; i < requestTimes.length; i++) {
+            dataSet.getForTime(requestTimes[i], values, cursor);
+            result[i] = values[0];
+        }
+        return result;
+    }
+
+    /**
+     * Reference lookup: the last event at or before given time, no further than the second to last one
+     */
+    private static int linearScan(long[] times, int offset, int length, long time) {
+        int index = 0;
+        while (index < length - 2 && times[offset + index + 1] <= time) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Appends events with given timestamps, with X values equal to event indices
+     */
+    private static void put(DataSet3 dataSet, long... times) {
+        for (long time : times) {
+            dataSet.put(time, new float[]{dataSet.length, 0f, 0f});
+        }
+    }
+
+    /**
+     * Creates a data set with uneven sampling intervals and X values equal to event indices
+     */
+    private static DataSet3 createDataSet(int length) {
+        DataSet3 dataSet = new DataSet3(length);
+        long time = 0;
+        for (int i = 0; i < length; i++) {
+            time += 4000000L + (i * 7919L) % 2000000L;
+            dataSet.times[i] = time;
+            dataSet.valuesX[i] = i;
+        }
+        dataSet.length = length;
+        return dataSet;
+    }
+}
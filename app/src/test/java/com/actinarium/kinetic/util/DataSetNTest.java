@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that {@link DataSetN} reads and writes the same in both layouts, and that views share memory with their
+ * parent data set
+ *
+ * @author Paul Danyliuk
+ */
+public class DataSetNTest {
+
+    private static final int[] LAYOUTS = {DataSetN.LAYOUT_PLANAR, DataSetN.LAYOUT_INTERLEAVED};
+
+    @Test
+    public void putAndGet_sameInBothLayouts() {
+        for (int layout : LAYOUTS) {
+            DataSetN dataSet = fill(new DataSetN(3, 10, layout), 10);
+            assertEquals(10, dataSet.getLength());
+            assertFalse(dataSet.put(100, new float[3]));
+
+            float[] values = new float[3];
+            for (int i = 0; i < 10; i++) {
+                assertEquals(i * 10L, dataSet.getTime(i));
+                dataSet.get(i, values);
+                assertArrayEquals(new float[]{i, i + 0.5f, -i}, values, 0f);
+                assertEquals(i + 0.5f, dataSet.get(i, 1), 0f);
+            }
+            assertArrayEquals(new float[]{0, -1, -2, -3, -4, -5, -6, -7, -8, -9},
+                    dataSet.getChannel(2, null, 0), 0f);
+        }
+    }
+
+    @Test
+    public void getForTime_interpolatesBetweenEvents() {
+        for (int layout : LAYOUTS) {
+            DataSetN dataSet = fill(new DataSetN(3, 10, layout), 10);
+            float[] values = new float[3];
+            dataSet.getForTime(25, values);
+            assertArrayEquals(new float[]{2.5f, 3f, -2.5f}, values, 1e-6f);
+            dataSet.getForTime(-5, values);
+            assertArrayEquals(new float[]{0f, 0.5f, 0f}, values, 0f);
+            dataSet.getForTime(1000, values);
+            assertArrayEquals(new float[]{9f, 9.5f, -9f}, values, 0f);
+        }
+    }
+
+    @Test
+    public void set_overwritesWithoutChangingLength() {
+        for (int layout : LAYOUTS) {
+            DataSetN dataSet = new DataSetN(2, 4, layout);
+            dataSet.set(3, 42, new float[]{1f, 2f});
+            assertEquals(0, dataSet.getLength());
+            assertEquals(42, dataSet.getTime(3));
+            assertEquals(2f, dataSet.get(3, 1), 0f);
+        }
+    }
+
+    @Test
+    public void subRange_sharesValuesWithParent() {
+        for (int layout : LAYOUTS) {
+            DataSetN dataSet = fill(new DataSetN(3, 10, layout), 10);
+            DataSetN view = dataSet.subRange(4, 7);
+            assertTrue(view.isView());
+            assertEquals(3, view.getLength());
+            assertEquals(40, view.getTime(0));
+            assertEquals(-6f, view.get(2, 2), 0f);
+
+            view.scale(0, 2f);
+            assertEquals(8f, dataSet.get(4, 0), 0f);
+            assertEquals(3f, dataSet.get(3, 0), 0f);
+            assertEquals(7f, dataSet.get(7, 0), 0f);
+            assertFalse(view.put(0, new float[3]));
+        }
+    }
+
+    @Test
+    public void reset_view_onlyEmptiesView() {
+        for (int layout : LAYOUTS) {
+            DataSetN dataSet = fill(new DataSetN(3, 10, layout), 10);
+            DataSetN view = dataSet.subRange(2, 5);
+            view.reset();
+            assertEquals(0, view.getLength());
+            assertEquals(10, dataSet.getLength());
+            assertEquals(2f, dataSet.get(2, 0), 0f);
+
+            dataSet.reset();
+            assertEquals(0, dataSet.getLength());
+            assertTrue(dataSet.put(0, new float[3]));
+        }
+    }
+
+    @Test
+    public void copy_convertsLayout() {
+        DataSetN planar = fill(new DataSetN(3, 10, DataSetN.LAYOUT_PLANAR), 6);
+        DataSetN interleaved = planar.subRange(1, 6).copy(DataSetN.LAYOUT_INTERLEAVED);
+        assertEquals(DataSetN.LAYOUT_INTERLEAVED, interleaved.getLayout());
+        assertEquals(5, interleaved.getLength());
+        assertFalse(interleaved.isView());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(planar.getTime(i + 1), interleaved.getTime(i));
+            for (int channel = 0; channel < 3; channel++) {
+                assertEquals(planar.get(i + 1, channel), interleaved.get(i, channel), 0f);
+            }
+        }
+    }
+
+    private static DataSetN fill(DataSetN dataSet, int count) {
+        for (int i = 0; i < count; i++) {
+            assertTrue(dataSet.put(i * 10L, new float[]{i, i + 0.5f, -i}));
+        }
+        return dataSet;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that values read through {@link TimelineIndex} match {@link DataSet3#getForTime(long, float[])} lookups
+ *
+ * @author Paul Danyliuk
+ */
+public class TimelineIndexTest {
+
+    /**
+     * Reading the last event through the index interpolates to it with weight 1 instead of copying it
+     */
+    private static final float TOLERANCE = 1e-5f;
+
+    @Test
+    public void build_targetAroundSource_matchesGetForTime() {
+        DataSet4 source = createSource(new long[]{100, 200, 250, 400, 410, 600});
+        // Before the first event, exactly on events, between them, and after the last one
+        DataSet3 target = createTarget(new long[]{0, 99, 100, 150, 200, 201, 249, 250, 300, 400, 405, 410, 599, 600,
+                601, 1000});
+        TimelineIndex index = TimelineIndex.build(target, source);
+
+        assertEquals(target.length, index.getLength());
+        assertTrue(index.isValidFor(target, source));
+        assertMatchesGetForTime(index, target, source);
+    }
+
+    @Test
+    public void build_exactHit_copiesSourceEvent() {
+        DataSet4 source = createSource(new long[]{100, 200, 250, 400});
+        DataSet3 target = createTarget(new long[]{100, 200, 250});
+        TimelineIndex index = TimelineIndex.build(target, source);
+
+        for (int i = 0; i < target.length; i++) {
+            assertEquals(i, index.getIndex(i));
+            assertEquals(0f, index.getWeight(i), 0f);
+        }
+    }
+
+    @Test
+    public void build_singleEventSource_alwaysReturnsThatEvent() {
+        DataSet4 source = createSource(new long[]{500});
+        DataSet3 target = createTarget(new long[]{100, 500, 900});
+        TimelineIndex index = TimelineIndex.build(target, source);
+
+        assertTrue(index.isValidFor(target, source));
+        float[] values = new float[4];
+        for (int i = 0; i < target.length; i++) {
+            index.getValues(source, i, values);
+            assertEquals(0f, values[0], 0f);
+            assertEquals(1f, values[3], 0f);
+        }
+        assertMatchesGetForTime(index, target, source);
+    }
+
+    @Test
+    public void build_denseTarget_matchesGetForTime() {
+        final long[] sourceTimes = new long[300];
+        long time = 1000;
+        for (int i = 0; i < sourceTimes.length; i++) {
+            time += 10000 + (i * 7919L) % 5000;
+            sourceTimes[i] = time;
+        }
+        final long[] targetTimes = new long[1000];
+        for (int i = 0; i < targetTimes.length; i++) {
+            targetTimes[i] = i * 3500L;
+        }
+        DataSet4 source = createSource(sourceTimes);
+        DataSet3 target = createTarget(targetTimes);
+        assertMatchesGetForTime(TimelineIndex.build(target, source), target, source);
+    }
+
+    @Test
+    public void isValidFor_mismatchedLengths_returnsFalse() {
+        DataSet4 source = createSource(new long[]{100, 200, 300, 400});
+        DataSet3 target = createTarget(new long[]{150, 250, 350, 450});
+        TimelineIndex index = TimelineIndex.build(target, source);
+        assertTrue(index.isValidFor(target, source));
+
+        // Target grew or shrank since the index was built
+        target.length = 3;
+        assertFalse(index.isValidFor(target, source));
+        target.put(500, new float[3]);
+        target.put(600, new float[3]);
+        assertFalse(index.isValidFor(target, source));
+        target.length = 4;
+
+        // Source is too short for the events the index refers to
+        source.length = 2;
+        assertFalse(index.isValidFor(target, source));
+    }
+
+    private static void assertMatchesGetForTime(TimelineIndex index, DataSet3 target, DataSet4 source) {
+        final float[] expected = new float[4];
+        final float[] actual = new float[4];
+        for (int i = 0; i < target.length; i++) {
+            source.getForTime(target.times[i], expected);
+            index.getValues(source, i, actual);
+            for (int channel = 0; channel < 4; channel++) {
+                assertEquals("Event " + i + ", channel " + channel, expected[channel], actual[channel], TOLERANCE);
+            }
+        }
+    }
+
+    /**
+     * Creates a source with X values equal to event indices and other channels varying in different ways
+     */
+    private static DataSet4 createSource(long[] times) {
+        DataSet4 source = new DataSet4(times.length);
+        for (int i = 0; i < times.length; i++) {
+            source.put(times[i], new float[]{i, i * i * 0.1f, (float) Math.sin(i), 1f - i * 0.01f});
+        }
+        return source;
+    }
+
+    private static DataSet3 createTarget(long[] times) {
+        DataSet3 target = new DataSet3(times.length + 2);
+        for (long time : times) {
+            target.put(time, new float[3]);
+        }
+        return target;
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.cli;
+
+import com.actinarium.kinetic.pipeline.CodeGenerator;
+import com.actinarium.kinetic.pipeline.ParallelIntegrator;
+import com.actinarium.kinetic.pipeline.source.TraceFile;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Command line entry point regenerating interpolators from recorded traces in bulk. Traces are processed in parallel on
+ * a worker pool sized to the machine, and generated sources are written out as soon as each trace is done.
+ *
+ * @author Paul Danyliuk
+ */
+public class BatchProcessor {
+
+    private static final String USAGE = "Usage: kinetic-batch [options] <trace file or directory>...\n"
+            + "\n"
+            + "Processes recorded traces (*" + TraceFile.EXTENSION + ") and generates interpolator sources.\n"
+            + "\n"
+            + "Options:\n"
+            + "  -o, --output <dir>       output directory, default: out\n"
+            + "  -p, --package <name>     package of generated classes, default: " + CodeGenerator.DEFAULT_PACKAGE_NAME
+            + "\n"
+            + "  -m, --mode <mode>        float, fixed or data, default: float\n"
+            + "      --packed             one packed float class per trace instead of a class per channel, can't be\n"
+            + "                           combined with --mode\n"
+            + "  -r, --resample <hz>      resample to a fixed rate before integration\n"
+            + "  -t, --trim <start:end>   seconds to trim from the start and the end\n"
+            + "  -a, --auto-trim          trim to detected motion\n"
+            + "      --average            align and average all traces as takes of the same motion, generating one\n"
+            + "                           set of classes named after the first trace\n"
+            + "  -j, --threads <n>        worker threads, default: number of processors\n"
+            + "      --parallel <n>       integrate traces of at least n samples on all threads, default: "
+            + ParallelIntegrator.DEFAULT_THRESHOLD + "\n";
+
+    /**
+     * Processing options
+     */
+    public static final class Options {
+        public File outputDir = new File("out");
+        public String packageName = CodeGenerator.DEFAULT_PACKAGE_NAME;
+        @CodeGenerator.ExportMode
+        public int mode = CodeGenerator.EXPORT_FLOAT;
+        public boolean packed;
+        public long resamplePeriodNanos;
+        public long trimStartNanos;
+        public long trimEndNanos;
+        public boolean autoTrim;
+        public boolean average;
+        public int threads = Runtime.getRuntime().availableProcessors();
+        public int parallelThreshold = ParallelIntegrator.DEFAULT_THRESHOLD;
+        public final List<File> inputs = new ArrayList<>();
+    }
+
+    public static void main(String[] args) {
+        final Options options;
+        try {
+            options = parseArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println();
+            System.err.print(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        final List<File> traces = collectTraces(options.inputs);
+        if (traces.isEmpty()) {
+            System.err.println("No traces found");
+            System.exit(2);
+            return;
+        }
+        final int failures = process(traces, options, System.out);
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    /**
+     * Processes traces in parallel, writing generated sources to the output directory as each trace is done. With
+     * {@link Options#average}, all traces are averaged and processed as one
+     *
+     * @param traces  Trace files
+     * @param options Processing options
+     * @param log     Stream to report progress to
+     * @return Number of traces (or averages) that failed to process
+     */
+    public static int process(List<File> traces, Options options, PrintStream log) {
+        final long start = System.nanoTime();
+        final File packageDir = new File(options.outputDir, options.packageName.replace('.', File.separatorChar));
+        if (!packageDir.isDirectory() && !packageDir.mkdirs()) {
+            log.println("Cannot create output directory " + packageDir);
+            return traces.size();
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, options.threads));
+        // Integration blocks must not queue up behind traces waiting for them, so they get a pool of their own. Its
+        // threads are only started if there are long enough traces
+        final ExecutorService integrationExecutor = Executors.newFixedThreadPool(Math.max(1, options.threads));
+        final ParallelIntegrator integrator = new ParallelIntegrator(integrationExecutor, Math.max(1, options.threads),
+                options.parallelThreshold);
+        final CompletionService<TraceProcessor.Result> completionService = new ExecutorCompletionService<>(executor);
+        final Map<Future<TraceProcessor.Result>, TraceProcessor> submitted = new HashMap<>();
+        final List<String> baseNames = getClassBaseNames(traces);
+        final List<TraceProcessor> jobs = new ArrayList<>(traces.size());
+        if (options.average) {
+            jobs.add(new TraceProcessor(traces, baseNames.get(0) + "Average", options, integrator));
+        } else {
+            for (int i = 0; i < traces.size(); i++) {
+                jobs.add(new TraceProcessor(traces.get(i), baseNames.get(i), options, integrator));
+            }
+        }
+        final Set<String> written = new HashSet<>();
+        int failures = 0;
+        try {
+            for (TraceProcessor job : jobs) {
+                submitted.put(completionService.submit(job), job);
+            }
+
+            // Take results in order of completion rather than submission, so slow traces don't hold up the output
+            for (int i = 1; i <= jobs.size(); i++) {
+                final Future<TraceProcessor.Result> future = completionService.take();
+                final TraceProcessor job = submitted.get(future);
+                try {
+                    final TraceProcessor.Result result = future.get();
+                    for (String className : result.sources.keySet()) {
+                        // Output may go to a case-insensitive file system
+                        if (!written.add(className.toLowerCase(Locale.US))) {
+                            throw new IOException("Class " + className + " is generated from another trace already");
+                        }
+                    }
+                    for (Map.Entry<String, String> entry : result.sources.entrySet()) {
+                        writeSource(new File(packageDir, entry.getKey() + ".java"), entry.getValue());
+                    }
+                    log.println(String.format(Locale.US, "[%d/%d] %s: %d classes, %.1f ms", i, jobs.size(),
+                            job.getName(), result.sources.size(), result.durationNanos / 1e6));
+                } catch (ExecutionException | IOException e) {
+                    failures++;
+                    final Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+                    log.println(String.format(Locale.US, "[%d/%d] %s: failed, %s", i, jobs.size(),
+                            job.getName(), cause));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failures += jobs.size();
+        } finally {
+            executor.shutdownNow();
+            integrationExecutor.shutdownNow();
+        }
+
+        log.println(String.format(Locale.US, "Processed %d traces (%d failed) on %d threads in %.1f s", traces.size(),
+                failures, options.threads, (System.nanoTime() - start) / 1e9));
+        return failures;
+    }
+
+    static Options parseArgs(String[] args) {
+        Options options = new Options();
+        boolean hasMode = false;
+        for (int i = 0; i < args.length; i++) {
+            final String arg = args[i];
+            switch (arg) {
+                case "-o":
+                case "--output":
+                    options.outputDir = new File(value(args, ++i, arg));
+                    break;
+                case "-p":
+                case "--package":
+                    options.packageName = value(args, ++i, arg);
+                    break;
+                case "-m":
+                case "--mode":
+                    options.mode = parseMode(value(args, ++i, arg));
+                    hasMode = true;
+                    break;
+                case "--packed":
+                    options.packed = true;
+                    break;
+                case "-r":
+                case "--resample":
+                    final double rate = parseNumber(value(args, ++i, arg), arg);
+                    if (rate <= 0) {
+                        throw new IllegalArgumentException("Resampling rate must be positive");
+                    }
+                    options.resamplePeriodNanos = Math.round(1e9 / rate);
+                    break;
+                case "-t":
+                case "--trim":
+                    final String[] parts = value(args, ++i, arg).split(":");
+                    if (parts.length != 2) {
+                        throw new IllegalArgumentException("Trim must be given as <start:end>, e.g. 0.5:1");
+                    }
+                    options.trimStartNanos = Math.round(parseNumber(parts[0], arg) * 1e9);
+                    options.trimEndNanos = Math.round(parseNumber(parts[1], arg) * 1e9);
+                    break;
+                case "-a":
+                case "--auto-trim":
+                    options.autoTrim = true;
+                    break;
+                case "--average":
+                    options.average = true;
+                    break;
+                case "-j":
+                case "--threads":
+                    options.threads = (int) parseNumber(value(args, ++i, arg), arg);
+                    if (options.threads < 1) {
+                        throw new IllegalArgumentException("Thread count must be positive");
+                    }
+                    break;
+                case "--parallel":
+                    options.parallelThreshold = (int) parseNumber(value(args, ++i, arg), arg);
+                    if (options.parallelThreshold < 1) {
+                        throw new IllegalArgumentException("Parallel integration threshold must be positive");
+                    }
+                    break;
+                default:
+                    if (arg.startsWith("-")) {
+                        throw new IllegalArgumentException("Unknown option " + arg);
+                    }
+                    options.inputs.add(new File(arg));
+            }
+        }
+        if (options.inputs.isEmpty()) {
+            throw new IllegalArgumentException("No input given");
+        }
+        if (options.packed && hasMode) {
+            // Packed classes always hold float tables
+            throw new IllegalArgumentException("--packed can't be combined with --mode");
+        }
+        return options;
+    }
+
+    /**
+     * Picks a class name prefix for each trace. Different file names may map to the same prefix, e.g. trace-1 and
+     * trace_1, in which case the later ones get a number appended
+     *
+     * @param traces Trace files
+     * @return Class name prefixes in the same order, unique regardless of case
+     */
+    static List<String> getClassBaseNames(List<File> traces) {
+        List<String> names = new ArrayList<>(traces.size());
+        Set<String> used = new HashSet<>();
+        for (File trace : traces) {
+            final String baseName = TraceProcessor.getClassBaseName(trace.getName());
+            String name = baseName;
+            for (int n = 2; !used.add(name.toLowerCase(Locale.US)); n++) {
+                name = baseName + n;
+            }
+            names.add(name);
+        }
+        return names;
+    }
+
+    /**
+     * Expands directories into trace files they contain, sorted by name
+     */
+    static List<File> collectTraces(List<File> inputs) {
+        List<File> traces = new ArrayList<>();
+        for (File input : inputs) {
+            if (input.isDirectory()) {
+                File[] files = input.listFiles();
+                if (files == null) {
+                    continue;
+                }
+                Arrays.sort(files);
+                for (File file : files) {
+                    if (file.isFile() && file.getName().endsWith(TraceFile.EXTENSION)) {
+                        traces.add(file);
+                    }
+                }
+            } else {
+                traces.add(input);
+            }
+        }
+        return traces;
+    }
+
+    private static void writeSource(File file, String source) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(source);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static String value(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Option " + option + " requires a value");
+        }
+        return args[index];
+    }
+
+    private static double parseNumber(String value, String option) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value of " + option + ": " + value);
+        }
+    }
+
+    @CodeGenerator.ExportMode
+    private static int parseMode(String value) {
+        switch (value) {
+            case "float":
+                return CodeGenerator.EXPORT_FLOAT;
+            case "fixed":
+                return CodeGenerator.EXPORT_FIXED_POINT;
+            case "data":
+                return CodeGenerator.EXPORT_DATA_ONLY;
+            default:
+                throw new IllegalArgumentException("Unknown export mode " + value);
+        }
+    }
+}
@@ -0,0 +1,401 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.cli;
+
+import android.hardware.Sensor;
+import com.actinarium.kinetic.pipeline.CodeGenerator;
+import com.actinarium.kinetic.pipeline.MotionDetector;
+import com.actinarium.kinetic.pipeline.ParallelIntegrator;
+import com.actinarium.kinetic.pipeline.TakeAligner;
+import com.actinarium.kinetic.pipeline.source.TraceFile;
+import com.actinarium.kinetic.pipeline.stream.ArrayBlockSink;
+import com.actinarium.kinetic.pipeline.stream.ArrayBlockSource;
+import com.actinarium.kinetic.pipeline.stream.BlockSource;
+import com.actinarium.kinetic.pipeline.stream.BlockStage;
+import com.actinarium.kinetic.pipeline.stream.ChunkedPipeline;
+import com.actinarium.kinetic.pipeline.stream.GravityStage;
+import com.actinarium.kinetic.pipeline.stream.IntegrateStage;
+import com.actinarium.kinetic.pipeline.stream.ResampleStage;
+import com.actinarium.kinetic.util.DataSet3;
+import com.actinarium.kinetic.util.DataSet4;
+import com.actinarium.kinetic.util.LookupTableInterpolator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Processes a single recorded trace the same way the app does: removes gravity, integrates linear acceleration into
+ * offset and angular velocity into rotation, trims and normalizes the results and generates interpolator code. Uses
+ * the chunked pipeline, since it doesn't depend on Android framework code. Traces long enough for the given {@link
+ * ParallelIntegrator} are integrated in memory on multiple threads instead.
+ * <p>
+ * Given several traces, treats them as takes of the same motion: aligns them with a {@link TakeAligner} and averages
+ * them into one cleaner recording before integration.
+ *
+ * @author Paul Danyliuk
+ */
+public class TraceProcessor implements Callable<TraceProcessor.Result> {
+
+    static final String[] TITLES = {
+            "Offset - X", "Offset - Y", "Offset - Z", "Rotation - Pitch", "Rotation - Roll", "Rotation - Yaw"
+    };
+    private static final String[] SUFFIXES = {"OffsetX", "OffsetY", "OffsetZ", "Pitch", "Roll", "Yaw"};
+
+    /**
+     * Period to resample takes to for averaging, unless resampling is requested explicitly
+     */
+    static final long AVERAGE_PERIOD_NANOS = 5000000L;
+
+    /**
+     * Max time shift between the starts of the same motion in different takes
+     */
+    static final long AVERAGE_MAX_LAG_NANOS = 1000000000L;
+
+    private final List<File> mFiles;
+    private final String mBaseName;
+    private final BatchProcessor.Options mOptions;
+    private final ParallelIntegrator mIntegrator;
+
+    /**
+     * @param file    Trace file to process
+     * @param options Processing options
+     */
+    public TraceProcessor(File file, BatchProcessor.Options options) {
+        this(file, options, null);
+    }
+
+    /**
+     * @param file       Trace file to process
+     * @param options    Processing options
+     * @param integrator Integrator for traces of at least {@link ParallelIntegrator#getThreshold()} samples, or null to
+     *                   always integrate sequentially
+     */
+    public TraceProcessor(File file, BatchProcessor.Options options, ParallelIntegrator integrator) {
+        this(file, getClassBaseName(file.getName()), options, integrator);
+    }
+
+    /**
+     * @param file       Trace file to process
+     * @param baseName   Prefix of generated class names, unique within the batch
+     * @param options    Processing options
+     * @param integrator Integrator for traces of at least {@link ParallelIntegrator#getThreshold()} samples, or null to
+     *                   always integrate sequentially
+     */
+    public TraceProcessor(File file, String baseName, BatchProcessor.Options options, ParallelIntegrator integrator) {
+        this(Collections.singletonList(file), baseName, options, integrator);
+    }
+
+    /**
+     * @param takes      Trace files with takes of the same motion, the first one is the reference for alignment
+     * @param baseName   Prefix of generated class names, unique within the batch
+     * @param options    Processing options
+     * @param integrator Integrator for traces of at least {@link ParallelIntegrator#getThreshold()} samples, or null to
+     *                   always integrate sequentially
+     */
+    public TraceProcessor(List<File> takes, String baseName, BatchProcessor.Options options,
+                          ParallelIntegrator integrator) {
+        if (takes.isEmpty()) {
+            throw new IllegalArgumentException("No traces to process");
+        }
+        mFiles = takes;
+        mBaseName = baseName;
+        mOptions = options;
+        mIntegrator = integrator;
+    }
+
+    /**
+     * @return Name of the trace file, or a description of averaged takes
+     */
+    public String getName() {
+        final int count = mFiles.size();
+        return count == 1 ? mFiles.get(0).getName() : "average of " + count + " traces";
+    }
+
+    @Override
+    public Result call() throws IOException {
+        final long start = System.nanoTime();
+        final Take take = mFiles.size() == 1 ? readTake(mFiles.get(0)) : averageTakes();
+        final DataSet3 linear = take.linear;
+        final DataSet3 gyro = take.gyro;
+
+        // Linear acceleration is integrated into a copy, since auto-trim needs it as is
+        final DataSet3 offset;
+        final DataSet3 phase;
+        if (mIntegrator != null && linear.length >= mIntegrator.getThreshold()) {
+            offset = new DataSet3(linear);
+            mIntegrator.integrate(offset, offset);
+            mIntegrator.integrate(offset, offset);
+            phase = new DataSet3(gyro);
+            mIntegrator.integrate(phase, phase);
+        } else {
+            offset = toDataSet(runPipeline(sourceOf(linear), linear.length, new IntegrateStage(),
+                    new IntegrateStage()));
+            phase = toDataSet(runPipeline(sourceOf(gyro), gyro.length, new IntegrateStage()));
+        }
+
+        // Trim window in absolute time
+        long trimStart = Long.MIN_VALUE;
+        long trimEnd = Long.MAX_VALUE;
+        if (mOptions.autoTrim) {
+            long[] window = new long[2];
+            if (MotionDetector.detect(linear, gyro, MotionDetector.DEFAULT_WINDOW_NANOS, window)) {
+                trimStart = window[0];
+                trimEnd = window[1];
+            }
+        } else if (mOptions.trimStartNanos != 0 || mOptions.trimEndNanos != 0) {
+            trimStart = offset.times[0] + mOptions.trimStartNanos;
+            trimEnd = offset.times[offset.length - 1] - mOptions.trimEndNanos;
+        }
+
+        final DataSet3[] results = {offset, offset, offset, phase, phase, phase};
+        final String baseName = mBaseName;
+        Map<String, String> sources = new LinkedHashMap<>();
+        LookupTableInterpolator[] interpolators = new LookupTableInterpolator[6];
+        float[][] tables = new float[6][];
+        int maxLength = 0;
+        for (int i = 0; i < 6; i++) {
+            final DataSet3 result = results[i];
+            final float[] values = i % 3 == 0 ? result.valuesX : i % 3 == 1 ? result.valuesY : result.valuesZ;
+            interpolators[i] = createInterpolator(result.times, values, result.length, trimStart, trimEnd);
+            tables[i] = interpolators[i].exportData();
+            maxLength = Math.max(maxLength, tables[i].length);
+        }
+
+        if (mOptions.packed) {
+            // Tables of offsets and rotations may have different lengths, so bring them to the longest one
+            float[][] channels = new float[6][];
+            for (int i = 0; i < 6; i++) {
+                channels[i] = interpolators[i].exportData(maxLength);
+            }
+            final String className = baseName + "Motion";
+            sources.put(className, CodeGenerator.generatePackedInterpolatorCode(mOptions.packageName, className,
+                    TITLES, channels));
+        } else {
+            for (int i = 0; i < 6; i++) {
+                final String className = baseName + SUFFIXES[i] + "Interpolator";
+                sources.put(className, CodeGenerator.generateInterpolatorCode(mOptions.packageName, className,
+                        TITLES[i] + " (" + getName() + ")", tables[i], mOptions.mode));
+            }
+        }
+
+        return new Result(mFiles.get(0), sources, System.nanoTime() - start);
+    }
+
+    /**
+     * Reads a trace and computes linear acceleration from it, resampling both it and gyroscope data if requested
+     */
+    private Take readTake(File file) throws IOException {
+        final TraceFile trace = TraceFile.read(file);
+        final DataSet3 accelData = trace.get(Sensor.TYPE_ACCELEROMETER);
+        final DataSet3 gyroData = trace.get(Sensor.TYPE_GYROSCOPE);
+        final DataSet3 hardwareLinearData = trace.get(Sensor.TYPE_LINEAR_ACCELERATION);
+        final DataSet3 rotVectorData = trace.get(Sensor.TYPE_ROTATION_VECTOR);
+        if (gyroData == null || (hardwareLinearData == null && (accelData == null || rotVectorData == null))) {
+            throw new IOException("Trace " + file.getName() + " lacks sensor data required to compute motion");
+        }
+
+        // Linear acceleration, from hardware if recorded, otherwise with gravity removed in software
+        final ArrayBlockSink linear;
+        if (hardwareLinearData != null) {
+            linear = runPipeline(sourceOf(hardwareLinearData), hardwareLinearData.length, createResampleStage());
+        } else {
+            final DataSet4 rv = (DataSet4) rotVectorData;
+            final BlockSource rotationSource = new ArrayBlockSource(rv.times, rv.length, rv.valuesX, rv.valuesY,
+                    rv.valuesZ, rv.values4);
+            linear = runPipeline(sourceOf(accelData), accelData.length,
+                    new GravityStage(rotationSource, trace.getGravity()), createResampleStage());
+        }
+        final DataSet3 gyro = mOptions.resamplePeriodNanos > 0
+                ? toDataSet(runPipeline(sourceOf(gyroData), gyroData.length, createResampleStage()))
+                : gyroData;
+        return new Take(toDataSet(linear), gyro);
+    }
+
+    /**
+     * Reads all takes, aligns them to the first one and averages them. Linear acceleration and gyroscope data are
+     * aligned independently, each by its own cross-correlation
+     */
+    private Take averageTakes() throws IOException {
+        final int count = mFiles.size();
+        final DataSet3[] linear = new DataSet3[count];
+        final DataSet3[] gyro = new DataSet3[count];
+        long maxDuration = 0;
+        for (int i = 0; i < count; i++) {
+            final Take take = readTake(mFiles.get(i));
+            linear[i] = take.linear;
+            gyro[i] = take.gyro;
+            maxDuration = Math.max(maxDuration, Math.max(getDuration(take.linear), getDuration(take.gyro)));
+        }
+
+        final long period = mOptions.resamplePeriodNanos > 0 ? mOptions.resamplePeriodNanos : AVERAGE_PERIOD_NANOS;
+        final TakeAligner aligner = new TakeAligner(period, maxDuration);
+        final Take average = new Take(aligner.average(linear, AVERAGE_MAX_LAG_NANOS),
+                aligner.average(gyro, AVERAGE_MAX_LAG_NANOS));
+        if (average.linear.length == 0 || average.gyro.length == 0) {
+            throw new IOException("Reference trace " + mFiles.get(0).getName() + " is empty");
+        }
+        return average;
+    }
+
+    private static long getDuration(DataSet3 data) {
+        return data.length != 0 ? data.times[data.length - 1] - data.times[0] : 0;
+    }
+
+    /**
+     * Runs samples through the stages into an in-memory sink
+     *
+     * @param source          Source of samples
+     * @param expectedSamples Initial capacity of the sink
+     * @param stages          Stages to apply, null ones are skipped
+     * @return The sink with processed samples
+     */
+    private static ArrayBlockSink runPipeline(BlockSource source, int expectedSamples, BlockStage... stages)
+            throws IOException {
+        ChunkedPipeline.Builder builder = new ChunkedPipeline.Builder(source);
+        for (BlockStage stage : stages) {
+            if (stage != null) {
+                builder.addStage(stage);
+            }
+        }
+        ArrayBlockSink sink = new ArrayBlockSink(source.getChannels(), expectedSamples);
+        builder.build().run(sink);
+        return sink;
+    }
+
+    /**
+     * @return A new resampling stage if resampling is requested, null otherwise
+     */
+    private ResampleStage createResampleStage() {
+        return mOptions.resamplePeriodNanos > 0 ? new ResampleStage(mOptions.resamplePeriodNanos) : null;
+    }
+
+    /**
+     * Trims and normalizes results exactly as the app's result holders do
+     */
+    private static LookupTableInterpolator createInterpolator(long[] times, float[] values, int length,
+                                                              long trimStart, long trimEnd) {
+        float min = values[0];
+        float max = values[0];
+        for (int i = 1; i < length; i++) {
+            if (values[i] < min) {
+                min = values[i];
+            } else if (values[i] > max) {
+                max = values[i];
+            }
+        }
+
+        int start = 0;
+        while (start < length - 1 && times[start] < trimStart) {
+            start++;
+        }
+        int end = length - 1;
+        while (end > start && times[end] > trimEnd) {
+            end--;
+        }
+        if (end - start < 3) {
+            // Too short to make a lookup table of, so ignore the trim
+            start = 0;
+            end = length - 1;
+        }
+
+        LookupTableInterpolator interpolator = new LookupTableInterpolator();
+        interpolator.setData(values);
+        interpolator.setRange(start, end);
+        interpolator.setNormalizingTransformation(min, max);
+        return interpolator;
+    }
+
+    private static BlockSource sourceOf(DataSet3 data) {
+        return new ArrayBlockSource(data.times, data.length, data.valuesX, data.valuesY, data.valuesZ);
+    }
+
+    private static DataSet3 toDataSet(ArrayBlockSink sink) {
+        final int length = sink.getLength();
+        DataSet3 data = new DataSet3(length);
+        System.arraycopy(sink.getTimes(), 0, data.times, 0, length);
+        System.arraycopy(sink.getValues(0), 0, data.valuesX, 0, length);
+        System.arraycopy(sink.getValues(1), 0, data.valuesY, 0, length);
+        System.arraycopy(sink.getValues(2), 0, data.valuesZ, 0, length);
+        data.length = length;
+        return data;
+    }
+
+    /**
+     * Turns a file name like <code>trace_1460000000.ktrace</code> into a class name prefix like
+     * <code>Trace1460000000</code>
+     */
+    static String getClassBaseName(String fileName) {
+        final int dot = fileName.lastIndexOf('.');
+        final String name = dot > 0 ? fileName.substring(0, dot) : fileName;
+        StringBuilder builder = new StringBuilder(name.length());
+        boolean capitalize = true;
+        for (int i = 0; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            if (Character.isLetterOrDigit(c) && c < 128) {
+                builder.append(capitalize ? Character.toUpperCase(c) : c);
+                capitalize = false;
+            } else {
+                capitalize = true;
+            }
+        }
+        if (builder.length() == 0 || !Character.isLetter(builder.charAt(0))) {
+            builder.insert(0, "Trace");
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Linear acceleration and gyroscope data of a take, ready for integration
+     */
+    private static final class Take {
+
+        final DataSet3 linear;
+        final DataSet3 gyro;
+
+        Take(DataSet3 linear, DataSet3 gyro) {
+            this.linear = linear;
+            this.gyro = gyro;
+        }
+    }
+
+    /**
+     * Generated sources of a processed trace
+     */
+    public static final class Result {
+
+        /**
+         * Processed trace file, or the reference one if takes were averaged
+         */
+        public final File file;
+        /**
+         * Generated source code by class name, in order of channels
+         */
+        public final Map<String, String> sources;
+        public final long durationNanos;
+
+        Result(File file, Map<String, String> sources, long durationNanos) {
+            this.file = file;
+            this.sources = sources;
+            this.durationNanos = durationNanos;
+        }
+    }
+}
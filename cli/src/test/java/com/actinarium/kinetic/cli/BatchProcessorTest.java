@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.cli;
+
+import com.actinarium.kinetic.pipeline.CodeGenerator;
+import com.actinarium.kinetic.pipeline.ParallelIntegrator;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Verifies command line parsing of {@link BatchProcessor}
+ *
+ * @author Paul Danyliuk
+ */
+public class BatchProcessorTest {
+
+    @Test
+    public void parseArgs_inputOnly_usesDefaults() {
+        BatchProcessor.Options options = BatchProcessor.parseArgs(new String[]{"traces"});
+
+        assertEquals(new File("out"), options.outputDir);
+        assertEquals(CodeGenerator.DEFAULT_PACKAGE_NAME, options.packageName);
+        assertEquals(CodeGenerator.EXPORT_FLOAT, options.mode);
+        assertFalse(options.packed);
+        assertFalse(options.autoTrim);
+        assertFalse(options.average);
+        assertEquals(0, options.resamplePeriodNanos);
+        assertEquals(0, options.trimStartNanos);
+        assertEquals(0, options.trimEndNanos);
+        assertEquals(ParallelIntegrator.DEFAULT_THRESHOLD, options.parallelThreshold);
+        assertEquals(Arrays.asList(new File("traces")), options.inputs);
+    }
+
+    @Test
+    public void parseArgs_allOptions_parsesValues() {
+        BatchProcessor.Options options = BatchProcessor.parseArgs(new String[]{
+                "-o", "gen", "--package", "com.example", "-m", "fixed", "--resample", "200", "-t", "0.5:1.25",
+                "-j", "3", "--parallel", "5000", "a.ktrace", "b.ktrace"
+        });
+
+        assertEquals(new File("gen"), options.outputDir);
+        assertEquals("com.example", options.packageName);
+        assertEquals(CodeGenerator.EXPORT_FIXED_POINT, options.mode);
+        assertEquals(5000000L, options.resamplePeriodNanos);
+        assertEquals(500000000L, options.trimStartNanos);
+        assertEquals(1250000000L, options.trimEndNanos);
+        assertEquals(3, options.threads);
+        assertEquals(5000, options.parallelThreshold);
+        assertEquals(Arrays.asList(new File("a.ktrace"), new File("b.ktrace")), options.inputs);
+    }
+
+    @Test
+    public void parseArgs_flags_areSet() {
+        BatchProcessor.Options options = BatchProcessor.parseArgs(new String[]{"--packed", "-a", "--average",
+                "traces"});
+
+        assertTrue(options.packed);
+        assertTrue(options.autoTrim);
+        assertTrue(options.average);
+    }
+
+    @Test
+    public void parseArgs_packedWithMode_isRejected() {
+        assertRejected("--packed", "--mode", "data", "traces");
+        assertRejected("-m", "float", "--packed", "traces");
+    }
+
+    @Test
+    public void parseArgs_invalidArgs_areRejected() {
+        assertRejected();
+        assertRejected("--packed");
+        assertRejected("--output");
+        assertRejected("--unknown", "traces");
+        assertRejected("--mode", "double", "traces");
+        assertRejected("--resample", "0", "traces");
+        assertRejected("--resample", "fast", "traces");
+        assertRejected("--trim", "1", "traces");
+        assertRejected("--threads", "0", "traces");
+        assertRejected("--parallel", "0", "traces");
+    }
+
+    @Test
+    public void getClassBaseNames_collidingNames_areDisambiguated() {
+        List<String> names = BatchProcessor.getClassBaseNames(Arrays.asList(
+                new File("trace_1.ktrace"), new File("trace-1.ktrace"), new File("other/Trace 1.ktrace"),
+                new File("TRACE1.ktrace"), new File("walk.ktrace")
+        ));
+
+        assertEquals(Arrays.asList("Trace1", "Trace12", "Trace13", "TRACE14", "Walk"), names);
+    }
+
+    private static void assertRejected(String... args) {
+        try {
+            BatchProcessor.parseArgs(args);
+            fail("Arguments accepted: " + Arrays.toString(args));
+        } catch (IllegalArgumentException expected) {
+            // Expected
+        }
+    }
+}
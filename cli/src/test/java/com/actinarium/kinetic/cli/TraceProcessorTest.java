@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.cli;
+
+import android.hardware.Sensor;
+import com.actinarium.kinetic.pipeline.CodeGenerator;
+import com.actinarium.kinetic.pipeline.ParallelIntegrator;
+import com.actinarium.kinetic.pipeline.source.TestTraces;
+import com.actinarium.kinetic.pipeline.source.TraceFile;
+import com.actinarium.kinetic.util.DataSet3;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Processes synthetic traces end to end, as {@link BatchProcessor} does
+ *
+ * @author Paul Danyliuk
+ */
+public class TraceProcessorTest {
+
+    private static final int LENGTH = 2000;
+    private static final int PARALLELISM = 4;
+    private static final Pattern FLOAT_LITERAL = Pattern.compile("(-?\\d+\\.\\d+(?:E-?\\d+)?)f");
+
+    /**
+     * Normalized values are within 0..1, and blocks are summed in a different order when integrating in parallel
+     */
+    private static final float TOLERANCE = 1e-3f;
+
+    private static ExecutorService sExecutor;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void setUp() {
+        sExecutor = Executors.newFixedThreadPool(PARALLELISM);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        sExecutor.shutdownNow();
+    }
+
+    @Test
+    public void call_trace_generatesClassPerChannel() throws IOException {
+        File file = writeTrace("walk-1.ktrace", 1L);
+        BatchProcessor.Options options = createOptions();
+
+        TraceProcessor.Result result = new TraceProcessor(file, options).call();
+
+        assertEquals(Arrays.asList("Walk1OffsetXInterpolator", "Walk1OffsetYInterpolator",
+                "Walk1OffsetZInterpolator", "Walk1PitchInterpolator", "Walk1RollInterpolator",
+                "Walk1YawInterpolator"), new ArrayList<>(result.sources.keySet()));
+        for (Map.Entry<String, String> entry : result.sources.entrySet()) {
+            assertTrue(entry.getValue().startsWith("package com.example;"));
+            assertTrue(entry.getValue().contains("public class " + entry.getKey() + " "));
+        }
+    }
+
+    @Test
+    public void call_packed_generatesSingleClass() throws IOException {
+        File file = writeTrace("walk.ktrace", 2L);
+        BatchProcessor.Options options = createOptions();
+        options.packed = true;
+
+        TraceProcessor.Result result = new TraceProcessor(file, "Custom", options, null).call();
+
+        assertEquals(1, result.sources.size());
+        assertTrue(result.sources.get("CustomMotion").contains("class CustomMotion "));
+    }
+
+    @Test
+    public void call_parallel_matchesSequential() throws IOException {
+        File file = writeTrace("walk.ktrace", 3L);
+        BatchProcessor.Options options = createOptions();
+        options.mode = CodeGenerator.EXPORT_DATA_ONLY;
+        options.autoTrim = true;
+
+        TraceProcessor.Result sequential = new TraceProcessor(file, options, null).call();
+        // Threshold below trace length, so that the parallel path is taken
+        ParallelIntegrator integrator = new ParallelIntegrator(sExecutor, PARALLELISM, LENGTH / 4);
+        TraceProcessor.Result parallel = new TraceProcessor(file, options, integrator).call();
+
+        assertEquals(sequential.sources.keySet(), parallel.sources.keySet());
+        for (String className : sequential.sources.keySet()) {
+            List<Float> expected = parseFloats(sequential.sources.get(className));
+            List<Float> actual = parseFloats(parallel.sources.get(className));
+            assertEquals(className, expected.size(), actual.size());
+            assertTrue(className, expected.size() > 100);
+            Iterator<Float> iterator = actual.iterator();
+            for (float value : expected) {
+                assertEquals(className, value, iterator.next(), TOLERANCE);
+            }
+        }
+    }
+
+    @Test
+    public void call_identicalTakes_matchResampledTrace() throws IOException {
+        File file = writeTrace("walk.ktrace", 6L);
+        BatchProcessor.Options options = createOptions();
+        options.mode = CodeGenerator.EXPORT_DATA_ONLY;
+        options.autoTrim = true;
+        options.resamplePeriodNanos = TraceProcessor.AVERAGE_PERIOD_NANOS;
+
+        // Takes are resampled to the same period and don't need shifting, so the average is the trace itself
+        TraceProcessor.Result single = new TraceProcessor(file, "Walk", options, null).call();
+        options.resamplePeriodNanos = 0;
+        TraceProcessor.Result average = new TraceProcessor(Arrays.asList(file, file, file), "Walk", options, null)
+                .call();
+
+        assertEquals(single.sources.keySet(), average.sources.keySet());
+        for (String className : single.sources.keySet()) {
+            List<Float> expected = parseFloats(single.sources.get(className));
+            List<Float> actual = parseFloats(average.sources.get(className));
+            assertEquals(className, expected.size(), actual.size());
+            Iterator<Float> iterator = actual.iterator();
+            for (float value : expected) {
+                assertEquals(className, value, iterator.next(), TOLERANCE);
+            }
+        }
+    }
+
+    @Test
+    public void process_average_writesOneSetOfClasses() throws IOException {
+        File input = mFolder.newFolder("takes");
+        writeTrace(input, "walk-1.ktrace", 7L);
+        writeTrace(input, "walk-2.ktrace", 8L);
+        writeTrace(input, "walk-3.ktrace", 9L);
+
+        BatchProcessor.Options options = createOptions();
+        options.outputDir = mFolder.newFolder("out");
+        options.average = true;
+        final List<File> traces = BatchProcessor.collectTraces(Arrays.asList(input));
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+
+        final int failures = BatchProcessor.process(traces, options, new PrintStream(log, true, "UTF-8"));
+
+        assertEquals(log.toString("UTF-8"), 0, failures);
+        assertTrue(log.toString("UTF-8").contains("average of 3 traces"));
+        String[] generated = new File(options.outputDir, "com/example".replace('/', File.separatorChar)).list();
+        Arrays.sort(generated);
+        assertEquals(Arrays.asList("Walk1AverageOffsetXInterpolator.java", "Walk1AverageOffsetYInterpolator.java",
+                "Walk1AverageOffsetZInterpolator.java", "Walk1AveragePitchInterpolator.java",
+                "Walk1AverageRollInterpolator.java", "Walk1AverageYawInterpolator.java"), Arrays.asList(generated));
+    }
+
+    @Test
+    public void call_traceWithoutGyroscope_fails() throws IOException {
+        DataSet3 accel = new DataSet3(LENGTH);
+        accel.length = LENGTH;
+        File file = mFolder.newFile("broken.ktrace");
+        new TraceFile(new float[3], new int[]{Sensor.TYPE_ACCELEROMETER}, new DataSet3[]{accel}).write(file);
+
+        try {
+            new TraceProcessor(file, createOptions()).call();
+        } catch (IOException expected) {
+            return;
+        }
+        throw new AssertionError("Trace without gyroscope data processed");
+    }
+
+    @Test
+    public void process_collidingNamesAndCorruptTrace_writesUniqueClasses() throws IOException {
+        File input = mFolder.newFolder("traces");
+        writeTrace(input, "walk-1.ktrace", 4L);
+        writeTrace(input, "walk_1.ktrace", 5L);
+        FileOutputStream corrupt = new FileOutputStream(new File(input, "walk_2.ktrace"));
+        corrupt.write(new byte[]{1, 2, 3});
+        corrupt.close();
+
+        BatchProcessor.Options options = createOptions();
+        options.outputDir = mFolder.newFolder("out");
+        options.threads = 2;
+        options.parallelThreshold = LENGTH / 4;
+        final List<File> traces = BatchProcessor.collectTraces(Arrays.asList(input));
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+
+        final int failures = BatchProcessor.process(traces, options, new PrintStream(log, true, "UTF-8"));
+
+        assertEquals(log.toString("UTF-8"), 1, failures);
+        String[] generated = new File(options.outputDir, "com/example".replace('/', File.separatorChar)).list();
+        Arrays.sort(generated);
+        assertEquals(12, generated.length);
+        assertTrue(Arrays.asList(generated).contains("Walk1YawInterpolator.java"));
+        assertTrue(Arrays.asList(generated).contains("Walk12YawInterpolator.java"));
+    }
+
+    private static BatchProcessor.Options createOptions() {
+        BatchProcessor.Options options = new BatchProcessor.Options();
+        options.packageName = "com.example";
+        return options;
+    }
+
+    private static List<Float> parseFloats(String source) {
+        List<Float> values = new ArrayList<>();
+        Matcher matcher = FLOAT_LITERAL.matcher(source);
+        while (matcher.find()) {
+            values.add(Float.parseFloat(matcher.group(1)));
+        }
+        return values;
+    }
+
+    private File writeTrace(String name, long seed) throws IOException {
+        return writeTrace(mFolder.getRoot(), name, seed);
+    }
+
+    private static File writeTrace(File dir, String name, long seed) throws IOException {
+        File file = new File(dir, name);
+        TestTraces.createTrace(TestTraces.REQUIRED_TYPES, LENGTH, seed, new WalkShape()).write(file);
+        return file;
+    }
+
+    /**
+     * A device lying flat, still at first, then moving back and forth along X and turning around Z, then still again
+     */
+    private static final class WalkShape implements TestTraces.Shape {
+
+        private final float[] mTurns = new float[LENGTH];
+        private final double[] mAngles = new double[LENGTH];
+
+        WalkShape() {
+            double angle = 0;
+            for (int i = 0; i < LENGTH; i++) {
+                final boolean isMoving = i > LENGTH / 4 && i < LENGTH * 3 / 4;
+                mTurns[i] = isMoving ? (float) Math.cos((i - LENGTH / 4) * 0.02) : 0f;
+                angle += mTurns[i] * 0.005;
+                mAngles[i] = angle;
+            }
+        }
+
+        @Override
+        public void getValues(int sensorType, int index, Random random, float[] values) {
+            if (sensorType == Sensor.TYPE_ACCELEROMETER) {
+                final boolean isMoving = mTurns[index] != 0;
+                final float motion = isMoving ? (float) Math.sin((index - LENGTH / 4) * 0.02) * 2f : 0f;
+                values[0] = motion + (float) random.nextGaussian() * 0.01f;
+                values[1] = (float) random.nextGaussian() * 0.01f;
+                values[2] = 9.81f + (float) random.nextGaussian() * 0.01f;
+            } else if (sensorType == Sensor.TYPE_GYROSCOPE) {
+                values[2] = mTurns[index] + (float) random.nextGaussian() * 0.001f;
+            } else {
+                values[2] = (float) Math.sin(mAngles[index] / 2);
+                values[3] = (float) Math.cos(mAngles[index] / 2);
+            }
+        }
+    }
+}
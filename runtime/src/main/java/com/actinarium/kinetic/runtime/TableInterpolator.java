@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2016 Actinarium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.actinarium.kinetic.runtime;
+
+import android.view.animation.Interpolator;
+
+/**
+ * <p>An immutable interpolator that uses a lookup table sampled at regular intervals and interpolates linearly between
+ * lookup table values. Meant to be shared by all interpolators generated by Kinetic in data-only mode, so that an app
+ * shipping many recorded motions ships and warms up only one copy of the lookup code.</p><p>Derives from Apache 2.0
+ * licensed code from Android Support v4 Library, specifically {@link android.support.v4.view.animation.LookupTableInterpolator
+ * LookupTableInterpolator}</p>
+ *
+ * @author Paul Danyliuk
+ */
+public final class TableInterpolator implements Interpolator {
+
+    private final float[] mValues;
+    private final int mSteps;
+
+    /**
+     * Create a new table lookup interpolator
+     *
+     * @param values Lookup table values sampled with x at regular intervals between 0 and 1, at least two. The array is
+     *               not copied and must not be modified afterwards
+     */
+    public TableInterpolator(float[] values) {
+        if (values.length < 2) {
+            throw new IllegalArgumentException("Lookup table must contain at least two values, got " + values.length);
+        }
+        mValues = values;
+        mSteps = values.length - 1;
+    }
+
+    @Override
+    public float getInterpolation(float input) {
+        if (input >= 1.0f) {
+            return 1.0f;
+        }
+        if (input <= 0f) {
+            return 0f;
+        }
+
+        // Position in table steps: integer part is the left cell index, fractional part is the weight. Scaling by the
+        // number of steps instead of dividing by step size saves a division per call
+        final float position = input * mSteps;
+        final int index = Math.min((int) position, mSteps - 1);
+        final float weight = position - index;
+
+        final float value = mValues[index];
+        return value + weight * (mValues[index + 1] - value);
+    }
+}